@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.5.6"
     id("io.spring.dependency-management") version "1.1.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.airline.assistant"
@@ -19,6 +20,16 @@ repositories {
 
 extra["springAiVersion"] = "1.0.2"
 
+// The SIMD similarity kernels use the incubating Vector API; without the module they fall back to scalar loops.
+// Every JVM that runs them needs these arguments, including `java -jar` on the packaged application
+val vectorApiArgs = listOf("--add-modules", "jdk.incubator.vector")
+
+// The SIMD kernels are compiled on their own, as the only code built against the incubator module, and are
+// loaded by name at runtime, so that javac's unavoidable incubator warning stays out of the main compilation
+val simd by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output.classesDirs + sourceSets.main.get().compileClasspath
+}
+
 dependencies {
     implementation("org.springframework.boot:spring-boot-starter-web")
     implementation("org.springframework.boot:spring-boot-starter-data-jpa")
@@ -26,6 +37,8 @@ dependencies {
     implementation("org.springframework.ai:spring-ai-starter-model-openai")
     implementation("org.springframework.ai:spring-ai-starter-model-ollama")
     implementation("org.springframework.ai:spring-ai-advisors-vector-store")
+    implementation("org.hdrhistogram:HdrHistogram:2.2.2")
+    runtimeOnly(simd.output)
 
     developmentOnly("org.springframework.boot:spring-boot-devtools")
     annotationProcessor("org.springframework.boot:spring-boot-configuration-processor")
@@ -33,6 +46,7 @@ dependencies {
     testImplementation("org.springframework.boot:spring-boot-starter-test")
     testImplementation("com.h2database:h2")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    "jmhRuntimeOnly"(simd.output)
 }
 
 dependencyManagement {
@@ -41,6 +55,37 @@ dependencyManagement {
     }
 }
 
+tasks.named<JavaCompile>("compileSimdJava") {
+    options.compilerArgs.addAll(vectorApiArgs + "-nowarn")
+}
+
 tasks.withType<Test> {
     useJUnitPlatform()
+    jvmArgs(vectorApiArgs)
+}
+
+jmh {
+    jvmArgs.addAll(vectorApiArgs)
+}
+
+val knowledgeBaseIndex by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Builds the binary knowledge base index that the application memory-maps at startup."
+    val indexFile = layout.buildDirectory.file("generated/knowledge-base-index/knowledge-base.idx")
+    inputs.dir("src/main/resources/knowledge-base")
+    outputs.file(indexFile)
+    // The processed resources bundle the index, so the builder reads the sources from where they are kept
+    classpath = files(sourceSets.main.get().output.classesDirs, "src/main/resources", configurations.runtimeClasspath)
+    mainClass = "com.airline.assistant.service.KnowledgeBaseIndexBuilder"
+    jvmArgs(vectorApiArgs)
+    args(indexFile.get().asFile.absolutePath, providers.gradleProperty("knowledgeBaseEmbeddingDimensions").getOrElse("512"))
+}
+
+// The index is bundled at the root of the classpath, where the application finds it whatever its working directory
+tasks.processResources {
+    from(knowledgeBaseIndex)
+}
+
+tasks.named<org.springframework.boot.gradle.tasks.run.BootRun>("bootRun") {
+    jvmArgs(vectorApiArgs)
 }
@@ -0,0 +1,94 @@
+package com.airline.assistant.rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and SIMD kernels on the scans they serve: one query scored against a block
+ * of stored vectors, in float32 for exact scans and re-ranking and in int8 for quantized scans.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorKernelsBenchmark {
+
+    private static final int VECTORS = 1024;
+
+    @Param({"384", "768", "1536"})
+    private int dimensions;
+
+    private final VectorKernels scalar = new ScalarVectorKernels();
+    private final VectorKernels simd = Objects.requireNonNull(VectorKernels.simd(),
+        "The SIMD kernels need --add-modules jdk.incubator.vector and a CPU with 256-bit vectors");
+    private float[] vectors;
+    private byte[] codes;
+    private float[] query;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vectors = new float[VECTORS * dimensions];
+        codes = new byte[VECTORS * dimensions];
+        query = new float[dimensions];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = (float) random.nextGaussian();
+            codes[i] = (byte) (random.nextInt(255) - 127);
+        }
+        for (int i = 0; i < dimensions; i++) {
+            query[i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public float scalarDot() {
+        return scan(scalar);
+    }
+
+    @Benchmark
+    public float simdDot() {
+        return scan(simd);
+    }
+
+    @Benchmark
+    public float scalarInt8Dot() {
+        return scanCodes(scalar);
+    }
+
+    @Benchmark
+    public float simdInt8Dot() {
+        return scanCodes(simd);
+    }
+
+    private float scan(VectorKernels kernels) {
+        float best = Float.NEGATIVE_INFINITY;
+        for (int id = 0; id < VECTORS; id++) {
+            best = Math.max(best, kernels.dot(vectors, id * dimensions, query, 0, dimensions));
+        }
+        return best;
+    }
+
+    private float scanCodes(VectorKernels kernels) {
+        float best = Float.NEGATIVE_INFINITY;
+        for (int id = 0; id < VECTORS; id++) {
+            best = Math.max(best, kernels.dot(codes, id * dimensions, query, dimensions));
+        }
+        return best;
+    }
+}
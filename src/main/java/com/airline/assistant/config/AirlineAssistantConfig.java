@@ -1,6 +1,7 @@
 package com.airline.assistant.config;
 
 import com.airline.assistant.tools.AirlineTools;
+import com.airline.assistant.tools.KnowledgeBaseTools;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SafeGuardAdvisor;
@@ -33,7 +34,7 @@ public class AirlineAssistantConfig {
 
   @Bean
   @Primary
-  public ChatClient chatClient(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, AirlineTools airlineTools, Environment environment) {
+  public ChatClient chatClient(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, AirlineTools airlineTools, KnowledgeBaseTools knowledgeBaseTools, Environment environment) {
     String defaultSystem = "You are a helpful airline loyalty program assistant powered by " + aiProvider + " using " + modelName + ". " +
                        "You help travelers understand and maximize their benefits with " +
                        "airline loyalty programs, particularly Delta SkyMiles and United MileagePlus. " +
@@ -41,6 +42,7 @@ public class AirlineAssistantConfig {
                        "Remember our conversation history to provide contextual responses. " +
                        "You have access to various tools to help users with flight information, " +
                        "SMS notifications, calendar events, loyalty point calculations, and status checks. " +
+                       "For exact tier qualification thresholds and other tabulated figures, use the tier facts lookup. " +
                        "Use these tools when appropriate to provide enhanced assistance.";
     if (environment.acceptsProfiles("local")) {
       defaultSystem += " Note: You are running locally on Ollama for enhanced privacy and offline capability.";
@@ -50,12 +52,12 @@ public class AirlineAssistantConfig {
         .defaultAdvisors(MessageChatMemoryAdvisor.builder(chatMemory)
                              .conversationId(ChatMemory.DEFAULT_CONVERSATION_ID)
                              .build())
-        .defaultTools(airlineTools)
+        .defaultTools(airlineTools, knowledgeBaseTools)
         .build();
   }
 
   @Bean("safeChatClient")
-  public ChatClient safeChatClient(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, AirlineTools airlineTools, Environment environment, SafeGuardConfig safeGuardConfig) {
+  public ChatClient safeChatClient(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, AirlineTools airlineTools, KnowledgeBaseTools knowledgeBaseTools, Environment environment, SafeGuardConfig safeGuardConfig) {
     String defaultSystem = "You are a helpful airline loyalty program assistant powered by " + aiProvider + " using " + modelName + ". " +
                        "You help travelers understand and maximize their benefits with " +
                        "airline loyalty programs, particularly Delta SkyMiles and United MileagePlus. " +
@@ -63,6 +65,7 @@ public class AirlineAssistantConfig {
                        "Remember our conversation history to provide contextual responses. " +
                        "You have access to various tools to help users with flight information, " +
                        "SMS notifications, calendar events, loyalty point calculations, and status checks. " +
+                       "For exact tier qualification thresholds and other tabulated figures, use the tier facts lookup. " +
                        "Use these tools when appropriate to provide enhanced assistance.";
     if (environment.acceptsProfiles("local")) {
       defaultSystem += " Note: You are running locally on Ollama for enhanced privacy and offline capability.";
@@ -75,7 +78,7 @@ public class AirlineAssistantConfig {
                 .build(),
             new SafeGuardAdvisor(safeGuardConfig.getAllFilterKeywords())
         )
-        .defaultTools(airlineTools)
+        .defaultTools(airlineTools, knowledgeBaseTools)
         .build();
   }
 }
@@ -0,0 +1,1259 @@
+package com.airline.assistant.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration properties for the RAG knowledge base
+ */
+@Component
+@ConfigurationProperties(prefix = "airline.assistant.knowledge-base")
+public class KnowledgeBaseConfig {
+
+    /**
+     * Retrieval strategies supported by the vector store
+     */
+    public enum RetrievalMode {
+        /** Legacy scan counting query terms contained in each chunk */
+        KEYWORD,
+        /** Inverted index scored with BM25 */
+        BM25,
+        /** Cosine similarity over chunk embeddings */
+        DENSE,
+        /** BM25 and cosine similarity run in parallel, fused with reciprocal-rank fusion */
+        HYBRID
+    }
+
+    /**
+     * Sources of chunk and query embeddings for dense retrieval
+     */
+    public enum EmbeddingProvider {
+        /** Deterministic in-process feature hashing, no network calls */
+        HASHING,
+        /** The Spring AI EmbeddingModel of the active profile (OpenAI or Ollama) */
+        MODEL
+    }
+
+    /**
+     * Index structures used to search chunk embeddings
+     */
+    public enum VectorIndex {
+        /** Exact brute-force scan over all vectors */
+        FLAT,
+        /** Approximate nearest neighbour search on an HNSW graph */
+        HNSW
+    }
+
+    /**
+     * Compression applied to stored chunk embeddings
+     */
+    public enum QuantizationMode {
+        /** Full float32 vectors on the heap */
+        NONE,
+        /** One signed byte per dimension plus a per-vector scale */
+        INT8,
+        /** Product quantization, one byte per subspace */
+        PQ
+    }
+
+    /**
+     * Retrieval strategy used for similarity searches
+     */
+    private RetrievalMode retrievalMode = RetrievalMode.BM25;
+
+    /**
+     * Maximum number of results a single query may ask for
+     */
+    private int maxResults = 100;
+
+    /**
+     * Directory of markdown sources outside the application; the bundled classpath knowledge base when empty
+     */
+    private String directory = "";
+
+    /**
+     * Live re-indexing of the knowledge base directory
+     */
+    private final Watch watch = new Watch();
+
+    /**
+     * Staged ingestion pipeline settings
+     */
+    private final Ingestion ingestion = new Ingestion();
+
+    /**
+     * Near-duplicate chunk detection settings
+     */
+    private final Deduplication deduplication = new Deduplication();
+
+    /**
+     * Markdown-aware chunking settings
+     */
+    private final Chunking chunking = new Chunking();
+
+    /**
+     * Cache of retrieval results for repeated queries
+     */
+    private final Cache cache = new Cache();
+
+    /**
+     * BM25 scoring parameters
+     */
+    private final Bm25 bm25 = new Bm25();
+
+    /**
+     * Fuzzy matching of misspelled query terms
+     */
+    private final Fuzzy fuzzy = new Fuzzy();
+
+    /**
+     * Embedding settings used by dense retrieval
+     */
+    private final Embedding embedding = new Embedding();
+
+    /**
+     * Branch settings for hybrid retrieval
+     */
+    private final Hybrid hybrid = new Hybrid();
+
+    /**
+     * Assembly of the prompt context from retrieved chunks
+     */
+    private final Context context = new Context();
+
+    /**
+     * Batch query settings
+     */
+    private final Batch batch = new Batch();
+
+    /**
+     * Index used for dense retrieval
+     */
+    private VectorIndex vectorIndex = VectorIndex.FLAT;
+
+    /**
+     * HNSW graph parameters
+     */
+    private final Hnsw hnsw = new Hnsw();
+
+    /**
+     * Embedding quantization settings
+     */
+    private final Quantization quantization = new Quantization();
+
+    /**
+     * Metadata filter settings
+     */
+    private final Filtering filtering = new Filtering();
+
+    /**
+     * Partitioning of searches across cores
+     */
+    private final Sharding sharding = new Sharding();
+
+    /**
+     * Partitioning of the knowledge base across application instances
+     */
+    private final Distribution distribution = new Distribution();
+
+    /**
+     * Number of stored vectors used as queries when measuring approximate search recall against the exact scan
+     */
+    private int recallSampleSize = 100;
+
+    /**
+     * Prebuilt binary index settings
+     */
+    private final Index index = new Index();
+
+    /**
+     * Persistent chunk storage in the application database
+     */
+    private final Jdbc jdbc = new Jdbc();
+
+    // Getters and setters
+    public RetrievalMode getRetrievalMode() {
+        return retrievalMode;
+    }
+
+    public void setRetrievalMode(RetrievalMode retrievalMode) {
+        this.retrievalMode = retrievalMode;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public Watch getWatch() {
+        return watch;
+    }
+
+    public Ingestion getIngestion() {
+        return ingestion;
+    }
+
+    public Deduplication getDeduplication() {
+        return deduplication;
+    }
+
+    public Chunking getChunking() {
+        return chunking;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Bm25 getBm25() {
+        return bm25;
+    }
+
+    public Fuzzy getFuzzy() {
+        return fuzzy;
+    }
+
+    public Embedding getEmbedding() {
+        return embedding;
+    }
+
+    public Hybrid getHybrid() {
+        return hybrid;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public VectorIndex getVectorIndex() {
+        return vectorIndex;
+    }
+
+    public void setVectorIndex(VectorIndex vectorIndex) {
+        this.vectorIndex = vectorIndex;
+    }
+
+    public Hnsw getHnsw() {
+        return hnsw;
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    public Filtering getFiltering() {
+        return filtering;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public int getRecallSampleSize() {
+        return recallSampleSize;
+    }
+
+    public void setRecallSampleSize(int recallSampleSize) {
+        this.recallSampleSize = recallSampleSize;
+    }
+
+    public Index getIndex() {
+        return index;
+    }
+
+    public Jdbc getJdbc() {
+        return jdbc;
+    }
+
+    /**
+     * BM25 scoring parameters
+     */
+    public static class Bm25 {
+
+        /**
+         * Term frequency saturation
+         */
+        private double k1 = 1.2;
+
+        /**
+         * Document length normalization, from 0 (none) to 1 (full)
+         */
+        private double b = 0.75;
+
+        public double getK1() {
+            return k1;
+        }
+
+        public void setK1(double k1) {
+            this.k1 = k1;
+        }
+
+        public double getB() {
+            return b;
+        }
+
+        public void setB(double b) {
+            this.b = b;
+        }
+    }
+
+    /**
+     * Fuzzy matching of query terms that are not in the lexical index, through a character trigram
+     * index over its vocabulary. Adjacent query terms are also tried joined, as in "Sky miles".
+     */
+    public static class Fuzzy {
+
+        /**
+         * Whether unknown query terms are expanded into similar indexed terms
+         */
+        private boolean enabled = true;
+
+        /**
+         * Minimum length of a query term to expand
+         */
+        private int minTermLength = 4;
+
+        /**
+         * Maximum number of indexed terms a query term expands into
+         */
+        private int maxExpansions = 3;
+
+        /**
+         * Minimum Jaccard similarity of the trigrams of a query term and an indexed term
+         */
+        private double minSimilarity = 0.4;
+
+        /**
+         * Maximum number of indexed terms compared with a query term, which bounds the cost of an expansion
+         */
+        private int maxCandidates = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinTermLength() {
+            return minTermLength;
+        }
+
+        public void setMinTermLength(int minTermLength) {
+            this.minTermLength = minTermLength;
+        }
+
+        public int getMaxExpansions() {
+            return maxExpansions;
+        }
+
+        public void setMaxExpansions(int maxExpansions) {
+            this.maxExpansions = maxExpansions;
+        }
+
+        public double getMinSimilarity() {
+            return minSimilarity;
+        }
+
+        public void setMinSimilarity(double minSimilarity) {
+            this.minSimilarity = minSimilarity;
+        }
+
+        public int getMaxCandidates() {
+            return maxCandidates;
+        }
+
+        public void setMaxCandidates(int maxCandidates) {
+            this.maxCandidates = maxCandidates;
+        }
+    }
+
+    /**
+     * Embedding settings used by dense retrieval
+     */
+    public static class Embedding {
+
+        /**
+         * Where embeddings come from
+         */
+        private EmbeddingProvider provider = EmbeddingProvider.HASHING;
+
+        /**
+         * Vector size of the hashing embedder
+         */
+        private int dimensions = 512;
+
+        /**
+         * Name of the model behind the MODEL provider, such as text-embedding-3-small. It identifies
+         * cached and stored vectors together with the model's dimensions, so it must change with the model
+         */
+        private String model = "";
+
+        /**
+         * Number of chunks sent to the embedding model per call
+         */
+        private int batchSize = 64;
+
+        /**
+         * Maximum number of embedding calls in flight at once, across all ingestion threads
+         */
+        private int maxConcurrentRequests = 4;
+
+        /**
+         * Whether chunk embeddings from the embedding model are kept in an on-disk cache keyed by content and model
+         */
+        private boolean cacheEnabled = true;
+
+        /**
+         * Location of the on-disk embedding cache, in the user's cache directory by default so that it does not
+         * depend on the directory the application is started from
+         */
+        private String cachePath = Paths.get(System.getProperty("user.home"), ".cache", "airline-assistant",
+                "embedding-cache.bin").toString();
+
+        /**
+         * Number of query embeddings kept in memory; zero disables the query cache
+         */
+        private int queryCacheSize = 1024;
+
+        public EmbeddingProvider getProvider() {
+            return provider;
+        }
+
+        public void setProvider(EmbeddingProvider provider) {
+            this.provider = provider;
+        }
+
+        public int getDimensions() {
+            return dimensions;
+        }
+
+        public void setDimensions(int dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getMaxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+
+        public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+
+        public boolean isCacheEnabled() {
+            return cacheEnabled;
+        }
+
+        public void setCacheEnabled(boolean cacheEnabled) {
+            this.cacheEnabled = cacheEnabled;
+        }
+
+        public String getCachePath() {
+            return cachePath;
+        }
+
+        public void setCachePath(String cachePath) {
+            this.cachePath = cachePath;
+        }
+
+        public int getQueryCacheSize() {
+            return queryCacheSize;
+        }
+
+        public void setQueryCacheSize(int queryCacheSize) {
+            this.queryCacheSize = queryCacheSize;
+        }
+    }
+
+    /**
+     * Branch settings for hybrid retrieval. Each branch retrieves its own candidates within its own
+     * time budget; a branch that fails or runs out of time is left out of the fusion.
+     */
+    public static class Hybrid {
+
+        /**
+         * Number of BM25 candidates fused, at least the number of requested results
+         */
+        private int lexicalCandidates = 50;
+
+        /**
+         * Time budget of the BM25 branch, in milliseconds
+         */
+        private long lexicalTimeoutMillis = 500;
+
+        /**
+         * Number of cosine similarity candidates fused, at least the number of requested results
+         */
+        private int denseCandidates = 50;
+
+        /**
+         * Time budget of the dense branch including the query embedding, in milliseconds
+         */
+        private long denseTimeoutMillis = 2000;
+
+        /**
+         * Constant added to every rank in reciprocal-rank fusion; larger values flatten the contribution of top ranks
+         */
+        private int rankConstant = 60;
+
+        public int getLexicalCandidates() {
+            return lexicalCandidates;
+        }
+
+        public void setLexicalCandidates(int lexicalCandidates) {
+            this.lexicalCandidates = lexicalCandidates;
+        }
+
+        public long getLexicalTimeoutMillis() {
+            return lexicalTimeoutMillis;
+        }
+
+        public void setLexicalTimeoutMillis(long lexicalTimeoutMillis) {
+            this.lexicalTimeoutMillis = lexicalTimeoutMillis;
+        }
+
+        public int getDenseCandidates() {
+            return denseCandidates;
+        }
+
+        public void setDenseCandidates(int denseCandidates) {
+            this.denseCandidates = denseCandidates;
+        }
+
+        public long getDenseTimeoutMillis() {
+            return denseTimeoutMillis;
+        }
+
+        public void setDenseTimeoutMillis(long denseTimeoutMillis) {
+            this.denseTimeoutMillis = denseTimeoutMillis;
+        }
+
+        public int getRankConstant() {
+            return rankConstant;
+        }
+
+        public void setRankConstant(int rankConstant) {
+            this.rankConstant = rankConstant;
+        }
+    }
+
+    /**
+     * Assembly of the prompt context. When enabled, the sentences most relevant to the question are
+     * packed into a token budget instead of pasting whole chunks.
+     */
+    public static class Context {
+
+        /**
+         * Whether the context is packed into the token budget; whole chunks are pasted otherwise
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of whitespace-separated tokens of retrieved text in the context
+         */
+        private int tokenBudget = 300;
+
+        /**
+         * Number of chunks retrieved to pick sentences from
+         */
+        private int candidates = 6;
+
+        /**
+         * Weight of relevance against novelty when picking sentences, from 0 (only novelty) to 1 (only relevance)
+         */
+        private double relevanceWeight = 0.7;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTokenBudget() {
+            return tokenBudget;
+        }
+
+        public void setTokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+        }
+
+        public int getCandidates() {
+            return candidates;
+        }
+
+        public void setCandidates(int candidates) {
+            this.candidates = candidates;
+        }
+
+        public double getRelevanceWeight() {
+            return relevanceWeight;
+        }
+
+        public void setRelevanceWeight(double relevanceWeight) {
+            this.relevanceWeight = relevanceWeight;
+        }
+    }
+
+    /**
+     * Batch query settings
+     */
+    public static class Batch {
+
+        /**
+         * Maximum number of queries in one batch request
+         */
+        private int maxQueries = 1000;
+
+        /**
+         * Number of queries of a batch retrieved at once; 0 uses one per available processor
+         */
+        private int parallelism = 0;
+
+        public int getMaxQueries() {
+            return maxQueries;
+        }
+
+        public void setMaxQueries(int maxQueries) {
+            this.maxQueries = maxQueries;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    /**
+     * Metadata filter settings
+     */
+    public static class Filtering {
+
+        /**
+         * Metadata keys with a precomputed set of chunk ids per value; filters on other keys scan the chunks
+         */
+        private List<String> indexedKeys = new ArrayList<>(List.of("source", "type", "airline"));
+
+        /**
+         * Filters matching at most this fraction of the chunks score the matching vectors exactly instead of searching the HNSW graph
+         */
+        private double exactScanRatio = 0.1;
+
+        public List<String> getIndexedKeys() {
+            return indexedKeys;
+        }
+
+        public void setIndexedKeys(List<String> indexedKeys) {
+            this.indexedKeys = indexedKeys;
+        }
+
+        public double getExactScanRatio() {
+            return exactScanRatio;
+        }
+
+        public void setExactScanRatio(double exactScanRatio) {
+            this.exactScanRatio = exactScanRatio;
+        }
+    }
+
+    /**
+     * Partitioning of searches across cores
+     */
+    public static class Sharding {
+
+        /**
+         * Number of id ranges a search is split into and of threads scanning them; 0 uses one per available processor
+         */
+        private int shards = 0;
+
+        /**
+         * Minimum number of chunks per shard; smaller stores are searched on the calling thread alone
+         */
+        private int minShardSize = 8192;
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getMinShardSize() {
+            return minShardSize;
+        }
+
+        public void setMinShardSize(int minShardSize) {
+            this.minShardSize = minShardSize;
+        }
+    }
+
+    /**
+     * Partitioning of the knowledge base across application instances
+     */
+    public static class Distribution {
+
+        /**
+         * Base URLs of the instances hosting the other partitions, e.g. http://localhost:9081; queries are fanned out to all of them
+         */
+        private List<String> peers = new ArrayList<>();
+
+        /**
+         * Number of partitions the source documents are split into by file name
+         */
+        private int partitions = 1;
+
+        /**
+         * Partition this instance ingests, from 0 to partitions - 1
+         */
+        private int partition = 0;
+
+        /**
+         * Time a peer has to answer a query before its partition is left out of the results
+         */
+        private long shardTimeoutMillis = 1000;
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public void setPartition(int partition) {
+            this.partition = partition;
+        }
+
+        public long getShardTimeoutMillis() {
+            return shardTimeoutMillis;
+        }
+
+        public void setShardTimeoutMillis(long shardTimeoutMillis) {
+            this.shardTimeoutMillis = shardTimeoutMillis;
+        }
+    }
+
+    /**
+     * HNSW graph parameters
+     */
+    public static class Hnsw {
+
+        /**
+         * Links per node on the upper layers, doubled on the bottom layer
+         */
+        private int m = 16;
+
+        /**
+         * Candidate list size while building the graph
+         */
+        private int efConstruction = 200;
+
+        /**
+         * Candidate list size while searching, trading latency for recall
+         */
+        private int efSearch = 64;
+
+        public int getM() {
+            return m;
+        }
+
+        public void setM(int m) {
+            this.m = m;
+        }
+
+        public int getEfConstruction() {
+            return efConstruction;
+        }
+
+        public void setEfConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+        }
+
+        public int getEfSearch() {
+            return efSearch;
+        }
+
+        public void setEfSearch(int efSearch) {
+            this.efSearch = efSearch;
+        }
+    }
+
+    /**
+     * Embedding quantization settings. When enabled, the flat scan runs over the compressed codes
+     * and the full-precision vectors move off the heap, where they are only read to re-rank.
+     */
+    public static class Quantization {
+
+        /**
+         * Compression applied to stored vectors
+         */
+        private QuantizationMode mode = QuantizationMode.NONE;
+
+        /**
+         * Number of approximate candidates re-ranked with full-precision vectors
+         */
+        private int rerankCandidates = 64;
+
+        /**
+         * Number of product quantization subspaces, i.e. bytes per vector
+         */
+        private int pqSubspaces = 64;
+
+        /**
+         * Vectors needed before product quantization codebooks are trained; smaller corpora stay exact
+         */
+        private int pqMinTrainingVectors = 1024;
+
+        /**
+         * Maximum number of vectors sampled to train the codebooks
+         */
+        private int pqMaxTrainingVectors = 20000;
+
+        /**
+         * Number of k-means iterations per subspace
+         */
+        private int pqIterations = 10;
+
+        public QuantizationMode getMode() {
+            return mode;
+        }
+
+        public void setMode(QuantizationMode mode) {
+            this.mode = mode;
+        }
+
+        public int getRerankCandidates() {
+            return rerankCandidates;
+        }
+
+        public void setRerankCandidates(int rerankCandidates) {
+            this.rerankCandidates = rerankCandidates;
+        }
+
+        public int getPqSubspaces() {
+            return pqSubspaces;
+        }
+
+        public void setPqSubspaces(int pqSubspaces) {
+            this.pqSubspaces = pqSubspaces;
+        }
+
+        public int getPqMinTrainingVectors() {
+            return pqMinTrainingVectors;
+        }
+
+        public void setPqMinTrainingVectors(int pqMinTrainingVectors) {
+            this.pqMinTrainingVectors = pqMinTrainingVectors;
+        }
+
+        public int getPqMaxTrainingVectors() {
+            return pqMaxTrainingVectors;
+        }
+
+        public void setPqMaxTrainingVectors(int pqMaxTrainingVectors) {
+            this.pqMaxTrainingVectors = pqMaxTrainingVectors;
+        }
+
+        public int getPqIterations() {
+            return pqIterations;
+        }
+
+        public void setPqIterations(int pqIterations) {
+            this.pqIterations = pqIterations;
+        }
+    }
+
+    /**
+     * Prebuilt binary index settings. The index is generated by the {@code knowledgeBaseIndex} Gradle task,
+     * bundled on the classpath and memory-mapped at startup; a missing or stale file falls back to ingesting the
+     * markdown sources.
+     */
+    public static class Index {
+
+        /**
+         * Whether to look for a prebuilt index at startup
+         */
+        private boolean enabled = true;
+
+        /**
+         * Location of the index file; the index bundled on the classpath when empty
+         */
+        private String path = "";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Persistent chunk storage in the application database
+     */
+    public static class Jdbc {
+
+        /**
+         * Whether ingested chunks are stored in the database, so that instances warm up from it instead of re-ingesting
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of chunks per batched insert
+         */
+        private int batchSize = 500;
+
+        /**
+         * Number of rows fetched per round trip when streaming the stored chunks
+         */
+        private int fetchSize = 1000;
+
+        /**
+         * Whether lexical queries are answered by the full-text search of the database instead of the in-memory BM25
+         * index; only PostgreSQL has one, other databases always use the in-memory index
+         */
+        private boolean lexicalPushdown = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        public boolean isLexicalPushdown() {
+            return lexicalPushdown;
+        }
+
+        public void setLexicalPushdown(boolean lexicalPushdown) {
+            this.lexicalPushdown = lexicalPushdown;
+        }
+    }
+
+    /**
+     * Live re-indexing of the knowledge base directory. Added, changed and deleted markdown files
+     * are picked up without a restart, replacing only the chunks of the affected document.
+     */
+    public static class Watch {
+
+        /**
+         * Whether to watch the knowledge base directory for changes
+         */
+        private boolean enabled = false;
+
+        /**
+         * Quiet period in milliseconds after the last file event before changes are applied,
+         * so that an editor's save sequence results in a single re-index
+         */
+        private long debounceMillis = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getDebounceMillis() {
+            return debounceMillis;
+        }
+
+        public void setDebounceMillis(long debounceMillis) {
+            this.debounceMillis = debounceMillis;
+        }
+    }
+
+    /**
+     * Staged ingestion pipeline settings: parallel file reads, chunking on a fork-join pool
+     * and batched index insertion
+     */
+    public static class Ingestion {
+
+        /**
+         * Number of threads reading files
+         */
+        private int readerThreads = 4;
+
+        /**
+         * Parallelism of the chunking pool; 0 uses one thread per available processor
+         */
+        private int chunkerParallelism = 0;
+
+        /**
+         * Maximum number of documents in flight between reading and insertion
+         */
+        private int queueCapacity = 64;
+
+        /**
+         * Number of chunks inserted into the index at once
+         */
+        private int insertBatchSize = 512;
+
+        public int getReaderThreads() {
+            return readerThreads;
+        }
+
+        public void setReaderThreads(int readerThreads) {
+            this.readerThreads = readerThreads;
+        }
+
+        public int getChunkerParallelism() {
+            return chunkerParallelism;
+        }
+
+        public void setChunkerParallelism(int chunkerParallelism) {
+            this.chunkerParallelism = chunkerParallelism;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getInsertBatchSize() {
+            return insertBatchSize;
+        }
+
+        public void setInsertBatchSize(int insertBatchSize) {
+            this.insertBatchSize = insertBatchSize;
+        }
+    }
+
+    /**
+     * Near-duplicate chunk detection. Chunks whose word shingles overlap by at least the threshold,
+     * as estimated by MinHash, are stored once with all their sources listed in the metadata.
+     */
+    public static class Deduplication {
+
+        /**
+         * Whether near-duplicate chunks are collapsed at ingestion
+         */
+        private boolean enabled = true;
+
+        /**
+         * Number of MinHash functions in a chunk signature
+         */
+        private int hashes = 128;
+
+        /**
+         * Number of bands the signature is split into for candidate lookup; must divide the number of hashes
+         */
+        private int bands = 32;
+
+        /**
+         * Number of consecutive words in a shingle
+         */
+        private int shingleSize = 3;
+
+        /**
+         * Estimated Jaccard similarity of the shingles from which two chunks are near-duplicates
+         */
+        private double threshold = 0.8;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getHashes() {
+            return hashes;
+        }
+
+        public void setHashes(int hashes) {
+            this.hashes = hashes;
+        }
+
+        public int getBands() {
+            return bands;
+        }
+
+        public void setBands(int bands) {
+            this.bands = bands;
+        }
+
+        public int getShingleSize() {
+            return shingleSize;
+        }
+
+        public void setShingleSize(int shingleSize) {
+            this.shingleSize = shingleSize;
+        }
+
+        public double getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(double threshold) {
+            this.threshold = threshold;
+        }
+    }
+
+    /**
+     * Markdown-aware chunking settings. Tokens are whitespace-separated words; the prebuilt index
+     * is rebuilt with the defaults, so changing these makes it stale and triggers live ingestion.
+     */
+    public static class Chunking {
+
+        /**
+         * Maximum number of tokens per chunk
+         */
+        private int maxTokens = 200;
+
+        /**
+         * Maximum number of tokens repeated from the previous chunk of the same section
+         */
+        private int overlapTokens = 40;
+
+        public int getMaxTokens() {
+            return maxTokens;
+        }
+
+        public void setMaxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+        }
+
+        public int getOverlapTokens() {
+            return overlapTokens;
+        }
+
+        public void setOverlapTokens(int overlapTokens) {
+            this.overlapTokens = overlapTokens;
+        }
+    }
+
+    /**
+     * Cache of retrieval results keyed by normalized query. Entries are invalidated whenever the
+     * vector store changes, so the time to live only bounds how long unused entries are kept.
+     */
+    public static class Cache {
+
+        /**
+         * Whether retrieval results are cached
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of cached queries; the least recently used are evicted first
+         */
+        private int maxEntries = 1024;
+
+        /**
+         * How long a cached result is served after it was computed, in seconds
+         */
+        private long ttlSeconds = 600;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+    }
+}
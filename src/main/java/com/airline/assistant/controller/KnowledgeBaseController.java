@@ -1,12 +1,24 @@
 package com.airline.assistant.controller;
 
-import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import com.airline.assistant.rag.RetrievalResult;
+import com.airline.assistant.rag.SimpleVectorStore;
+import com.airline.assistant.service.CachingEmbedder;
+import com.airline.assistant.service.ChunkDeduplicator;
+import com.airline.assistant.service.FactTableIndex;
 import com.airline.assistant.service.KnowledgeBaseService;
+import com.airline.assistant.service.RetrievalCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -18,9 +30,13 @@ public class KnowledgeBaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KnowledgeBaseController.class);
     private final KnowledgeBaseService knowledgeBaseService;
+    private final KnowledgeBaseConfig config;
+    private final ObjectMapper objectMapper;
 
-    public KnowledgeBaseController(KnowledgeBaseService knowledgeBaseService) {
+    public KnowledgeBaseController(KnowledgeBaseService knowledgeBaseService, KnowledgeBaseConfig config, ObjectMapper objectMapper) {
         this.knowledgeBaseService = knowledgeBaseService;
+        this.config = config;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -28,7 +44,12 @@ public class KnowledgeBaseController {
      */
     public record QueryRequest(String query, int limit) {}
     public record DocumentResponse(String content, Map<String, Object> metadata, double score) {}
-    public record QueryResponse(List<DocumentResponse> documents, String formattedContext) {}
+    public record QueryResponse(List<DocumentResponse> documents, String formattedContext, Map<String, Double> timingsMillis) {}
+    public record ShardQueryRequest(String query, int limit, String filter) {}
+    public record ShardQueryResponse(List<DocumentResponse> documents) {}
+    public record BatchQueryRequest(List<QueryRequest> queries) {}
+    public record BatchQueryResult(int index, String query, List<DocumentResponse> documents, String formattedContext,
+                                   Map<String, Double> timingsMillis, String error) {}
 
     /**
      * Endpoint to query the knowledge base
@@ -39,28 +60,20 @@ public class KnowledgeBaseController {
             String query = request.query();
             int limit = request.limit() > 0 ? request.limit() : 3; // Default to 3 if not specified or invalid
             
-            if (query == null || query.trim().isEmpty()) {
+            if (query == null || query.trim().isEmpty() || limit > config.getMaxResults()) {
                 return ResponseEntity.badRequest().build();
             }
 
             LOGGER.info("Querying knowledge base with: {}", query);
             
-            // Get relevant documents
-            List<AirlineDocument> documents = knowledgeBaseService.similaritySearch(query, limit);
+            // Retrieve once, and take both the scored documents and the formatted context from that
+            // retrieval; repeated queries reuse the context kept in the retrieval cache
+            KnowledgeBaseService.Retrieval retrieval = knowledgeBaseService.retrieveWithContext(query, limit);
+            long formatStart = System.nanoTime();
+            String formattedContext = retrieval.context();
+            RetrievalResult result = retrieval.result().withLaterStage("format", System.nanoTime() - formatStart);
             
-            // Get formatted context
-            String formattedContext = knowledgeBaseService.getRelevantContext(query);
-            
-            // Convert documents to response format
-            List<DocumentResponse> documentResponses = documents.stream()
-                .map(doc -> new DocumentResponse(
-                    doc.getContent(),
-                    doc.getMetadata(),
-                    0.0 // We don't have actual scores in our simplified implementation
-                ))
-                .collect(Collectors.toList());
-            
-            return ResponseEntity.ok(new QueryResponse(documentResponses, formattedContext));
+            return ResponseEntity.ok(new QueryResponse(documentResponses(result), formattedContext, timingsMillis(result)));
             
         } catch (Exception e) {
             LOGGER.error("Error querying knowledge base: {}", e.getMessage(), e);
@@ -68,6 +81,80 @@ public class KnowledgeBaseController {
         }
     }
 
+    /**
+     * Endpoint to run many queries at once. Each query's result is written as one line of
+     * newline-delimited JSON as soon as it is ready, so results arrive in completion order and
+     * carry the index of their query in the request.
+     */
+    @PostMapping(value = "/query/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> queryBatch(@RequestBody BatchQueryRequest request) {
+        if (request.queries() == null || request.queries().isEmpty()
+                || request.queries().size() > config.getBatch().getMaxQueries()
+                || request.queries().stream().anyMatch(query -> query.limit() > config.getMaxResults())) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<KnowledgeBaseService.BatchQuery> queries = request.queries().stream()
+            .map(query -> new KnowledgeBaseService.BatchQuery(query.query(), query.limit() > 0 ? query.limit() : 3))
+            .collect(Collectors.toList());
+        LOGGER.info("Querying knowledge base with a batch of {} queries", queries.size());
+
+        StreamingResponseBody body = output -> {
+            try {
+                knowledgeBaseService.retrieveBatch(queries, result -> {
+                    BatchQueryResult line = result.failure() == null
+                        ? new BatchQueryResult(result.index(), queries.get(result.index()).query(),
+                            documentResponses(result.result()), result.context(), timingsMillis(result.result()), null)
+                        : new BatchQueryResult(result.index(), queries.get(result.index()).query(),
+                            null, null, null, result.failure().getMessage());
+                    try {
+                        output.write(objectMapper.writeValueAsBytes(line));
+                        output.write('\n');
+                        output.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // The client went away; the remaining queries of the batch were not started
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Endpoint queried by other instances for the partition of the knowledge base hosted here
+     */
+    @PostMapping("/shard/query")
+    public ResponseEntity<ShardQueryResponse> queryShard(@RequestBody ShardQueryRequest request) {
+        if (request.query() == null || request.query().trim().isEmpty() || request.limit() <= 0
+                || request.limit() > config.getMaxResults()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            RetrievalResult result = knowledgeBaseService.retrievePartition(request.query(), request.limit(), request.filter());
+            return ResponseEntity.ok(new ShardQueryResponse(documentResponses(result)));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Rejected shard query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            LOGGER.error("Error querying knowledge base shard: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Endpoint to look up the tabulated facts of a program, such as the thresholds of a Premier tier
+     */
+    @GetMapping("/facts")
+    public ResponseEntity<List<FactTableIndex.Fact>> getFacts(@RequestParam String program,
+                                                             @RequestParam(required = false) String tier) {
+        if (program.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(knowledgeBaseService.getFactTables().lookup(program, tier));
+    }
+
     /**
      * Endpoint to get information about the knowledge base
      */
@@ -75,10 +162,26 @@ public class KnowledgeBaseController {
     public ResponseEntity<Map<String, Object>> getInfo() {
         try {
             int documentCount = knowledgeBaseService.getVectorStore().size();
+            RetrievalCache.Stats cache = knowledgeBaseService.retrievalCacheStats();
+            ChunkDeduplicator.Stats deduplication = knowledgeBaseService.deduplicationStats();
             
             return ResponseEntity.ok(Map.of(
                 "documentCount", documentCount,
-                "status", "active"
+                "status", "active",
+                "retrievalCache", Map.of(
+                    "hits", cache.hits(),
+                    "misses", cache.misses(),
+                    "hitRate", cache.hitRate(),
+                    "evictions", cache.evictions(),
+                    "invalidations", cache.invalidations(),
+                    "expirations", cache.expirations(),
+                    "size", cache.size()
+                ),
+                "deduplication", Map.of(
+                    "chunks", deduplication.chunks(),
+                    "canonical", deduplication.canonical(),
+                    "dedupeRatio", deduplication.dedupeRatio()
+                )
             ));
             
         } catch (Exception e) {
@@ -86,4 +189,79 @@ public class KnowledgeBaseController {
             return ResponseEntity.internalServerError().build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Endpoint to get the memory footprint, corpus shape, query latency and cache hit rates of the
+     * knowledge base, for sizing the instances that host it
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        try {
+            SimpleVectorStore vectorStore = knowledgeBaseService.getVectorStore();
+            SimpleVectorStore.MemoryUsage memory = vectorStore.memoryUsage();
+            RetrievalCache.Stats retrievalCache = knowledgeBaseService.retrievalCacheStats();
+            CachingEmbedder.Stats embeddingCache = knowledgeBaseService.embeddingCacheStats();
+            ChunkDeduplicator.Stats deduplication = knowledgeBaseService.deduplicationStats();
+            Runtime runtime = Runtime.getRuntime();
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("documentCount", vectorStore.size());
+            stats.put("memory", Map.of(
+                "heapBytes", memory.heapBytes(),
+                "offHeapBytes", memory.offHeapBytes(),
+                "totalHeapBytes", memory.totalHeapBytes(),
+                "totalOffHeapBytes", memory.totalOffHeapBytes(),
+                "jvmHeapUsedBytes", runtime.totalMemory() - runtime.freeMemory(),
+                "jvmHeapMaxBytes", runtime.maxMemory()
+            ));
+            stats.put("vocabularySize", vectorStore.vocabularySize());
+            stats.put("chunkLengthTokens", vectorStore.chunkLengths());
+            stats.put("queryLatency", knowledgeBaseService.queryLatencyStats());
+            stats.put("caches", Map.of(
+                "retrieval", Map.of(
+                    "hits", retrievalCache.hits(),
+                    "misses", retrievalCache.misses(),
+                    "hitRate", retrievalCache.hitRate(),
+                    "size", retrievalCache.size()
+                ),
+                "queryEmbeddings", Map.of(
+                    "hits", embeddingCache.queryHits(),
+                    "misses", embeddingCache.queryMisses(),
+                    "hitRate", embeddingCache.queryHitRate()
+                ),
+                "chunkEmbeddings", Map.of(
+                    "hits", embeddingCache.chunkHits(),
+                    "misses", embeddingCache.chunkMisses(),
+                    "hitRate", embeddingCache.chunkHitRate()
+                )
+            ));
+            stats.put("deduplication", Map.of(
+                "chunks", deduplication.chunks(),
+                "canonical", deduplication.canonical(),
+                "dedupeRatio", deduplication.dedupeRatio()
+            ));
+            return ResponseEntity.ok(stats);
+
+        } catch (Exception e) {
+            LOGGER.error("Error getting knowledge base stats: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    private static List<DocumentResponse> documentResponses(RetrievalResult result) {
+        return result.hits().stream()
+            .map(hit -> new DocumentResponse(
+                hit.document().getContent(),
+                hit.document().getMetadata(),
+                hit.score()
+            ))
+            .collect(Collectors.toList());
+    }
+
+    private static Map<String, Double> timingsMillis(RetrievalResult result) {
+        Map<String, Double> timingsMillis = new LinkedHashMap<>();
+        result.stageNanos().forEach((stage, nanos) -> timingsMillis.put(stage, nanos / 1_000_000.0));
+        timingsMillis.put("total", result.totalNanos() / 1_000_000.0);
+        return timingsMillis;
+    }
+}
@@ -0,0 +1,452 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Inverted index over document chunks scored with Okapi BM25.
+ * Postings are built once when a document is added, and top-k queries use MaxScore
+ * early termination: query terms whose combined score upper bound cannot lift a document
+ * into the current top-k are never used to generate candidates, only to score them.
+ * An index read from a {@link KnowledgeBaseIndexFile} looks terms up in the mapped file instead.
+ * With a {@link TrigramIndex} over the vocabulary, query terms missing from the index are expanded
+ * into the indexed terms they most likely stand for.
+ *
+ * <p>A single writer may add documents while other threads search. Searches are evaluated against
+ * {@link Statistics} captured after earlier additions: postings of later documents are ignored and
+ * the collection statistics are those of the captured state, so results never reflect a document
+ * that was only partially indexed.
+ */
+final class Bm25Index {
+
+    // A term string with its byte array, and the map node holding it
+    private static final int TERM_BYTES = 72;
+
+    private final double k1;
+    private final double b;
+    private final Map<String, PostingsList.Appender> postings = new ConcurrentHashMap<>();
+    private final KnowledgeBaseIndexFile file;
+    private final TrigramIndex vocabulary;
+    private volatile int[] documentLengths = new int[16];
+    private int documentCount;
+    private int removedCount;
+    private long totalLength;
+
+    /**
+     * Collection statistics at one point in time, which also bound the documents a search sees.
+     *
+     * @param documentCount The number of indexed documents, including removed ones
+     * @param removedCount  The number of removed documents
+     * @param totalLength   The number of terms over all documents that were not removed
+     */
+    record Statistics(int documentCount, int removedCount, long totalLength) {
+
+        double averageDocumentLength() {
+            return Math.max(1.0, (double) totalLength / Math.max(1, documentCount - removedCount));
+        }
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param k1 Term frequency saturation parameter
+     * @param b  Document length normalization parameter
+     */
+    Bm25Index(double k1, double b) {
+        this(k1, b, (TrigramIndex) null);
+    }
+
+    /**
+     * Creates an empty index that expands unknown query terms.
+     *
+     * @param k1         Term frequency saturation parameter
+     * @param b          Document length normalization parameter
+     * @param vocabulary An empty trigram index the terms are added to, or {@code null} to match terms exactly
+     */
+    Bm25Index(double k1, double b, TrigramIndex vocabulary) {
+        this.k1 = k1;
+        this.b = b;
+        this.file = null;
+        this.vocabulary = vocabulary;
+    }
+
+    /**
+     * Creates a read-only index over the postings of a memory-mapped index file.
+     *
+     * @param k1   Term frequency saturation parameter
+     * @param b    Document length normalization parameter
+     * @param file       The mapped index file
+     * @param vocabulary An empty trigram index the terms of the file are added to, or {@code null} to match terms exactly
+     */
+    Bm25Index(double k1, double b, KnowledgeBaseIndexFile file, TrigramIndex vocabulary) {
+        this.k1 = k1;
+        this.b = b;
+        this.file = file;
+        this.vocabulary = vocabulary;
+        this.documentLengths = file.documentLengths();
+        this.documentCount = file.documentCount();
+        this.totalLength = file.totalLength();
+        if (vocabulary != null) {
+            for (int i = 0; i < file.vocabularySize(); i++) {
+                vocabulary.add(file.term(i));
+            }
+        }
+    }
+
+    /**
+     * Indexes a document. Document ids must be assigned sequentially starting at zero.
+     *
+     * @param documentId The id of the document
+     * @param text       The document text
+     */
+    void add(int documentId, String text) {
+        if (file != null) {
+            throw new IllegalStateException("A memory-mapped index is read-only");
+        }
+        if (documentId != documentCount) {
+            throw new IllegalArgumentException("Expected document id " + documentCount + " but got " + documentId);
+        }
+        Map<String, int[]> termFrequencies = new LinkedHashMap<>();
+        int[] length = new int[1];
+        TextTokenizer.tokenize(text, term -> {
+            termFrequencies.computeIfAbsent(term, t -> new int[1])[0]++;
+            length[0]++;
+        });
+
+        if (documentCount == documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, documentCount * 2);
+        }
+        documentLengths[documentCount] = length[0];
+
+        termFrequencies.forEach((term, frequency) ->
+            postings.computeIfAbsent(term, this::newPostings).add(documentId, frequency[0], length[0]));
+        documentCount++;
+        totalLength += length[0];
+    }
+
+    /**
+     * Excludes a document from the collection statistics. Its postings stay in place until the
+     * index is rebuilt, so callers must filter the document out of search results.
+     *
+     * @param documentId The id of the removed document
+     */
+    void remove(int documentId) {
+        removedCount++;
+        totalLength -= documentLengths[documentId];
+    }
+
+    /**
+     * Returns the current collection statistics. Searches given these statistics only see the
+     * documents added so far, whatever is added afterwards.
+     */
+    Statistics statistics() {
+        return new Statistics(documentCount, removedCount, totalLength);
+    }
+
+    /**
+     * Returns the top k documents for the query, best first.
+     *
+     * @param query The query text
+     * @param k     The number of results to return
+     * @return The matching documents with their BM25 scores
+     */
+    List<SearchHit> search(String query, int k) {
+        return search(query, k, statistics());
+    }
+
+    /**
+     * Returns the top k documents for the query among the documents covered by the statistics, best first.
+     *
+     * @param query      The query text
+     * @param k          The number of results to return
+     * @param statistics Statistics captured from this index earlier
+     * @return The matching documents with their BM25 scores
+     */
+    List<SearchHit> search(String query, int k, Statistics statistics) {
+        return search(query, k, statistics, null);
+    }
+
+    /**
+     * Returns the top k documents for the query among the documents covered by the statistics
+     * that are also in the allowed set, best first. Documents outside the set are skipped
+     * without being scored, so a selective set makes the search cheaper.
+     *
+     * @param query      The query text
+     * @param k          The number of results to return
+     * @param statistics Statistics captured from this index earlier
+     * @param allowed    The ids of the documents that may be returned, or {@code null} for all
+     * @return The matching documents with their BM25 scores
+     */
+    List<SearchHit> search(String query, int k, Statistics statistics, BitSet allowed) {
+        return search(query, k, statistics, allowed, 0, statistics.documentCount());
+    }
+
+    /**
+     * Returns the top k documents for the query among the allowed documents with ids in a range,
+     * best first. Scores use the statistics of the whole collection, so the hits of adjacent ranges
+     * can be merged into the hits of their union.
+     *
+     * @param query      The query text
+     * @param k          The number of results to return
+     * @param statistics Statistics captured from this index earlier
+     * @param allowed    The ids of the documents that may be returned, or {@code null} for all
+     * @param from       The lowest document id to return
+     * @param to         The document id to stop before, at most the document count of the statistics
+     * @return The matching documents with their BM25 scores
+     */
+    List<SearchHit> search(String query, int k, Statistics statistics, BitSet allowed, int from, int to) {
+        if (k <= 0 || from >= to || (allowed != null && allowed.isEmpty())) {
+            return List.of();
+        }
+        List<QueryTerm> terms = queryTerms(query, statistics);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        // MaxScore: sort terms by upper bound so that the low-impact prefix can be demoted to non-essential
+        terms.sort(Comparator.comparingDouble(QueryTerm::upperBound));
+        int termCount = terms.size();
+        double[] cumulativeBound = new double[termCount];
+        double sum = 0;
+        for (int i = 0; i < termCount; i++) {
+            sum += terms.get(i).upperBound();
+            cumulativeBound[i] = sum;
+        }
+
+        double averageLength = statistics.averageDocumentLength();
+        int[] lengths = documentLengths;
+        int[] positions = new int[termCount];
+        if (from > 0) {
+            for (int i = 0; i < termCount; i++) {
+                positions[i] = terms.get(i).postings().advance(0, from);
+            }
+        }
+        TopK topK = new TopK(Math.min(k, to - from));
+        int firstEssential = 0;
+
+        while (firstEssential < termCount) {
+            int candidate = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < termCount; i++) {
+                PostingsList list = terms.get(i).postings();
+                if (positions[i] < list.size()) {
+                    candidate = Math.min(candidate, list.documentId(positions[i]));
+                }
+            }
+            if (candidate >= to) {
+                break;
+            }
+            if (allowed != null && !allowed.get(candidate)) {
+                // Jump the essential lists to the next allowed document instead of scoring this one
+                int next = allowed.nextSetBit(candidate);
+                if (next < 0 || next >= to) {
+                    break;
+                }
+                for (int i = firstEssential; i < termCount; i++) {
+                    positions[i] = terms.get(i).postings().advance(positions[i], next);
+                }
+                continue;
+            }
+
+            double norm = k1 * (1 - b + b * lengths[candidate] / averageLength);
+            double score = 0;
+            for (int i = firstEssential; i < termCount; i++) {
+                PostingsList list = terms.get(i).postings();
+                int position = positions[i];
+                if (position < list.size() && list.documentId(position) == candidate) {
+                    score += terms.get(i).score(list.frequency(position), norm, k1);
+                    positions[i] = position + 1;
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (topK.isFull() && score + cumulativeBound[i] <= topK.threshold()) {
+                    break;
+                }
+                PostingsList list = terms.get(i).postings();
+                int position = list.advance(positions[i], candidate);
+                positions[i] = position;
+                if (position < list.size() && list.documentId(position) == candidate) {
+                    score += terms.get(i).score(list.frequency(position), norm, k1);
+                }
+            }
+
+            if (topK.offer(candidate, score) && topK.isFull()) {
+                double threshold = topK.threshold();
+                while (firstEssential < termCount && cumulativeBound[firstEssential] <= threshold) {
+                    firstEssential++;
+                }
+            }
+        }
+
+        return topK.toList();
+    }
+
+    /**
+     * Scores a single document exhaustively, without any pruning.
+     */
+    double score(String query, int documentId) {
+        Statistics statistics = statistics();
+        double norm = k1 * (1 - b + b * documentLengths[documentId] / statistics.averageDocumentLength());
+        double score = 0;
+        for (QueryTerm term : queryTerms(query, statistics)) {
+            PostingsList list = term.postings();
+            int position = list.advance(0, documentId);
+            if (position < list.size() && list.documentId(position) == documentId) {
+                score += term.score(list.frequency(position), norm, k1);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Returns the number of indexed documents.
+     */
+    int documentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the number of distinct terms in the index.
+     */
+    int vocabularySize() {
+        return file != null ? file.vocabularySize() : postings.size();
+    }
+
+    /**
+     * Estimates the heap used by the postings, their terms and the document lengths. The postings
+     * of a mapped index stay in the file and are not included.
+     */
+    long memoryBytes() {
+        long bytes = (long) documentLengths.length * Integer.BYTES;
+        for (Map.Entry<String, PostingsList.Appender> entry : postings.entrySet()) {
+            bytes += TERM_BYTES + entry.getKey().length() + entry.getValue().memoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap used by the trigram index of the vocabulary, zero without one.
+     */
+    long vocabularyMemoryBytes() {
+        return vocabulary != null ? vocabulary.memoryBytes() : 0;
+    }
+
+    /**
+     * Returns the number of terms in the given document.
+     */
+    int documentLength(int documentId) {
+        return documentLengths[documentId];
+    }
+
+    /**
+     * Returns the number of terms over all documents.
+     */
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Visits the postings of every term built on the heap, in no particular order.
+     */
+    void forEachTerm(BiConsumer<String, PostingsList> action) {
+        int limit = documentCount;
+        postings.forEach((term, appender) -> action.accept(term, appender.upTo(limit)));
+    }
+
+    private PostingsList.Appender newPostings(String term) {
+        if (vocabulary != null) {
+            vocabulary.add(term);
+        }
+        return new PostingsList.Appender();
+    }
+
+    private List<QueryTerm> queryTerms(String query, Statistics statistics) {
+        List<String> tokens = TextTokenizer.tokenize(query);
+        Map<String, double[]> queryFrequencies = new LinkedHashMap<>();
+        tokens.forEach(term -> queryFrequencies.computeIfAbsent(term, t -> new double[1])[0]++);
+        if (vocabulary != null) {
+            expand(tokens, queryFrequencies, statistics.documentCount());
+        }
+
+        double averageLength = statistics.averageDocumentLength();
+        List<QueryTerm> terms = new ArrayList<>(queryFrequencies.size());
+        queryFrequencies.forEach((term, frequency) -> {
+            PostingsList list = postings(term, statistics.documentCount());
+            if (list == null || list.size() == 0) {
+                return;
+            }
+            int df = list.size();
+            // Postings of removed documents still count towards df until the index is rebuilt
+            int liveCount = Math.max(statistics.documentCount() - statistics.removedCount(), df);
+            double weight = frequency[0] * Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+            // BM25 grows with term frequency and shrinks with document length, so the bound pairs the extremes
+            double boundNorm = k1 * (1 - b + b * list.minDocumentLength() / averageLength);
+            double upperBound = weight * list.maxFrequency() * (k1 + 1) / (list.maxFrequency() + boundNorm);
+            terms.add(new QueryTerm(list, weight, upperBound));
+        });
+        return terms;
+    }
+
+    /**
+     * Adds the indexed terms that query terms missing from the index most likely stand for: the
+     * concatenation of two adjacent terms, such as {@code skymiles} for "sky miles", and the terms
+     * with the most similar trigrams, weighted by their similarity.
+     */
+    private void expand(List<String> tokens, Map<String, double[]> queryFrequencies, int documentLimit) {
+        boolean[] covered = new boolean[tokens.size()];
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            String joined = tokens.get(i) + tokens.get(i + 1);
+            boolean partMissing = !indexed(tokens.get(i), documentLimit) || !indexed(tokens.get(i + 1), documentLimit);
+            if (indexed(joined, documentLimit)) {
+                queryFrequencies.computeIfAbsent(joined, t -> new double[1])[0]++;
+                covered[i] = covered[i + 1] = true;
+            } else if (partMissing && addExpansions(joined, queryFrequencies, documentLimit)) {
+                covered[i] = covered[i + 1] = true;
+            }
+        }
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!covered[i] && !indexed(tokens.get(i), documentLimit)) {
+                addExpansions(tokens.get(i), queryFrequencies, documentLimit);
+            }
+        }
+    }
+
+    private boolean addExpansions(String term, Map<String, double[]> queryFrequencies, int documentLimit) {
+        boolean added = false;
+        for (TrigramIndex.Expansion expansion : vocabulary.expand(term)) {
+            if (indexed(expansion.term(), documentLimit)) {
+                queryFrequencies.computeIfAbsent(expansion.term(), t -> new double[1])[0] += expansion.similarity();
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    private boolean indexed(String term, int documentLimit) {
+        PostingsList list = postings(term, documentLimit);
+        return list != null && list.size() > 0;
+    }
+
+    private PostingsList postings(String term, int documentLimit) {
+        if (file != null) {
+            return file.postings(term);
+        }
+        PostingsList.Appender appender = postings.get(term);
+        return appender != null ? appender.upTo(documentLimit) : null;
+    }
+
+    /**
+     * A query term resolved against the index.
+     */
+    private record QueryTerm(PostingsList postings, double weight, double upperBound) {
+
+        double score(int frequency, double norm, double k1) {
+            return weight * frequency * (k1 + 1) / (frequency + norm);
+        }
+    }
+}
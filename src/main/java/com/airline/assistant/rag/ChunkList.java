@@ -0,0 +1,55 @@
+package com.airline.assistant.rag;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The chunks of a store by id. {@link #get} materializes a whole {@link AirlineDocument}, while
+ * scans over many chunks read single fields through {@link #content} and {@link #metadataValue},
+ * which compact and memory-mapped layouts answer without building the document.
+ */
+interface ChunkList extends List<AirlineDocument> {
+
+    /**
+     * Returns the text of a chunk.
+     */
+    default String content(int id) {
+        return get(id).getContent();
+    }
+
+    /**
+     * Returns a metadata value of a chunk, or {@code null} if the chunk does not have the key.
+     */
+    default Object metadataValue(int id, String key) {
+        return get(id).getMetadataValue(key);
+    }
+
+    /**
+     * Views a list of documents as chunks.
+     */
+    static ChunkList of(List<AirlineDocument> documents) {
+        if (documents instanceof ChunkList chunks) {
+            return chunks;
+        }
+        return new Documents(documents);
+    }
+
+    final class Documents extends AbstractList<AirlineDocument> implements ChunkList {
+
+        private final List<AirlineDocument> documents;
+
+        private Documents(List<AirlineDocument> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public AirlineDocument get(int index) {
+            return documents.get(index);
+        }
+
+        @Override
+        public int size() {
+            return documents.size();
+        }
+    }
+}
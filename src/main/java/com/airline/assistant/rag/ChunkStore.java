@@ -0,0 +1,232 @@
+package com.airline.assistant.rag;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact heap storage for the chunks of a {@link SimpleVectorStore}.
+ *
+ * <p>Chunk texts are {@code (start, end)} offsets into one shared UTF-8 buffer instead of a
+ * string each. When a chunk begins with the text that ends the previous one, as consecutive chunks
+ * of a section do by their overlap, it starts inside the previous chunk and only its new text is
+ * appended. Metadata is stored by column: every key has one array of codes per chunk into a
+ * dictionary of its distinct values, so values such as the source or the heading path are held
+ * once however many chunks share them, and chunks cost no map of their own.
+ * {@link AirlineDocument}s are only built when a chunk is returned.
+ *
+ * <p>The store is append-only. A single writer appends, and {@link #view()} returns an immutable
+ * view of the chunks appended so far that stays valid while the writer continues: arrays that
+ * have to grow are replaced by copies, so a view never sees a position written after it was taken.
+ */
+final class ChunkStore {
+
+    private byte[] text = new byte[4096];
+    private int textLength;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    /**
+     * Appends a chunk.
+     *
+     * @param document The chunk; it is not retained
+     * @return The id of the chunk
+     */
+    int add(AirlineDocument document) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            columns.values().forEach(column -> column.grow(starts.length));
+        }
+        byte[] content = document.getContent().getBytes(StandardCharsets.UTF_8);
+        int shared = size > 0 ? sharedLength(content, starts[size - 1]) : 0;
+        ensureTextCapacity(textLength + content.length - shared);
+        System.arraycopy(content, shared, text, textLength, content.length - shared);
+        starts[size] = textLength - shared;
+        textLength += content.length - shared;
+        ends[size] = textLength;
+
+        for (Map.Entry<String, Object> entry : document.getMetadata().entrySet()) {
+            if (entry.getValue() != null) {
+                columns.computeIfAbsent(entry.getKey(), key -> new Column(starts.length)).set(size, entry.getValue());
+            }
+        }
+        return size++;
+    }
+
+    /**
+     * Returns the number of chunks.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of text bytes stored, shared overlaps counted once.
+     */
+    int textLength() {
+        return textLength;
+    }
+
+    /**
+     * Returns an immutable view of the chunks appended so far.
+     */
+    View view() {
+        Map<String, Column.Frozen> frozenColumns = new HashMap<>();
+        columns.forEach((key, column) -> frozenColumns.put(key, column.freeze()));
+        return new View(text, starts, ends, size, frozenColumns);
+    }
+
+    /**
+     * Returns the length of the longest prefix of the content that ends the text of the last chunk.
+     */
+    private int sharedLength(byte[] content, int lastStart) {
+        int longest = Math.min(content.length, textLength - lastStart);
+        for (int length = longest; length > 0; length--) {
+            if (text[textLength - length] == content[0]
+                    && Arrays.equals(text, textLength - length, textLength, content, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private void ensureTextCapacity(int capacity) {
+        if (capacity > text.length) {
+            text = Arrays.copyOf(text, Math.max(capacity, (int) Math.min(Integer.MAX_VALUE - 8, text.length * 2L)));
+        }
+    }
+
+    /**
+     * The codes of one metadata key, one per chunk, and the dictionary they index. Code zero means
+     * the chunk does not have the key.
+     */
+    private static final class Column {
+
+        private int[] codes;
+        private Object[] values = new Object[4];
+        private int valueCount;
+        private final Map<Object, Integer> codesByValue = new HashMap<>();
+
+        Column(int capacity) {
+            this.codes = new int[capacity];
+        }
+
+        void set(int id, Object value) {
+            Integer code = codesByValue.get(value);
+            if (code == null) {
+                if (valueCount == values.length) {
+                    values = Arrays.copyOf(values, valueCount * 2);
+                }
+                values[valueCount] = value;
+                code = ++valueCount;
+                codesByValue.put(value, code);
+            }
+            codes[id] = code;
+        }
+
+        void grow(int capacity) {
+            codes = Arrays.copyOf(codes, capacity);
+        }
+
+        Frozen freeze() {
+            return new Frozen(codes, values);
+        }
+
+        record Frozen(int[] codes, Object[] values) {
+
+            Object value(int id) {
+                int code = id < codes.length ? codes[id] : 0;
+                return code == 0 ? null : values[code - 1];
+            }
+        }
+    }
+
+    /**
+     * An immutable view of the chunks, decoding each one when it is accessed.
+     */
+    static final class View extends AbstractList<AirlineDocument> implements ChunkList {
+
+        private final byte[] text;
+        private final int[] starts;
+        private final int[] ends;
+        private final int size;
+        private final Map<String, Column.Frozen> columns;
+
+        private View(byte[] text, int[] starts, int[] ends, int size, Map<String, Column.Frozen> columns) {
+            this.text = text;
+            this.starts = starts;
+            this.ends = ends;
+            this.size = size;
+            this.columns = columns;
+        }
+
+        @Override
+        public AirlineDocument get(int id) {
+            Map<String, Object> metadata = new HashMap<>();
+            for (Map.Entry<String, Column.Frozen> column : columns.entrySet()) {
+                Object value = column.getValue().value(id);
+                if (value != null) {
+                    metadata.put(column.getKey(), value);
+                }
+            }
+            return new AirlineDocument(content(id), metadata);
+        }
+
+        @Override
+        public String content(int id) {
+            Objects.checkIndex(id, size);
+            return new String(text, starts[id], ends[id] - starts[id], StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Object metadataValue(int id, String key) {
+            Objects.checkIndex(id, size);
+            Column.Frozen column = columns.get(key);
+            return column != null ? column.value(id) : null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Estimates the heap used by the chunks: the text buffer, the offsets, the metadata codes
+         * and the dictionaries, counting strings at their Latin-1 size.
+         */
+        long memoryBytes() {
+            return textBytes() + metadataBytes();
+        }
+
+        /**
+         * Returns the bytes of the text buffer and the chunk offsets.
+         */
+        long textBytes() {
+            return text.length + (long) starts.length * Integer.BYTES * 2;
+        }
+
+        /**
+         * Estimates the bytes of the metadata codes and dictionaries.
+         */
+        long metadataBytes() {
+            long bytes = 0;
+            for (Column.Frozen column : columns.values()) {
+                bytes += (long) column.codes().length * Integer.BYTES;
+                for (Object value : column.values()) {
+                    if (value == null) {
+                        break;
+                    }
+                    bytes += value instanceof String string ? 40 + string.length() : 16;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Packs retrieved chunks into a prompt context of at most a given number of tokens.
+ *
+ * <p>Hits on adjacent chunks of the same source are merged into one passage, dropping the lines
+ * that the chunker repeated as overlap, section heading or table header. Passages are split into
+ * sentences and table rows, which are scored by the query terms they contain, weighted by how rare
+ * the terms are among the candidates, and by the rank of their passage. Sentences are then picked
+ * by maximal marginal relevance, their relevance minus their similarity to the sentences already
+ * picked, until the budget is spent, so text repeated across chunks or sources is only included
+ * once. A table row is always accompanied by the header of its table.
+ *
+ * <p>The picked sentences are printed per passage in document order, with an ellipsis where text
+ * was left out. Tokens are whitespace-separated words, as for chunking.
+ */
+public final class ContextAssembler {
+
+    static final String INTRODUCTION = "Here is some relevant information that might help answer the question:\n\n";
+    static final String OMISSION = "...";
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+");
+    private static final double RANK_WEIGHT = 0.3; // Share of relevance that comes from the rank of the passage
+
+    private final int tokenBudget;
+    private final double relevanceWeight;
+
+    /**
+     * @param tokenBudget     The maximum number of tokens of retrieved text in the context
+     * @param relevanceWeight The weight of relevance against novelty, from 0 to 1
+     */
+    public ContextAssembler(int tokenBudget, double relevanceWeight) {
+        if (tokenBudget < 1) {
+            throw new IllegalArgumentException("The context needs a budget of at least one token: " + tokenBudget);
+        }
+        this.tokenBudget = tokenBudget;
+        this.relevanceWeight = Math.max(0, Math.min(1, relevanceWeight));
+    }
+
+    /**
+     * Assembles the context for a query.
+     *
+     * @param query The query the hits were retrieved for
+     * @param hits  The retrieved chunks, best first
+     * @return The context, or an empty string if there are no hits
+     */
+    public String assemble(String query, List<RetrievalResult.ScoredDocument> hits) {
+        List<Passage> passages = passages(hits);
+        List<Unit> units = new ArrayList<>();
+        for (Passage passage : passages) {
+            units.addAll(passage.units);
+        }
+        if (units.isEmpty()) {
+            return "";
+        }
+        score(units, new HashSet<>(TextTokenizer.tokenize(query)));
+        select(units);
+
+        StringBuilder context = new StringBuilder(INTRODUCTION);
+        for (Passage passage : passages) {
+            passage.appendTo(context);
+        }
+        return context.toString();
+    }
+
+    /**
+     * Groups hits into passages of adjacent chunks per source, ordered by their best hit.
+     */
+    private static List<Passage> passages(List<RetrievalResult.ScoredDocument> hits) {
+        Map<String, List<Hit>> bySource = new LinkedHashMap<>();
+        for (int rank = 0; rank < hits.size(); rank++) {
+            AirlineDocument document = hits.get(rank).document();
+            Object source = document.getMetadataValue("source");
+            bySource.computeIfAbsent(source != null ? source.toString() : "", s -> new ArrayList<>())
+                .add(new Hit(document, rank, chunkIndex(document)));
+        }
+
+        List<Passage> passages = new ArrayList<>();
+        for (Map.Entry<String, List<Hit>> source : bySource.entrySet()) {
+            List<Hit> sourceHits = source.getValue();
+            sourceHits.sort(Comparator.comparingInt(Hit::chunk).thenComparingInt(Hit::rank));
+            List<Hit> run = new ArrayList<>();
+            for (Hit hit : sourceHits) {
+                Hit last = run.isEmpty() ? null : run.get(run.size() - 1);
+                boolean adjacent = last != null && last.chunk() >= 0 && hit.chunk() - last.chunk() <= 1;
+                if (last != null && !adjacent) {
+                    passages.add(new Passage(source.getKey(), run));
+                    run = new ArrayList<>();
+                }
+                run.add(hit);
+            }
+            passages.add(new Passage(source.getKey(), run));
+        }
+        passages.sort(Comparator.comparingInt(passage -> passage.rank));
+        for (int i = 0; i < passages.size(); i++) {
+            passages.get(i).setRank(i);
+        }
+        return passages;
+    }
+
+    private static int chunkIndex(AirlineDocument document) {
+        return document.getMetadataValue("chunk") instanceof Number chunk ? chunk.intValue() : -1;
+    }
+
+    /**
+     * Scores units by the rarity of the query terms they contain and by the rank of their passage.
+     */
+    private static void score(List<Unit> units, Set<String> queryTerms) {
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (Unit unit : units) {
+            for (String term : unit.terms) {
+                documentFrequencies.merge(term, 1, Integer::sum);
+            }
+        }
+        double[] termScores = new double[units.size()];
+        double maxTermScore = 0;
+        for (int i = 0; i < units.size(); i++) {
+            for (String term : units.get(i).terms) {
+                if (queryTerms.contains(term)) {
+                    termScores[i] += Math.log(1 + (double) units.size() / documentFrequencies.get(term));
+                }
+            }
+            maxTermScore = Math.max(maxTermScore, termScores[i]);
+        }
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            double terms = maxTermScore > 0 ? termScores[i] / maxTermScore : 0;
+            unit.relevance = (1 - RANK_WEIGHT) * terms + RANK_WEIGHT / (1 + unit.passage.rank);
+        }
+    }
+
+    /**
+     * Picks units by maximal marginal relevance until no remaining unit fits the budget.
+     */
+    private void select(List<Unit> units) {
+        List<Unit> candidates = new ArrayList<>();
+        for (Unit unit : units) {
+            if (!unit.heading) {
+                candidates.add(unit);
+            }
+        }
+        double[] redundancy = new double[candidates.size()]; // Highest similarity to a selected unit
+        int remaining = tokenBudget;
+        boolean selectedAny = false;
+        while (true) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < candidates.size(); i++) {
+                Unit candidate = candidates.get(i);
+                // Units with the same terms as a selected one are repetitions, not alternatives
+                if (candidate.selected || candidate.cost() > remaining || redundancy[i] >= 1) {
+                    continue;
+                }
+                double score = relevanceWeight * candidate.relevance - (1 - relevanceWeight) * redundancy[i];
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            Unit chosen = candidates.get(best);
+            remaining -= chosen.cost();
+            chosen.select();
+            selectedAny = true;
+            for (int i = 0; i < candidates.size(); i++) {
+                redundancy[i] = Math.max(redundancy[i], similarity(candidates.get(i).terms, chosen.terms));
+            }
+        }
+        if (!selectedAny && !candidates.isEmpty()) {
+            // Not even one sentence fits: keep the start of the most relevant one
+            Unit first = candidates.stream().max(Comparator.comparingDouble(unit -> unit.relevance)).orElseThrow();
+            first.setText(truncate(first.text, tokenBudget));
+            first.tableHeader = null;
+            first.select();
+        }
+    }
+
+    /**
+     * Jaccard similarity of two term sets.
+     */
+    static double similarity(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int common = 0;
+        for (String term : a.size() <= b.size() ? a : b) {
+            if ((a.size() <= b.size() ? b : a).contains(term)) {
+                common++;
+            }
+        }
+        return (double) common / (a.size() + b.size() - common);
+    }
+
+    private static String truncate(String text, int tokens) {
+        String[] words = text.strip().split("\\s+");
+        return words.length <= tokens ? text : String.join(" ", Arrays.asList(words).subList(0, tokens));
+    }
+
+    private record Hit(AirlineDocument document, int rank, int chunk) {}
+
+    /**
+     * A run of adjacent chunks of one source, split into units without the repeated lines.
+     */
+    private static final class Passage {
+
+        private final String source;
+        private final String headingPath;
+        private final List<Unit> units = new ArrayList<>();
+        private int rank;
+
+        Passage(String source, List<Hit> hits) {
+            this.source = source;
+            Object path = hits.get(0).document().getMetadataValue("headingPath");
+            this.headingPath = path != null ? path.toString() : null;
+            this.rank = hits.stream().mapToInt(Hit::rank).min().orElse(0);
+
+            Map<String, Unit> seen = new HashMap<>();
+            for (Hit hit : hits) {
+                Unit tableHeader = null;
+                boolean previousWasRow = false;
+                String[] lines = hit.document().getContent().split("\n");
+                for (int i = 0; i < lines.length; i++) {
+                    String line = lines[i];
+                    String stripped = line.strip();
+                    if (stripped.isEmpty()) {
+                        previousWasRow = false;
+                        continue;
+                    }
+                    if (stripped.chars().noneMatch(Character::isLetterOrDigit)) {
+                        continue; // Table separators and rules carry nothing for the model
+                    }
+                    String previous = i > 0 ? lines[i - 1] : null;
+                    String next = i + 1 < lines.length ? lines[i + 1] : null;
+                    boolean row = TableRows.isRow(previous, line, next);
+                    if (row && !previousWasRow) {
+                        tableHeader = null;
+                    }
+                    List<String> pieces = row || stripped.startsWith("#") ? List.of(line) : List.of(SENTENCE_END.split(line));
+                    boolean startsLine = true;
+                    for (String piece : pieces) {
+                        Unit unit = seen.get(piece.strip());
+                        if (unit == null) {
+                            unit = new Unit(this, piece, startsLine, stripped.startsWith("#") && !row);
+                            if (row) {
+                                unit.tableHeader = tableHeader;
+                            }
+                            units.add(unit);
+                            seen.put(piece.strip(), unit);
+                        }
+                        if (row && tableHeader == null) {
+                            tableHeader = unit;
+                        }
+                        startsLine = false;
+                    }
+                    previousWasRow = row;
+                }
+            }
+        }
+
+        void setRank(int rank) {
+            this.rank = rank;
+        }
+
+        void appendTo(StringBuilder context) {
+            if (units.stream().noneMatch(unit -> unit.selected)) {
+                return;
+            }
+            context.append("From ").append(source);
+            if (headingPath != null && !headingPath.isEmpty()) {
+                context.append(" (").append(headingPath).append(')');
+            }
+            context.append(":\n");
+            boolean previousSelected = false;
+            boolean first = true;
+            for (Unit unit : units) {
+                if (unit.heading) {
+                    continue;
+                }
+                if (!unit.selected) {
+                    previousSelected = false;
+                    continue;
+                }
+                if (first) {
+                    first = false;
+                } else if (!previousSelected) {
+                    context.append('\n').append(OMISSION).append('\n');
+                } else {
+                    context.append(unit.startsLine ? '\n' : ' ');
+                }
+                context.append(unit.startsLine ? unit.text.stripTrailing() : unit.text.strip());
+                previousSelected = true;
+            }
+            context.append("\n\n");
+        }
+    }
+
+    /**
+     * A sentence, table row or heading of a passage.
+     */
+    private static final class Unit {
+
+        private final Passage passage;
+        private final boolean startsLine;
+        private final boolean heading;
+        private final Set<String> terms;
+        private String text;
+        private int tokens;
+        private Unit tableHeader;
+        private double relevance;
+        private boolean selected;
+
+        Unit(Passage passage, String text, boolean startsLine, boolean heading) {
+            this.passage = passage;
+            setText(text);
+            this.startsLine = startsLine;
+            this.heading = heading;
+            this.terms = new HashSet<>(TextTokenizer.tokenize(text));
+        }
+
+        void setText(String text) {
+            this.text = text;
+            this.tokens = MarkdownChunker.countTokens(text);
+        }
+
+        int cost() {
+            return tableHeader != null && !tableHeader.selected ? tokens + tableHeader.tokens : tokens;
+        }
+
+        void select() {
+            selected = true;
+            if (tableHeader != null) {
+                tableHeader.selected = true;
+            }
+        }
+    }
+}
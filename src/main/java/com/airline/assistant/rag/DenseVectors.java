@@ -0,0 +1,300 @@
+package com.airline.assistant.rag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Embedding vectors stored back to back in a single {@code float[]}, or in a direct buffer
+ * outside the Java heap when the vectors are only needed to re-rank quantized candidates.
+ * Vector {@code i} occupies {@code [i * dimensions, (i + 1) * dimensions)}. Vectors are L2
+ * normalized on insert, so cosine similarity reduces to a dot product over the flat storage.
+ * Vectors read from a memory-mapped {@link KnowledgeBaseIndexFile} are used in place and cannot grow.
+ *
+ * <p>A single writer may append while other threads read. A vector is written before the size
+ * that covers it, and grown storage is filled before it is published, so any id below a size
+ * read earlier, or handed over through another synchronized structure, is safe to read.
+ *
+ * <p>Dot products run on the {@link VectorKernels} chosen at startup. Off-heap vectors are copied
+ * to a heap scratch array a vector at a time, which is a bulk copy, so that they are scored by the
+ * same array kernels. Every thread reuses its own scratch array, since graph searches score one
+ * vector at a time and would otherwise allocate for every visited node.
+ */
+final class DenseVectors {
+
+    private final VectorKernels kernels = VectorKernels.get();
+    private final int dimensions;
+    // Room for two vectors, for dot products between stored vectors
+    private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[2 * dimensions()]);
+    private volatile float[] data;
+    private volatile FloatBuffer offHeap;
+    private boolean mapped;
+    private volatile int size;
+
+    /**
+     * Creates an empty on-heap vector table.
+     *
+     * @param dimensions The number of dimensions of every vector
+     */
+    DenseVectors(int dimensions) {
+        this(dimensions, false);
+    }
+
+    /**
+     * Creates an empty vector table.
+     *
+     * @param dimensions The number of dimensions of every vector
+     * @param offHeap    Whether to keep the vectors in a direct buffer instead of a heap array
+     */
+    DenseVectors(int dimensions, boolean offHeap) {
+        this.dimensions = dimensions;
+        if (offHeap) {
+            this.offHeap = allocateDirect(dimensions * 16);
+        } else {
+            this.data = new float[dimensions * 16];
+        }
+    }
+
+    /**
+     * Creates a read-only table over normalized vectors that are already laid out back to back.
+     *
+     * @param dimensions The number of dimensions of every vector
+     * @param vectors    The vectors, typically a view of a memory-mapped file
+     */
+    DenseVectors(int dimensions, FloatBuffer vectors) {
+        this.dimensions = dimensions;
+        this.offHeap = vectors;
+        this.mapped = true;
+        this.size = vectors.limit() / dimensions;
+    }
+
+    /**
+     * Appends a vector, normalizing it in the copy. A {@code null} vector is stored as all zeros
+     * so that ids stay aligned with the documents of the store; it scores zero against any query.
+     *
+     * @param vector The vector to append
+     * @return The id of the vector
+     */
+    int add(float[] vector) {
+        if (mapped) {
+            throw new IllegalStateException("Memory-mapped vectors are read-only");
+        }
+        if (vector != null && vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        int id = size;
+        int required = (id + 1) * dimensions;
+        int offset = id * dimensions;
+        float scale = vector != null ? inverseNorm(vector) : 0f;
+        float[] heap = data;
+        if (heap != null) {
+            if (required > heap.length) {
+                heap = Arrays.copyOf(heap, Math.max(heap.length * 2, required));
+                data = heap;
+            }
+            for (int i = 0; i < dimensions; i++) {
+                heap[offset + i] = vector != null ? vector[i] * scale : 0f;
+            }
+        } else {
+            FloatBuffer buffer = offHeap;
+            if (required > buffer.capacity()) {
+                FloatBuffer grown = allocateDirect(Math.max(buffer.capacity() * 2, required));
+                grown.put(buffer.duplicate().position(0).limit(offset));
+                buffer = grown;
+                offHeap = buffer;
+            }
+            for (int i = 0; i < dimensions; i++) {
+                buffer.put(offset + i, vector != null ? vector[i] * scale : 0f);
+            }
+        }
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * Returns the dot product of the stored vector with the query.
+     */
+    float dot(int id, float[] query) {
+        float[] heap = data;
+        return heap != null ? dot(heap, id, query) : dot(offHeap, id, query, scratch.get());
+    }
+
+    private float dot(float[] heap, int id, float[] query) {
+        return kernels.dot(heap, id * dimensions, query, 0, dimensions);
+    }
+
+    private float dot(FloatBuffer buffer, int id, float[] query, float[] scratch) {
+        buffer.get(id * dimensions, scratch, 0, dimensions);
+        return kernels.dot(scratch, 0, query, 0, dimensions);
+    }
+
+    /**
+     * Re-ranks candidates by the dot product of their stored vectors with a normalized query.
+     *
+     * @param candidates      The candidate ids, in any order
+     * @param normalizedQuery The query vector, already normalized
+     * @param k               The number of results to return
+     * @return The best candidates by exact score, best first
+     */
+    List<SearchHit> rerank(List<SearchHit> candidates, float[] normalizedQuery, int k) {
+        TopK topK = new TopK(Math.max(0, Math.min(k, candidates.size())));
+        float[] heap = data;
+        FloatBuffer buffer = offHeap;
+        float[] scratch = heap != null ? null : this.scratch.get();
+        for (SearchHit candidate : candidates) {
+            int id = candidate.documentId();
+            topK.offer(id, heap != null ? dot(heap, id, normalizedQuery) : dot(buffer, id, normalizedQuery, scratch));
+        }
+        return topK.toList();
+    }
+
+    /**
+     * Returns the dot product of two stored vectors.
+     */
+    float dotBetween(int first, int second) {
+        float[] heap = data;
+        if (heap == null) {
+            float[] vectors = scratch.get();
+            FloatBuffer buffer = offHeap;
+            buffer.get(first * dimensions, vectors, 0, dimensions);
+            buffer.get(second * dimensions, vectors, dimensions, dimensions);
+            return kernels.dot(vectors, 0, vectors, dimensions, dimensions);
+        }
+        return kernels.dot(heap, first * dimensions, heap, second * dimensions, dimensions);
+    }
+
+    /**
+     * Returns the cosine similarity top k by scanning every vector.
+     *
+     * @param query The query vector, which does not need to be normalized
+     * @param k     The number of results to return
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k) {
+        return search(query, k, size);
+    }
+
+    /**
+     * Returns the cosine similarity top k among the first vectors by scanning them.
+     *
+     * @param query The query vector, which does not need to be normalized
+     * @param k     The number of results to return
+     * @param limit The number of vectors to scan, at most the size read earlier
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k, int limit) {
+        return search(query, k, limit, null);
+    }
+
+    /**
+     * Returns the cosine similarity top k among the allowed vectors below a limit, scoring only those.
+     *
+     * @param query   The query vector, which does not need to be normalized
+     * @param k       The number of results to return
+     * @param limit   The number of vectors to consider, at most the size read earlier
+     * @param allowed The ids that may be returned, or {@code null} for all
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k, int limit, BitSet allowed) {
+        return search(query, k, 0, limit, allowed);
+    }
+
+    /**
+     * Returns the cosine similarity top k among the allowed vectors with ids in a range, scoring only those.
+     *
+     * @param query   The query vector, which does not need to be normalized
+     * @param k       The number of results to return
+     * @param from    The lowest id to consider
+     * @param to      The id to stop before, at most the size read earlier
+     * @param allowed The ids that may be returned, or {@code null} for all
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k, int from, int to, BitSet allowed) {
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + query.length);
+        }
+        if (k <= 0 || from >= to) {
+            return List.of();
+        }
+        float[] normalized = normalizedCopy(query);
+        TopK topK = new TopK(Math.min(k, to - from));
+        float[] heap = data;
+        FloatBuffer buffer = offHeap;
+        float[] scratch = heap != null ? null : this.scratch.get();
+        for (int id = nextId(allowed, from); id >= 0 && id < to; id = nextId(allowed, id + 1)) {
+            topK.offer(id, heap != null ? dot(heap, id, normalized) : dot(buffer, id, normalized, scratch));
+        }
+        return topK.toList();
+    }
+
+    /**
+     * Returns the first id at or after {@code from} that is allowed, or -1 if there is none.
+     */
+    static int nextId(BitSet allowed, int from) {
+        return allowed == null ? from : allowed.nextSetBit(from);
+    }
+
+    /**
+     * Returns a copy of the stored vector.
+     */
+    float[] get(int id) {
+        int offset = id * dimensions;
+        float[] heap = data;
+        if (heap != null) {
+            return Arrays.copyOfRange(heap, offset, offset + dimensions);
+        }
+        float[] copy = new float[dimensions];
+        offHeap.get(offset, copy);
+        return copy;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the vectors live outside the Java heap.
+     */
+    boolean isOffHeap() {
+        return data == null;
+    }
+
+    /**
+     * Returns the number of bytes used by the stored vectors.
+     */
+    long memoryBytes() {
+        return (long) size * dimensions * Float.BYTES;
+    }
+
+    /**
+     * Returns a normalized copy of the given vector.
+     */
+    static float[] normalizedCopy(float[] vector) {
+        float scale = inverseNorm(vector);
+        float[] copy = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            copy[i] = vector[i] * scale;
+        }
+        return copy;
+    }
+
+    private static float inverseNorm(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        return norm == 0 ? 0f : (float) (1.0 / Math.sqrt(norm));
+    }
+
+    private static FloatBuffer allocateDirect(int floats) {
+        return ByteBuffer.allocateDirect(floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,50 @@
+package com.airline.assistant.rag;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of a source document, such as the PQP and PQF each Premier tier needs, with the
+ * quantities of its cells parsed so that questions about them can be answered without retrieval.
+ *
+ * @param source  The file name of the source document
+ * @param title   The label or heading the table follows, e.g. {@code Qualification thresholds}
+ * @param columns The header cells, the first naming the column of row keys
+ * @param rows    The body rows in document order
+ */
+public record FactTable(String source, String title, List<String> columns, List<Row> rows) {
+
+    /**
+     * A body row.
+     *
+     * @param key   The first cell, e.g. {@code Premier Gold}
+     * @param cells The remaining cells, one per column after the first
+     */
+    public record Row(String key, List<Cell> cells) {
+
+        public Row {
+            cells = List.copyOf(cells);
+        }
+    }
+
+    /**
+     * A cell with the quantities it states.
+     *
+     * @param text    The cell text, e.g. {@code 10,000 PQP + 30 PQF}
+     * @param amounts The quantities by the unit following them, e.g. {@code PQP=10000, PQF=30}, in
+     *                order of appearance; a number without a unit is keyed by the empty string
+     */
+    public record Cell(String text, Map<String, Long> amounts) {
+
+        public Cell {
+            amounts = Collections.unmodifiableMap(new LinkedHashMap<>(amounts));
+        }
+    }
+
+    public FactTable {
+        columns = List.copyOf(columns);
+        rows = List.copyOf(rows);
+    }
+}
@@ -0,0 +1,124 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the tables of a markdown document as {@link FactTable}s. Tables are recognized in pipe
+ * syntax and as the tab-separated rows that pasted web tables produce, as {@link TableRows} does
+ * for {@link MarkdownChunker}: a table is a run of consecutive rows with the same number of cells, the
+ * first of which is the header.
+ *
+ * <p>A table is titled by the label of the line before it, the text up to its colon, as in
+ * {@code Qualification thresholds: The amount of PQP and PQF needed...}, or else by the nearest
+ * heading above it.
+ */
+public final class FactTableParser {
+
+    private static final Pattern HEADING = Pattern.compile("^ {0,3}#{1,6}\\s+(.*?)\\s*#*\\s*$");
+    private static final Pattern AMOUNT = Pattern.compile("(?<![\\w.,])(\\d{1,3}(?:,\\d{3})+|\\d+)(\\.\\d+)?(?:\\s*(%|[A-Za-z][A-Za-z-]*))?");
+    private static final int MAX_LABEL_LENGTH = 60;
+
+    private FactTableParser() {
+    }
+
+    /**
+     * Extracts the tables of a markdown document.
+     *
+     * @param source  The file name of the document
+     * @param content The markdown text
+     * @return The tables with at least one body row, in document order
+     */
+    public static List<FactTable> parse(String source, String content) {
+        List<FactTable> tables = new ArrayList<>();
+        String[] lines = content.split("\\R");
+        String heading = "";
+        String label = null;
+        int i = 0;
+        while (i < lines.length) {
+            String line = lines[i];
+            List<String> header = cells(line);
+            if (header == null) {
+                Matcher matcher = HEADING.matcher(line);
+                if (matcher.matches()) {
+                    heading = matcher.group(1);
+                    label = null;
+                } else if (!line.isBlank()) {
+                    label = label(line);
+                }
+                i++;
+                continue;
+            }
+
+            boolean piped = line.indexOf('\t') < 0;
+            List<FactTable.Row> rows = new ArrayList<>();
+            i++;
+            while (i < lines.length) {
+                if (piped && TableRows.isSeparator(lines[i])) {
+                    i++;
+                    continue;
+                }
+                List<String> row = cells(lines[i]);
+                if (row == null || row.size() != header.size() || piped != (lines[i].indexOf('\t') < 0)) {
+                    break;
+                }
+                List<FactTable.Cell> values = new ArrayList<>(row.size() - 1);
+                for (String text : row.subList(1, row.size())) {
+                    values.add(new FactTable.Cell(text, amounts(text)));
+                }
+                rows.add(new FactTable.Row(row.get(0), values));
+                i++;
+            }
+            if (!rows.isEmpty()) {
+                tables.add(new FactTable(source, label != null ? label : heading, header, rows));
+            }
+            label = null;
+        }
+        return tables;
+    }
+
+    /**
+     * Parses the quantities of a cell, keyed by the unit after each number. Numbers with a
+     * fractional part are left out, since amounts are whole.
+     */
+    static Map<String, Long> amounts(String text) {
+        Map<String, Long> amounts = new LinkedHashMap<>();
+        Matcher matcher = AMOUNT.matcher(text);
+        while (matcher.find()) {
+            if (matcher.group(2) != null) {
+                continue;
+            }
+            try {
+                long value = Long.parseLong(matcher.group(1).replace(",", ""));
+                amounts.putIfAbsent(matcher.group(3) != null ? matcher.group(3) : "", value);
+            } catch (NumberFormatException e) {
+                // Too large to be an amount
+            }
+        }
+        return amounts;
+    }
+
+    /**
+     * Splits a table row into its trimmed cells, or returns {@code null} if the line is not a
+     * table row with at least two cells and a key.
+     */
+    private static List<String> cells(String line) {
+        List<String> cells = TableRows.cells(line);
+        return cells != null && !cells.get(0).isEmpty() ? cells : null;
+    }
+
+    /**
+     * Returns the label a line starts with, the text before its colon, or {@code null} if it has none.
+     */
+    private static String label(String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0 || colon > MAX_LABEL_LENGTH) {
+            return null;
+        }
+        return line.substring(0, colon).replace("*", "").strip();
+    }
+}
@@ -0,0 +1,166 @@
+package com.airline.assistant.rag;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Compiles a Spring AI metadata filter into the set of chunk ids it admits.
+ *
+ * <p>Comparisons on indexed keys combine the precomputed bitsets of a {@link MetadataIndex};
+ * comparisons on other keys scan the metadata of every chunk once. The boolean operators then
+ * work on whole bitsets, so a filter costs a few word-wise operations per comparison and searches
+ * can skip inadmissible chunks before scoring them. A chunk without the compared key fails
+ * {@code ==}, {@code IN} and the range comparisons, and passes their negations. A chunk standing
+ * for near-duplicates of several sources matches a comparison if any of their values does.
+ */
+final class FilterCompiler {
+
+    private final MetadataIndex index;
+    private final ChunkList documents;
+
+    /**
+     * @param index     The metadata index of the chunks
+     * @param documents The chunks, indexed by id, read for keys that are not indexed
+     */
+    FilterCompiler(MetadataIndex index, List<AirlineDocument> documents) {
+        this.index = index;
+        this.documents = ChunkList.of(documents);
+    }
+
+    /**
+     * Returns the ids of the chunks the filter admits.
+     *
+     * @param expression The filter
+     * @return A new bitset of chunk ids
+     * @throws IllegalArgumentException If the filter uses an unsupported operator or operand
+     */
+    BitSet compile(Filter.Expression expression) {
+        return evaluate(expression);
+    }
+
+    private BitSet evaluate(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return evaluate(group.content());
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            throw new IllegalArgumentException("Expected a filter expression but got " + operand);
+        }
+        return switch (expression.type()) {
+            case AND -> {
+                BitSet ids = evaluate(expression.left());
+                if (!ids.isEmpty()) {
+                    ids.and(evaluate(expression.right()));
+                }
+                yield ids;
+            }
+            case OR -> {
+                BitSet ids = evaluate(expression.left());
+                ids.or(evaluate(expression.right()));
+                yield ids;
+            }
+            case NOT -> complement(evaluate(expression.left()));
+            case EQ -> equalTo(key(expression), value(expression));
+            case NE -> complement(equalTo(key(expression), value(expression)));
+            case IN -> in(key(expression), value(expression));
+            case NIN -> complement(in(key(expression), value(expression)));
+            case GT -> compare(key(expression), value(expression), order -> order > 0);
+            case GTE -> compare(key(expression), value(expression), order -> order >= 0);
+            case LT -> compare(key(expression), value(expression), order -> order < 0);
+            case LTE -> compare(key(expression), value(expression), order -> order <= 0);
+            default -> throw new IllegalArgumentException("Unsupported filter operator: " + expression.type());
+        };
+    }
+
+    private BitSet equalTo(String key, Object value) {
+        if (index.isIndexed(key)) {
+            return index.matching(key, value);
+        }
+        Object normalized = MetadataIndex.normalize(value);
+        return scan(key, candidate -> Objects.equals(MetadataIndex.normalize(candidate), normalized));
+    }
+
+    private BitSet in(String key, Object values) {
+        if (!(values instanceof Collection<?> collection)) {
+            return equalTo(key, values);
+        }
+        BitSet ids = new BitSet();
+        for (Object value : collection) {
+            ids.or(equalTo(key, value));
+        }
+        return ids;
+    }
+
+    /**
+     * Matches values ordered against the bound as the test demands. Numbers compare numerically
+     * and strings lexicographically; values of any other or mismatched type never match.
+     */
+    private BitSet compare(String key, Object bound, Predicate<Integer> test) {
+        Predicate<Object> matches = value -> {
+            Integer order = order(value, bound);
+            return order != null && test.test(order);
+        };
+        if (!index.isIndexed(key)) {
+            return scan(key, matches);
+        }
+        BitSet ids = new BitSet();
+        index.forEachValue(key, (value, valueIds) -> {
+            if (matches.test(value)) {
+                ids.or(valueIds);
+            }
+        });
+        return ids;
+    }
+
+    private static Integer order(Object value, Object bound) {
+        if (value instanceof Number number && bound instanceof Number limit) {
+            return Double.compare(number.doubleValue(), limit.doubleValue());
+        }
+        if (value instanceof String text && bound instanceof String limit) {
+            return text.compareTo(limit);
+        }
+        return null;
+    }
+
+    private BitSet scan(String key, Predicate<Object> matches) {
+        BitSet ids = new BitSet(documents.size());
+        for (int id = 0; id < documents.size(); id++) {
+            int chunk = id;
+            for (Object value : MetadataIndex.values(key, metadataKey -> documents.metadataValue(chunk, metadataKey))) {
+                if (matches.test(value)) {
+                    ids.set(id);
+                    break;
+                }
+            }
+        }
+        return ids;
+    }
+
+    private BitSet complement(BitSet ids) {
+        ids.flip(0, documents.size());
+        return ids;
+    }
+
+    private static String key(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Expected a metadata key but got " + expression.left());
+        }
+        String name = key.key();
+        // The text filter syntax allows quoted keys
+        if (name.length() > 1 && (name.startsWith("'") && name.endsWith("'") || name.startsWith("\"") && name.endsWith("\""))) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a value but got " + expression.right());
+        }
+        return value.value();
+    }
+}
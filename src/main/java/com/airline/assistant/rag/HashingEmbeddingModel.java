@@ -0,0 +1,119 @@
+package com.airline.assistant.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic in-process embedding model based on feature hashing.
+ * Each text is mapped to a fixed-size vector by hashing its terms, adjacent term pairs
+ * and character trigrams into signed buckets, then L2 normalizing the result.
+ * It needs no network access, so dense retrieval can run and be benchmarked offline.
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+    private static final float TERM_WEIGHT = 1.0f;
+    private static final float BIGRAM_WEIGHT = 0.5f;
+    private static final float TRIGRAM_WEIGHT = 0.25f;
+
+    private final int dimensions;
+
+    /**
+     * Creates a hashing embedding model.
+     *
+     * @param dimensions The size of the produced vectors
+     */
+    public HashingEmbeddingModel(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Embedding dimensions must be positive: " + dimensions);
+        }
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> inputs = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            embeddings.add(new Embedding(embed(inputs.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        String[] previous = new String[1];
+        TextTokenizer.tokenize(text, term -> {
+            addFeature(vector, term.hashCode(), TERM_WEIGHT);
+            if (previous[0] != null) {
+                addFeature(vector, 31 * previous[0].hashCode() + term.hashCode() + 0x9E3779B9, BIGRAM_WEIGHT);
+            }
+            previous[0] = term;
+            // Character trigrams of the padded term let morphological variants share buckets
+            String padded = "#" + term + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                int hash = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+                addFeature(vector, hash ^ 0x5BD1E995, TRIGRAM_WEIGHT);
+            }
+        });
+        normalize(vector);
+        return vector;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(embed(text));
+        }
+        return embeddings;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void addFeature(float[] vector, int hash, float weight) {
+        int mixed = mix(hash);
+        int bucket = Math.floorMod(mixed, dimensions);
+        vector[bucket] += (mixed & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreading String hash codes over all bits.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
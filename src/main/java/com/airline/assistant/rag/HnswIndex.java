@@ -0,0 +1,486 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical Navigable Small World graph over the vectors of a {@link DenseVectors} table.
+ * Node ids are vector ids. Inserts may run concurrently with each other and with searches:
+ * every node guards its neighbour lists with its own monitor and replaces them copy-on-write,
+ * so a reader always sees a complete list, and the entry point is only changed under a lock.
+ * Searches may pass a node limit to ignore nodes inserted after a snapshot was taken; such nodes
+ * are still traversed, since their vectors are complete before they are linked.
+ */
+final class HnswIndex {
+
+    private final DenseVectors vectors;
+    private final int m;
+    private final int maxConnectionsLayer0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final Object entryLock = new Object();
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private volatile Node[] nodes = new Node[16];
+    private volatile Node entryPoint;
+    private int nodeCount;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param vectors        The vectors the node ids refer to
+     * @param m              Number of neighbours kept per node on the upper layers (twice that on layer 0)
+     * @param efConstruction Size of the candidate list while inserting
+     * @param efSearch       Size of the candidate list while searching
+     */
+    HnswIndex(DenseVectors vectors, int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW m must be at least 2: " + m);
+        }
+        this.vectors = vectors;
+        this.m = m;
+        this.maxConnectionsLayer0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    /**
+     * Links the vector with the given id into the graph. The vector must already be stored.
+     * Safe to call from several threads at once for different ids.
+     *
+     * @param id The vector id
+     */
+    void insert(int id) {
+        float[] vector = vectors.get(id);
+        Node node = register(id, randomLevel(id));
+
+        Node entry = entryPoint;
+        if (entry == null) {
+            synchronized (entryLock) {
+                if (entryPoint == null) {
+                    entryPoint = node;
+                    return;
+                }
+                entry = entryPoint;
+            }
+        }
+
+        int current = entry.id;
+        for (int level = entry.level; level > node.level; level--) {
+            current = greedyClosest(vector, current, level);
+        }
+
+        NodeQueue entryPoints = new NodeQueue(1, false);
+        entryPoints.push(current, vectors.dot(current, vector));
+        for (int level = Math.min(node.level, entry.level); level >= 0; level--) {
+            NodeQueue candidates = searchLayer(vector, entryPoints, efConstruction, level);
+            int maxConnections = level == 0 ? maxConnectionsLayer0 : m;
+            int[] neighbours = selectNeighbours(candidates, maxConnections);
+            addLinks(node, level, neighbours, maxConnections);
+            for (int neighbour : neighbours) {
+                addLinks(nodes[neighbour], level, new int[] {id}, maxConnections);
+            }
+            entryPoints = candidates;
+        }
+
+        if (node.level > entry.level) {
+            synchronized (entryLock) {
+                if (node.level > entryPoint.level) {
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate top k most similar vectors.
+     *
+     * @param query A normalized query vector
+     * @param k     The number of results to return
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k) {
+        return search(query, k, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the approximate top k most similar vectors among the ids below a limit.
+     *
+     * @param query A normalized query vector
+     * @param k     The number of results to return
+     * @param limit Ids at or above this limit are left out of the results
+     * @return The best matching ids, best first
+     */
+    List<SearchHit> search(float[] query, int k, int limit) {
+        if (query.length != vectors.dimensions()) {
+            throw new IllegalArgumentException("Expected " + vectors.dimensions() + " dimensions but got " + query.length);
+        }
+        Node entry = entryPoint;
+        if (entry == null || k <= 0) {
+            return List.of();
+        }
+        int current = entry.id;
+        for (int level = entry.level; level > 0; level--) {
+            current = greedyClosest(query, current, level);
+        }
+        NodeQueue entryPoints = new NodeQueue(1, false);
+        entryPoints.push(current, vectors.dot(current, query));
+        NodeQueue results = searchLayer(query, entryPoints, Math.max(efSearch, k), 0);
+
+        List<SearchHit> hits = new ArrayList<>(results.size());
+        while (results.size() > 0) {
+            int id = results.topId();
+            float score = results.topScore();
+            results.pop();
+            if (id < limit) {
+                hits.add(new SearchHit(id, score));
+            }
+        }
+        hits.sort(SearchHit.BEST_FIRST);
+        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+    }
+
+    /**
+     * Returns the number of nodes in the graph.
+     */
+    int size() {
+        synchronized (entryLock) {
+            return nodeCount;
+        }
+    }
+
+    /**
+     * Estimates the heap used by the graph: the node table, the nodes and their neighbour lists.
+     * The vectors are not included.
+     */
+    long memoryBytes() {
+        Node[] current = nodes;
+        long bytes = 16 + (long) current.length * Integer.BYTES;
+        for (Node node : current) {
+            if (node != null) {
+                bytes += 40 + (long) node.links.length * Integer.BYTES;
+                for (int level = 0; level <= node.level; level++) {
+                    bytes += 16 + (long) node.neighbours(level).length * Integer.BYTES;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private Node register(int id, int level) {
+        Node node = new Node(id, level);
+        synchronized (entryLock) {
+            Node[] current = nodes;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, id + 1));
+            }
+            current[id] = node;
+            nodes = current;
+            nodeCount++;
+        }
+        return node;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float currentScore = vectors.dot(current, query);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : nodes[current].neighbours(level)) {
+                float score = vectors.dot(neighbour, query);
+                if (score > currentScore) {
+                    current = neighbour;
+                    currentScore = score;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of a single layer. Returns the ef best nodes found, as a min-queue.
+     */
+    private NodeQueue searchLayer(float[] query, NodeQueue entryPoints, int ef, int level) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(nodes.length);
+        NodeQueue candidates = new NodeQueue(ef, true);
+        NodeQueue results = new NodeQueue(ef + 1, false);
+        for (int i = 0; i < entryPoints.size(); i++) {
+            int id = entryPoints.idAt(i);
+            float score = entryPoints.scoreAt(i);
+            visited.add(id);
+            candidates.push(id, score);
+            results.push(id, score);
+        }
+
+        while (candidates.size() > 0) {
+            int candidate = candidates.topId();
+            float candidateScore = candidates.topScore();
+            candidates.pop();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            for (int neighbour : nodes[candidate].neighbours(level)) {
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                float score = vectors.dot(neighbour, query);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: a candidate is kept only if it is closer
+     * to the new node than to every neighbour kept so far, which spreads links across clusters.
+     * Remaining slots are filled with the closest discarded candidates.
+     */
+    private int[] selectNeighbours(NodeQueue candidates, int maxConnections) {
+        int count = candidates.size();
+        int[] ids = new int[count];
+        float[] scores = new float[count];
+        // The queue pops worst first, so fill from the back to get best first
+        for (int i = count - 1; i >= 0; i--) {
+            ids[i] = candidates.topId();
+            scores[i] = candidates.topScore();
+            candidates.pop();
+        }
+        for (int i = 0; i < count; i++) {
+            candidates.push(ids[i], scores[i]);
+        }
+        return selectDiverse(ids, scores, count, maxConnections);
+    }
+
+    private int[] selectDiverse(int[] ids, float[] scores, int count, int maxConnections) {
+        int[] selected = new int[Math.min(count, maxConnections)];
+        boolean[] taken = new boolean[count];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (vectors.dotBetween(ids[i], selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = ids[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            if (!taken[i]) {
+                selected[selectedCount++] = ids[i];
+            }
+        }
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * Adds links to a node. Other inserts may already have linked to a node that is still being
+     * inserted, so links are always merged rather than overwritten. When a list overflows it is
+     * pruned back to a diverse subset relative to the node.
+     */
+    private void addLinks(Node node, int level, int[] ids, int maxConnections) {
+        synchronized (node) {
+            int[] current = node.links[level];
+            int[] merged = Arrays.copyOf(current, current.length + ids.length);
+            int size = current.length;
+            for (int id : ids) {
+                if (!contains(current, id)) {
+                    merged[size++] = id;
+                }
+            }
+            if (size <= maxConnections) {
+                node.links[level] = size == merged.length ? merged : Arrays.copyOf(merged, size);
+                return;
+            }
+            float[] scores = new float[size];
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                scores[i] = vectors.dotBetween(node.id, merged[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+            int[] sortedIds = new int[size];
+            float[] sortedScores = new float[size];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = merged[order[i]];
+                sortedScores[i] = scores[order[i]];
+            }
+            node.links[level] = selectDiverse(sortedIds, sortedScores, size, maxConnections);
+        }
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws the top layer of a node from the usual exponentially decaying distribution.
+     * The draw is derived from the id so that graph construction is reproducible.
+     */
+    private int randomLevel(int id) {
+        long z = (id + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        double uniform = ((z >>> 11) + 1) * 0x1.0p-53;
+        return (int) (-Math.log(uniform) * levelMultiplier);
+    }
+
+    /**
+     * A graph node with one neighbour list per layer up to its own level.
+     */
+    private static final class Node {
+        final int id;
+        final int level;
+        final int[][] links;
+
+        Node(int id, int level) {
+            this.id = id;
+            this.level = level;
+            this.links = new int[level + 1][];
+            Arrays.fill(links, new int[0]);
+        }
+
+        synchronized int[] neighbours(int level) {
+            return level < links.length ? links[level] : new int[0];
+        }
+    }
+
+    /**
+     * Binary heap of (id, score) pairs on primitive arrays, either best-first or worst-first.
+     */
+    private static final class NodeQueue {
+        private final boolean bestFirst;
+        private int[] ids;
+        private float[] scores;
+        private int size;
+
+        NodeQueue(int capacity, boolean bestFirst) {
+            this.bestFirst = bestFirst;
+            this.ids = new int[Math.max(2, capacity)];
+            this.scores = new float[Math.max(2, capacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int topId() {
+            return ids[0];
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        int idAt(int index) {
+            return ids[index];
+        }
+
+        float scoreAt(int index) {
+            return scores[index];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                ids[index] = ids[parent];
+                scores[index] = scores[parent];
+                index = parent;
+            }
+            ids[index] = id;
+            scores[index] = score;
+        }
+
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            int id = ids[size];
+            float score = scores[size];
+            int index = 0;
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], score)) {
+                    break;
+                }
+                ids[index] = ids[child];
+                scores[index] = scores[child];
+                index = child;
+            }
+            ids[index] = id;
+            scores[index] = score;
+        }
+
+        private boolean before(float a, float b) {
+            return bestFirst ? a > b : a < b;
+        }
+    }
+
+    /**
+     * Per-thread visited marks, cleared in O(1) by bumping a generation counter.
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[capacity];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int id) {
+            if (id >= marks.length) {
+                // The graph grew during this search
+                marks = Arrays.copyOf(marks, Math.max(marks.length * 2, id + 1));
+            }
+            if (marks[id] == generation) {
+                return false;
+            }
+            marks[id] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package com.airline.assistant.rag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Versioned binary snapshot of a {@link SimpleVectorStore}: chunk text and metadata, BM25 postings
+ * and embedding vectors. Every section is a flat little-endian array, so a mapped file is searched
+ * in place: postings and vectors are read through buffer views and chunks are only decoded into
+ * {@link AirlineDocument}s when they are returned.
+ *
+ * <p>Layout: a header with the magic number, format version, counts, section offsets, the source
+ * fingerprint and the embedding model id, followed by 8-byte aligned sections. Terms are sorted by
+ * their UTF-8 bytes so that lookups binary search the mapped dictionary without building a map.
+ */
+final class KnowledgeBaseIndexFile {
+
+    private static final int MAGIC = 0x414B4249; // "AKBI"
+    static final int VERSION = 1;
+
+    private static final int TEXT_OFFSETS = 0;
+    private static final int TEXT = 1;
+    private static final int METADATA_OFFSETS = 2;
+    private static final int METADATA = 3;
+    private static final int DOCUMENT_LENGTHS = 4;
+    private static final int TERM_OFFSETS = 5;
+    private static final int TERMS = 6;
+    private static final int TERM_STATISTICS = 7;
+    private static final int POSTING_DOCUMENT_IDS = 8;
+    private static final int POSTING_FREQUENCIES = 9;
+    private static final int VECTORS = 10;
+    private static final int SECTION_COUNT = 11;
+
+    /** Ints per term in the statistics section: first posting, document frequency, max frequency, min length. */
+    private static final int TERM_STATISTICS_WIDTH = 4;
+
+    private static final byte STRING = 'S';
+    private static final byte INTEGER = 'I';
+    private static final byte LONG = 'L';
+    private static final byte DOUBLE = 'D';
+    private static final byte BOOLEAN = 'B';
+
+    private final ByteBuffer buffer;
+    private final String fingerprint;
+    private final String embeddingModelId;
+    private final int documentCount;
+    private final int dimensions;
+    private final int vocabularySize;
+    private final long totalLength;
+    private final int[] sections = new int[SECTION_COUNT];
+
+    private KnowledgeBaseIndexFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 8 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a knowledge base index file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index format version " + version + ", expected " + VERSION);
+        }
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(8);
+        this.documentCount = header.getInt();
+        this.dimensions = header.getInt();
+        this.vocabularySize = header.getInt();
+        header.getInt(); // Total number of postings, implied by the term statistics
+        this.totalLength = header.getLong();
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            sections[i] = Math.toIntExact(header.getLong());
+        }
+        this.fingerprint = readString(header);
+        this.embeddingModelId = readString(header);
+    }
+
+    /**
+     * Memory-maps an index file. The mapping stays valid after the channel is closed and is
+     * shared through the page cache with every other process mapping the same file.
+     *
+     * @param file The index file
+     * @return The mapped index
+     * @throws IOException If the file cannot be read or has another format version
+     */
+    static KnowledgeBaseIndexFile map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index files larger than 2 GB are not supported: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new KnowledgeBaseIndexFile(buffer);
+        }
+    }
+
+    /**
+     * Writes an index file. The file is written next to the target and moved into place, so that
+     * processes starting concurrently never map a partially written index.
+     *
+     * @param file             The target file
+     * @param fingerprint      The fingerprint of the sources the chunks were built from
+     * @param embeddingModelId The model that produced the vectors, or an empty string if there are none
+     * @param documents        The chunks, in id order
+     * @param lexicalIndex     The BM25 index over the chunks
+     * @param vectors          The chunk vectors in id order, or {@code null} if there are none
+     * @throws IOException If the file cannot be written
+     */
+    static void write(Path file, String fingerprint, String embeddingModelId, List<AirlineDocument> documents,
+                      Bm25Index lexicalIndex, DenseVectors vectors) throws IOException {
+        int documentCount = documents.size();
+        int dimensions = vectors != null ? vectors.dimensions() : 0;
+
+        List<byte[]> texts = new ArrayList<>(documentCount);
+        List<byte[]> metadata = new ArrayList<>(documentCount);
+        for (AirlineDocument document : documents) {
+            texts.add(document.getContent().getBytes(StandardCharsets.UTF_8));
+            metadata.add(encodeMetadata(document.getMetadata()));
+        }
+
+        List<byte[]> terms = new ArrayList<>();
+        Map<String, PostingsList> postingsByTerm = new HashMap<>();
+        lexicalIndex.forEachTerm((term, postings) -> {
+            terms.add(term.getBytes(StandardCharsets.UTF_8));
+            postingsByTerm.put(term, postings);
+        });
+        terms.sort(Arrays::compareUnsigned);
+        int postingsCount = postingsByTerm.values().stream().mapToInt(PostingsList::size).sum();
+
+        Output out = new Output();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(documentCount);
+        out.putInt(dimensions);
+        out.putInt(terms.size());
+        out.putInt(postingsCount);
+        out.putLong(lexicalIndex.totalLength());
+        int sectionTable = out.position();
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            out.putLong(0);
+        }
+        out.putString(fingerprint);
+        out.putString(embeddingModelId);
+        int[] sections = new int[SECTION_COUNT];
+
+        sections[TEXT_OFFSETS] = out.align();
+        putOffsets(out, texts);
+        sections[TEXT] = out.align();
+        texts.forEach(out::putBytes);
+
+        sections[METADATA_OFFSETS] = out.align();
+        putOffsets(out, metadata);
+        sections[METADATA] = out.align();
+        metadata.forEach(out::putBytes);
+
+        sections[DOCUMENT_LENGTHS] = out.align();
+        for (int id = 0; id < documentCount; id++) {
+            out.putInt(lexicalIndex.documentLength(id));
+        }
+
+        sections[TERM_OFFSETS] = out.align();
+        putOffsets(out, terms);
+        sections[TERMS] = out.align();
+        terms.forEach(out::putBytes);
+
+        sections[TERM_STATISTICS] = out.align();
+        int firstPosting = 0;
+        for (byte[] term : terms) {
+            PostingsList postings = postingsByTerm.get(new String(term, StandardCharsets.UTF_8));
+            out.putInt(firstPosting);
+            out.putInt(postings.size());
+            out.putInt(postings.maxFrequency());
+            out.putInt(postings.minDocumentLength());
+            firstPosting += postings.size();
+        }
+        sections[POSTING_DOCUMENT_IDS] = out.align();
+        for (byte[] term : terms) {
+            PostingsList postings = postingsByTerm.get(new String(term, StandardCharsets.UTF_8));
+            for (int i = 0; i < postings.size(); i++) {
+                out.putInt(postings.documentId(i));
+            }
+        }
+        sections[POSTING_FREQUENCIES] = out.align();
+        for (byte[] term : terms) {
+            PostingsList postings = postingsByTerm.get(new String(term, StandardCharsets.UTF_8));
+            for (int i = 0; i < postings.size(); i++) {
+                out.putInt(postings.frequency(i));
+            }
+        }
+
+        sections[VECTORS] = out.align();
+        if (vectors != null) {
+            for (int id = 0; id < documentCount; id++) {
+                for (float value : vectors.get(id)) {
+                    out.putFloat(value);
+                }
+            }
+        }
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            out.putLong(sectionTable + i * Long.BYTES, sections[i]);
+        }
+
+        Path target = file.toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer contents = out.contents();
+                while (contents.hasRemaining()) {
+                    channel.write(contents);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    String embeddingModelId() {
+        return embeddingModelId;
+    }
+
+    int documentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the number of vector dimensions, or 0 if the index holds no vectors.
+     */
+    int dimensions() {
+        return dimensions;
+    }
+
+    int vocabularySize() {
+        return vocabularySize;
+    }
+
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the size of the mapped file in bytes.
+     */
+    long sizeBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns a copy of the per-document term counts, the only section copied onto the heap.
+     */
+    int[] documentLengths() {
+        int[] lengths = new int[documentCount];
+        ints(DOCUMENT_LENGTHS, 0, documentCount).get(lengths);
+        return lengths;
+    }
+
+    /**
+     * Returns a view of the stored vectors, or {@code null} if the index holds none.
+     */
+    FloatBuffer vectors() {
+        if (dimensions == 0) {
+            return null;
+        }
+        return buffer.slice(sections[VECTORS], documentCount * dimensions * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+    }
+
+    /**
+     * Returns a list view that decodes each chunk when it is accessed.
+     */
+    ChunkList documents() {
+        return new Chunks();
+    }
+
+    /**
+     * Decodes a chunk with its metadata.
+     */
+    AirlineDocument document(int id) {
+        return new AirlineDocument(content(id), decodeMetadata(entry(METADATA_OFFSETS, METADATA, id)));
+    }
+
+    /**
+     * Decodes the text of a chunk.
+     */
+    String content(int id) {
+        Objects.checkIndex(id, documentCount);
+        return StandardCharsets.UTF_8.decode(entry(TEXT_OFFSETS, TEXT, id)).toString();
+    }
+
+    /**
+     * Decodes the term at a position of the sorted dictionary.
+     */
+    String term(int index) {
+        Objects.checkIndex(index, vocabularySize);
+        return StandardCharsets.UTF_8.decode(entry(TERM_OFFSETS, TERMS, index)).toString();
+    }
+
+    /**
+     * Looks a term up in the mapped dictionary.
+     *
+     * @param term The term
+     * @return A view of the postings of the term, or {@code null} if no document contains it
+     */
+    PostingsList postings(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = vocabularySize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compare(entry(TERM_OFFSETS, TERMS, mid), key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                IntBuffer statistics = ints(TERM_STATISTICS, mid * TERM_STATISTICS_WIDTH, TERM_STATISTICS_WIDTH);
+                int first = statistics.get(0);
+                int frequency = statistics.get(1);
+                return new PostingsList(ints(POSTING_DOCUMENT_IDS, first, frequency),
+                        ints(POSTING_FREQUENCIES, first, frequency), statistics.get(2), statistics.get(3));
+            }
+        }
+        return null;
+    }
+
+    private IntBuffer ints(int section, int from, int count) {
+        return buffer.slice(sections[section] + from * Integer.BYTES, count * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+    }
+
+    /**
+     * Returns entry {@code index} of a variable-length section addressed by an offsets section.
+     */
+    private ByteBuffer entry(int offsetsSection, int dataSection, int index) {
+        int offsets = sections[offsetsSection] + index * Integer.BYTES;
+        int start = buffer.getInt(offsets);
+        int end = buffer.getInt(offsets + Integer.BYTES);
+        return buffer.slice(sections[dataSection] + start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Compares UTF-8 bytes as unsigned values, which orders terms by code point like the writer.
+     */
+    private static int compare(ByteBuffer stored, byte[] key) {
+        int length = Math.min(stored.remaining(), key.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Byte.compareUnsigned(stored.get(i), key[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(stored.remaining(), key.length);
+    }
+
+    private static void putOffsets(Output out, List<byte[]> entries) {
+        int offset = 0;
+        out.putInt(offset);
+        for (byte[] entry : entries) {
+            offset += entry.length;
+            out.putInt(offset);
+        }
+    }
+
+    private static byte[] encodeMetadata(Map<String, Object> metadata) {
+        Output out = new Output();
+        out.putInt(metadata.size());
+        metadata.forEach((key, value) -> {
+            out.putString(key);
+            if (value instanceof Integer number) {
+                out.putByte(INTEGER);
+                out.putInt(number);
+            } else if (value instanceof Long number) {
+                out.putByte(LONG);
+                out.putLong(number);
+            } else if (value instanceof Double number) {
+                out.putByte(DOUBLE);
+                out.putDouble(number);
+            } else if (value instanceof Boolean flag) {
+                out.putByte(BOOLEAN);
+                out.putByte((byte) (flag ? 1 : 0));
+            } else {
+                out.putByte(STRING);
+                out.putString(String.valueOf(value));
+            }
+        });
+        ByteBuffer contents = out.contents();
+        byte[] bytes = new byte[contents.remaining()];
+        contents.get(bytes);
+        return bytes;
+    }
+
+    private static Map<String, Object> decodeMetadata(ByteBuffer in) {
+        int count = in.getInt();
+        Map<String, Object> metadata = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            byte type = in.get();
+            Object value = switch (type) {
+                case INTEGER -> in.getInt();
+                case LONG -> in.getLong();
+                case DOUBLE -> in.getDouble();
+                case BOOLEAN -> in.get() != 0;
+                default -> readString(in);
+            };
+            metadata.put(key, value);
+        }
+        return metadata;
+    }
+
+    /**
+     * Decodes a single value of encoded metadata, skipping the other entries without decoding them.
+     */
+    private static Object decodeMetadataValue(ByteBuffer in, String key) {
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int length = in.getInt();
+            boolean match = compare(in.slice(in.position(), length), wanted) == 0;
+            in.position(in.position() + length);
+            byte type = in.get();
+            if (match) {
+                return switch (type) {
+                    case INTEGER -> in.getInt();
+                    case LONG -> in.getLong();
+                    case DOUBLE -> in.getDouble();
+                    case BOOLEAN -> in.get() != 0;
+                    default -> readString(in);
+                };
+            }
+            in.position(in.position() + switch (type) {
+                case INTEGER -> Integer.BYTES;
+                case LONG -> Long.BYTES;
+                case DOUBLE -> Double.BYTES;
+                case BOOLEAN -> 1;
+                default -> Integer.BYTES + in.getInt(in.position());
+            });
+        }
+        return null;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * The chunks of the file, decoding only the fields that are read.
+     */
+    private final class Chunks extends AbstractList<AirlineDocument> implements ChunkList {
+
+        @Override
+        public AirlineDocument get(int index) {
+            return document(index);
+        }
+
+        @Override
+        public String content(int id) {
+            return KnowledgeBaseIndexFile.this.content(id);
+        }
+
+        @Override
+        public Object metadataValue(int id, String key) {
+            Objects.checkIndex(id, documentCount);
+            return decodeMetadataValue(entry(METADATA_OFFSETS, METADATA, id), key);
+        }
+
+        @Override
+        public int size() {
+            return documentCount;
+        }
+    }
+
+    /**
+     * Growable little-endian buffer used while writing.
+     */
+    private static final class Output {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        int position() {
+            return buffer.position();
+        }
+
+        /**
+         * Pads to the next multiple of 8 and returns the aligned position.
+         */
+        int align() {
+            while (buffer.position() % Long.BYTES != 0) {
+                putByte((byte) 0);
+            }
+            return buffer.position();
+        }
+
+        void putByte(byte value) {
+            ensure(1).put(value);
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putLong(int index, long value) {
+            buffer.putLong(index, value);
+        }
+
+        void putFloat(float value) {
+            ensure(Float.BYTES).putFloat(value);
+        }
+
+        void putDouble(double value) {
+            ensure(Double.BYTES).putDouble(value);
+        }
+
+        void putBytes(byte[] value) {
+            ensure(value.length).put(value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        ByteBuffer contents() {
+            return buffer.duplicate().flip();
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                long required = (long) buffer.position() + bytes;
+                if (required > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Index files larger than 2 GB are not supported");
+                }
+                int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, buffer.capacity() * 2L));
+                ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                grown.put(buffer.flip());
+                buffer = grown;
+            }
+            return buffer;
+        }
+    }
+}
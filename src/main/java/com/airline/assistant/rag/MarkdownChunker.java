@@ -0,0 +1,393 @@
+package com.airline.assistant.rag;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits markdown into chunks of at most a given number of tokens, reading the input line by line.
+ * Only the chunk being assembled is held in memory, so documents of any size are chunked without
+ * truncation. Tokens are whitespace-separated words.
+ *
+ * <p>Chunks follow the document structure: a heading always starts a new chunk, and paragraphs,
+ * list items, fenced code blocks and table rows are kept whole unless a single one exceeds the
+ * token budget, in which case it is split at sentence and then word boundaries. A table split
+ * across chunks repeats its header row. Consecutive chunks of the same section overlap by their
+ * trailing blocks, up to the overlap budget. Tables are recognized in pipe syntax and as the
+ * tab-separated rows that pasted web tables produce.
+ */
+public final class MarkdownChunker {
+
+    private static final Pattern HEADING = Pattern.compile("^ {0,3}(#{1,6})\\s+(.*?)\\s*#*\\s*$");
+    private static final Pattern LIST_ITEM = Pattern.compile("^\\s*([-*+]|\\d{1,9}[.)])\\s+");
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+");
+
+    private final int maxTokens;
+    private final int overlapTokens;
+
+    /**
+     * A chunk of text with the headings of the section it belongs to.
+     *
+     * @param text        The chunk text
+     * @param headingPath The enclosing headings, outermost first
+     */
+    public record Chunk(String text, List<String> headingPath) {}
+
+    /**
+     * @param maxTokens     The maximum number of tokens per chunk
+     * @param overlapTokens The maximum number of tokens repeated from the previous chunk of the same section
+     */
+    public MarkdownChunker(int maxTokens, int overlapTokens) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("Chunks need at least one token: " + maxTokens);
+        }
+        this.maxTokens = maxTokens;
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, maxTokens / 2));
+    }
+
+    /**
+     * Chunks markdown text.
+     *
+     * @param text The markdown text
+     * @return The chunks in document order
+     */
+    public List<Chunk> chunk(String text) {
+        List<Chunk> chunks = new ArrayList<>();
+        try {
+            chunk(new StringReader(text), chunks::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunks;
+    }
+
+    /**
+     * Chunks markdown read from a reader, handing each chunk to the consumer as soon as it is complete.
+     *
+     * @param reader   The markdown source; it is not closed
+     * @param consumer Receives the chunks in document order
+     * @throws IOException If the reader fails
+     */
+    public void chunk(Reader reader, Consumer<Chunk> consumer) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+        Assembler assembler = new Assembler(consumer);
+        StringBuilder block = new StringBuilder();
+        BlockType blockType = null;
+        String fence = null;
+
+        // One line of lookahead tells a tab-separated table row from prose that contains a tab
+        String previous = null;
+        String next = lines.readLine();
+        for (String line = next; line != null; previous = line, line = next) {
+            next = lines.readLine();
+            if (fence != null) {
+                // Inside a fenced code block everything is kept verbatim until the closing fence
+                block.append('\n').append(line);
+                if (line.strip().startsWith(fence)) {
+                    assembler.add(block.toString(), BlockType.CODE);
+                    block.setLength(0);
+                    blockType = null;
+                    fence = null;
+                }
+                continue;
+            }
+
+            String stripped = line.strip();
+            if (stripped.startsWith("```") || stripped.startsWith("~~~")) {
+                flush(assembler, block, blockType);
+                fence = stripped.substring(0, 3);
+                block.append(line);
+                blockType = BlockType.CODE;
+                continue;
+            }
+
+            Matcher heading = HEADING.matcher(line);
+            if (heading.matches()) {
+                flush(assembler, block, blockType);
+                blockType = null;
+                assembler.heading(heading.group(1).length(), heading.group(2), stripped);
+                continue;
+            }
+
+            if (stripped.isEmpty()) {
+                flush(assembler, block, blockType);
+                assembler.endTable();
+                blockType = null;
+                continue;
+            }
+
+            if (TableRows.isRow(previous, line, next)) {
+                if (blockType != BlockType.TABLE_ROW) {
+                    flush(assembler, block, blockType);
+                    assembler.startTable();
+                } else {
+                    flush(assembler, block, blockType);
+                }
+                if (TableRows.isSeparator(line)) {
+                    assembler.extendTableHeader(line);
+                } else {
+                    block.append(line);
+                }
+                blockType = BlockType.TABLE_ROW;
+                continue;
+            }
+
+            if (LIST_ITEM.matcher(line).find()) {
+                flush(assembler, block, blockType);
+                block.append(line);
+                blockType = BlockType.LIST_ITEM;
+                continue;
+            }
+
+            if (blockType == BlockType.TABLE_ROW) {
+                // A plain line ends the table
+                flush(assembler, block, blockType);
+                assembler.endTable();
+                blockType = null;
+            }
+            if (blockType == null) {
+                blockType = BlockType.PARAGRAPH;
+            } else {
+                // Continuation of a paragraph or list item
+                block.append('\n');
+            }
+            block.append(line);
+        }
+
+        flush(assembler, block, blockType);
+        assembler.finish();
+    }
+
+    private static void flush(Assembler assembler, StringBuilder block, BlockType blockType) {
+        if (!block.isEmpty()) {
+            assembler.add(block.toString(), blockType);
+            block.setLength(0);
+        }
+        if (blockType != BlockType.TABLE_ROW) {
+            assembler.endTable();
+        }
+    }
+
+    /**
+     * Counts whitespace-separated tokens.
+     */
+    static int countTokens(CharSequence text) {
+        int tokens = 0;
+        boolean inToken = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean whitespace = Character.isWhitespace(text.charAt(i));
+            if (!whitespace && !inToken) {
+                tokens++;
+            }
+            inToken = !whitespace;
+        }
+        return tokens;
+    }
+
+    private enum BlockType {
+        PARAGRAPH, LIST_ITEM, TABLE_ROW, CODE, HEADING
+    }
+
+    private record Block(String text, int tokens, BlockType type) {}
+
+    /**
+     * Packs blocks into chunks and tracks the heading path and the open table.
+     */
+    private final class Assembler {
+
+        private final Consumer<Chunk> consumer;
+        private final Deque<String[]> headings = new ArrayDeque<>(); // {level, title}
+        private final List<Block> blocks = new ArrayList<>();
+        private int tokens;
+        private boolean hasNewContent;
+        private Block tableHeader;
+        private boolean tableHeaderPending;
+
+        Assembler(Consumer<Chunk> consumer) {
+            this.consumer = consumer;
+        }
+
+        void heading(int level, String title, String line) {
+            emit();
+            blocks.clear();
+            tokens = 0;
+            while (!headings.isEmpty() && Integer.parseInt(headings.peekLast()[0]) >= level) {
+                headings.removeLast();
+            }
+            headings.addLast(new String[] {Integer.toString(level), title});
+            append(new Block(line, countTokens(line), BlockType.HEADING));
+        }
+
+        void startTable() {
+            tableHeader = null;
+            tableHeaderPending = true;
+        }
+
+        void extendTableHeader(String separator) {
+            if (tableHeader != null) {
+                String text = tableHeader.text() + "\n" + separator;
+                Block extended = new Block(text, countTokens(text), BlockType.TABLE_ROW);
+                int index = blocks.lastIndexOf(tableHeader);
+                if (index >= 0) {
+                    blocks.set(index, extended);
+                    tokens += extended.tokens() - tableHeader.tokens();
+                }
+                tableHeader = extended;
+            }
+        }
+
+        void endTable() {
+            tableHeader = null;
+            tableHeaderPending = false;
+        }
+
+        void add(String text, BlockType type) {
+            Block block = new Block(text, countTokens(text), type);
+            if (type == BlockType.TABLE_ROW && tableHeaderPending) {
+                tableHeaderPending = false;
+                // A header that does not fit a chunk on its own is treated as a plain row
+                tableHeader = block.tokens() <= maxTokens / 2 ? block : null;
+            }
+            if (block.tokens() > maxTokens) {
+                for (String piece : split(text)) {
+                    add(new Block(piece, countTokens(piece), type));
+                }
+            } else {
+                add(block);
+            }
+        }
+
+        private void add(Block block) {
+            if (tokens + block.tokens() > maxTokens && hasNewContent) {
+                emit();
+                carryOverlap();
+                // Repeat the header so that the rows of a split table stay interpretable
+                boolean repeatHeader = block.type() == BlockType.TABLE_ROW && tableHeader != null
+                        && block != tableHeader && !blocks.contains(tableHeader);
+                int reserved = block.tokens() + (repeatHeader ? tableHeader.tokens() : 0);
+                while (tokens + reserved > maxTokens && !blocks.isEmpty()) {
+                    tokens -= blocks.remove(0).tokens();
+                }
+                if (repeatHeader) {
+                    int position = !blocks.isEmpty() && blocks.get(0).type() == BlockType.HEADING ? 1 : 0;
+                    blocks.add(position, tableHeader);
+                    tokens += tableHeader.tokens();
+                }
+            }
+            append(block);
+        }
+
+        void finish() {
+            emit();
+        }
+
+        private void append(Block block) {
+            blocks.add(block);
+            tokens += block.tokens();
+            if (block.type() != BlockType.HEADING) {
+                hasNewContent = true;
+            }
+        }
+
+        private void appendCarried(Block block) {
+            blocks.add(block);
+            tokens += block.tokens();
+        }
+
+        /**
+         * Keeps the heading of the section and the trailing blocks that fit in the overlap budget.
+         */
+        private void carryOverlap() {
+            List<Block> previous = new ArrayList<>(blocks);
+            blocks.clear();
+            tokens = 0;
+            int start = previous.size();
+            int overlap = 0;
+            while (start > 0) {
+                Block candidate = previous.get(start - 1);
+                if (candidate.type() == BlockType.HEADING || overlap + candidate.tokens() > overlapTokens) {
+                    break;
+                }
+                overlap += candidate.tokens();
+                start--;
+            }
+            if (!previous.isEmpty() && previous.get(0).type() == BlockType.HEADING
+                    && previous.get(0).tokens() + overlap <= overlapTokens) {
+                appendCarried(previous.get(0));
+            }
+            for (Block block : previous.subList(start, previous.size())) {
+                appendCarried(block);
+            }
+        }
+
+        private void emit() {
+            if (!hasNewContent) {
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            for (Block block : blocks) {
+                if (!text.isEmpty()) {
+                    text.append(block.type() == BlockType.TABLE_ROW || block.type() == BlockType.LIST_ITEM ? "\n" : "\n\n");
+                }
+                text.append(block.text());
+            }
+            List<String> path = new ArrayList<>(headings.size());
+            headings.forEach(heading -> path.add(heading[1]));
+            consumer.accept(new Chunk(text.toString(), List.copyOf(path)));
+            hasNewContent = false;
+        }
+
+        /**
+         * Splits an oversized block at sentence boundaries, and sentences that are still too long at words.
+         */
+        private List<String> split(String text) {
+            List<String> pieces = new ArrayList<>();
+            StringBuilder piece = new StringBuilder();
+            int pieceTokens = 0;
+            for (String sentence : SENTENCE_END.split(text)) {
+                int sentenceTokens = countTokens(sentence);
+                if (sentenceTokens > maxTokens) {
+                    for (String word : sentence.split("\\s+")) {
+                        if (word.isEmpty()) {
+                            continue;
+                        }
+                        if (pieceTokens + 1 > maxTokens) {
+                            pieces.add(piece.toString());
+                            piece.setLength(0);
+                            pieceTokens = 0;
+                        }
+                        if (!piece.isEmpty()) {
+                            piece.append(' ');
+                        }
+                        piece.append(word);
+                        pieceTokens++;
+                    }
+                    continue;
+                }
+                if (pieceTokens + sentenceTokens > maxTokens && !piece.isEmpty()) {
+                    pieces.add(piece.toString());
+                    piece.setLength(0);
+                    pieceTokens = 0;
+                }
+                if (!piece.isEmpty()) {
+                    piece.append(' ');
+                }
+                piece.append(sentence);
+                pieceTokens += sentenceTokens;
+            }
+            if (!piece.isEmpty()) {
+                pieces.add(piece.toString());
+            }
+            return pieces;
+        }
+    }
+}
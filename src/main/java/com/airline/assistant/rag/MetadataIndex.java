@@ -0,0 +1,161 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The ids of the chunks carrying each value of a few metadata keys, as bitsets, so that a
+ * metadata filter resolves to a set of candidate ids without looking at a single chunk.
+ *
+ * <p>Values are compared the way filters compare them: numbers by their numeric value, whatever
+ * their boxed type, and everything else by equality. A chunk that stands for a group of
+ * near-duplicate chunks lists the sources and airlines of all members under {@link #MEMBER_KEYS},
+ * and has each of them as a value of {@code source} and {@code airline}. A single writer adds
+ * chunks; searches use the immutable copies returned by {@link #freeze()}.
+ */
+final class MetadataIndex {
+
+    // A map node, the value, and a bitset with its word array header
+    private static final int ENTRY_BYTES = 96;
+
+    /**
+     * The metadata keys listing, comma separated, the values of a key for every member of a group
+     * of near-duplicate chunks stored once.
+     */
+    static final Map<String, String> MEMBER_KEYS = Map.of("source", "sources", "airline", "airlines");
+
+    private final Set<String> keys;
+    private final Map<String, Map<Object, BitSet>> idsByValue = new HashMap<>();
+    private MetadataIndex frozen;
+
+    /**
+     * @param keys The metadata keys to index
+     */
+    MetadataIndex(Collection<String> keys) {
+        this.keys = Set.copyOf(new LinkedHashSet<>(keys));
+        for (String key : this.keys) {
+            idsByValue.put(key, new HashMap<>());
+        }
+    }
+
+    /**
+     * Indexes the metadata of a chunk.
+     *
+     * @param id       The id of the chunk
+     * @param metadata The metadata of the chunk
+     */
+    void add(int id, Map<String, Object> metadata) {
+        add(id, metadata::get);
+    }
+
+    /**
+     * Indexes the metadata of a chunk, reading only the indexed keys and their member keys.
+     *
+     * @param id       The id of the chunk
+     * @param metadata Looks up a metadata value of the chunk, {@code null} if it does not have the key
+     */
+    void add(int id, Function<String, Object> metadata) {
+        if (frozen == this) {
+            throw new IllegalStateException("A frozen metadata index is read-only");
+        }
+        for (String key : keys) {
+            for (Object value : values(key, metadata)) {
+                idsByValue.get(key).computeIfAbsent(normalize(value), v -> new BitSet()).set(id);
+            }
+        }
+        frozen = null;
+    }
+
+    /**
+     * Returns an immutable copy of the index. The copy is reused until the next chunk is added.
+     */
+    MetadataIndex freeze() {
+        if (frozen == null) {
+            MetadataIndex copy = new MetadataIndex(keys);
+            idsByValue.forEach((key, values) ->
+                values.forEach((value, ids) -> copy.idsByValue.get(key).put(value, (BitSet) ids.clone())));
+            copy.frozen = copy;
+            frozen = copy;
+        }
+        return frozen;
+    }
+
+    /**
+     * Returns whether a key is indexed.
+     */
+    boolean isIndexed(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Returns the ids of the chunks whose value for an indexed key equals the given value.
+     *
+     * @return A new bitset, which the caller may modify
+     */
+    BitSet matching(String key, Object value) {
+        BitSet ids = idsByValue.get(key).get(normalize(value));
+        return ids != null ? (BitSet) ids.clone() : new BitSet();
+    }
+
+    /**
+     * Visits every value of an indexed key with the ids of the chunks carrying it. The bitsets
+     * must not be modified.
+     */
+    void forEachValue(String key, BiConsumer<Object, BitSet> action) {
+        idsByValue.get(key).forEach(action);
+    }
+
+    /**
+     * Estimates the heap used by the bitsets and the map entries of their values.
+     */
+    long memoryBytes() {
+        long bytes = 0;
+        for (Map<Object, BitSet> values : idsByValue.values()) {
+            for (BitSet ids : values.values()) {
+                bytes += ENTRY_BYTES + ids.size() / Byte.SIZE;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the values a chunk has for a key: its own value and, for a chunk standing for a group
+     * of near-duplicates, those of the other members.
+     *
+     * @param metadata Looks up a metadata value of the chunk, {@code null} if it does not have the key
+     */
+    static List<Object> values(String key, Function<String, Object> metadata) {
+        Object value = metadata.apply(key);
+        String memberKey = MEMBER_KEYS.get(key);
+        Object members = memberKey != null ? metadata.apply(memberKey) : null;
+        if (members == null) {
+            return value != null ? List.of(value) : List.of();
+        }
+        List<Object> values = new ArrayList<>();
+        if (value != null) {
+            values.add(value);
+        }
+        for (String member : members.toString().split(",")) {
+            if (!member.isEmpty() && !values.contains(member)) {
+                values.add(member);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Maps numbers of any boxed type onto one representation, so that {@code 3}, {@code 3L}
+     * and {@code 3.0} are the same value.
+     */
+    static Object normalize(Object value) {
+        return value instanceof Number number ? (Object) number.doubleValue() : value;
+    }
+}
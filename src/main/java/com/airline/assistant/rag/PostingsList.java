@@ -0,0 +1,174 @@
+package com.airline.assistant.rag;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings of a single term: the ids of the documents containing it, in increasing order,
+ * together with the term frequency in each document. Postings are either views of an
+ * {@link Appender} built on the heap or read in place from a memory-mapped {@link KnowledgeBaseIndexFile}.
+ * A postings list never changes once created, so it can be read from any thread.
+ */
+final class PostingsList {
+
+    private final int[] documentIds;
+    private final int[] frequencies;
+    private final IntBuffer mappedDocumentIds;
+    private final IntBuffer mappedFrequencies;
+    private final int size;
+    private final int maxFrequency;
+    private final int minDocumentLength;
+
+    private PostingsList(int[] documentIds, int[] frequencies, int size, int maxFrequency, int minDocumentLength) {
+        this.documentIds = documentIds;
+        this.frequencies = frequencies;
+        this.mappedDocumentIds = null;
+        this.mappedFrequencies = null;
+        this.size = size;
+        this.maxFrequency = maxFrequency;
+        this.minDocumentLength = minDocumentLength;
+    }
+
+    /**
+     * Creates a view over postings stored in an index file.
+     */
+    PostingsList(IntBuffer documentIds, IntBuffer frequencies, int maxFrequency, int minDocumentLength) {
+        this.documentIds = null;
+        this.frequencies = null;
+        this.mappedDocumentIds = documentIds;
+        this.mappedFrequencies = frequencies;
+        this.size = documentIds.limit();
+        this.maxFrequency = maxFrequency;
+        this.minDocumentLength = minDocumentLength;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int documentId(int index) {
+        return documentIds != null ? documentIds[index] : mappedDocumentIds.get(index);
+    }
+
+    int frequency(int index) {
+        return frequencies != null ? frequencies[index] : mappedFrequencies.get(index);
+    }
+
+    /**
+     * Highest term frequency in any posting, used for the score upper bound.
+     */
+    int maxFrequency() {
+        return maxFrequency;
+    }
+
+    /**
+     * Shortest document containing the term, used for the score upper bound.
+     */
+    int minDocumentLength() {
+        return minDocumentLength;
+    }
+
+    /**
+     * Returns the first position at or after {@code from} whose document id is at least {@code target},
+     * or {@link #size()} if there is none. Gallops forward before binary searching so that skipping
+     * a few postings stays cheap.
+     */
+    int advance(int from, int target) {
+        if (from >= size || documentId(from) >= target) {
+            return from;
+        }
+        int step = 1;
+        int low = from;
+        int high = from + step;
+        while (high < size && documentId(high) < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high, size - 1);
+        if (documentId(high) < target) {
+            return size;
+        }
+        // documentId(low) < target <= documentId(high)
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (documentId(mid) < target) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Growable postings of a term, appended to by a single writer while readers take views of them.
+     *
+     * <p>Appends only write past the current size, and a grown array is filled before it is
+     * published through a volatile field, followed by the new size. A reader that reads the size
+     * first and the arrays second therefore sees every posting below that size, without locking.
+     * The frequency bounds only ever loosen, so a view may carry bounds that already account for
+     * later postings; they remain valid upper bounds for the postings it covers.
+     */
+    static final class Appender {
+
+        private volatile int[] documentIds = new int[4];
+        private volatile int[] frequencies = new int[4];
+        private volatile int size;
+        private volatile int maxFrequency;
+        private volatile int minDocumentLength = Integer.MAX_VALUE;
+
+        /**
+         * Appends a posting. Document ids must be added in increasing order.
+         */
+        void add(int documentId, int frequency, int documentLength) {
+            int count = size;
+            if (count == documentIds.length) {
+                frequencies = Arrays.copyOf(frequencies, count * 2);
+                documentIds = Arrays.copyOf(documentIds, count * 2);
+            }
+            documentIds[count] = documentId;
+            frequencies[count] = frequency;
+            if (frequency > maxFrequency) {
+                maxFrequency = frequency;
+            }
+            if (documentLength < minDocumentLength) {
+                minDocumentLength = documentLength;
+            }
+            size = count + 1;
+        }
+
+        /**
+         * Estimates the heap used by the appender and its arrays.
+         */
+        long memoryBytes() {
+            return 32 + 2 * (16 + (long) documentIds.length * Integer.BYTES);
+        }
+
+        /**
+         * Returns the postings of documents with ids below the given limit.
+         *
+         * @param documentLimit The exclusive upper bound on document ids
+         * @return An immutable view, empty if no such document contains the term
+         */
+        PostingsList upTo(int documentLimit) {
+            int count = size;
+            int[] ids = documentIds;
+            int[] freqs = frequencies;
+            if (count > 0 && ids[count - 1] >= documentLimit) {
+                int low = 0;
+                int high = count;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (ids[mid] < documentLimit) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                count = low;
+            }
+            return new PostingsList(ids, freqs, count, maxFrequency, minDocumentLength);
+        }
+    }
+}
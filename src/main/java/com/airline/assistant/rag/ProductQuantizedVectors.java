@@ -0,0 +1,215 @@
+package com.airline.assistant.rag;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization: vectors are split into {@code m} subspaces and each sub-vector is
+ * replaced by the one-byte id of its nearest centroid in a codebook learned with k-means.
+ * A vector then costs {@code m} bytes. Queries are scored by precomputing, per subspace,
+ * the dot product of the query slice with every centroid and summing table lookups.
+ *
+ * <p>The codebooks never change after training. Grown code arrays are filled before they replace
+ * the old one and the size is written last, so a scorer may be used concurrently with a single
+ * writer for ids below a size read earlier.
+ */
+final class ProductQuantizedVectors implements QuantizedVectors {
+
+    private static final int MAX_CENTROIDS = 256;
+
+    private final int subspaces;
+    private final int[] offsets;
+    private final int centroidCount;
+    /** Centroids of every subspace, addressed through {@link #centroidOffset}. */
+    private final float[] codebooks;
+    private volatile byte[] codes;
+    private volatile int size;
+
+    private ProductQuantizedVectors(int dimensions, int subspaces, int centroidCount, float[] codebooks) {
+        this.subspaces = subspaces;
+        this.centroidCount = centroidCount;
+        this.codebooks = codebooks;
+        this.offsets = subspaceOffsets(dimensions, subspaces);
+        this.codes = new byte[subspaces * 16];
+    }
+
+    /**
+     * Learns codebooks from the stored vectors with Lloyd's k-means.
+     *
+     * @param vectors       The training vectors
+     * @param subspaces     The number of subspaces, at most the number of dimensions
+     * @param maxTraining   The maximum number of vectors sampled for training
+     * @param iterations    The number of k-means iterations
+     * @return An empty quantizer with trained codebooks
+     */
+    static ProductQuantizedVectors train(DenseVectors vectors, int subspaces, int maxTraining, int iterations) {
+        int dimensions = vectors.dimensions();
+        if (subspaces < 1 || subspaces > dimensions) {
+            throw new IllegalArgumentException("PQ subspaces must be between 1 and " + dimensions + ": " + subspaces);
+        }
+        Random random = new Random(17);
+        int sampleSize = Math.min(maxTraining, vectors.size());
+        int[] sample = sampleIds(vectors.size(), sampleSize, random);
+        int centroidCount = Math.min(MAX_CENTROIDS, sampleSize);
+        int[] offsets = subspaceOffsets(dimensions, subspaces);
+        float[] codebooks = new float[centroidCount * dimensions];
+
+        float[][] training = new float[sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            training[i] = vectors.get(sample[i]);
+        }
+        for (int j = 0; j < subspaces; j++) {
+            trainSubspace(training, offsets[j], offsets[j + 1], centroidCount, iterations, codebooks, random);
+        }
+        return new ProductQuantizedVectors(dimensions, subspaces, centroidCount, codebooks);
+    }
+
+    @Override
+    public void add(float[] vector) {
+        int id = size;
+        byte[] codes = this.codes;
+        if ((id + 1) * subspaces > codes.length) {
+            codes = Arrays.copyOf(codes, codes.length * 2);
+        }
+        int base = id * subspaces;
+        for (int j = 0; j < subspaces; j++) {
+            int start = offsets[j];
+            int end = offsets[j + 1];
+            int best = 0;
+            if (vector != null) {
+                float bestDistance = Float.MAX_VALUE;
+                for (int c = 0; c < centroidCount; c++) {
+                    float distance = squaredDistance(vector, codebooks, start, end, centroidOffset(c, start, end));
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = c;
+                    }
+                }
+            }
+            codes[base + j] = (byte) best;
+        }
+        this.codes = codes;
+        size = id + 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return (long) size * subspaces + (long) codebooks.length * Float.BYTES;
+    }
+
+    int subspaces() {
+        return subspaces;
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        VectorKernels kernels = VectorKernels.get();
+        float[] table = new float[subspaces * centroidCount];
+        for (int j = 0; j < subspaces; j++) {
+            int start = offsets[j];
+            int end = offsets[j + 1];
+            for (int c = 0; c < centroidCount; c++) {
+                table[j * centroidCount + c] = kernels.dot(query, start, codebooks, centroidOffset(c, start, end), end - start);
+            }
+        }
+        byte[] codes = this.codes;
+        return id -> {
+            int base = id * subspaces;
+            float sum = 0;
+            for (int j = 0; j < subspaces; j++) {
+                sum += table[j * centroidCount + (codes[base + j] & 0xFF)];
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * Codebooks are laid out subspace by subspace; within subspace {@code [start, end)} centroid
+     * {@code c} occupies {@code end - start} consecutive floats.
+     */
+    private int centroidOffset(int centroid, int start, int end) {
+        return start * centroidCount + centroid * (end - start);
+    }
+
+    private static void trainSubspace(float[][] training, int start, int end, int centroidCount,
+                                      int iterations, float[] codebooks, Random random) {
+        int width = end - start;
+        int base = start * centroidCount;
+        // Initialize from distinct training vectors
+        int[] seeds = sampleIds(training.length, centroidCount, random);
+        for (int c = 0; c < centroidCount; c++) {
+            System.arraycopy(training[seeds[c]], start, codebooks, base + c * width, width);
+        }
+
+        int[] assignment = new int[training.length];
+        float[] sums = new float[centroidCount * width];
+        int[] counts = new int[centroidCount];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int i = 0; i < training.length; i++) {
+                int best = 0;
+                float bestDistance = Float.MAX_VALUE;
+                for (int c = 0; c < centroidCount; c++) {
+                    float distance = squaredDistance(training[i], codebooks, start, end, base + c * width);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = c;
+                    }
+                }
+                assignment[i] = best;
+            }
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < training.length; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                for (int d = 0; d < width; d++) {
+                    sums[c * width + d] += training[i][start + d];
+                }
+            }
+            for (int c = 0; c < centroidCount; c++) {
+                if (counts[c] == 0) {
+                    // Re-seed empty clusters so that every code stays useful
+                    System.arraycopy(training[random.nextInt(training.length)], start, codebooks, base + c * width, width);
+                    continue;
+                }
+                for (int d = 0; d < width; d++) {
+                    codebooks[base + c * width + d] = sums[c * width + d] / counts[c];
+                }
+            }
+        }
+    }
+
+    private static float squaredDistance(float[] vector, float[] codebooks, int start, int end, int centroid) {
+        return VectorKernels.get().squaredDistance(vector, start, codebooks, centroid, end - start);
+    }
+
+    private static int[] subspaceOffsets(int dimensions, int subspaces) {
+        int[] offsets = new int[subspaces + 1];
+        for (int j = 0; j <= subspaces; j++) {
+            offsets[j] = (int) ((long) j * dimensions / subspaces);
+        }
+        return offsets;
+    }
+
+    /**
+     * Picks {@code count} distinct ids out of {@code [0, total)} with a partial Fisher-Yates shuffle.
+     */
+    private static int[] sampleIds(int total, int count, Random random) {
+        int[] ids = new int[total];
+        for (int i = 0; i < total; i++) {
+            ids[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int swap = i + random.nextInt(total - i);
+            int tmp = ids[i];
+            ids[i] = ids[swap];
+            ids[swap] = tmp;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
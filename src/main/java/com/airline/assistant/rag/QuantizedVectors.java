@@ -0,0 +1,41 @@
+package com.airline.assistant.rag;
+
+/**
+ * Compressed copy of normalized embedding vectors, scored against full-precision queries
+ * with asymmetric distance computation: only the stored side is quantized.
+ */
+interface QuantizedVectors {
+
+    /**
+     * Encodes and appends a normalized vector. Ids follow insertion order.
+     *
+     * @param vector The vector to encode, or {@code null} for an all-zero vector
+     */
+    void add(float[] vector);
+
+    /**
+     * Returns the number of encoded vectors.
+     */
+    int size();
+
+    /**
+     * Returns the number of bytes used by the encoded vectors and any codebooks.
+     */
+    long memoryBytes();
+
+    /**
+     * Prepares a scorer approximating the dot product between the query and each stored vector.
+     *
+     * @param query A normalized query vector
+     * @return A scorer for this query
+     */
+    Scorer scorer(float[] query);
+
+    /**
+     * Approximate similarity of one query against stored vectors.
+     */
+    @FunctionalInterface
+    interface Scorer {
+        float score(int id);
+    }
+}
@@ -0,0 +1,69 @@
+package com.airline.assistant.rag;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of a single retrieval: the best documents with the scores they were ranked by,
+ * and the time spent in each stage of the retrieval.
+ *
+ * @param hits       The retrieved documents, best first
+ * @param stageNanos Nanoseconds spent per stage, in the order the stages ran
+ */
+public record RetrievalResult(List<ScoredDocument> hits, Map<String, Long> stageNanos) {
+
+    /**
+     * A retrieved document and its score. Scores are BM25 scores, cosine similarities, keyword
+     * overlap ratios or reciprocal-rank fusion scores depending on the retrieval mode, so they
+     * only compare within one result.
+     */
+    public record ScoredDocument(AirlineDocument document, double score) {}
+
+    public RetrievalResult {
+        hits = List.copyOf(hits);
+        stageNanos = Collections.unmodifiableMap(new LinkedHashMap<>(stageNanos));
+    }
+
+    /**
+     * Returns a result without hits.
+     */
+    public static RetrievalResult empty(Map<String, Long> stageNanos) {
+        return new RetrievalResult(List.of(), stageNanos);
+    }
+
+    /**
+     * Returns the retrieved documents without their scores, best first.
+     */
+    public List<AirlineDocument> documents() {
+        return hits.stream().map(ScoredDocument::document).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a copy of this result with a stage that ran before all recorded stages.
+     */
+    public RetrievalResult withEarlierStage(String stage, long nanos) {
+        Map<String, Long> stages = new LinkedHashMap<>();
+        stages.put(stage, nanos);
+        stageNanos.forEach(stages::putIfAbsent);
+        return new RetrievalResult(hits, stages);
+    }
+
+    /**
+     * Returns a copy of this result with a stage that ran after all recorded stages.
+     */
+    public RetrievalResult withLaterStage(String stage, long nanos) {
+        Map<String, Long> stages = new LinkedHashMap<>(stageNanos);
+        stages.put(stage, nanos);
+        return new RetrievalResult(hits, stages);
+    }
+
+    /**
+     * Returns the total time across all stages, in nanoseconds.
+     */
+    public long totalNanos() {
+        return stageNanos.values().stream().mapToLong(Long::longValue).sum();
+    }
+}
@@ -0,0 +1,71 @@
+package com.airline.assistant.rag;
+
+import java.util.Arrays;
+
+/**
+ * Int8 scalar quantization with one scale per vector. Each component is stored as
+ * {@code round(x / max|x| * 127)}, so a vector costs one byte per dimension plus a float,
+ * about a quarter of its float32 size, and no training is needed before encoding.
+ *
+ * <p>Grown arrays are filled before they replace the old ones and the size is written last, so
+ * a scorer may be used concurrently with a single writer for ids below a size read earlier.
+ */
+final class ScalarQuantizedVectors implements QuantizedVectors {
+
+    private final int dimensions;
+    private volatile byte[] codes;
+    private volatile float[] scales;
+    private volatile int size;
+
+    ScalarQuantizedVectors(int dimensions) {
+        this.dimensions = dimensions;
+        this.codes = new byte[dimensions * 16];
+        this.scales = new float[16];
+    }
+
+    @Override
+    public void add(float[] vector) {
+        int id = size;
+        byte[] codes = this.codes;
+        float[] scales = this.scales;
+        if (id == scales.length) {
+            codes = Arrays.copyOf(codes, id * 2 * dimensions);
+            scales = Arrays.copyOf(scales, id * 2);
+        }
+        int offset = id * dimensions;
+        float maxAbs = 0;
+        if (vector != null) {
+            for (float value : vector) {
+                maxAbs = Math.max(maxAbs, Math.abs(value));
+            }
+        }
+        if (maxAbs > 0) {
+            float inverse = 127f / maxAbs;
+            for (int i = 0; i < dimensions; i++) {
+                codes[offset + i] = (byte) Math.round(vector[i] * inverse);
+            }
+        }
+        scales[id] = maxAbs / 127f;
+        this.codes = codes;
+        this.scales = scales;
+        size = id + 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return (long) size * dimensions + (long) size * Float.BYTES;
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        byte[] codes = this.codes;
+        float[] scales = this.scales;
+        VectorKernels kernels = VectorKernels.get();
+        return id -> kernels.dot(codes, id * dimensions, query, dimensions) * scales[id];
+    }
+}
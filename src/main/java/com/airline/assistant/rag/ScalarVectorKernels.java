@@ -0,0 +1,41 @@
+package com.airline.assistant.rag;
+
+/**
+ * Plain loops, used when the Vector API is unavailable. The JIT may still auto-vectorize some of
+ * them, but not the float reductions, whose order it has to preserve.
+ */
+final class ScalarVectorKernels implements VectorKernels {
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(byte[] codes, int offset, float[] query, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public String description() {
+        return "scalar";
+    }
+}
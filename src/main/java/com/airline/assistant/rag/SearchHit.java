@@ -0,0 +1,24 @@
+package com.airline.assistant.rag;
+
+import java.util.Comparator;
+
+/**
+ * A document id scored by one of the store's indexes.
+ *
+ * @param documentId The id of the document within the store
+ * @param score      The relevance score, higher is better
+ */
+record SearchHit(int documentId, double score) {
+
+    /**
+     * Orders hits from worst to best, breaking ties in favour of the lower document id.
+     * This is the natural order for a min-heap that keeps the best k hits.
+     */
+    static final Comparator<SearchHit> WORST_FIRST =
+        Comparator.comparingDouble(SearchHit::score).thenComparing(SearchHit::documentId, Comparator.reverseOrder());
+
+    /**
+     * Orders hits from best to worst.
+     */
+    static final Comparator<SearchHit> BEST_FIRST = WORST_FIRST.reversed();
+}
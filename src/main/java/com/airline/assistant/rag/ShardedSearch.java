@@ -0,0 +1,137 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a scan over document ids into contiguous shards that are searched in parallel.
+ *
+ * <p>Every shard keeps its own top k, and the shard results are combined by a k-way merge, so a
+ * sharded search returns exactly the hits a single scan would. The first shard runs on the calling
+ * thread and the others on a dedicated fork-join pool, which keeps searches off the common pool
+ * used by request handling and ingestion. Stores with fewer than two shards' worth of documents
+ * are scanned on the calling thread alone, since forking would cost more than it saves there.
+ */
+final class ShardedSearch {
+
+    /**
+     * Searches the ids in {@code [from, to)} for the best k hits, best first.
+     */
+    @FunctionalInterface
+    interface Shard {
+        List<SearchHit> search(int from, int to, int k);
+    }
+
+    private final int shards;
+    private final int minShardSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param shards       The maximum number of shards; zero or less uses one per available processor
+     * @param minShardSize The minimum number of ids per shard
+     */
+    ShardedSearch(int shards, int minShardSize) {
+        this.shards = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        this.minShardSize = Math.max(1, minShardSize);
+        this.pool = this.shards > 1 ? new ForkJoinPool(this.shards - 1, daemonWorkers(), null, false) : null;
+    }
+
+    /**
+     * Returns the number of shards a scan over the given number of ids is split into.
+     */
+    int shardCount(int size) {
+        return Math.max(1, Math.min(shards, size / minShardSize));
+    }
+
+    /**
+     * Searches the ids in {@code [0, size)}.
+     *
+     * @param size  The number of ids to scan
+     * @param k     The number of results to return
+     * @param shard The search over one shard
+     * @return The best k hits, best first
+     */
+    List<SearchHit> search(int size, int k, Shard shard) {
+        int count = shardCount(size);
+        if (count == 1 || k <= 0) {
+            return shard.search(0, size, k);
+        }
+        List<ForkJoinTask<List<SearchHit>>> forked = new ArrayList<>(count - 1);
+        for (int i = 1; i < count; i++) {
+            int from = bound(size, count, i);
+            int to = bound(size, count, i + 1);
+            forked.add(pool.submit(() -> shard.search(from, to, k)));
+        }
+        List<List<SearchHit>> results = new ArrayList<>(count);
+        try {
+            results.add(shard.search(0, bound(size, count, 1), k));
+        } catch (RuntimeException | Error e) {
+            forked.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        for (ForkJoinTask<List<SearchHit>> task : forked) {
+            results.add(task.join());
+        }
+        return merge(results, k);
+    }
+
+    private static int bound(int size, int count, int shard) {
+        return (int) ((long) size * shard / count);
+    }
+
+    /**
+     * Merges hit lists that are each sorted best first into the best k hits overall.
+     */
+    static List<SearchHit> merge(List<List<SearchHit>> lists, int k) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, lists.size()),
+            Comparator.comparing(Cursor::head, SearchHit.BEST_FIRST));
+        for (List<SearchHit> list : lists) {
+            if (!list.isEmpty()) {
+                heads.add(new Cursor(list));
+            }
+        }
+        List<SearchHit> merged = new ArrayList<>(Math.min(k, lists.stream().mapToInt(List::size).sum()));
+        while (merged.size() < k && !heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            merged.add(cursor.head());
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory daemonWorkers() {
+        AtomicInteger counter = new AtomicInteger();
+        return pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("vector-store-shard-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Cursor {
+
+        private final List<SearchHit> hits;
+        private int position;
+
+        Cursor(List<SearchHit> hits) {
+            this.hits = hits;
+        }
+
+        SearchHit head() {
+            return hits.get(position);
+        }
+
+        boolean advance() {
+            return ++position < hits.size();
+        }
+    }
+}
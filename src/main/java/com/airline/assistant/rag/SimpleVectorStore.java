@@ -1,23 +1,141 @@
 package com.airline.assistant.rag;
 
+import com.airline.assistant.config.KnowledgeBaseConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A simple vector store implementation for storing and retrieving documents.
- * This is a simplified version that uses basic text similarity instead of actual vector embeddings.
+ * Chunks are searchable lexically with BM25 and, when added together with embeddings, by cosine similarity.
  */
 @Component
 public class SimpleVectorStore {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleVectorStore.class);
+
+    /**
+     * Batches at least this large are linked into the HNSW graph from several threads.
+     */
+    private static final int PARALLEL_GRAPH_INSERT_THRESHOLD = 256;
+
+    /**
+     * The indexes are rebuilt once more than this fraction of the stored chunks has been removed.
+     */
+    private static final double COMPACTION_THRESHOLD = 0.25;
     
-    private final List<AirlineDocument> documents = new ArrayList<>();
+    private final KnowledgeBaseConfig config;
+    private final ShardedSearch shardedSearch;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    // Writer state, guarded by writeLock and published through snapshot
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Chunks held as offsets into a shared text buffer with columnar metadata; only returned chunks
+     * are materialized as documents.
+     */
+    private ChunkStore chunks = new ChunkStore();
+    private int documentCount;
+    private ChunkList mappedDocuments;
+    private final Map<String, List<Integer>> idsBySource = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+    private KnowledgeBaseIndexFile mappedIndex;
+    private Bm25Index lexicalIndex;
+    private MetadataIndex metadataIndex;
+    /**
+     * The embeddings in one contiguous primitive array, optionally linked into {@link #vectorGraph}
+     * or compressed into {@link #quantizedVectors} as configured.
+     */
+    private DenseVectors vectors;
+    private HnswIndex vectorGraph;
+    private QuantizedVectors quantizedVectors;
+
+    /**
+     * The state searches run against: the structures of the store at the end of a modification
+     * and how much of each was complete at that point. Anything appended later lies beyond the
+     * recorded counts and is ignored, so searches never lock.
+     *
+     * @param epoch             The number of modifications published before this one
+     * @param documents         The chunks, including removed ones, indexed by id
+     * @param removed           The ids of removed chunks; never modified once published
+     * @param removedCount      The number of removed chunks
+     * @param lexicalStatistics The BM25 statistics bounding lexical searches
+     * @param metadataIndex     A frozen copy of the metadata bitsets
+     * @param vectorCount       The number of complete vectors, zero without vectors
+     * @param quantizedCount    The number of complete quantized codes, zero without them
+     * @param mappedIndex       The memory-mapped index the chunks are read from, or {@code null}
+     */
+    private record Snapshot(long epoch, ChunkList documents, BitSet removed, int removedCount,
+                            Bm25Index lexicalIndex, Bm25Index.Statistics lexicalStatistics, MetadataIndex metadataIndex,
+                            DenseVectors vectors, int vectorCount, HnswIndex vectorGraph,
+                            QuantizedVectors quantizedVectors, int quantizedCount, KnowledgeBaseIndexFile mappedIndex) {}
+
+    /**
+     * An estimate of the memory held by the structures of the store.
+     *
+     * @param heapBytes    Bytes on the Java heap by structure: {@code text}, {@code metadata},
+     *                     {@code postings}, {@code trigrams}, {@code metadataIndex}, {@code vectors},
+     *                     {@code vectorGraph} and {@code quantizedCodes}
+     * @param offHeapBytes Bytes outside the heap by structure: {@code vectors} in direct buffers
+     *                     and the {@code mappedIndex} file, which the OS pages in on demand
+     */
+    public record MemoryUsage(Map<String, Long> heapBytes, Map<String, Long> offHeapBytes) {
+
+        public long totalHeapBytes() {
+            return heapBytes.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long totalOffHeapBytes() {
+            return offHeapBytes.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * The distribution of chunk lengths in lexical tokens, over the chunks that were not removed.
+     * Percentiles are nearest-rank; all values are zero for an empty store.
+     */
+    public record ChunkLengths(int count, int min, double mean, int p50, int p90, int p99, int max) {}
+
+    /**
+     * Creates a vector store with the default knowledge base configuration.
+     */
+    public SimpleVectorStore() {
+        this(new KnowledgeBaseConfig());
+    }
+
+    /**
+     * Creates a vector store with the given knowledge base configuration.
+     *
+     * @param config The knowledge base configuration
+     */
+    @Autowired
+    public SimpleVectorStore(KnowledgeBaseConfig config) {
+        this.config = config;
+        this.shardedSearch = new ShardedSearch(config.getSharding().getShards(), config.getSharding().getMinShardSize());
+        this.lexicalIndex = newLexicalIndex();
+        this.metadataIndex = newMetadataIndex();
+        publish(0);
+    }
     
     /**
      * Adds a document to the vector store.
@@ -25,7 +143,10 @@ public class SimpleVectorStore {
      * @param document The document to add
      */
     public void addDocument(AirlineDocument document) {
-        documents.add(document);
+        write(() -> {
+            materializeMappedIndex();
+            index(document, null);
+        });
         LOGGER.debug("Added document to vector store: {}", document);
     }
     
@@ -35,8 +156,340 @@ public class SimpleVectorStore {
      * @param documents The documents to add
      */
     public void addDocuments(List<AirlineDocument> documents) {
-        this.documents.addAll(documents);
-        LOGGER.debug("Added {} documents to vector store", documents.size());
+        addDocuments(documents, null);
+    }
+
+    /**
+     * Adds multiple documents together with their embeddings to the vector store.
+     *
+     * @param documents  The documents to add
+     * @param embeddings The embedding of each document, in the same order, or {@code null} for none
+     */
+    public void addDocuments(List<AirlineDocument> documents, List<float[]> embeddings) {
+        if (embeddings != null && embeddings.size() != documents.size()) {
+            throw new IllegalArgumentException("Got " + embeddings.size() + " embeddings for " + documents.size() + " documents");
+        }
+        write(() -> {
+            checkDimensions(embeddings);
+            materializeMappedIndex();
+            append(documents, embeddings);
+        });
+    }
+
+    /**
+     * Replaces every chunk of a source document. Chunks of other documents keep their index entries,
+     * and searches running concurrently see either the old or the new chunks, never a mix.
+     *
+     * @param source     The {@code source} metadata value of the document
+     * @param documents  The new chunks of the document
+     * @param embeddings The embedding of each chunk, in the same order, or {@code null} for none
+     * @return The number of chunks that were replaced
+     */
+    public int replaceDocuments(String source, List<AirlineDocument> documents, List<float[]> embeddings) {
+        if (embeddings != null && embeddings.size() != documents.size()) {
+            throw new IllegalArgumentException("Got " + embeddings.size() + " embeddings for " + documents.size() + " documents");
+        }
+        return write(() -> {
+            checkDimensions(embeddings);
+            materializeMappedIndex();
+            int replaced = remove(source);
+            append(documents, embeddings);
+            compactIfNeeded();
+            return replaced;
+        });
+    }
+
+    /**
+     * Removes every chunk of a source document.
+     *
+     * @param source The {@code source} metadata value of the document
+     * @return The number of chunks that were removed
+     */
+    public int removeDocuments(String source) {
+        return write(() -> {
+            materializeMappedIndex();
+            int count = remove(source);
+            compactIfNeeded();
+            return count;
+        });
+    }
+
+    /**
+     * Removes every chunk matching a metadata filter.
+     *
+     * @param filter The filter selecting the chunks to remove
+     * @return The number of chunks that were removed
+     * @throws IllegalArgumentException If the filter uses an unsupported operator or operand
+     */
+    public int removeDocuments(Filter.Expression filter) {
+        return write(() -> {
+            materializeMappedIndex();
+            BitSet matching = new FilterCompiler(metadataIndex, documentList()).compile(filter);
+            int count = remove(matching.stream());
+            compactIfNeeded();
+            return count;
+        });
+    }
+
+    /**
+     * Checks that embeddings match each other and the stored vectors before anything is indexed, so
+     * that a mismatch cannot leave a chunk in the lexical index without its vector.
+     */
+    private void checkDimensions(List<float[]> embeddings) {
+        if (embeddings == null) {
+            return;
+        }
+        int dimensions = vectors != null ? vectors.dimensions() : -1;
+        for (float[] embedding : embeddings) {
+            if (embedding == null) {
+                continue;
+            }
+            if (dimensions < 0) {
+                dimensions = embedding.length;
+            } else if (embedding.length != dimensions) {
+                throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + embedding.length);
+            }
+        }
+    }
+
+    private void append(List<AirlineDocument> documents, List<float[]> embeddings) {
+        int firstId = documentCount;
+        for (int i = 0; i < documents.size(); i++) {
+            index(documents.get(i), embeddings != null ? embeddings.get(i) : null);
+        }
+        if (vectorGraph != null && embeddings != null) {
+            IntStream ids = IntStream.range(0, documents.size())
+                    .filter(i -> embeddings.get(i) != null)
+                    .map(i -> firstId + i);
+            if (documents.size() >= PARALLEL_GRAPH_INSERT_THRESHOLD) {
+                ids = ids.parallel();
+            }
+            ids.forEach(vectorGraph::insert);
+        }
+        trainProductQuantizerIfReady();
+        LOGGER.debug("Added {} documents to vector store ({} indexed terms)", documents.size(), lexicalIndex.vocabularySize());
+    }
+
+    private void index(AirlineDocument document, float[] embedding) {
+        int documentId = documentCount;
+        lexicalIndex.add(documentId, document.getContent());
+        metadataIndex.add(documentId, document.getMetadata());
+        KnowledgeBaseConfig.QuantizationMode quantization = config.getQuantization().getMode();
+        if (embedding != null && vectors == null) {
+            // Quantized codes serve the scan, so the full-precision vectors are only read to re-rank
+            vectors = new DenseVectors(embedding.length, quantization != KnowledgeBaseConfig.QuantizationMode.NONE);
+            if (quantization == KnowledgeBaseConfig.QuantizationMode.INT8) {
+                quantizedVectors = new ScalarQuantizedVectors(embedding.length);
+            }
+            if (config.getVectorIndex() == KnowledgeBaseConfig.VectorIndex.HNSW) {
+                KnowledgeBaseConfig.Hnsw hnsw = config.getHnsw();
+                vectorGraph = new HnswIndex(vectors, hnsw.getM(), hnsw.getEfConstruction(), hnsw.getEfSearch());
+            }
+            // Documents added before the first embedding get empty vectors to keep ids aligned
+            for (int i = 0; i < documentId; i++) {
+                vectors.add(null);
+            }
+        }
+        if (vectors != null) {
+            vectors.add(embedding);
+            if (quantizedVectors != null) {
+                quantizedVectors.add(embedding != null ? vectors.get(documentId) : null);
+            }
+        }
+        // Published snapshots keep viewing the arrays they were taken from, which hold all of their chunks
+        chunks.add(document);
+        documentCount++;
+        Object source = document.getMetadataValue("source");
+        if (source != null) {
+            idsBySource.computeIfAbsent(source.toString(), s -> new ArrayList<>()).add(documentId);
+        }
+    }
+
+    private int remove(String source) {
+        List<Integer> ids = idsBySource.remove(source);
+        return ids != null ? remove(ids.stream().mapToInt(Integer::intValue)) : 0;
+    }
+
+    /**
+     * Tombstones the given chunks, skipping those that were already removed. Tombstoned chunks are
+     * filtered out of results until {@link #compactIfNeeded} rebuilds the indexes without them.
+     */
+    private int remove(IntStream ids) {
+        int count = 0;
+        for (int id : ids.toArray()) {
+            if (!removed.get(id)) {
+                removed.set(id);
+                lexicalIndex.remove(id);
+                count++;
+            }
+        }
+        removedCount += count;
+        return count;
+    }
+
+    /**
+     * Rebuilds the indexes from the remaining chunks once removed chunks take up too much of them.
+     */
+    private void compactIfNeeded() {
+        if (removedCount > 0 && removedCount > COMPACTION_THRESHOLD * documentCount) {
+            LOGGER.debug("Compacting vector store: {} of {} chunks were removed", removedCount, documentCount);
+            rebuild();
+        }
+    }
+
+    /**
+     * Copies a memory-mapped index onto the heap so that it can be modified.
+     */
+    private void materializeMappedIndex() {
+        if (mappedIndex != null) {
+            LOGGER.info("Copying the memory-mapped knowledge base index onto the heap for modification");
+            rebuild();
+        }
+    }
+
+    /**
+     * Re-indexes the remaining chunks from scratch, dropping removed chunks and the mapped index.
+     * The new structures replace the current ones, which published snapshots keep reading unchanged.
+     */
+    private void rebuild() {
+        ChunkList current = documentList();
+        List<AirlineDocument> remaining = new ArrayList<>(documentCount - removedCount);
+        List<float[]> remainingVectors = vectors != null ? new ArrayList<>(documentCount - removedCount) : null;
+        for (int id = 0; id < documentCount; id++) {
+            if (!removed.get(id)) {
+                remaining.add(current.get(id));
+                if (remainingVectors != null) {
+                    remainingVectors.add(vectors.get(id));
+                }
+            }
+        }
+        reset();
+        append(remaining, remainingVectors);
+    }
+
+    /**
+     * Replaces the contents of the store with a prebuilt index file. The file is memory-mapped:
+     * postings and vectors are searched in place and chunks are decoded only when returned, so
+     * loading costs neither parsing nor heap proportional to the corpus, apart from one pass over the
+     * indexed metadata values for filtering, which decodes neither chunk texts nor other metadata.
+     * Vector structures that depend on the configuration, the HNSW graph and quantized codes, are
+     * built from the mapped vectors.
+     *
+     * @param file             The index file written by {@link #writeIndex}
+     * @param fingerprint      The fingerprint of the sources the index must have been built from
+     * @param embeddingModelId The model the stored vectors must come from, or {@code null} if vectors are not needed
+     * @return Whether the index was loaded; {@code false} if it is missing, unreadable or stale
+     */
+    public boolean loadIndex(Path file, String fingerprint, String embeddingModelId) {
+        return write(() -> map(file, fingerprint, embeddingModelId));
+    }
+
+    private boolean map(Path file, String fingerprint, String embeddingModelId) {
+        if (!Files.isRegularFile(file)) {
+            LOGGER.info("No prebuilt knowledge base index at {}", file);
+            return false;
+        }
+        KnowledgeBaseIndexFile indexFile;
+        try {
+            indexFile = KnowledgeBaseIndexFile.map(file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring unreadable knowledge base index {}: {}", file, e.getMessage());
+            return false;
+        }
+        if (!indexFile.fingerprint().equals(fingerprint)) {
+            LOGGER.info("Ignoring stale knowledge base index {}: sources changed since it was built", file);
+            return false;
+        }
+        if (embeddingModelId != null && !indexFile.embeddingModelId().equals(embeddingModelId)) {
+            LOGGER.info("Ignoring knowledge base index {}: vectors come from '{}' instead of '{}'",
+                    file, indexFile.embeddingModelId(), embeddingModelId);
+            return false;
+        }
+
+        reset();
+        mappedIndex = indexFile;
+        mappedDocuments = indexFile.documents();
+        documentCount = mappedDocuments.size();
+        for (int id = 0; id < documentCount; id++) {
+            int chunk = id;
+            metadataIndex.add(id, key -> mappedDocuments.metadataValue(chunk, key));
+        }
+        lexicalIndex = new Bm25Index(config.getBm25().getK1(), config.getBm25().getB(), indexFile, newVocabulary());
+        FloatBuffer mappedVectors = indexFile.vectors();
+        if (embeddingModelId != null && mappedVectors != null) {
+            vectors = new DenseVectors(indexFile.dimensions(), mappedVectors);
+            indexMappedVectors();
+        }
+        LOGGER.info("Memory-mapped knowledge base index {} ({} chunks, {} terms, {} bytes)",
+                file, indexFile.documentCount(), indexFile.vocabularySize(), indexFile.sizeBytes());
+        return true;
+    }
+
+    /**
+     * Writes the contents of the store to an index file that {@link #loadIndex} can map.
+     *
+     * @param file             The target file
+     * @param fingerprint      The fingerprint of the sources the documents were built from
+     * @param embeddingModelId The model that produced the stored vectors, or {@code null} if there are none
+     * @throws IOException If the file cannot be written
+     */
+    public void writeIndex(Path file, String fingerprint, String embeddingModelId) throws IOException {
+        int written;
+        writeLock.lock();
+        try {
+            if (removedCount > 0) {
+                rebuild();
+                publish(snapshot.get().epoch() + 1);
+            }
+            written = documentCount;
+            KnowledgeBaseIndexFile.write(file, fingerprint, embeddingModelId != null ? embeddingModelId : "",
+                    documentList(), lexicalIndex, embeddingModelId != null ? vectors : null);
+        } finally {
+            writeLock.unlock();
+        }
+        LOGGER.info("Wrote knowledge base index {} ({} chunks)", file, written);
+    }
+
+    /**
+     * Builds the configured graph and quantized codes over vectors read from an index file.
+     */
+    private void indexMappedVectors() {
+        if (config.getQuantization().getMode() == KnowledgeBaseConfig.QuantizationMode.INT8) {
+            quantizedVectors = new ScalarQuantizedVectors(vectors.dimensions());
+            for (int id = 0; id < vectors.size(); id++) {
+                quantizedVectors.add(vectors.get(id));
+            }
+        }
+        if (config.getVectorIndex() == KnowledgeBaseConfig.VectorIndex.HNSW) {
+            KnowledgeBaseConfig.Hnsw hnsw = config.getHnsw();
+            vectorGraph = new HnswIndex(vectors, hnsw.getM(), hnsw.getEfConstruction(), hnsw.getEfSearch());
+            IntStream ids = IntStream.range(0, vectors.size());
+            if (vectors.size() >= PARALLEL_GRAPH_INSERT_THRESHOLD) {
+                ids = ids.parallel();
+            }
+            ids.forEach(vectorGraph::insert);
+        }
+        trainProductQuantizerIfReady();
+    }
+
+    /**
+     * Trains product quantization codebooks once enough vectors are stored, then encodes them all.
+     */
+    private void trainProductQuantizerIfReady() {
+        KnowledgeBaseConfig.Quantization quantization = config.getQuantization();
+        if (quantization.getMode() != KnowledgeBaseConfig.QuantizationMode.PQ || quantizedVectors != null
+                || vectors == null || vectors.size() < quantization.getPqMinTrainingVectors()) {
+            return;
+        }
+        int subspaces = Math.min(quantization.getPqSubspaces(), vectors.dimensions());
+        ProductQuantizedVectors productQuantizer = ProductQuantizedVectors.train(
+                vectors, subspaces, quantization.getPqMaxTrainingVectors(), quantization.getPqIterations());
+        for (int id = 0; id < vectors.size(); id++) {
+            productQuantizer.add(vectors.get(id));
+        }
+        quantizedVectors = productQuantizer;
+        LOGGER.info("Trained product quantizer on {} vectors: {} bytes per vector instead of {}",
+                vectors.size(), subspaces, vectors.dimensions() * Float.BYTES);
     }
     
     /**
@@ -47,18 +500,248 @@ public class SimpleVectorStore {
      * @return The top k most similar documents
      */
     public List<AirlineDocument> similaritySearch(String query, int k) {
+        return search(query, k).documents();
+    }
+
+    /**
+     * Performs a lexical search for the given query, keeping the scores the documents were ranked by.
+     *
+     * @param query The query to search for
+     * @param k     The number of results to return
+     * @return The top k documents with their scores and the time spent searching and materializing them
+     */
+    public RetrievalResult search(String query, int k) {
+        return search(query, k, null);
+    }
+
+    /**
+     * Performs a lexical search among the chunks matching a metadata filter. The filter is compiled
+     * into a bitset of admissible chunks before any chunk is scored, and large stores are scanned in
+     * id ranges searched in parallel. {@link KnowledgeBaseConfig.RetrievalMode#KEYWORD} scores by
+     * keyword overlap instead of BM25.
+     *
+     * @param query  The query to search for
+     * @param k      The number of results to return
+     * @param filter The filter the results must match, or {@code null} for none
+     * @return The top k matching documents with their scores and the time spent searching and materializing them
+     * @throws IllegalArgumentException If the filter uses an unsupported operator or operand
+     */
+    public RetrievalResult search(String query, int k, Filter.Expression filter) {
         LOGGER.debug("Performing similarity search for query: {}", query);
-        
-        // This is a simplified implementation that uses basic text similarity
-        // In a real implementation, this would use vector embeddings and cosine similarity
-        return documents.stream()
-                .map(doc -> new DocumentWithScore(doc, calculateSimilarity(query, doc.getContent())))
-                .sorted(Comparator.comparing(DocumentWithScore::score).reversed())
-                .limit(k)
-                .map(DocumentWithScore::document)
-                .collect(Collectors.toList());
+
+        Snapshot current = snapshot.get();
+        long start = System.nanoTime();
+        BitSet allowed = allowed(current, filter);
+        // No more chunks than the store holds can be returned, whatever the caller asks for
+        k = Math.max(0, Math.min(k, current.documents().size()));
+        List<SearchHit> hits;
+        if (config.getRetrievalMode() == KnowledgeBaseConfig.RetrievalMode.KEYWORD) {
+            // Legacy keyword overlap scan over every document
+            ChunkList documents = current.documents();
+            hits = shardedSearch.search(documents.size(), k, (from, to, shardK) -> {
+                TopK topK = new TopK(Math.min(shardK, to - from));
+                for (int id = from; id < to; id++) {
+                    if (isLive(current, allowed, id)) {
+                        topK.offer(id, calculateSimilarity(query, documents.content(id)));
+                    }
+                }
+                return topK.toList();
+            });
+        } else {
+            // Without a filter, over-fetch by the number of removed chunks so that k live chunks remain after filtering
+            Bm25Index.Statistics statistics = current.lexicalStatistics();
+            hits = shardedSearch.search(statistics.documentCount(),
+                    allowed != null ? k : overFetch(k, current.removedCount(), statistics.documentCount()),
+                    (from, to, shardK) -> current.lexicalIndex().search(query, shardK, statistics, allowed, from, to));
+        }
+        return toResult(current, allowed, hits, k, start);
     }
-    
+
+    /**
+     * Performs a cosine similarity search for the given query embedding.
+     *
+     * @param queryEmbedding The embedding of the query
+     * @param k              The number of results to return
+     * @return The top k most similar documents, or an empty list if no embeddings were stored
+     */
+    public List<AirlineDocument> similaritySearch(float[] queryEmbedding, int k) {
+        return search(queryEmbedding, k).documents();
+    }
+
+    /**
+     * Performs a cosine similarity search for the given query embedding, keeping the similarities.
+     *
+     * @param queryEmbedding The embedding of the query
+     * @param k              The number of results to return
+     * @return The top k documents with their cosine similarities, without hits if no embeddings were stored
+     */
+    public RetrievalResult search(float[] queryEmbedding, int k) {
+        return search(queryEmbedding, k, null);
+    }
+
+    /**
+     * Performs a cosine similarity search among the chunks matching a metadata filter. Flat and
+     * quantized scans of large stores are split into id ranges searched in parallel; HNSW graph
+     * searches follow a single path and stay sequential.
+     *
+     * @param queryEmbedding The embedding of the query
+     * @param k              The number of results to return
+     * @param filter         The filter the results must match, or {@code null} for none
+     * @return The top k matching documents with their cosine similarities, without hits if no embeddings were stored
+     * @throws IllegalArgumentException If the filter uses an unsupported operator or operand
+     */
+    public RetrievalResult search(float[] queryEmbedding, int k, Filter.Expression filter) {
+        Snapshot current = snapshot.get();
+        long start = System.nanoTime();
+        DenseVectors vectors = current.vectors();
+        if (vectors == null) {
+            LOGGER.warn("Dense search requested but no document embeddings are stored");
+            return RetrievalResult.empty(Map.of("search", System.nanoTime() - start));
+        }
+        if (queryEmbedding.length != vectors.dimensions()) {
+            throw new IllegalArgumentException("Expected " + vectors.dimensions() + " dimensions but got " + queryEmbedding.length);
+        }
+        BitSet allowed = allowed(current, filter);
+        k = Math.max(0, Math.min(k, current.vectorCount()));
+        float[] normalizedQuery = DenseVectors.normalizedCopy(queryEmbedding);
+        List<SearchHit> hits = allowed != null
+                ? filteredDenseSearch(current, normalizedQuery, k, allowed)
+                : denseSearch(current, normalizedQuery, overFetch(k, current.removedCount(), current.vectorCount()), null);
+        return toResult(current, allowed, hits, k, start);
+    }
+
+    private List<SearchHit> denseSearch(Snapshot current, float[] normalizedQuery, int k, BitSet allowed) {
+        if (current.vectorGraph() != null) {
+            return current.vectorGraph().search(normalizedQuery, k, current.vectorCount());
+        }
+        if (current.quantizedVectors() != null && current.quantizedCount() == current.vectorCount()) {
+            return quantizedSearch(current, normalizedQuery, k, allowed);
+        }
+        return flatSearch(current, normalizedQuery, k, allowed);
+    }
+
+    private List<SearchHit> flatSearch(Snapshot current, float[] normalizedQuery, int k, BitSet allowed) {
+        return shardedSearch.search(current.vectorCount(), k,
+                (from, to, shardK) -> current.vectors().search(normalizedQuery, shardK, from, to, allowed));
+    }
+
+    /**
+     * Scans only the vectors the filter admits. The HNSW graph cannot skip inadmissible nodes
+     * while it navigates, so it is only used for broad filters, with the candidate list enlarged
+     * in proportion to the fraction of chunks the filter rejects; narrow filters are cheaper to
+     * answer exactly.
+     */
+    private List<SearchHit> filteredDenseSearch(Snapshot current, float[] normalizedQuery, int k, BitSet allowed) {
+        int vectorCount = current.vectorCount();
+        int matching = allowed.cardinality();
+        if (matching == 0 || vectorCount == 0) {
+            return List.of();
+        }
+        if (current.vectorGraph() == null) {
+            return denseSearch(current, normalizedQuery, k, allowed);
+        }
+        if (matching > config.getFiltering().getExactScanRatio() * vectorCount) {
+            int candidates = (int) Math.min(vectorCount, (long) k * vectorCount / matching + k);
+            return current.vectorGraph().search(normalizedQuery, candidates, vectorCount);
+        }
+        return flatSearch(current, normalizedQuery, k, allowed);
+    }
+
+    /**
+     * Scans the quantized codes for the best candidates, then re-ranks them with the exact
+     * full-precision dot product so that quantization error only affects which candidates survive.
+     * Sharded scans shortlist and re-rank per shard, which re-ranks more candidates in total.
+     */
+    private List<SearchHit> quantizedSearch(Snapshot current, float[] normalizedQuery, int k, BitSet allowed) {
+        int candidates = Math.max(k, config.getQuantization().getRerankCandidates());
+        return shardedSearch.search(current.quantizedCount(), k, (from, to, shardK) -> {
+            QuantizedVectors.Scorer scorer = current.quantizedVectors().scorer(normalizedQuery);
+            TopK shortlist = new TopK(Math.min(candidates, to - from));
+            for (int id = DenseVectors.nextId(allowed, from); id >= 0 && id < to; id = DenseVectors.nextId(allowed, id + 1)) {
+                shortlist.offer(id, scorer.score(id));
+            }
+            return current.vectors().rerank(shortlist.toList(), normalizedQuery, shardK);
+        });
+    }
+
+    /**
+     * Adds the number of removed chunks to a result count, so that enough live chunks remain after
+     * the removed ones are filtered out, without exceeding the number of chunks searched.
+     */
+    private static int overFetch(int k, int removed, int size) {
+        return (int) Math.min((long) k + removed, size);
+    }
+
+    /**
+     * Measures the recall of the configured vector index against the exact scan, using stored
+     * vectors spread evenly over the store as queries. This covers both the HNSW graph and
+     * quantized scans; the unquantized flat index is exact and always reports 1.
+     *
+     * @param sampleSize The number of queries to run
+     * @param k          The number of results compared per query
+     * @return The fraction of exact top k results that the index also returned
+     */
+    public double measureVectorRecall(int sampleSize, int k) {
+        Snapshot current = snapshot.get();
+        DenseVectors vectors = current.vectors();
+        int vectorCount = current.vectorCount();
+        if (vectors == null || vectorCount == 0 || (current.vectorGraph() == null && current.quantizedVectors() == null)) {
+            return 1.0;
+        }
+        int queries = Math.min(sampleSize, vectorCount);
+        int stride = Math.max(1, vectorCount / queries);
+        long found = 0;
+        long expected = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = vectors.get(q * stride);
+            Set<Integer> exact = new HashSet<>();
+            vectors.search(query, k, vectorCount).forEach(hit -> exact.add(hit.documentId()));
+            expected += exact.size();
+            for (SearchHit hit : denseSearch(current, query, k, null)) {
+                if (exact.contains(hit.documentId())) {
+                    found++;
+                }
+            }
+        }
+        return expected == 0 ? 1.0 : (double) found / expected;
+    }
+
+    /**
+     * Compiles a filter into the live chunks it admits, or returns {@code null} without a filter.
+     */
+    private static BitSet allowed(Snapshot current, Filter.Expression filter) {
+        if (filter == null) {
+            return null;
+        }
+        BitSet allowed = new FilterCompiler(current.metadataIndex(), current.documents()).compile(filter);
+        allowed.andNot(current.removed());
+        return allowed;
+    }
+
+    private static boolean isLive(Snapshot current, BitSet allowed, int id) {
+        return allowed != null ? allowed.get(id) : !current.removed().get(id);
+    }
+
+    /**
+     * Drops removed and filtered out chunks from index hits and materializes the best k of the rest.
+     */
+    private RetrievalResult toResult(Snapshot current, BitSet allowed, List<SearchHit> hits, int k, long searchStart) {
+        long materializeStart = System.nanoTime();
+        List<RetrievalResult.ScoredDocument> scored = new ArrayList<>(Math.min(Math.max(0, k), hits.size()));
+        for (SearchHit hit : hits) {
+            if (scored.size() >= k) {
+                break;
+            }
+            if (isLive(current, allowed, hit.documentId())) {
+                scored.add(new RetrievalResult.ScoredDocument(current.documents().get(hit.documentId()), hit.score()));
+            }
+        }
+        Map<String, Long> stages = new LinkedHashMap<>();
+        stages.put("search", materializeStart - searchStart);
+        stages.put("materialize", System.nanoTime() - materializeStart);
+        return new RetrievalResult(scored, stages);
+    }
+
     /**
      * Calculates a simple similarity score between the query and the document content.
      * This is a very basic implementation that counts the number of query terms in the document.
@@ -93,28 +776,202 @@ public class SimpleVectorStore {
      * @return All documents
      */
     public List<AirlineDocument> getAllDocuments() {
-        return new ArrayList<>(documents);
+        Snapshot current = snapshot.get();
+        return IntStream.range(0, current.documents().size())
+                .filter(id -> !current.removed().get(id))
+                .mapToObj(current.documents()::get)
+                .collect(Collectors.toList());
     }
     
+    /**
+     * Returns an estimate of the heap used by chunk text and metadata, zero while the chunks are
+     * read from a memory-mapped index.
+     *
+     * @return The number of bytes
+     */
+    public long chunkMemoryUsage() {
+        return snapshot.get().documents() instanceof ChunkStore.View view ? view.memoryBytes() : 0;
+    }
+
+    /**
+     * Returns the number of bytes used by stored embeddings, split into full-precision vectors
+     * and quantized codes. Off-heap vectors are included.
+     *
+     * @return A map with the keys {@code vectors}, {@code vectorsOffHeap} and {@code quantizedCodes}
+     */
+    public Map<String, Long> vectorMemoryUsage() {
+        Snapshot current = snapshot.get();
+        long vectorBytes = current.vectors() != null ? current.vectors().memoryBytes() : 0;
+        boolean offHeap = current.vectors() != null && current.vectors().isOffHeap();
+        return Map.of(
+                "vectors", offHeap ? 0 : vectorBytes,
+                "vectorsOffHeap", offHeap ? vectorBytes : 0,
+                "quantizedCodes", current.quantizedVectors() != null ? current.quantizedVectors().memoryBytes() : 0L);
+    }
+
+    /**
+     * Estimates the memory used by each structure of the store. The estimates count array
+     * contents and approximate object headers, so they are meant for sizing rather than accounting.
+     *
+     * @return The bytes by structure, on and off the heap
+     */
+    public MemoryUsage memoryUsage() {
+        Snapshot current = snapshot.get();
+        Map<String, Long> heap = new LinkedHashMap<>();
+        ChunkStore.View chunkView = current.documents() instanceof ChunkStore.View view ? view : null;
+        heap.put("text", chunkView != null ? chunkView.textBytes() : 0L);
+        heap.put("metadata", chunkView != null ? chunkView.metadataBytes() : 0L);
+        heap.put("postings", current.lexicalIndex().memoryBytes());
+        heap.put("trigrams", current.lexicalIndex().vocabularyMemoryBytes());
+        heap.put("metadataIndex", current.metadataIndex().memoryBytes());
+        boolean offHeapVectors = current.vectors() != null && current.vectors().isOffHeap();
+        long vectorBytes = current.vectors() != null ? current.vectors().memoryBytes() : 0;
+        heap.put("vectors", offHeapVectors ? 0 : vectorBytes);
+        heap.put("vectorGraph", current.vectorGraph() != null ? current.vectorGraph().memoryBytes() : 0L);
+        heap.put("quantizedCodes", current.quantizedVectors() != null ? current.quantizedVectors().memoryBytes() : 0L);
+
+        Map<String, Long> offHeap = new LinkedHashMap<>();
+        offHeap.put("vectors", offHeapVectors && current.mappedIndex() == null ? vectorBytes : 0L);
+        offHeap.put("mappedIndex", current.mappedIndex() != null ? current.mappedIndex().sizeBytes() : 0L);
+        return new MemoryUsage(heap, offHeap);
+    }
+
+    /**
+     * Returns the number of distinct terms in the lexical index.
+     */
+    public int vocabularySize() {
+        return snapshot.get().lexicalIndex().vocabularySize();
+    }
+
+    /**
+     * Returns the distribution of the lengths of the stored chunks, in lexical tokens.
+     */
+    public ChunkLengths chunkLengths() {
+        Snapshot current = snapshot.get();
+        int documents = current.lexicalStatistics().documentCount();
+        int[] lengths = new int[documents];
+        int count = 0;
+        long total = 0;
+        for (int id = 0; id < documents; id++) {
+            if (!current.removed().get(id)) {
+                int length = current.lexicalIndex().documentLength(id);
+                lengths[count++] = length;
+                total += length;
+            }
+        }
+        if (count == 0) {
+            return new ChunkLengths(0, 0, 0, 0, 0, 0, 0);
+        }
+        Arrays.sort(lengths, 0, count);
+        return new ChunkLengths(count, lengths[0], (double) total / count, percentile(lengths, count, 0.5),
+                percentile(lengths, count, 0.9), percentile(lengths, count, 0.99), lengths[count - 1]);
+    }
+
+    private static int percentile(int[] sorted, int count, double fraction) {
+        return sorted[Math.max(0, (int) Math.ceil(fraction * count) - 1)];
+    }
+
     /**
      * Clears all documents from the vector store.
      */
     public void clear() {
-        documents.clear();
+        write(this::reset);
         LOGGER.debug("Cleared all documents from vector store");
     }
+
+    private void reset() {
+        chunks = new ChunkStore();
+        documentCount = 0;
+        mappedDocuments = null;
+        mappedIndex = null;
+        idsBySource.clear();
+        removed.clear();
+        removedCount = 0;
+        lexicalIndex = newLexicalIndex();
+        metadataIndex = newMetadataIndex();
+        vectors = null;
+        vectorGraph = null;
+        quantizedVectors = null;
+    }
     
+    /**
+     * Returns the corpus epoch, a counter that increases with every modification of the store.
+     * Results computed while the epoch had a given value remain valid until it changes, so callers
+     * can cache them by reading the epoch before they search.
+     *
+     * @return The current epoch
+     */
+    public long epoch() {
+        return snapshot.get().epoch();
+    }
+
     /**
      * Returns the number of documents in the vector store.
      *
      * @return The number of documents
      */
     public int size() {
-        return documents.size();
+        Snapshot current = snapshot.get();
+        return current.documents().size() - current.removedCount();
     }
     
+    private Bm25Index newLexicalIndex() {
+        return new Bm25Index(config.getBm25().getK1(), config.getBm25().getB(), newVocabulary());
+    }
+
+    private TrigramIndex newVocabulary() {
+        KnowledgeBaseConfig.Fuzzy fuzzy = config.getFuzzy();
+        return fuzzy.isEnabled()
+                ? new TrigramIndex(fuzzy.getMinTermLength(), fuzzy.getMaxExpansions(), fuzzy.getMinSimilarity(), fuzzy.getMaxCandidates())
+                : null;
+    }
+
+    private MetadataIndex newMetadataIndex() {
+        return new MetadataIndex(config.getFiltering().getIndexedKeys());
+    }
+
+    /**
+     * Returns the chunks stored so far, including removed ones.
+     */
+    private ChunkList documentList() {
+        if (mappedDocuments != null) {
+            return mappedDocuments;
+        }
+        return chunks.view();
+    }
+
     /**
-     * A record to hold a document and its similarity score.
+     * Makes everything written so far visible to searches. The tombstones are copied because the
+     * writer keeps setting bits in its own set.
      */
-    private record DocumentWithScore(AirlineDocument document, double score) {}
+    private void publish(long epoch) {
+        snapshot.set(new Snapshot(epoch, documentList(), (BitSet) removed.clone(), removedCount,
+                lexicalIndex, lexicalIndex.statistics(), metadataIndex.freeze(),
+                vectors, vectors != null ? vectors.size() : 0, vectorGraph,
+                quantizedVectors, quantizedVectors != null ? quantizedVectors.size() : 0, mappedIndex));
+    }
+
+    /**
+     * Runs a modification under the write lock and publishes its result. Searches never take the
+     * lock: writers only append past the published counts, and rebuilds, clears and index loads
+     * build fresh structures before swapping them in. A modification that fails publishes nothing,
+     * so searches keep the last complete snapshot.
+     */
+    private <T> T write(Supplier<T> action) {
+        writeLock.lock();
+        try {
+            T result = action.get();
+            publish(snapshot.get().epoch() + 1);
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        write(() -> {
+            action.run();
+            return null;
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes markdown table rows, shared by {@link MarkdownChunker}, {@link ContextAssembler} and
+ * {@link FactTableParser} so that they agree on what a table is.
+ *
+ * <p>Tables come in pipe syntax and as the tab-separated rows that pasted web tables produce. A
+ * line with a tab is a row only if it has at least two cells and a neighbouring line has the same
+ * number of tab-separated cells, so prose or a list item that happens to contain a tab is not
+ * mistaken for one.
+ */
+final class TableRows {
+
+    private static final Pattern SEPARATOR = Pattern.compile("^\\s*\\|?\\s*:?-{2,}:?\\s*(\\|\\s*:?-{2,}:?\\s*)*\\|?\\s*$");
+
+    private TableRows() {
+    }
+
+    /**
+     * Returns whether a line is a table row, given the lines around it.
+     *
+     * @param previous The line before, or {@code null} at the start
+     * @param line     The line
+     * @param next     The line after, or {@code null} at the end
+     */
+    static boolean isRow(String previous, String line, String next) {
+        if (line.indexOf('\t') < 0) {
+            return line.stripLeading().startsWith("|");
+        }
+        int cells = tabCells(line);
+        return cells >= 2 && (cells == tabCells(previous) || cells == tabCells(next));
+    }
+
+    /**
+     * Returns whether a line is the separator row below the header of a pipe table.
+     */
+    static boolean isSeparator(String line) {
+        return SEPARATOR.matcher(line).matches();
+    }
+
+    /**
+     * Splits a table row into its trimmed cells, or returns {@code null} if the line is not a row
+     * with at least two cells. Separator rows are not rows.
+     */
+    static List<String> cells(String line) {
+        String[] parts;
+        if (line.indexOf('\t') >= 0) {
+            parts = line.split("\t");
+        } else {
+            String trimmed = line.strip();
+            if (!trimmed.startsWith("|") || isSeparator(trimmed)) {
+                return null;
+            }
+            int end = trimmed.length() > 1 && trimmed.endsWith("|") ? trimmed.length() - 1 : trimmed.length();
+            parts = trimmed.substring(1, end).split("\\|", -1);
+        }
+        List<String> cells = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            cells.add(part.strip());
+        }
+        return cells.size() >= 2 ? cells : null;
+    }
+
+    /**
+     * Counts the tab-separated cells of a line, or returns 0 if it has no tab or no first cell.
+     */
+    private static int tabCells(String line) {
+        if (line == null || line.indexOf('\t') < 0 || line.substring(0, line.indexOf('\t')).isBlank()) {
+            return 0;
+        }
+        return line.split("\t").length;
+    }
+}
@@ -0,0 +1,64 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into lowercase alphanumeric terms for the lexical index.
+ * Characters are lowercased one at a time, so tokenizing a chunk never allocates
+ * a lowercase copy of the whole text.
+ */
+public final class TextTokenizer {
+
+    /**
+     * Common English words that carry no retrieval signal and would only inflate the postings lists.
+     */
+    private static final Set<String> STOP_WORDS = Set.of(
+        "a", "an", "and", "are", "as", "at", "be", "by", "do", "for", "from", "has", "have",
+        "how", "i", "if", "in", "is", "it", "its", "me", "my", "of", "on", "or", "so", "that",
+        "the", "their", "this", "to", "was", "we", "what", "when", "which", "will", "with", "you", "your"
+    );
+
+    private TextTokenizer() {
+    }
+
+    /**
+     * Tokenizes the given text, passing every non stop-word term to the consumer in order.
+     *
+     * @param text     The text to tokenize
+     * @param consumer The consumer receiving each term
+     */
+    public static void tokenize(CharSequence text, Consumer<String> consumer) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder term = new StringBuilder(16);
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (!term.isEmpty()) {
+                String token = term.toString();
+                term.setLength(0);
+                if (!STOP_WORDS.contains(token)) {
+                    consumer.accept(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tokenizes the given text into a list of terms.
+     *
+     * @param text The text to tokenize
+     * @return The terms in document order
+     */
+    public static List<String> tokenize(CharSequence text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, terms::add);
+        return terms;
+    }
+}
@@ -0,0 +1,125 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the k best scored ids from a stream of candidates in O(n log k) time and O(k) space.
+ *
+ * <p>The candidates are kept in a bounded binary min-heap over parallel primitive arrays, so
+ * offering a candidate allocates nothing and a candidate that cannot make the cut is rejected
+ * with a single comparison against the current worst. Ties are broken in favour of the lower id,
+ * consistent with {@link SearchHit#BEST_FIRST}.
+ */
+final class TopK {
+
+    private final int k;
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    /**
+     * @param k The number of results to keep; zero keeps nothing
+     */
+    TopK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        this.k = k;
+        this.ids = new int[k];
+        this.scores = new double[k];
+    }
+
+    /**
+     * Offers a candidate.
+     *
+     * @return Whether the candidate is currently among the best k
+     */
+    boolean offer(int id, double score) {
+        if (size < k) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (k == 0 || !better(score, id, scores[0], ids[0])) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Returns whether k candidates are held, so that {@link #threshold()} bounds the results.
+     */
+    boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * Returns the score a candidate has to beat to be kept: the worst kept score once full,
+     * negative infinity before that.
+     */
+    double threshold() {
+        return size == k && k > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the kept candidates, best first.
+     */
+    List<SearchHit> toList() {
+        List<SearchHit> hits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hits.add(new SearchHit(ids[i], scores[i]));
+        }
+        hits.sort(SearchHit.BEST_FIRST);
+        return hits;
+    }
+
+    private static boolean better(double score, int id, double otherScore, int otherId) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private void siftUp(int index) {
+        int id = ids[index];
+        double score = scores[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(scores[parent], ids[parent], score, id)) {
+                break;
+            }
+            ids[index] = ids[parent];
+            scores[index] = scores[parent];
+            index = parent;
+        }
+        ids[index] = id;
+        scores[index] = score;
+    }
+
+    private void siftDown(int index) {
+        int id = ids[index];
+        double score = scores[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && better(scores[child], ids[child], scores[right], ids[right])) {
+                child = right;
+            }
+            if (!better(score, id, scores[child], ids[child])) {
+                break;
+            }
+            ids[index] = ids[child];
+            scores[index] = scores[child];
+            index = child;
+        }
+        ids[index] = id;
+        scores[index] = score;
+    }
+}
@@ -0,0 +1,237 @@
+package com.airline.assistant.rag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Character trigram index over the vocabulary of the lexical index, used to expand a query term
+ * that is not in the vocabulary into the indexed terms it most likely misspells, such as
+ * {@code milageplus} into {@code mileageplus}.
+ *
+ * <p>Terms are padded with a boundary marker and compared by the Jaccard similarity of their
+ * trigram sets. A term reaching the minimum similarity must share a minimum number of trigrams with
+ * the query term, so it is sure to share one of the rarest few of them: only the term lists of those
+ * trigrams are read, and of the terms on them, only a fixed number sharing the most of those
+ * trigrams is verified. The cost of an expansion therefore depends on the rarity of the query's
+ * trigrams, not on the size of the vocabulary.
+ *
+ * <p>A single writer may add terms while other threads expand queries; terms added concurrently
+ * may or may not be seen.
+ */
+final class TrigramIndex {
+
+    private static final char BOUNDARY = '$';
+    // A boxed trigram key and the map node holding it
+    private static final int ENTRY_BYTES = 48;
+
+    private final int minTermLength;
+    private final int maxExpansions;
+    private final double minSimilarity;
+    private final int maxCandidates;
+    private final Map<Long, TermIds> termsByTrigram = new ConcurrentHashMap<>();
+    private volatile String[] terms = new String[64];
+    private volatile int termCount;
+
+    /**
+     * A vocabulary term a query term expands into.
+     *
+     * @param term       The indexed term
+     * @param similarity The Jaccard similarity of the trigrams of both terms, in (0, 1]
+     */
+    record Expansion(String term, double similarity) {}
+
+    /**
+     * @param minTermLength The length from which query terms are expanded; shorter terms have too few trigrams
+     * @param maxExpansions The maximum number of indexed terms a query term expands into
+     * @param minSimilarity The minimum trigram similarity of an expansion
+     * @param maxCandidates The maximum number of indexed terms verified per expansion
+     */
+    TrigramIndex(int minTermLength, int maxExpansions, double minSimilarity, int maxCandidates) {
+        this.minTermLength = Math.max(1, minTermLength);
+        this.maxExpansions = maxExpansions;
+        this.minSimilarity = Math.max(Double.MIN_VALUE, minSimilarity);
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Adds a term that is not in the index yet.
+     */
+    void add(String term) {
+        int id = termCount;
+        String[] current = terms;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+        }
+        current[id] = term;
+        terms = current;
+        for (long trigram : trigrams(term)) {
+            termsByTrigram.computeIfAbsent(trigram, key -> new TermIds()).add(id);
+        }
+        termCount = id + 1;
+    }
+
+    /**
+     * Returns the number of indexed terms.
+     */
+    int size() {
+        return termCount;
+    }
+
+    /**
+     * Estimates the heap used by the term table and the id lists of the trigrams. The terms
+     * themselves are shared with the lexical index and not included.
+     */
+    long memoryBytes() {
+        long bytes = 16 + (long) terms.length * Integer.BYTES;
+        for (TermIds ids : termsByTrigram.values()) {
+            bytes += ENTRY_BYTES + ids.memoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds the indexed terms most similar to a term.
+     *
+     * @param term The query term
+     * @return At most the configured number of expansions, most similar first; empty for short terms
+     */
+    List<Expansion> expand(String term) {
+        if (term.length() < minTermLength || maxExpansions <= 0 || maxCandidates <= 0) {
+            return List.of();
+        }
+        long[] query = trigrams(term);
+        List<Ids> lists = new ArrayList<>(query.length);
+        for (long trigram : query) {
+            TermIds ids = termsByTrigram.get(trigram);
+            if (ids != null) {
+                lists.add(ids.snapshot());
+            }
+        }
+        lists.sort(Comparator.comparingInt(Ids::size));
+        // A term with similarity s shares at least ceil(s * |query|) trigrams, so it shares one of the rarest |query| - that + 1
+        int required = (int) Math.ceil(minSimilarity * query.length);
+        int prefix = Math.min(lists.size(), query.length - required + 1);
+
+        // Term lists are in ascending id order, so merging them counts the rare trigrams each term shares
+        TopK candidates = new TopK(maxCandidates);
+        int[] positions = new int[prefix];
+        while (true) {
+            int id = Integer.MAX_VALUE;
+            for (int i = 0; i < prefix; i++) {
+                Ids ids = lists.get(i);
+                if (positions[i] < ids.size()) {
+                    id = Math.min(id, ids.values()[positions[i]]);
+                }
+            }
+            if (id == Integer.MAX_VALUE) {
+                break;
+            }
+            int shared = 0;
+            for (int i = 0; i < prefix; i++) {
+                Ids ids = lists.get(i);
+                if (positions[i] < ids.size() && ids.values()[positions[i]] == id) {
+                    shared++;
+                    positions[i]++;
+                }
+            }
+            candidates.offer(id, shared);
+        }
+
+        // Read after the term ids, so that the array holds every term they refer to
+        String[] vocabulary = terms;
+        List<Expansion> expansions = new ArrayList<>();
+        for (SearchHit hit : candidates.toList()) {
+            String candidate = vocabulary[hit.documentId()];
+            double similarity = similarity(query, trigrams(candidate));
+            if (similarity >= minSimilarity && !candidate.equals(term)) {
+                expansions.add(new Expansion(candidate, similarity));
+            }
+        }
+        expansions.sort(Comparator.comparingDouble(Expansion::similarity).reversed().thenComparing(Expansion::term));
+        return expansions.size() > maxExpansions ? List.copyOf(expansions.subList(0, maxExpansions)) : expansions;
+    }
+
+    /**
+     * Returns the distinct trigrams of a term padded with one boundary marker on each side, sorted.
+     */
+    static long[] trigrams(String term) {
+        String padded = BOUNDARY + term + BOUNDARY;
+        int count = Math.max(0, padded.length() - 2);
+        long[] trigrams = new long[count];
+        for (int i = 0; i < count; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return distinct == count ? trigrams : Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Computes the Jaccard similarity of two sorted trigram sets.
+     */
+    static double similarity(long[] a, long[] b) {
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = a.length + b.length - shared;
+        return union == 0 ? 0.0 : (double) shared / union;
+    }
+
+    /**
+     * The first {@code size} ids of a term list, which stay unchanged while later ids are appended.
+     */
+    private record Ids(int[] values, int size) {}
+
+    /**
+     * The ids of the terms containing a trigram, appended by the single writer. The array is
+     * published before the size, so a reader that reads the size first sees at least that many ids.
+     */
+    private static final class TermIds {
+
+        private volatile int[] values = new int[4];
+        private volatile int size;
+
+        void add(int id) {
+            int count = size;
+            int[] current = values;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, count * 2);
+            }
+            current[count] = id;
+            values = current;
+            size = count + 1;
+        }
+
+        long memoryBytes() {
+            return 24 + 16 + (long) values.length * Integer.BYTES;
+        }
+
+        /**
+         * Returns the ids added so far, without copying them.
+         */
+        Ids snapshot() {
+            int count = size;
+            return new Ids(values, count);
+        }
+    }
+}
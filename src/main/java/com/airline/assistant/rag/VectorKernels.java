@@ -0,0 +1,104 @@
+package com.airline.assistant.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The arithmetic inner loops of vector search: float dot products for exact scans and re-ranking,
+ * float-by-int8 dot products for scalar-quantized scans, and squared distances for product
+ * quantization.
+ *
+ * <p>The implementation is chosen once, when the class is first used. The SIMD kernels of
+ * {@code SimdVectorKernels} need the {@code jdk.incubator.vector} module and a CPU with vectors
+ * of at least 256 bits; otherwise the scalar loops of {@link ScalarVectorKernels} are used.
+ * Nothing can add the module from within a jar, so every launch has to pass
+ * {@code --add-modules jdk.incubator.vector}; a JVM started without it logs a warning. The SIMD
+ * kernels are compiled separately, as the only code built against the incubator module, and are
+ * loaded by name. Setting the system property {@value #PROPERTY} to {@code scalar} forces the
+ * scalar kernels.
+ */
+interface VectorKernels {
+
+    String PROPERTY = "airline.assistant.vector-kernels";
+
+    /**
+     * Returns the kernels chosen for this JVM.
+     */
+    static VectorKernels get() {
+        return Selected.KERNELS;
+    }
+
+    /**
+     * Returns the SIMD kernels, or {@code null} if the incubator module was not added to the JVM
+     * or the CPU has no 256-bit vectors.
+     */
+    static VectorKernels simd() {
+        return Selected.simd();
+    }
+
+    /**
+     * Returns the dot product of {@code length} floats of two arrays starting at the given offsets.
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Returns the dot product of {@code length} int8 codes starting at an offset with the start of
+     * a float query.
+     */
+    float dot(byte[] codes, int offset, float[] query, int length);
+
+    /**
+     * Returns the squared Euclidean distance of {@code length} floats of two arrays starting at the
+     * given offsets.
+     */
+    float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Describes the kernels for logging, e.g. {@code SIMD (256-bit)}.
+     */
+    String description();
+
+    final class Selected {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(VectorKernels.class);
+        private static final String MODULE = "jdk.incubator.vector";
+        private static final String SIMD_KERNELS = "com.airline.assistant.rag.SimdVectorKernels";
+        static final VectorKernels KERNELS = select();
+
+        private Selected() {
+        }
+
+        private static VectorKernels select() {
+            VectorKernels kernels = null;
+            if ("scalar".equalsIgnoreCase(System.getProperty(PROPERTY))) {
+                LOGGER.info("Scalar vector kernels requested with {}", PROPERTY);
+            } else if (ModuleLayer.boot().findModule(MODULE).isEmpty()) {
+                LOGGER.warn("The {} module was not added to the JVM, so vector search falls back to scalar kernels "
+                        + "several times slower than SIMD. Start the JVM with --add-modules {}", MODULE, MODULE);
+            } else {
+                kernels = simd();
+            }
+            if (kernels == null) {
+                kernels = new ScalarVectorKernels();
+            }
+            LOGGER.info("Using {} vector kernels", kernels.description());
+            return kernels;
+        }
+
+        static VectorKernels simd() {
+            if (ModuleLayer.boot().findModule(MODULE).isEmpty()) {
+                return null;
+            }
+            try {
+                Class<?> type = Class.forName(SIMD_KERNELS);
+                if (!(boolean) type.getDeclaredMethod("isSupported").invoke(null)) {
+                    return null;
+                }
+                return (VectorKernels) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LOGGER.warn("Could not load the SIMD vector kernels", e);
+                return null;
+            }
+        }
+    }
+}
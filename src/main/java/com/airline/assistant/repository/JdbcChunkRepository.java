@@ -0,0 +1,305 @@
+package com.airline.assistant.repository;
+
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+import com.airline.assistant.rag.TextTokenizer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Repository storing the chunks of the knowledge base in the application database, so that
+ * instances can warm up from one ingested corpus instead of each ingesting the sources again.
+ *
+ * <p>The chunks of a source document are replaced in one transaction with batched inserts,
+ * together with the version of the source they were produced from. Reads stream the rows through
+ * a forward-only cursor with a bounded fetch size, so warming up holds at most a batch of chunks
+ * besides the store being filled.
+ *
+ * <p>On PostgreSQL, lexical queries can be pushed down to the full-text search over a generated
+ * {@code tsvector} column with a GIN index, ranked by {@code ts_rank_cd}. Other databases, such as
+ * the H2 of the tests, have no comparable index, so queries stay with the in-memory BM25 index.
+ */
+@Repository
+public class JdbcChunkRepository {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {};
+
+    private static final String INSERT_CHUNK =
+        "INSERT INTO knowledge_chunk (source, chunk_index, content, metadata, embedding) VALUES (?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean postgres;
+
+    public JdbcChunkRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Creates the tables, and on PostgreSQL the full-text search column and index, if they do not exist yet.
+     */
+    public void createSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS knowledge_source ("
+            + "source VARCHAR(512) PRIMARY KEY, source_version VARCHAR(128) NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS knowledge_chunk ("
+            + "source VARCHAR(512) NOT NULL, chunk_index INT NOT NULL, content TEXT NOT NULL, metadata TEXT NOT NULL, "
+            + "embedding BYTEA, PRIMARY KEY (source, chunk_index))");
+        if (isPostgres()) {
+            jdbcTemplate.execute("ALTER TABLE knowledge_chunk ADD COLUMN IF NOT EXISTS search_vector tsvector "
+                + "GENERATED ALWAYS AS (to_tsvector('english', content)) STORED");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS knowledge_chunk_search ON knowledge_chunk USING GIN (search_vector)");
+        }
+    }
+
+    /**
+     * Returns the version of every stored source document.
+     *
+     * @return The versions by source file name
+     */
+    public Map<String, String> sourceVersions() {
+        Map<String, String> versions = new HashMap<>();
+        jdbcTemplate.query("SELECT source, source_version FROM knowledge_source",
+            (RowCallbackHandler) row -> versions.put(row.getString("source"), row.getString("source_version")));
+        return versions;
+    }
+
+    /**
+     * Replaces the chunks of a source document.
+     *
+     * @param source     The file name of the source document
+     * @param version    The version of the source the chunks were produced from
+     * @param chunks     The chunks, in document order
+     * @param embeddings The embeddings of the chunks, or {@code null} without dense retrieval
+     * @param batchSize  The number of chunks per batched insert
+     */
+    public void replaceSource(String source, String version, List<AirlineDocument> chunks, List<float[]> embeddings,
+                              int batchSize) {
+        inTransaction(connection -> {
+            delete(connection, source);
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_CHUNK)) {
+                for (int i = 0; i < chunks.size(); i++) {
+                    AirlineDocument chunk = chunks.get(i);
+                    insert.setString(1, source);
+                    insert.setInt(2, i);
+                    insert.setString(3, chunk.getContent());
+                    insert.setString(4, toJson(chunk.getMetadata()));
+                    insert.setBytes(5, embeddings != null ? encode(embeddings.get(i)) : null);
+                    insert.addBatch();
+                    if ((i + 1) % Math.max(1, batchSize) == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO knowledge_source (source, source_version) VALUES (?, ?)")) {
+                insert.setString(1, source);
+                insert.setString(2, version);
+                insert.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Removes the chunks of a source document.
+     *
+     * @param source The file name of the source document
+     * @return The number of chunks that were removed
+     */
+    public int deleteSource(String source) {
+        return inTransaction(connection -> delete(connection, source));
+    }
+
+    /**
+     * Removes the chunks of every source document that is not among the given ones.
+     *
+     * @param sources The file names of the source documents to keep
+     */
+    public void retainSources(Set<String> sources) {
+        for (String stored : sourceVersions().keySet()) {
+            if (!sources.contains(stored)) {
+                deleteSource(stored);
+            }
+        }
+    }
+
+    /**
+     * Streams all stored chunks in source and chunk order.
+     *
+     * @param fetchSize The number of rows fetched per round trip
+     * @param batchSize The number of chunks passed to the consumer at once
+     * @param consumer  Receives the chunks of each batch and their embeddings, which are {@code null}
+     *                  if none of the chunks has one
+     * @return The number of chunks read
+     */
+    public int stream(int fetchSize, int batchSize, BiConsumer<List<AirlineDocument>, List<float[]>> consumer) {
+        int size = Math.max(1, batchSize);
+        return inTransaction(connection -> {
+            // PostgreSQL only streams through a cursor inside a transaction, otherwise it reads the whole result
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT content, metadata, embedding FROM knowledge_chunk ORDER BY source, chunk_index",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                select.setFetchSize(fetchSize);
+                int count = 0;
+                List<AirlineDocument> chunks = new ArrayList<>(size);
+                List<float[]> embeddings = new ArrayList<>(size);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        chunks.add(new AirlineDocument(rows.getString("content"), fromJson(rows.getString("metadata"))));
+                        embeddings.add(decode(rows.getBytes("embedding")));
+                        count++;
+                        if (chunks.size() == size) {
+                            accept(consumer, chunks, embeddings);
+                            chunks = new ArrayList<>(size);
+                            embeddings = new ArrayList<>(size);
+                        }
+                    }
+                }
+                if (!chunks.isEmpty()) {
+                    accept(consumer, chunks, embeddings);
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Returns whether the database has an indexed full-text search that {@link #search} can use.
+     */
+    public boolean supportsSearch() {
+        return isPostgres();
+    }
+
+    /**
+     * Searches the stored chunks with the full-text search of the database. Every stored chunk is
+     * searched, including near-duplicates that the in-memory store collapses.
+     *
+     * @param query The query text
+     * @param k     The number of results to return
+     * @return The best matching chunks with their database relevance, best first
+     * @throws UnsupportedOperationException If the database does not {@linkplain #supportsSearch support} it
+     */
+    public List<RetrievalResult.ScoredDocument> search(String query, int k) {
+        if (!supportsSearch()) {
+            throw new UnsupportedOperationException("Full-text search of stored chunks requires PostgreSQL");
+        }
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(TextTokenizer.tokenize(query)));
+        if (terms.isEmpty() || k <= 0) {
+            return List.of();
+        }
+        // Terms are letters and digits only, so they can be joined into a tsquery as they are
+        return jdbcTemplate.query("SELECT content, metadata, ts_rank_cd(search_vector, query) AS relevance "
+                + "FROM knowledge_chunk, to_tsquery('english', ?) AS query WHERE search_vector @@ query "
+                + "ORDER BY relevance DESC, source, chunk_index LIMIT ?",
+            this::scoredDocument, String.join(" | ", terms), k);
+    }
+
+    private RetrievalResult.ScoredDocument scoredDocument(ResultSet row, int rowNumber) throws SQLException {
+        return new RetrievalResult.ScoredDocument(
+            new AirlineDocument(row.getString("content"), fromJson(row.getString("metadata"))), row.getDouble("relevance"));
+    }
+
+    private boolean isPostgres() {
+        Boolean detected = postgres;
+        if (detected == null) {
+            detected = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())));
+            postgres = detected;
+        }
+        return detected;
+    }
+
+    private static int delete(Connection connection, String source) throws SQLException {
+        int removed;
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM knowledge_chunk WHERE source = ?")) {
+            delete.setString(1, source);
+            removed = delete.executeUpdate();
+        }
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM knowledge_source WHERE source = ?")) {
+            delete.setString(1, source);
+            delete.executeUpdate();
+        }
+        return removed;
+    }
+
+    private static void accept(BiConsumer<List<AirlineDocument>, List<float[]>> consumer,
+                               List<AirlineDocument> chunks, List<float[]> embeddings) {
+        boolean embedded = embeddings.stream().anyMatch(embedding -> embedding != null);
+        consumer.accept(chunks, embedded ? embeddings : null);
+    }
+
+    /**
+     * Runs work on one connection in a transaction that is committed if the work completes and rolled back otherwise.
+     */
+    private <T> T inTransaction(ConnectionCallback<T> work) {
+        return jdbcTemplate.execute((ConnectionCallback<T>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.doInConnection(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    private static String toJson(Map<String, Object> metadata) {
+        try {
+            return JSON.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Object> fromJson(String metadata) {
+        try {
+            return JSON.readValue(metadata, METADATA);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    private static float[] decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        float[] embedding = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
@@ -0,0 +1,264 @@
+package com.airline.assistant.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embeds chunks and queries through an {@link EmbeddingModel}, calling the model only for text it
+ * has not embedded before.
+ *
+ * <p>Chunk embeddings are looked up in an optional on-disk {@link EmbeddingCache}. The remaining
+ * texts are deduplicated, split into batches and embedded concurrently, with a bound on the number
+ * of calls in flight that is shared by every caller, so that parallel ingestion cannot flood the
+ * model with requests. Query embeddings are kept in a small in-memory LRU instead, since queries
+ * repeat within a session but are not worth persisting.
+ */
+public class CachingEmbedder {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingEmbedder.class);
+
+  private final EmbeddingModel embeddingModel;
+  private final String embeddingModelId;
+  private final EmbeddingCache cache;
+  private final int batchSize;
+  private final Semaphore requests;
+  private final int queryCacheSize;
+  private final Map<String, float[]> queryEmbeddings;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final LongAdder chunkHits = new LongAdder();
+  private final LongAdder chunkMisses = new LongAdder();
+  private final LongAdder queryHits = new LongAdder();
+  private final LongAdder queryMisses = new LongAdder();
+  private final LongAdder modelCalls = new LongAdder();
+
+  /**
+   * Cache counters since the embedder was created.
+   *
+   * @param chunkHits   Chunk texts served from the on-disk cache
+   * @param chunkMisses Chunk texts not found in the cache; repeats of a text within one call are
+   *                    counted like the hits but sent to the model once
+   * @param queryHits   Queries served from the in-memory cache
+   * @param queryMisses Queries sent to the embedding model
+   * @param modelCalls  Calls made to the embedding model
+   */
+  public record Stats(long chunkHits, long chunkMisses, long queryHits, long queryMisses, long modelCalls) {
+
+    public double chunkHitRate() {
+      long lookups = chunkHits + chunkMisses;
+      return lookups == 0 ? 0.0 : (double) chunkHits / lookups;
+    }
+
+    public double queryHitRate() {
+      long lookups = queryHits + queryMisses;
+      return lookups == 0 ? 0.0 : (double) queryHits / lookups;
+    }
+  }
+
+  /**
+   * @param embeddingModel        The model to embed with
+   * @param embeddingModelId      Identifies the model in cache keys
+   * @param cache                 The on-disk chunk cache, or {@code null} for none
+   * @param batchSize             Number of texts sent to the model per call
+   * @param maxConcurrentRequests Maximum number of model calls in flight at once
+   * @param queryCacheSize        Number of query embeddings kept in memory
+   */
+  CachingEmbedder(EmbeddingModel embeddingModel, String embeddingModelId, EmbeddingCache cache,
+                  int batchSize, int maxConcurrentRequests, int queryCacheSize) {
+    this.embeddingModel = embeddingModel;
+    this.embeddingModelId = embeddingModelId;
+    this.cache = cache;
+    this.batchSize = Math.max(1, batchSize);
+    this.requests = new Semaphore(Math.max(1, maxConcurrentRequests));
+    this.queryCacheSize = Math.max(0, queryCacheSize);
+    this.queryEmbeddings = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Embeds chunk texts, reusing cached embeddings.
+   *
+   * @param texts The texts to embed
+   * @return The embedding of each text, in the same order
+   */
+  List<float[]> embed(List<String> texts) {
+    List<float[]> embeddings = new ArrayList<>(texts.size());
+    // Texts to embed, each with the positions it occurs at
+    Map<String, List<Integer>> missing = new LinkedHashMap<>();
+    Map<String, EmbeddingCache.Key> keys = new LinkedHashMap<>();
+    for (int i = 0; i < texts.size(); i++) {
+      String text = texts.get(i);
+      float[] cached = cached(text, keys);
+      embeddings.add(cached);
+      if (cached == null) {
+        missing.computeIfAbsent(text, t -> new ArrayList<>()).add(i);
+      }
+    }
+    int misses = missing.values().stream().mapToInt(List::size).sum();
+    chunkHits.add(texts.size() - misses);
+    chunkMisses.add(misses);
+    if (missing.isEmpty()) {
+      return embeddings;
+    }
+
+    List<String> pending = new ArrayList<>(missing.keySet());
+    List<float[]> computed = callInBatches(pending);
+    for (int i = 0; i < pending.size(); i++) {
+      for (int position : missing.get(pending.get(i))) {
+        embeddings.set(position, computed.get(i));
+      }
+    }
+    store(pending, computed, keys);
+    LOGGER.debug("Embedded {} texts in {} calls, {} served from the cache",
+        pending.size(), (pending.size() + batchSize - 1) / batchSize, texts.size() - pending.size());
+    return embeddings;
+  }
+
+  /**
+   * Embeds many queries at once, in batched model calls for those not in the query cache.
+   * The embeddings are returned rather than cached, so a large batch does not flush the cache.
+   *
+   * @param queries The queries to embed
+   * @return The embedding of each query, in the same order
+   */
+  List<float[]> embedQueries(List<String> queries) {
+    List<float[]> embeddings = new ArrayList<>(queries.size());
+    Map<String, List<Integer>> missing = new LinkedHashMap<>();
+    for (int i = 0; i < queries.size(); i++) {
+      float[] cached = null;
+      if (queryCacheSize > 0) {
+        synchronized (queryEmbeddings) {
+          cached = queryEmbeddings.get(queries.get(i));
+        }
+      }
+      embeddings.add(cached != null ? cached.clone() : null);
+      if (cached == null) {
+        missing.computeIfAbsent(queries.get(i), query -> new ArrayList<>()).add(i);
+      }
+    }
+    queryHits.add(queries.size() - missing.values().stream().mapToInt(List::size).sum());
+    queryMisses.add(missing.size());
+    if (!missing.isEmpty()) {
+      List<String> pending = new ArrayList<>(missing.keySet());
+      List<float[]> computed = callInBatches(pending);
+      for (int i = 0; i < pending.size(); i++) {
+        for (int position : missing.get(pending.get(i))) {
+          embeddings.set(position, computed.get(i).clone());
+        }
+      }
+    }
+    return embeddings;
+  }
+
+  /**
+   * Embeds a query, reusing the embedding of a recent identical query.
+   */
+  float[] embedQuery(String query) {
+    if (queryCacheSize > 0) {
+      synchronized (queryEmbeddings) {
+        float[] cached = queryEmbeddings.get(query);
+        if (cached != null) {
+          queryHits.increment();
+          return cached.clone();
+        }
+      }
+    }
+    queryMisses.increment();
+    float[] embedding = call(List.of(query)).get(0);
+    if (queryCacheSize > 0) {
+      synchronized (queryEmbeddings) {
+        queryEmbeddings.put(query, embedding.clone());
+        if (queryEmbeddings.size() > queryCacheSize) {
+          queryEmbeddings.remove(queryEmbeddings.keySet().iterator().next());
+        }
+      }
+    }
+    return embedding;
+  }
+
+  Stats stats() {
+    return new Stats(chunkHits.sum(), chunkMisses.sum(), queryHits.sum(), queryMisses.sum(), modelCalls.sum());
+  }
+
+  private float[] cached(String text, Map<String, EmbeddingCache.Key> keys) {
+    if (cache == null) {
+      return null;
+    }
+    EmbeddingCache.Key key = keys.computeIfAbsent(text, t -> EmbeddingCache.key(embeddingModelId, t));
+    try {
+      return cache.get(key);
+    } catch (IOException e) {
+      LOGGER.warn("Embedding cache lookup failed, embedding again: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  private void store(List<String> texts, List<float[]> embeddings, Map<String, EmbeddingCache.Key> keys) {
+    if (cache == null) {
+      return;
+    }
+    try {
+      cache.putAll(texts.stream().map(keys::get).toList(), embeddings);
+    } catch (IOException e) {
+      // The embeddings are still used; only later runs have to embed them again
+      LOGGER.warn("Could not write to the embedding cache: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Embeds texts in concurrent batches, bounded by the shared limit on calls in flight.
+   */
+  private List<float[]> callInBatches(List<String> texts) {
+    List<Future<List<float[]>>> batches = new ArrayList<>();
+    for (int start = 0; start < texts.size(); start += batchSize) {
+      List<String> batch = texts.subList(start, Math.min(start + batchSize, texts.size()));
+      batches.add(executor.submit(() -> call(batch)));
+    }
+    List<float[]> embeddings = new ArrayList<>(texts.size());
+    for (Future<List<float[]>> batch : batches) {
+      embeddings.addAll(await(batch));
+    }
+    return embeddings;
+  }
+
+  private List<float[]> call(List<String> texts) {
+    try {
+      requests.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to call the embedding model", e);
+    }
+    try {
+      modelCalls.increment();
+      List<float[]> embeddings = embeddingModel.embed(texts);
+      if (embeddings.size() != texts.size()) {
+        throw new IllegalStateException("Got " + embeddings.size() + " embeddings for " + texts.size() + " texts");
+      }
+      return embeddings;
+    } finally {
+      requests.release();
+    }
+  }
+
+  private static List<float[]> await(Future<List<float[]>> batch) {
+    try {
+      return batch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while embedding", e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,405 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.TextTokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Collapses near-duplicate chunks into one canonical chunk. Loyalty documents repeat boilerplate
+ * across airlines and revisions, and overlapping chunk windows repeat text within a document;
+ * storing every copy bloats the index and lets copies of one passage fill several of the top k
+ * slots.
+ *
+ * <p>Chunks are compared by the Jaccard similarity of their word shingles, estimated from MinHash
+ * signatures. The signatures are split into bands for locality-sensitive hashing, so a chunk is
+ * only compared with the canonical chunks that agree with it on at least one whole band. The first
+ * chunk of a group is stored and lists every source of the group and their airlines in its
+ * {@code sources} and {@code airlines} metadata, so that filters on either match it for every
+ * member; later members are dropped. When the source of a canonical chunk is removed or replaced, the next
+ * member source adopts the group with its own copy of the passage, so no source loses coverage.
+ *
+ * <p>Not thread-safe: the service calls it from the ingestion insert stage and under its document lock.
+ */
+public class ChunkDeduplicator {
+
+  /**
+   * Metadata key listing the sources of a canonical chunk, comma separated.
+   */
+  static final String SOURCES = "sources";
+
+  /**
+   * Metadata key listing the airlines of the sources of a canonical chunk, comma separated.
+   */
+  static final String AIRLINES = "airlines";
+
+  private final int hashes;
+  private final int rows;
+  private final int shingleSize;
+  private final double threshold;
+  private final long[] seeds;
+  private final Map<Long, List<Group>> buckets = new HashMap<>();
+  private final Map<String, Group> canonical = new HashMap<>(); // By the id of the canonical chunk
+  private final Map<String, Set<Group>> groupsBySource = new HashMap<>();
+  private final Set<Group> orphans = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Set<String> changedSources = new LinkedHashSet<>();
+  private long chunks;
+
+  /**
+   * Counts of the chunks seen and kept.
+   *
+   * @param chunks    The number of chunks of the current sources
+   * @param canonical The number of chunks stored after collapsing near-duplicates
+   */
+  public record Stats(long chunks, int canonical) {
+
+    /**
+     * Returns the share of chunks that were collapsed into another chunk.
+     */
+    public double dedupeRatio() {
+      return chunks == 0 ? 0.0 : 1.0 - (double) canonical / chunks;
+    }
+  }
+
+  /**
+   * @param hashes      The number of MinHash functions in a signature
+   * @param bands       The number of bands the signature is split into; must divide {@code hashes}
+   * @param shingleSize The number of consecutive words in a shingle
+   * @param threshold   The estimated Jaccard similarity from which two chunks are duplicates
+   */
+  ChunkDeduplicator(int hashes, int bands, int shingleSize, double threshold) {
+    if (hashes <= 0 || bands <= 0 || hashes % bands != 0) {
+      throw new IllegalArgumentException("The number of hashes must be a positive multiple of the number of bands");
+    }
+    this.hashes = hashes;
+    this.rows = hashes / bands;
+    this.shingleSize = Math.max(1, shingleSize);
+    this.threshold = threshold;
+    this.seeds = new long[hashes];
+    for (int i = 0; i < hashes; i++) {
+      seeds[i] = mix(0x9E3779B97F4A7C15L * (i + 1));
+    }
+  }
+
+  /**
+   * Admits a chunk of a source.
+   *
+   * @return The chunk with its {@code sources} metadata if it starts a new group and has to be
+   * stored, or {@code null} if it was collapsed into the canonical chunk of an earlier group
+   */
+  AirlineDocument admit(AirlineDocument chunk) {
+    String source = source(chunk);
+    long[] signature = signature(chunk.getContent());
+    chunks++;
+    Group group = signature != null ? find(signature) : null;
+    if (group != null) {
+      join(group, source, 1);
+      return null;
+    }
+    group = new Group(signature, source, chunkIndex(chunk));
+    join(group, source, 1);
+    register(group);
+    canonical.put(id(source, group.chunk), group);
+    return withSources(chunk, group);
+  }
+
+  /**
+   * Returns a stored chunk with its current {@code sources} metadata, or {@code null} if it is no
+   * longer the canonical chunk of a group.
+   */
+  AirlineDocument canonical(AirlineDocument chunk) {
+    Group group = canonical.get(id(source(chunk), chunkIndex(chunk)));
+    return group != null ? withSources(chunk, group) : null;
+  }
+
+  /**
+   * Forgets every chunk of a source. Groups that other sources share keep existing; those whose
+   * canonical chunk came from the source wait for an heir to {@link #adopt} them.
+   */
+  void removeSource(String source) {
+    Set<Group> groups = groupsBySource.remove(source);
+    changedSources.remove(source);
+    if (groups == null) {
+      return;
+    }
+    for (Group group : groups) {
+      chunks -= group.sources.remove(source);
+      if (!source.equals(group.owner)) {
+        if (group.owner != null) {
+          changedSources.add(group.owner);
+        }
+        continue;
+      }
+      canonical.remove(id(group.owner, group.chunk));
+      group.owner = null;
+      if (group.sources.isEmpty()) {
+        unregister(group);
+        orphans.remove(group);
+      } else {
+        orphans.add(group);
+      }
+    }
+  }
+
+  /**
+   * Returns the sources that are next in line to adopt a group whose canonical chunk was removed.
+   */
+  Set<String> heirs() {
+    Set<String> heirs = new LinkedHashSet<>();
+    for (Group group : orphans) {
+      heirs.add(group.sources.firstKey());
+    }
+    return heirs;
+  }
+
+  /**
+   * Lets a source adopt the orphaned groups it is heir to, each with its chunk most similar to the
+   * group. A source without such a chunk, because it changed since it joined, leaves the group.
+   *
+   * @param source The heir
+   * @param chunks The current chunks of the heir
+   * @return The adopted chunks, with their {@code sources} metadata, which have to be stored
+   */
+  List<AirlineDocument> adopt(String source, List<AirlineDocument> chunks) {
+    List<long[]> signatures = chunks.stream().map(chunk -> signature(chunk.getContent())).toList();
+    List<AirlineDocument> adopted = new ArrayList<>();
+    for (Group group : new ArrayList<>(orphans)) {
+      if (!source.equals(group.sources.firstKey())) {
+        continue;
+      }
+      int best = -1;
+      double bestSimilarity = threshold;
+      for (int i = 0; i < chunks.size(); i++) {
+        if (canonical.containsKey(id(source, chunkIndex(chunks.get(i))))) {
+          continue;
+        }
+        double similarity = similarity(group.signature, signatures.get(i));
+        if (similarity >= bestSimilarity) {
+          best = i;
+          bestSimilarity = similarity;
+        }
+      }
+      if (best < 0) {
+        this.chunks -= group.sources.remove(source);
+        Set<Group> groups = groupsBySource.get(source);
+        if (groups != null) {
+          groups.remove(group);
+        }
+        if (group.sources.isEmpty()) {
+          unregister(group);
+          orphans.remove(group);
+        }
+        continue;
+      }
+      unregister(group);
+      group.signature = signatures.get(best);
+      group.owner = source;
+      group.chunk = chunkIndex(chunks.get(best));
+      register(group);
+      canonical.put(id(source, group.chunk), group);
+      orphans.remove(group);
+      changedSources.add(source);
+      adopted.add(withSources(chunks.get(best), group));
+    }
+    return adopted;
+  }
+
+  /**
+   * Returns and forgets the sources whose stored chunks have to be rewritten, because the sources
+   * listed by one of their canonical chunks changed or because they adopted a group.
+   */
+  Set<String> drainChangedSources() {
+    Set<String> changed = new LinkedHashSet<>(changedSources);
+    changedSources.clear();
+    return changed;
+  }
+
+  /**
+   * Rebuilds the groups from stored canonical chunks, such as those of a prebuilt index.
+   */
+  void restore(List<AirlineDocument> stored) {
+    clear();
+    for (AirlineDocument chunk : stored) {
+      String source = source(chunk);
+      Group group = new Group(signature(chunk.getContent()), source, chunkIndex(chunk));
+      Object sources = chunk.getMetadataValue(SOURCES);
+      for (String member : sources != null ? sources.toString().split(",") : new String[] {source}) {
+        join(group, member, 1);
+        chunks++;
+      }
+      register(group);
+      canonical.put(id(source, group.chunk), group);
+    }
+    changedSources.clear();
+  }
+
+  void clear() {
+    buckets.clear();
+    canonical.clear();
+    groupsBySource.clear();
+    orphans.clear();
+    changedSources.clear();
+    chunks = 0;
+  }
+
+  Stats stats() {
+    return new Stats(chunks, canonical.size());
+  }
+
+  /**
+   * Computes the MinHash signature of a text over its word shingles, or {@code null} if it has no words.
+   */
+  long[] signature(String text) {
+    List<String> words = TextTokenizer.tokenize(text);
+    if (words.isEmpty()) {
+      return null;
+    }
+    long[] signature = new long[hashes];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    int shingles = Math.max(1, words.size() - shingleSize + 1);
+    for (int start = 0; start < shingles; start++) {
+      long shingle = 0;
+      for (int i = start; i < Math.min(start + shingleSize, words.size()); i++) {
+        shingle = mix(shingle * 31 + words.get(i).hashCode());
+      }
+      for (int i = 0; i < hashes; i++) {
+        signature[i] = Math.min(signature[i], mix(shingle ^ seeds[i]));
+      }
+    }
+    return signature;
+  }
+
+  /**
+   * Estimates the Jaccard similarity of two texts from their signatures.
+   */
+  static double similarity(long[] a, long[] b) {
+    if (a == null || b == null) {
+      return a == b ? 1.0 : 0.0;
+    }
+    int equal = 0;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] == b[i]) {
+        equal++;
+      }
+    }
+    return (double) equal / a.length;
+  }
+
+  private Group find(long[] signature) {
+    Set<Group> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+    Group best = null;
+    double bestSimilarity = threshold;
+    for (int band = 0; band < hashes / rows; band++) {
+      for (Group candidate : buckets.getOrDefault(bandKey(signature, band), List.of())) {
+        if (candidate.owner != null && candidates.add(candidate)) {
+          double similarity = similarity(signature, candidate.signature);
+          if (similarity >= bestSimilarity) {
+            best = candidate;
+            bestSimilarity = similarity;
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  private void join(Group group, String source, int count) {
+    if (group.sources.merge(source, count, Integer::sum) == count) {
+      groupsBySource.computeIfAbsent(source, key -> Collections.newSetFromMap(new IdentityHashMap<>())).add(group);
+      if (group.owner != null && !group.owner.equals(source)) {
+        changedSources.add(group.owner);
+      }
+    }
+  }
+
+  private void register(Group group) {
+    if (group.signature == null) {
+      return;
+    }
+    for (int band = 0; band < hashes / rows; band++) {
+      buckets.computeIfAbsent(bandKey(group.signature, band), key -> new ArrayList<>()).add(group);
+    }
+  }
+
+  private void unregister(Group group) {
+    if (group.signature == null) {
+      return;
+    }
+    for (int band = 0; band < hashes / rows; band++) {
+      long key = bandKey(group.signature, band);
+      List<Group> bucket = buckets.get(key);
+      if (bucket != null) {
+        bucket.removeIf(member -> member == group);
+        if (bucket.isEmpty()) {
+          buckets.remove(key);
+        }
+      }
+    }
+  }
+
+  private long bandKey(long[] signature, int band) {
+    long key = band;
+    for (int i = band * rows; i < (band + 1) * rows; i++) {
+      key = mix(key * 31 + signature[i]);
+    }
+    return key;
+  }
+
+  private static AirlineDocument withSources(AirlineDocument chunk, Group group) {
+    Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+    metadata.put(SOURCES, String.join(",", group.sources.keySet()));
+    metadata.put(AIRLINES, group.sources.keySet().stream()
+        .map(KnowledgeBaseService::airline)
+        .distinct()
+        .collect(Collectors.joining(",")));
+    return new AirlineDocument(chunk.getContent(), metadata);
+  }
+
+  private static String source(AirlineDocument chunk) {
+    return String.valueOf(chunk.getMetadataValue("source"));
+  }
+
+  private static int chunkIndex(AirlineDocument chunk) {
+    return chunk.getMetadataValue("chunk") instanceof Number number ? number.intValue() : -1;
+  }
+
+  private static String id(String source, int chunk) {
+    return source + "#" + chunk;
+  }
+
+  /**
+   * The finalizer of SplitMix64, which spreads every input bit over the whole output.
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+
+  /**
+   * Near-duplicate chunks of one or more sources, stored once as the chunk of their owner.
+   */
+  private static final class Group {
+
+    long[] signature;
+    String owner; // null while the group waits for an heir
+    int chunk;
+    final TreeMap<String, Integer> sources = new TreeMap<>(); // Chunks in the group per source
+
+    Group(long[] signature, String owner, int chunk) {
+      this.signature = signature;
+      this.owner = owner;
+      this.chunk = chunk;
+    }
+  }
+}
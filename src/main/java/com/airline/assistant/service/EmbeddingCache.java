@@ -0,0 +1,221 @@
+package com.airline.assistant.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only binary file of embeddings keyed by the SHA-256 of the embedding model id and the
+ * embedded text, so that unchanged chunks are never sent to the embedding model twice, across
+ * restarts and re-chunking alike.
+ *
+ * <p>Layout: the magic number and format version, followed by records of a 32-byte key, the
+ * number of dimensions and the vector as little-endian floats. Only keys and file offsets are
+ * held in memory; vectors are read from the file when they are looked up. A record cut short by
+ * a crash is truncated when the file is opened, and a file with another format is started over.
+ * The file is meant for a single process.
+ */
+class EmbeddingCache implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddingCache.class);
+
+  private static final int MAGIC = 0x414B4543; // "AKEC"
+  static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  private static final int KEY_BYTES = 32;
+
+  private final FileChannel channel;
+  private final Map<Key, Long> offsets = new HashMap<>();
+  private long end;
+
+  /**
+   * A SHA-256 digest, compared by value.
+   */
+  record Key(long first, long second, long third, long fourth) {
+
+    static Key of(byte[] digest) {
+      ByteBuffer buffer = ByteBuffer.wrap(digest);
+      return new Key(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    void writeTo(ByteBuffer buffer) {
+      buffer.order(ByteOrder.BIG_ENDIAN).putLong(first).putLong(second).putLong(third).putLong(fourth);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  private EmbeddingCache(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Opens a cache file, creating it if it does not exist.
+   *
+   * @param file The cache file
+   * @return The open cache
+   * @throws IOException If the file cannot be read or written
+   */
+  static EmbeddingCache open(Path file) throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    EmbeddingCache cache = new EmbeddingCache(channel);
+    try {
+      cache.load(file);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return cache;
+  }
+
+  /**
+   * Computes the cache key of a text embedded by a model.
+   */
+  static Key key(String embeddingModelId, String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(embeddingModelId.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+      return Key.of(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Looks up an embedding.
+   *
+   * @return The embedding, or {@code null} if it is not cached
+   */
+  synchronized float[] get(Key key) throws IOException {
+    Long offset = offsets.get(key);
+    if (offset == null) {
+      return null;
+    }
+    ByteBuffer dimensions = readFully(offset + KEY_BYTES, Integer.BYTES);
+    ByteBuffer vector = readFully(offset + KEY_BYTES + Integer.BYTES, dimensions.getInt() * Float.BYTES);
+    float[] embedding = new float[vector.remaining() / Float.BYTES];
+    vector.asFloatBuffer().get(embedding);
+    return embedding;
+  }
+
+  /**
+   * Appends embeddings in a single write. Keys that are already cached are skipped.
+   */
+  synchronized void putAll(List<Key> keys, List<float[]> embeddings) throws IOException {
+    int bytes = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      if (!offsets.containsKey(keys.get(i))) {
+        bytes += KEY_BYTES + Integer.BYTES + embeddings.get(i).length * Float.BYTES;
+      }
+    }
+    if (bytes == 0) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    Map<Key, Long> written = new HashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      Key key = keys.get(i);
+      if (offsets.containsKey(key) || written.containsKey(key)) {
+        continue;
+      }
+      written.put(key, end + buffer.position());
+      key.writeTo(buffer);
+      buffer.putInt(embeddings.get(i).length);
+      buffer.asFloatBuffer().put(embeddings.get(i));
+      buffer.position(buffer.position() + embeddings.get(i).length * Float.BYTES);
+    }
+    buffer.flip();
+    long position = end;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    end = position;
+    offsets.putAll(written);
+  }
+
+  synchronized int size() {
+    return offsets.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  private void load(Path file) throws IOException {
+    long size = channel.size();
+    if (size >= HEADER_BYTES) {
+      ByteBuffer header = readFully(0, HEADER_BYTES);
+      int magic = header.getInt();
+      int version = header.getInt();
+      if (magic != MAGIC || version != VERSION) {
+        LOGGER.warn("Discarding embedding cache {}: not a version {} cache file", file, VERSION);
+        size = 0;
+      }
+    } else {
+      size = 0;
+    }
+    if (size == 0) {
+      channel.truncate(0);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION);
+      channel.write(header.flip(), 0);
+      end = HEADER_BYTES;
+      return;
+    }
+
+    long position = HEADER_BYTES;
+    ByteBuffer recordHeader = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (position + recordHeader.capacity() <= size) {
+      recordHeader.clear();
+      channel.read(recordHeader, position);
+      if (recordHeader.hasRemaining()) {
+        break;
+      }
+      recordHeader.flip();
+      byte[] digest = new byte[KEY_BYTES];
+      recordHeader.get(digest);
+      int dimensions = recordHeader.getInt();
+      long next = position + KEY_BYTES + Integer.BYTES + (long) dimensions * Float.BYTES;
+      if (dimensions <= 0 || next > size) {
+        break;
+      }
+      offsets.put(Key.of(digest), position);
+      position = next;
+    }
+    if (position < size) {
+      LOGGER.warn("Truncating {} bytes of an incomplete record from embedding cache {}", size - position, file);
+      channel.truncate(position);
+    }
+    end = position;
+    LOGGER.info("Opened embedding cache {} with {} embeddings", file, offsets.size());
+  }
+
+  private ByteBuffer readFully(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of embedding cache file");
+      }
+    }
+    return buffer.flip();
+  }
+}
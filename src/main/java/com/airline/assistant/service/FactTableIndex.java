@@ -0,0 +1,217 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.FactTable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The tables of the knowledge base documents, indexed by loyalty program and row key so that
+ * questions like "how many PQP does Premier Gold need" are answered by a hash lookup instead of
+ * retrieval. A program is named after the airline of its document, e.g. {@code united}, and also
+ * found by the other words of the file name, e.g. {@code mileageplus}. Row keys are matched
+ * ignoring case, spacing and punctuation, and with or without a leading word that all keys of the
+ * table share, so that {@code Gold} finds {@code Premier Gold}.
+ *
+ * <p>Lookups read an immutable snapshot that is rebuilt whenever the tables of a document change.
+ */
+public class FactTableIndex {
+
+  private final Map<String, List<FactTable>> tablesBySource = new TreeMap<>();
+  private volatile Snapshot snapshot = new Snapshot(Map.of(), Map.of());
+
+  /**
+   * A cell of a table together with what it is about.
+   *
+   * @param program The program the document is about, e.g. {@code united}
+   * @param key     The row key, e.g. {@code Premier Gold}
+   * @param table   The table title, e.g. {@code Qualification thresholds}
+   * @param column  The column header, e.g. {@code PQP only}
+   * @param value   The cell text, e.g. {@code 12,000 PQP}
+   * @param amounts The quantities of the cell by unit, e.g. {@code PQP=12000}
+   * @param source  The file name of the document
+   */
+  public record Fact(String program, String key, String table, String column, String value,
+                     Map<String, Long> amounts, String source) {}
+
+  /**
+   * The facts by program and normalized row key, and the program of each alias.
+   */
+  private record Snapshot(Map<String, Map<String, List<Fact>>> facts, Map<String, String> programs) {}
+
+  /**
+   * Replaces all tables with those of the given documents, rebuilding the index once.
+   *
+   * @param tables The tables by file name of the document
+   */
+  public synchronized void load(Map<String, List<FactTable>> tables) {
+    tablesBySource.clear();
+    tables.forEach((source, sourceTables) -> {
+      if (!sourceTables.isEmpty()) {
+        tablesBySource.put(source, List.copyOf(sourceTables));
+      }
+    });
+    rebuild();
+  }
+
+  /**
+   * Replaces the tables of a document.
+   */
+  public synchronized void replace(String source, List<FactTable> tables) {
+    if (tables.isEmpty()) {
+      tablesBySource.remove(source);
+    } else {
+      tablesBySource.put(source, List.copyOf(tables));
+    }
+    rebuild();
+  }
+
+  /**
+   * Removes the tables of a deleted document.
+   */
+  public synchronized void remove(String source) {
+    if (tablesBySource.remove(source) != null) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Returns the tables of every document, by file name.
+   */
+  public synchronized Map<String, List<FactTable>> tables() {
+    return Map.copyOf(tablesBySource);
+  }
+
+  /**
+   * Finds the facts about a row of a program's tables.
+   *
+   * @param program The program or airline, e.g. {@code United MileagePlus} or {@code united}
+   * @param key     The row key, e.g. {@code Premier Gold}, or {@code null} for every row
+   * @return The facts in document order; empty if the program or row is unknown
+   */
+  public List<Fact> lookup(String program, String key) {
+    Snapshot current = snapshot;
+    String name = program(current, program);
+    if (name == null) {
+      return List.of();
+    }
+    Map<String, List<Fact>> facts = current.facts().get(name);
+    if (key == null || key.isBlank()) {
+      return facts.values().stream().flatMap(List::stream).distinct().toList();
+    }
+    return facts.getOrDefault(normalize(key), List.of());
+  }
+
+  /**
+   * Resolves a program name to the program it is an alias of, trying the whole name first and
+   * then each of its words.
+   */
+  private static String program(Snapshot snapshot, String program) {
+    if (program == null) {
+      return null;
+    }
+    String name = snapshot.programs().get(normalize(program));
+    if (name != null) {
+      return name;
+    }
+    for (String word : program.split("[\\s-]+")) {
+      name = snapshot.programs().get(normalize(word));
+      if (name != null) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  private void rebuild() {
+    Map<String, Map<String, List<Fact>>> facts = new HashMap<>();
+    Map<String, String> programs = new HashMap<>();
+    for (Map.Entry<String, List<FactTable>> entry : tablesBySource.entrySet()) {
+      String source = entry.getKey();
+      String program = KnowledgeBaseService.airline(source);
+      for (String alias : aliases(source)) {
+        programs.putIfAbsent(alias, program);
+      }
+      Map<String, List<Fact>> byKey = facts.computeIfAbsent(program, name -> new LinkedHashMap<>());
+      for (FactTable table : entry.getValue()) {
+        String prefix = commonLeadingWord(table);
+        for (FactTable.Row row : table.rows()) {
+          List<Fact> rowFacts = new ArrayList<>(row.cells().size());
+          for (int i = 0; i < row.cells().size(); i++) {
+            FactTable.Cell cell = row.cells().get(i);
+            rowFacts.add(new Fact(program, row.key(), table.title(), table.columns().get(i + 1),
+                cell.text(), cell.amounts(), source));
+          }
+          byKey.computeIfAbsent(normalize(row.key()), name -> new ArrayList<>()).addAll(rowFacts);
+          if (prefix != null) {
+            String shortKey = normalize(row.key().substring(prefix.length()));
+            if (!shortKey.isEmpty()) {
+              byKey.computeIfAbsent(shortKey, name -> new ArrayList<>()).addAll(rowFacts);
+            }
+          }
+        }
+      }
+    }
+    facts.replaceAll((program, byKey) -> {
+      byKey.replaceAll((key, list) -> List.copyOf(list));
+      return Map.copyOf(byKey);
+    });
+    snapshot = new Snapshot(Map.copyOf(facts), Map.copyOf(programs));
+  }
+
+  /**
+   * Returns the names a document's program is found by: the airline, the other words of the file
+   * name and the file name as a whole, e.g. {@code united}, {@code mileageplus} and
+   * {@code unitedmileageplus}.
+   */
+  static List<String> aliases(String source) {
+    String name = source.endsWith(".md") ? source.substring(0, source.length() - 3) : source;
+    List<String> aliases = new ArrayList<>();
+    aliases.add(KnowledgeBaseService.airline(source));
+    for (String word : name.split("-")) {
+      aliases.add(normalize(word));
+    }
+    aliases.add(normalize(name));
+    return aliases;
+  }
+
+  /**
+   * Returns the word, followed by a space, that every row key of a table starts with, or
+   * {@code null} if they do not share one.
+   */
+  private static String commonLeadingWord(FactTable table) {
+    if (table.rows().size() < 2) {
+      return null;
+    }
+    String first = table.rows().get(0).key();
+    int space = first.indexOf(' ');
+    if (space <= 0) {
+      return null;
+    }
+    String prefix = first.substring(0, space + 1);
+    for (FactTable.Row row : table.rows()) {
+      if (!row.key().startsWith(prefix)) {
+        return null;
+      }
+    }
+    return prefix;
+  }
+
+  /**
+   * Lowercases a name and drops everything but letters and digits.
+   */
+  static String normalize(String name) {
+    StringBuilder normalized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        normalized.append(Character.toLowerCase(c));
+      }
+    }
+    return normalized.toString();
+  }
+}
@@ -0,0 +1,163 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a lexical and a dense retriever concurrently and fuses their rankings with reciprocal-rank
+ * fusion: every document scores {@code 1 / (c + rank)} per ranking it appears in, so documents
+ * that both retrievers rank highly come first without having to reconcile BM25 scores with cosine
+ * similarities. Exact jargon such as "MQD" or "PQP" is found by the lexical branch and paraphrases
+ * by the dense one.
+ *
+ * <p>Both branches start at once on virtual threads, so the retrieval takes as long as the slower
+ * branch, and each is bounded by its own deadline. A branch that fails or misses its deadline is
+ * cancelled and the other branch's ranking is used alone; only when both fail is the failure
+ * rethrown.
+ */
+class HybridRetriever {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HybridRetriever.class);
+
+  private final int lexicalCandidates;
+  private final long lexicalTimeoutNanos;
+  private final int denseCandidates;
+  private final long denseTimeoutNanos;
+  private final int rankConstant;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Retrieves a ranking of candidates.
+   */
+  @FunctionalInterface
+  interface Branch {
+    RetrievalResult search(int candidates);
+  }
+
+  HybridRetriever(KnowledgeBaseConfig.Hybrid config) {
+    this.lexicalCandidates = config.getLexicalCandidates();
+    this.lexicalTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getLexicalTimeoutMillis());
+    this.denseCandidates = config.getDenseCandidates();
+    this.denseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getDenseTimeoutMillis());
+    this.rankConstant = Math.max(0, config.getRankConstant());
+  }
+
+  /**
+   * Runs both branches and fuses their rankings.
+   *
+   * @param lexical The lexical branch
+   * @param dense   The dense branch, including the query embedding
+   * @param k       The number of results to return
+   * @return The best k fused documents with their fusion scores, and the time spent searching and fusing
+   */
+  RetrievalResult retrieve(Branch lexical, Branch dense, int k) {
+    long start = System.nanoTime();
+    Future<RetrievalResult> lexicalSearch = executor.submit(() -> lexical.search(Math.max(k, lexicalCandidates)));
+    Future<RetrievalResult> denseSearch = executor.submit(() -> dense.search(Math.max(k, denseCandidates)));
+
+    List<RetrievalResult> rankings = new ArrayList<>(2);
+    RuntimeException failure = null;
+    for (BranchRun run : List.of(new BranchRun("lexical", lexicalSearch, start + lexicalTimeoutNanos),
+        new BranchRun("dense", denseSearch, start + denseTimeoutNanos))) {
+      try {
+        rankings.add(run.await());
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (rankings.isEmpty()) {
+      throw failure;
+    }
+
+    long fuseStart = System.nanoTime();
+    List<RetrievalResult.ScoredDocument> fused = fuse(rankings, k);
+    Map<String, Long> stages = new LinkedHashMap<>();
+    stages.put("search", fuseStart - start);
+    stages.put("fuse", System.nanoTime() - fuseStart);
+    return new RetrievalResult(fused, stages);
+  }
+
+  /**
+   * Fuses rankings with reciprocal-rank fusion, breaking ties by the order of first appearance.
+   */
+  List<RetrievalResult.ScoredDocument> fuse(List<RetrievalResult> rankings, int k) {
+    Map<DocumentKey, Fused> scores = new LinkedHashMap<>();
+    for (RetrievalResult ranking : rankings) {
+      List<RetrievalResult.ScoredDocument> hits = ranking.hits();
+      for (int rank = 0; rank < hits.size(); rank++) {
+        AirlineDocument document = hits.get(rank).document();
+        double score = 1.0 / (rankConstant + rank + 1);
+        scores.computeIfAbsent(DocumentKey.of(document), key -> new Fused(document)).score += score;
+      }
+    }
+    return scores.values().stream()
+        .sorted(Comparator.comparingDouble((Fused fused) -> fused.score).reversed())
+        .limit(Math.max(0, k))
+        .map(fused -> new RetrievalResult.ScoredDocument(fused.document, fused.score))
+        .toList();
+  }
+
+  /**
+   * Identifies a chunk across rankings by value, since a memory-mapped store decodes a new
+   * document instance for every hit.
+   */
+  private record DocumentKey(String content, Map<String, Object> metadata) {
+
+    static DocumentKey of(AirlineDocument document) {
+      return new DocumentKey(document.getContent(), document.getMetadata());
+    }
+  }
+
+  private static final class Fused {
+
+    private final AirlineDocument document;
+    private double score;
+
+    Fused(AirlineDocument document) {
+      this.document = document;
+    }
+  }
+
+  /**
+   * A running branch and the deadline it has to meet.
+   */
+  private record BranchRun(String name, Future<RetrievalResult> search, long deadlineNanos) {
+
+    RetrievalResult await() {
+      try {
+        return search.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        search.cancel(true);
+        LOGGER.warn("Hybrid retrieval: {} branch missed its deadline, fusing without it", name);
+        throw new IllegalStateException("The " + name + " branch timed out", e);
+      } catch (ExecutionException e) {
+        LOGGER.warn("Hybrid retrieval: {} branch failed, fusing without it", name, e.getCause());
+        throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        search.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the " + name + " branch", e);
+      }
+    }
+  }
+}
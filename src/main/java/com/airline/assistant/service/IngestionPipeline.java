@@ -0,0 +1,299 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Staged ingestion of knowledge base files: files are read by a pool of reader threads, chunked
+ * and embedded on a fork-join pool, and inserted into the index in batches by the calling thread.
+ *
+ * <p>Stages are connected by queues, and at most {@code queueCapacity} documents are in flight
+ * between reading and insertion, so a slow stage applies back pressure instead of letting read
+ * documents pile up. Readers claim files in order and the insert stage restores that order before
+ * batching, which keeps chunk ids identical to sequential ingestion. Because a permit is taken
+ * when a file is claimed and returned when it is inserted, the oldest document in flight always
+ * holds one and the pipeline cannot stall on documents that finished early.
+ * The first failure in any stage aborts the run and is rethrown to the caller.
+ */
+class IngestionPipeline {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IngestionPipeline.class);
+
+  private final int readerThreads;
+  private final int chunkerParallelism;
+  private final int queueCapacity;
+  private final int batchSize;
+
+  /**
+   * Reads a file into a document.
+   *
+   * @param <D> The document type
+   */
+  @FunctionalInterface
+  interface Reader<D> {
+    D read(Path file) throws IOException;
+  }
+
+  /**
+   * Splits a document into chunks, with their embeddings or {@code null} when there are none.
+   *
+   * @param <D> The document type
+   */
+  @FunctionalInterface
+  interface Chunker<D> {
+    Chunks chunk(D document);
+  }
+
+  /**
+   * Inserts a batch of chunks into the index.
+   */
+  @FunctionalInterface
+  interface Sink {
+    void insert(List<AirlineDocument> chunks, List<float[]> embeddings);
+  }
+
+  /**
+   * The chunks of a single document.
+   */
+  record Chunks(List<AirlineDocument> chunks, List<float[]> embeddings) {}
+
+  /**
+   * Throughput of a single stage.
+   *
+   * @param name       The stage name
+   * @param items      The number of items the stage produced
+   * @param wallMillis The time from the first item entering the stage to the last one leaving it
+   * @param busyMillis The time spent working on items, summed over all threads of the stage
+   */
+  record StageReport(String name, long items, long wallMillis, long busyMillis) {
+
+    double itemsPerSecond() {
+      return wallMillis == 0 ? items * 1000.0 : items * 1000.0 / wallMillis;
+    }
+  }
+
+  /**
+   * @param readerThreads      Number of threads reading files
+   * @param chunkerParallelism Parallelism of the chunking fork-join pool
+   * @param queueCapacity      Maximum number of documents in flight between reading and insertion
+   * @param batchSize          Number of chunks inserted into the index at once
+   */
+  IngestionPipeline(int readerThreads, int chunkerParallelism, int queueCapacity, int batchSize) {
+    this.readerThreads = Math.max(1, readerThreads);
+    this.chunkerParallelism = Math.max(1, chunkerParallelism);
+    this.queueCapacity = Math.max(1, queueCapacity);
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Ingests the given files.
+   *
+   * @param files   The files to ingest, in the order their chunks should be inserted
+   * @param reader  Reads one file
+   * @param chunker Chunks and embeds one document
+   * @param sink    Inserts one batch of chunks
+   * @param <D>     The type of the documents handed from the read to the chunk stage
+   * @return The throughput of the read, chunk and insert stages
+   * @throws IOException If a file cannot be read
+   */
+  <D> List<StageReport> run(List<Path> files, Reader<D> reader, Chunker<D> chunker, Sink sink) throws IOException {
+    Stage read = new Stage("read");
+    Stage chunk = new Stage("chunk");
+    Stage insert = new Stage("insert");
+    int total = files.size();
+
+    // Both queues are bounded by the in-flight permits, so puts never block
+    BlockingQueue<Item<D>> readQueue = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<Item<D>> chunkQueue = new LinkedBlockingQueue<>();
+    Semaphore inFlight = new Semaphore(queueCapacity);
+
+    ExecutorService readers = Executors.newFixedThreadPool(Math.min(readerThreads, Math.max(1, total)),
+        daemonThreads("knowledge-base-reader"));
+    ForkJoinPool chunkers = new ForkJoinPool(chunkerParallelism);
+    AtomicInteger nextFile = new AtomicInteger();
+    Thread dispatcher = new Thread(() -> dispatch(total, readQueue, chunkQueue, chunkers, chunker, chunk),
+        "knowledge-base-chunk-dispatcher");
+    dispatcher.setDaemon(true);
+
+    try {
+      for (int i = 0; i < Math.min(readerThreads, total); i++) {
+        readers.execute(() -> readFiles(files, nextFile, inFlight, reader, readQueue, read));
+      }
+      dispatcher.start();
+      insertInOrder(total, chunkQueue, inFlight, sink, insert);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while ingesting the knowledge base", e);
+    } finally {
+      readers.shutdownNow();
+      dispatcher.interrupt();
+      chunkers.shutdownNow();
+    }
+
+    List<StageReport> reports = List.of(read.report(), chunk.report(), insert.report());
+    for (StageReport report : reports) {
+      LOGGER.info("Ingestion stage {}: {} items in {} ms ({} items/s, {} ms busy across threads)",
+          report.name(), report.items(), report.wallMillis(), String.format("%.1f", report.itemsPerSecond()),
+          report.busyMillis());
+    }
+    return reports;
+  }
+
+  private static <D> void readFiles(List<Path> files, AtomicInteger nextFile, Semaphore inFlight, Reader<D> reader,
+                                    BlockingQueue<Item<D>> readQueue, Stage stage) {
+    try {
+      while (true) {
+        inFlight.acquire();
+        int index = nextFile.getAndIncrement();
+        if (index >= files.size()) {
+          inFlight.release();
+          return;
+        }
+        long start = stage.start();
+        Item<D> item;
+        try {
+          item = new Item<>(index, reader.read(files.get(index)), null, null);
+        } catch (IOException | RuntimeException e) {
+          item = new Item<>(index, null, null, e);
+        }
+        stage.finish(start, 1);
+        readQueue.put(item);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static <D> void dispatch(int total, BlockingQueue<Item<D>> readQueue, BlockingQueue<Item<D>> chunkQueue,
+                                   ForkJoinPool chunkers, Chunker<D> chunker, Stage stage) {
+    try {
+      for (int i = 0; i < total; i++) {
+        Item<D> item = readQueue.take();
+        if (item.failure() != null) {
+          chunkQueue.put(item);
+          continue;
+        }
+        chunkers.execute(() -> {
+          long start = stage.start();
+          Item<D> chunked;
+          try {
+            chunked = new Item<>(item.sequence(), null, chunker.chunk(item.document()), null);
+            stage.finish(start, chunked.chunks().chunks().size());
+          } catch (RuntimeException e) {
+            chunked = new Item<>(item.sequence(), null, null, e);
+          }
+          chunkQueue.add(chunked);
+        });
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private <D> void insertInOrder(int total, BlockingQueue<Item<D>> chunkQueue, Semaphore inFlight, Sink sink,
+                                 Stage stage)
+      throws InterruptedException, IOException {
+    Map<Integer, Item<D>> pending = new TreeMap<>();
+    List<AirlineDocument> batch = new ArrayList<>(batchSize);
+    List<float[]> batchEmbeddings = new ArrayList<>(batchSize);
+    boolean embedded = false;
+    int next = 0;
+    while (next < total) {
+      Item<D> item = chunkQueue.take();
+      if (item.failure() instanceof IOException e) {
+        throw e;
+      } else if (item.failure() instanceof UncheckedIOException e) {
+        throw e.getCause();
+      } else if (item.failure() != null) {
+        throw (RuntimeException) item.failure();
+      }
+      pending.put(item.sequence(), item);
+      for (Item<D> ready = pending.remove(next); ready != null; ready = pending.remove(next)) {
+        Chunks chunks = ready.chunks();
+        batch.addAll(chunks.chunks());
+        if (chunks.embeddings() != null) {
+          embedded = true;
+          batchEmbeddings.addAll(chunks.embeddings());
+        }
+        next++;
+        inFlight.release();
+        if (batch.size() >= batchSize || (next == total && !batch.isEmpty())) {
+          long start = stage.start();
+          sink.insert(batch, embedded ? batchEmbeddings : null);
+          stage.finish(start, batch.size());
+          batch = new ArrayList<>(batchSize);
+          batchEmbeddings = new ArrayList<>(batchSize);
+        }
+      }
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * A document travelling through the pipeline: read, then chunked, or failed in either stage.
+   */
+  private record Item<D>(int sequence, D document, Chunks chunks, Exception failure) {}
+
+  /**
+   * Item and timing counters of one stage, updated from all of its threads.
+   */
+  private static final class Stage {
+
+    private final String name;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastFinish = new AtomicLong(Long.MIN_VALUE);
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    long start() {
+      long now = System.nanoTime();
+      firstStart.accumulateAndGet(now, Math::min);
+      return now;
+    }
+
+    void finish(long start, int produced) {
+      long now = System.nanoTime();
+      lastFinish.accumulateAndGet(now, Math::max);
+      busyNanos.add(now - start);
+      items.add(produced);
+    }
+
+    StageReport report() {
+      long wallNanos = Math.max(0, lastFinish.get() - firstStart.get());
+      return new StageReport(name, items.sum(), wallNanos / 1_000_000, busyNanos.sum() / 1_000_000);
+    }
+  }
+}
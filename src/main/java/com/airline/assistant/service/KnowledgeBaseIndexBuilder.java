@@ -0,0 +1,44 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import com.airline.assistant.rag.SimpleVectorStore;
+
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line entry point of the {@code knowledgeBaseIndex} Gradle task. Ingests the classpath
+ * knowledge base exactly like the application does at startup, embedding the chunks with the
+ * hashing embedder, and writes the binary index that {@link SimpleVectorStore#loadIndex} maps.
+ */
+public final class KnowledgeBaseIndexBuilder {
+
+  private KnowledgeBaseIndexBuilder() {
+  }
+
+  /**
+   * @param args The index file to write, optionally followed by the hashing embedding dimensions
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: KnowledgeBaseIndexBuilder <index-file> [embedding-dimensions]");
+      System.exit(2);
+    }
+    Path indexFile = Paths.get(args[0]);
+
+    KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+    config.getIndex().setEnabled(false);
+    config.setRetrievalMode(KnowledgeBaseConfig.RetrievalMode.DENSE);
+    config.getEmbedding().setProvider(KnowledgeBaseConfig.EmbeddingProvider.HASHING);
+    if (args.length > 1) {
+      config.getEmbedding().setDimensions(Integer.parseInt(args[1]));
+    }
+
+    KnowledgeBaseService knowledgeBaseService =
+        new KnowledgeBaseService(new DefaultResourceLoader(), new SimpleVectorStore(config), config, null);
+    knowledgeBaseService.writeIndex(indexFile);
+  }
+}
@@ -1,23 +1,64 @@
 package com.airline.assistant.service;
 
+import com.airline.assistant.config.KnowledgeBaseConfig;
 import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.ContextAssembler;
+import com.airline.assistant.rag.FactTable;
+import com.airline.assistant.rag.FactTableParser;
+import com.airline.assistant.rag.HashingEmbeddingModel;
+import com.airline.assistant.rag.MarkdownChunker;
+import com.airline.assistant.rag.RetrievalResult;
 import com.airline.assistant.rag.SimpleVectorStore;
+import com.airline.assistant.rag.TextTokenizer;
+import com.airline.assistant.repository.JdbcChunkRepository;
 
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -29,16 +70,73 @@ public class KnowledgeBaseService {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(KnowledgeBaseService.class);
   private static final String KNOWLEDGE_BASE_PATH = "classpath:knowledge-base/";
-  private static final int CHUNK_SIZE = 1000; // Characters per chunk
-  private static final int CHUNK_OVERLAP = 200; // Overlap between chunks
+  private static final String INDEX_PATH = "classpath:knowledge-base.idx";
+  private static final int RECALL_K = 10; // Result depth used when reporting vector index recall
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
   private final ResourceLoader resourceLoader;
   private final SimpleVectorStore vectorStore;
+  private final KnowledgeBaseConfig config;
+  private final EmbeddingModel embeddingModel;
+  private final String embeddingModelId;
+  private final CachingEmbedder embedder;
+  private final MarkdownChunker chunker;
+  private final RetrievalCache retrievalCache;
+  private final HybridRetriever hybridRetriever;
+  private final ScatterGatherRetriever scatterGatherRetriever;
+  private final ContextAssembler contextAssembler;
+  private final ChunkDeduplicator deduplicator;
+  private final FactTableIndex factTables = new FactTableIndex();
+  private final Histogram queryLatencies = new ConcurrentHistogram(3); // Nanoseconds per retrieval, auto-resizing
+  private final JdbcChunkRepository chunkRepository;
+  private final boolean lexicalPushdown;
+  private final Map<String, String> documentHashes = new TreeMap<>(); // Content hash of each source document
+  private String sourceFingerprint;
 
-  @Autowired
   public KnowledgeBaseService(ResourceLoader resourceLoader, SimpleVectorStore vectorStore) {
+    this(resourceLoader, vectorStore, new KnowledgeBaseConfig(), null);
+  }
+
+  public KnowledgeBaseService(ResourceLoader resourceLoader, SimpleVectorStore vectorStore,
+                              KnowledgeBaseConfig config, ObjectProvider<EmbeddingModel> embeddingModels) {
+    this(resourceLoader, vectorStore, config, embeddingModels, null);
+  }
+
+  @Autowired
+  public KnowledgeBaseService(ResourceLoader resourceLoader, SimpleVectorStore vectorStore,
+                              KnowledgeBaseConfig config, ObjectProvider<EmbeddingModel> embeddingModels,
+                              ObjectProvider<JdbcChunkRepository> chunkRepositories) {
     this.resourceLoader = resourceLoader;
     this.vectorStore = vectorStore;
+    this.config = config;
+    KnowledgeBaseConfig.RetrievalMode mode = config.getRetrievalMode();
+    this.embeddingModel = mode == KnowledgeBaseConfig.RetrievalMode.DENSE || mode == KnowledgeBaseConfig.RetrievalMode.HYBRID
+        ? resolveEmbeddingModel(config, embeddingModels)
+        : null;
+    this.embeddingModelId = embeddingModel != null ? embeddingModelId(embeddingModel, config.getEmbedding()) : null;
+    this.embedder = embeddingModel != null ? createEmbedder() : null;
+    this.hybridRetriever = mode == KnowledgeBaseConfig.RetrievalMode.HYBRID
+        ? new HybridRetriever(config.getHybrid())
+        : null;
+    this.scatterGatherRetriever = createScatterGatherRetriever(config.getDistribution());
+    this.chunkRepository = config.getJdbc().isEnabled() ? resolveChunkRepository(chunkRepositories) : null;
+    // The database holds the chunks of every partition, so only an unpartitioned instance can search all of it
+    this.lexicalPushdown = chunkRepository != null && config.getJdbc().isLexicalPushdown()
+        && config.getDistribution().getPartitions() <= 1 && chunkRepository.supportsSearch();
+    KnowledgeBaseConfig.Context context = config.getContext();
+    this.contextAssembler = context.isEnabled()
+        ? new ContextAssembler(context.getTokenBudget(), context.getRelevanceWeight())
+        : null;
+    this.chunker = new MarkdownChunker(config.getChunking().getMaxTokens(), config.getChunking().getOverlapTokens());
+    KnowledgeBaseConfig.Deduplication deduplication = config.getDeduplication();
+    this.deduplicator = deduplication.isEnabled()
+        ? new ChunkDeduplicator(deduplication.getHashes(), deduplication.getBands(),
+            deduplication.getShingleSize(), deduplication.getThreshold())
+        : null;
+    KnowledgeBaseConfig.Cache cache = config.getCache();
+    this.retrievalCache = cache.isEnabled()
+        ? new RetrievalCache(cache.getMaxEntries(), cache.getTtlSeconds() * 1000)
+        : null;
 
     // Initialize the knowledge base
     try {
@@ -54,152 +152,1002 @@ public class KnowledgeBaseService {
   public void initializeKnowledgeBase() throws IOException {
     LOGGER.info("Initializing knowledge base...");
 
-    List<AirlineDocument> documents = loadDocuments();
-    List<AirlineDocument> processedDocuments = processDocuments(documents);
+    List<Path> files = listMarkdownFiles(getKnowledgeBaseDirectory());
 
-    // Add documents to vector store
-    vectorStore.addDocuments(processedDocuments);
+    KnowledgeBaseConfig.Index index = config.getIndex();
+    if (index.isEnabled() && loadIndex(files)) {
+      LOGGER.info("Knowledge base initialized from prebuilt index with {} documents", vectorStore.size());
+    } else if (chunkRepository != null && warmUp(files)) {
+      LOGGER.info("Knowledge base initialized from the database with {} documents", vectorStore.size());
+    } else {
+      if (chunkRepository != null) {
+        chunkRepository.retainSources(sourceNames(getKnowledgeBaseDirectory()));
+      }
+      ingest(files);
+      LOGGER.info("Knowledge base initialized with {} documents", vectorStore.size());
+    }
+    indexFactTables(getKnowledgeBaseDirectory());
 
-    LOGGER.info("Knowledge base initialized with {} documents", processedDocuments.size());
+    LOGGER.info("Chunk storage in bytes: {}", vectorStore.chunkMemoryUsage());
+    if (embeddingModel != null) {
+      LOGGER.info("Embedding storage in bytes: {}", vectorStore.vectorMemoryUsage());
+      if (config.getVectorIndex() == KnowledgeBaseConfig.VectorIndex.HNSW
+          || config.getQuantization().getMode() != KnowledgeBaseConfig.QuantizationMode.NONE) {
+        double recall = vectorStore.measureVectorRecall(config.getRecallSampleSize(), RECALL_K);
+        LOGGER.info("Vector search recall@{} against exact scan: {} (index={}, quantization={})",
+            RECALL_K, String.format("%.3f", recall), config.getVectorIndex(), config.getQuantization().getMode());
+      }
+    }
   }
 
   /**
-   * Loads documents from the knowledge base directory.
+   * Extracts the tables of every knowledge base document into the fact index. Tables are small, so
+   * every instance indexes those of all partitions and answers fact lookups on its own.
    */
-  private List<AirlineDocument> loadDocuments() throws IOException {
-    LOGGER.info("Loading documents from knowledge base...");
-    List<AirlineDocument> documents = new ArrayList<>();
+  private void indexFactTables(Path directory) throws IOException {
+    Map<String, List<FactTable>> tables = new TreeMap<>();
+    try (var files = Files.list(directory)) {
+      for (Path file : files.filter(KnowledgeBaseService::isKnowledgeBaseDocument).toList()) {
+        String filename = file.getFileName().toString();
+        tables.put(filename, FactTableParser.parse(filename, Files.readString(file)));
+      }
+    }
+    factTables.load(tables);
+    LOGGER.info("Indexed {} fact tables", tables.values().stream().mapToInt(List::size).sum());
+  }
 
-    Resource resource = resourceLoader.getResource(KNOWLEDGE_BASE_PATH);
-    Path knowledgeBasePath = Paths.get(resource.getURI());
+  /**
+   * Maps the prebuilt index if it was built from the current content of the given files.
+   */
+  private boolean loadIndex(List<Path> files) throws IOException {
+    Path indexFile = indexFile();
+    if (indexFile == null) {
+      return false;
+    }
+    Map<String, String> hashes = hashFiles(files);
+    if (!vectorStore.loadIndex(indexFile, fingerprint(hashes), embeddingModelId())) {
+      return false;
+    }
+    synchronized (documentHashes) {
+      if (deduplicator != null) {
+        deduplicator.restore(vectorStore.getAllDocuments());
+      }
+      documentHashes.clear();
+      documentHashes.putAll(hashes);
+      sourceFingerprint = fingerprint(documentHashes);
+    }
+    return true;
+  }
 
-    // List all markdown files in the knowledge base directory
-    List<Path> markdownFiles = Files.list(knowledgeBasePath)
-        .filter(path -> path.toString().endsWith(".md"))
-        // Skip README.md as it's not part of the actual knowledge base content
-        .filter(path -> !path.getFileName().toString().equals("README.md"))
-        .collect(Collectors.toList());
+  /**
+   * Locates the prebuilt index: the configured file, or else the one the {@code knowledgeBaseIndex}
+   * Gradle task bundles on the classpath. A bundled index inside the application archive is copied
+   * to a temporary file first, since only files can be memory-mapped.
+   *
+   * @return The index file, or {@code null} if there is none
+   */
+  private Path indexFile() throws IOException {
+    String path = config.getIndex().getPath();
+    if (path != null && !path.isBlank()) {
+      Path file = Paths.get(path).toAbsolutePath();
+      if (!Files.isRegularFile(file)) {
+        LOGGER.warn("No prebuilt knowledge base index at {}, ingesting the sources instead", file);
+        return null;
+      }
+      return file;
+    }
+    Resource resource = resourceLoader.getResource(INDEX_PATH);
+    if (!resource.exists()) {
+      LOGGER.warn("No prebuilt knowledge base index on the classpath, ingesting the sources instead");
+      return null;
+    }
+    if (resource.isFile()) {
+      return resource.getFile().toPath();
+    }
+    Path copy = Files.createTempFile("knowledge-base", ".idx");
+    copy.toFile().deleteOnExit();
+    try (InputStream in = resource.getInputStream()) {
+      Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return copy;
+  }
 
-    for (Path file : markdownFiles) {
-      String content = Files.readString(file);
-      String filename = file.getFileName().toString();
+  /**
+   * Streams the chunks stored in the database into the vector store if every given file was stored
+   * at its current version, with the current chunking and embedding model, so that a start with
+   * unchanged sources skips ingestion.
+   */
+  private boolean warmUp(List<Path> files) throws IOException {
+    Map<String, String> hashes = hashFiles(files);
+    Map<String, String> stored = chunkRepository.sourceVersions();
+    for (Map.Entry<String, String> source : hashes.entrySet()) {
+      if (!chunkVersion(source.getValue()).equals(stored.get(source.getKey()))) {
+        LOGGER.info("Stored chunks of {} are missing or stale, ingesting the knowledge base", source.getKey());
+        return false;
+      }
+    }
 
-      // Create metadata for the document
-      Map<String, Object> metadata = new HashMap<>();
-      metadata.put("source", filename);
-      metadata.put("filename", filename);
-      metadata.put("type", "markdown");
+    KnowledgeBaseConfig.Jdbc jdbc = config.getJdbc();
+    vectorStore.clear();
+    if (deduplicator != null) {
+      deduplicator.clear();
+    }
+    IngestionPipeline.Sink insert = deduplicating(vectorStore::addDocuments);
+    int read = chunkRepository.stream(jdbc.getFetchSize(), jdbc.getBatchSize(), (chunks, embeddings) -> {
+      // Other partitions and deleted sources may have chunks in the database too
+      List<AirlineDocument> own = new ArrayList<>(chunks.size());
+      List<float[]> ownEmbeddings = embeddings != null ? new ArrayList<>(chunks.size()) : null;
+      for (int i = 0; i < chunks.size(); i++) {
+        if (hashes.containsKey((String) chunks.get(i).getMetadataValue("source"))) {
+          own.add(chunks.get(i));
+          if (ownEmbeddings != null) {
+            ownEmbeddings.add(embeddings.get(i));
+          }
+        }
+      }
+      insert.insert(own, ownEmbeddings);
+    });
+    LOGGER.debug("Read {} stored chunks", read);
+    synchronized (documentHashes) {
+      if (deduplicator != null) {
+        rewriteChangedSources(Map.of(), null);
+        logDeduplication();
+      }
+      documentHashes.clear();
+      documentHashes.putAll(hashes);
+      sourceFingerprint = fingerprint(documentHashes);
+    }
+    return true;
+  }
 
-      // Create a document with the content and metadata
-      AirlineDocument document = new AirlineDocument(content, metadata);
-      documents.add(document);
+  /**
+   * Identifies the chunks produced from a source with a given content hash by the current
+   * chunking parameters and embedding model.
+   */
+  private String chunkVersion(String contentHash) {
+    return contentHash(contentHash(chunking()) + ":" + embeddingModelId() + ":" + contentHash);
+  }
 
-      LOGGER.info("Loaded document: {}", filename);
+  private static Map<String, String> hashFiles(List<Path> files) throws IOException {
+    Map<String, String> hashes = new TreeMap<>();
+    for (Path file : files) {
+      hashes.put(file.getFileName().toString(), hashFile(file));
     }
-
-    return documents;
+    return hashes;
   }
 
   /**
-   * Processes documents by chunking them into smaller pieces.
+   * Reads, chunks, embeds and indexes the given files through the staged ingestion pipeline.
+   * With the database store enabled, the chunks of every file are also written to it.
    */
-  private List<AirlineDocument> processDocuments(List<AirlineDocument> documents) {
-    LOGGER.info("Processing {} documents...", documents.size());
-    List<AirlineDocument> processedDocuments = new ArrayList<>();
+  private void ingest(List<Path> files) throws IOException {
+    KnowledgeBaseConfig.Ingestion ingestion = config.getIngestion();
+    int parallelism = ingestion.getChunkerParallelism() > 0
+        ? ingestion.getChunkerParallelism()
+        : Runtime.getRuntime().availableProcessors();
+    IngestionPipeline pipeline = new IngestionPipeline(ingestion.getReaderThreads(), parallelism,
+        ingestion.getQueueCapacity(), ingestion.getInsertBatchSize());
 
-    for (AirlineDocument document : documents) {
-      String content = document.getContent();
-      Map<String, Object> metadata = document.getMetadata();
+    LOGGER.info("Ingesting {} documents...", files.size());
+    Map<String, String> hashes = new ConcurrentHashMap<>();
+    vectorStore.clear();
+    if (deduplicator != null) {
+      deduplicator.clear();
+    }
+    pipeline.run(files,
+        file -> {
+          SourceFile source = readSource(file);
+          hashes.put(source.name(), source.contentHash());
+          return source;
+        },
+        source -> {
+          ProcessedChunks processed = processDocument(source);
+          store(source, processed);
+          return new IngestionPipeline.Chunks(processed.chunks(), processed.embeddings());
+        },
+        deduplicating(vectorStore::addDocuments));
 
-      // Split content into chunks
-      List<String> chunks = chunkText(content);
+    synchronized (documentHashes) {
+      if (deduplicator != null) {
+        rewriteChangedSources(Map.of(), null);
+        logDeduplication();
+      }
+      documentHashes.clear();
+      documentHashes.putAll(hashes);
+      sourceFingerprint = fingerprint(documentHashes);
+    }
+  }
 
-      for (int i = 0; i < chunks.size(); i++) {
-        String chunk = chunks.get(i);
+  /**
+   * Writes the chunks of a document to the database, if the database store is enabled.
+   */
+  private void store(SourceFile source, ProcessedChunks processed) {
+    if (chunkRepository != null) {
+      chunkRepository.replaceSource(source.name(), chunkVersion(source.contentHash()),
+          processed.chunks(), processed.embeddings(), config.getJdbc().getBatchSize());
+    }
+  }
 
-        // Create metadata for the chunk
-        Map<String, Object> chunkMetadata = new HashMap<>(metadata);
-        chunkMetadata.put("chunk", i);
+  /**
+   * Wraps an insert so that chunks that are near-duplicates of an earlier chunk are collapsed into
+   * it instead of reaching the insert.
+   */
+  private IngestionPipeline.Sink deduplicating(IngestionPipeline.Sink insert) {
+    if (deduplicator == null) {
+      return insert;
+    }
+    return (chunks, embeddings) -> {
+      ProcessedChunks kept = admit(new ProcessedChunks(chunks, embeddings));
+      insert.insert(kept.chunks(), kept.embeddings());
+    };
+  }
 
-        // Create a document with the chunk and metadata
-        AirlineDocument chunkDocument = new AirlineDocument(chunk, chunkMetadata);
-        processedDocuments.add(chunkDocument);
+  /**
+   * Returns the chunks that are not near-duplicates of an earlier chunk, with their embeddings.
+   */
+  private ProcessedChunks admit(ProcessedChunks processed) {
+    List<AirlineDocument> chunks = new ArrayList<>(processed.chunks().size());
+    List<float[]> embeddings = processed.embeddings() != null ? new ArrayList<>(processed.chunks().size()) : null;
+    for (int i = 0; i < processed.chunks().size(); i++) {
+      AirlineDocument chunk = deduplicator.admit(processed.chunks().get(i));
+      if (chunk != null) {
+        chunks.add(chunk);
+        if (embeddings != null) {
+          embeddings.add(processed.embeddings().get(i));
+        }
       }
     }
-
-    LOGGER.info("Processed documents into {} chunks", processedDocuments.size());
-    return processedDocuments;
+    return new ProcessedChunks(chunks, embeddings);
   }
 
   /**
-   * Chunks text into smaller pieces with overlap.
+   * Lets the heirs of near-duplicate groups whose canonical chunk was removed adopt them with a
+   * chunk of their own, read from their current file.
+   *
+   * @return The adopted chunks of every heir
    */
-  private List<String> chunkText(String text) {
-    List<String> chunks = new ArrayList<>();
+  private Map<String, List<AirlineDocument>> adoptOrphanedChunks() throws IOException {
+    Map<String, List<AirlineDocument>> adopted = new HashMap<>();
+    Path directory = getKnowledgeBaseDirectory();
+    for (Set<String> heirs = deduplicator.heirs(); !heirs.isEmpty(); heirs = deduplicator.heirs()) {
+      for (String heir : heirs) {
+        Path file = directory.resolve(heir);
+        List<AirlineDocument> chunks = Files.isRegularFile(file) ? chunkDocument(readSource(file)) : List.of();
+        adopted.computeIfAbsent(heir, key -> new ArrayList<>()).addAll(deduplicator.adopt(heir, chunks));
+      }
+    }
+    return adopted;
+  }
 
-    // Simple chunking by character count with overlap
-    int textLength = text.length();
-    int start = 0;
-    int previousStart = -1; // Track previous start position to detect lack of progress
+  /**
+   * Rewrites the stored chunks of every source whose canonical chunks gained or lost a source or
+   * that adopted a chunk, so that their {@code sources} metadata is current.
+   *
+   * @param adopted The chunks adopted by each source, which are not stored yet
+   * @param skipped A source whose chunks were just stored, or {@code null}
+   */
+  private void rewriteChangedSources(Map<String, List<AirlineDocument>> adopted, String skipped) {
+    Set<String> changed = deduplicator.drainChangedSources();
+    changed.addAll(adopted.keySet());
+    changed.remove(skipped);
+    if (changed.isEmpty()) {
+      return;
+    }
+    Map<String, List<AirlineDocument>> stored = new HashMap<>();
+    for (AirlineDocument chunk : vectorStore.getAllDocuments()) {
+      Object source = chunk.getMetadataValue("source");
+      if (changed.contains(source)) {
+        stored.computeIfAbsent((String) source, key -> new ArrayList<>()).add(chunk);
+      }
+    }
+    for (String source : changed) {
+      List<AirlineDocument> chunks = new ArrayList<>();
+      for (AirlineDocument chunk : stored.getOrDefault(source, List.of())) {
+        AirlineDocument current = deduplicator.canonical(chunk);
+        if (current != null) {
+          chunks.add(current);
+        }
+      }
+      chunks.addAll(adopted.getOrDefault(source, List.of()));
+      chunks.sort(Comparator.comparingInt(chunk -> ((Number) chunk.getMetadataValue("chunk")).intValue()));
+      vectorStore.replaceDocuments(source, chunks, embedChunks(chunks));
+    }
+    LOGGER.debug("Rewrote the chunks of {} sources after near-duplicate groups changed", changed.size());
+  }
 
-    // Limit the maximum number of chunks to prevent excessive memory usage
-    int maxChunks = 100;
+  private void logDeduplication() {
+    ChunkDeduplicator.Stats stats = deduplicator.stats();
+    LOGGER.info("Collapsed near-duplicate chunks: stored {} of {} chunks (dedupe ratio {})",
+        stats.canonical(), stats.chunks(), String.format("%.3f", stats.dedupeRatio()));
+  }
 
-    while (start < textLength && chunks.size() < maxChunks) {
-      // Ensure we're making progress
-      if (start == previousStart) {
-        // If we're stuck at the same position, force progress
-        start += 1;
-        continue;
+  /**
+   * Returns how many chunks the current sources have and how many of them are stored after
+   * collapsing near-duplicates.
+   */
+  public ChunkDeduplicator.Stats deduplicationStats() {
+    synchronized (documentHashes) {
+      if (deduplicator == null) {
+        return new ChunkDeduplicator.Stats(vectorStore.size(), vectorStore.size());
       }
-      previousStart = start;
+      return deduplicator.stats();
+    }
+  }
 
-      int end = Math.min(start + CHUNK_SIZE, textLength);
+  /**
+   * Writes the ingested knowledge base to a binary index file that later starts can memory-map.
+   *
+   * @param file The index file to write
+   */
+  public void writeIndex(Path file) throws IOException {
+    if (sourceFingerprint == null) {
+      throw new IllegalStateException("The knowledge base has not been initialized");
+    }
+    vectorStore.writeIndex(file, sourceFingerprint, embeddingModelId());
+  }
 
-      // If we're not at the end of the text, try to find a natural break point
-      if (end < textLength) {
-        // Look for a paragraph break or period within the overlap window
-        int breakPoint = text.lastIndexOf("\n\n", end);
-        if (breakPoint > start && breakPoint > end - CHUNK_OVERLAP) {
-          end = breakPoint;
-        } else {
-          breakPoint = text.lastIndexOf(". ", end);
-          if (breakPoint > start && breakPoint > end - CHUNK_OVERLAP) {
-            end = breakPoint + 1; // Include the period
-          }
+  /**
+   * Identifies the embedding model, so that a prebuilt index is only used with vectors from the same model.
+   * Returns {@code null} when dense retrieval is disabled and vectors are not needed.
+   */
+  private String embeddingModelId() {
+    return embeddingModelId;
+  }
+
+  /**
+   * Identifies a model by its client, the configured model name and the size of its vectors. The
+   * client class alone stays the same when switching to another model of the same provider.
+   */
+  private static String embeddingModelId(EmbeddingModel embeddingModel, KnowledgeBaseConfig.Embedding embedding) {
+    if (embeddingModel instanceof HashingEmbeddingModel) {
+      return "hashing-" + embedding.getDimensions();
+    }
+    String model = embedding.getModel() != null && !embedding.getModel().isBlank() ? ":" + embedding.getModel() : "";
+    return embeddingModel.getClass().getName() + model + ":" + embeddingModel.dimensions();
+  }
+
+  /**
+   * Re-ingests a single markdown file after it was added or changed. Only the chunks of that
+   * document are replaced in the vector store; nothing happens if its content hash is unchanged.
+   *
+   * @param file The markdown file
+   * @return Whether the document was re-indexed
+   */
+  public boolean reindexDocument(Path file) throws IOException {
+    String filename = file.getFileName().toString();
+    factTables.replace(filename, FactTableParser.parse(filename, Files.readString(file)));
+    if (!ownsDocument(filename)) {
+      LOGGER.debug("Skipping document of another partition: {}", file.getFileName());
+      return false;
+    }
+    SourceFile sourceFile = readSource(file);
+    String source = sourceFile.name();
+    String hash = sourceFile.contentHash();
+    synchronized (documentHashes) {
+      if (hash.equals(documentHashes.get(source))) {
+        LOGGER.debug("Skipping unchanged document: {}", source);
+        return false;
+      }
+      ProcessedChunks processed = processDocument(sourceFile);
+      int replaced;
+      if (deduplicator != null) {
+        deduplicator.removeSource(source);
+        Map<String, List<AirlineDocument>> adopted = adoptOrphanedChunks();
+        ProcessedChunks kept = admit(processed);
+        replaced = vectorStore.replaceDocuments(source, kept.chunks(), kept.embeddings());
+        rewriteChangedSources(adopted, source);
+      } else {
+        replaced = vectorStore.replaceDocuments(source, processed.chunks(), processed.embeddings());
+      }
+      store(sourceFile, processed);
+      documentHashes.put(source, hash);
+      sourceFingerprint = fingerprint(documentHashes);
+      LOGGER.info("Re-indexed document {}: replaced {} chunks with {}", source, replaced, processed.chunks().size());
+      return true;
+    }
+  }
+
+  /**
+   * Removes the chunks of a deleted markdown file.
+   *
+   * @param filename The file name of the document
+   * @return Whether the document was part of the knowledge base
+   */
+  public boolean removeDocument(String filename) {
+    factTables.remove(filename);
+    synchronized (documentHashes) {
+      if (documentHashes.remove(filename) == null) {
+        return false;
+      }
+      int removed = vectorStore.removeDocuments(filename);
+      if (deduplicator != null) {
+        deduplicator.removeSource(filename);
+        try {
+          rewriteChangedSources(adoptOrphanedChunks(), filename);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
         }
       }
+      if (chunkRepository != null) {
+        chunkRepository.deleteSource(filename);
+      }
+      sourceFingerprint = fingerprint(documentHashes);
+      LOGGER.info("Removed document {} ({} chunks)", filename, removed);
+      return true;
+    }
+  }
 
-      // Ensure we're making progress - if end <= start, force progress
-      if (end <= start) {
-        end = Math.min(start + 1, textLength);
+  /**
+   * Brings the knowledge base in line with the directory contents, re-indexing added and changed
+   * documents and removing deleted ones. Used when file events may have been lost.
+   */
+  public void synchronizeDirectory() throws IOException {
+    List<Path> files = listMarkdownFiles(getKnowledgeBaseDirectory());
+    Set<String> present = new HashSet<>();
+    for (Path file : files) {
+      present.add(file.getFileName().toString());
+      reindexDocument(file);
+    }
+    List<String> known;
+    synchronized (documentHashes) {
+      known = new ArrayList<>(documentHashes.keySet());
+    }
+    for (String filename : known) {
+      if (!present.contains(filename)) {
+        removeDocument(filename);
       }
+    }
+  }
+
+  /**
+   * Returns the directory the markdown sources are read from.
+   */
+  public Path getKnowledgeBaseDirectory() throws IOException {
+    String directory = config.getDirectory();
+    if (directory != null && !directory.isBlank()) {
+      return Paths.get(directory);
+    }
+    Resource resource = resourceLoader.getResource(KNOWLEDGE_BASE_PATH);
+    return Paths.get(resource.getURI());
+  }
+
+  /**
+   * Returns whether a file is a knowledge base document rather than another file in the directory.
+   */
+  public static boolean isKnowledgeBaseDocument(Path file) {
+    String filename = file.getFileName().toString();
+    // Skip README.md as it's not part of the actual knowledge base content
+    return filename.endsWith(".md") && !filename.equals("README.md");
+  }
+
+  /**
+   * Hashes the chunking parameters and the name and content hash of every source document, so that
+   * a prebuilt index is detected as stale whenever it would no longer match live ingestion.
+   */
+  private String fingerprint(Map<String, String> documentHashes) {
+    MessageDigest digest = sha256();
+    digest.update(chunking().getBytes(StandardCharsets.UTF_8));
+    KnowledgeBaseConfig.Deduplication deduplication = config.getDeduplication();
+    if (deduplication.isEnabled()) {
+      digest.update(("dedupe:minhash:" + deduplication.getHashes() + "/" + deduplication.getBands() + "/"
+              + deduplication.getShingleSize() + "/" + deduplication.getThreshold() + ";members:sources,airlines\n")
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    documentHashes.forEach((source, hash) -> digest.update((source + "=" + hash + "\n").getBytes(StandardCharsets.UTF_8)));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Describes how documents are split into chunks.
+   */
+  private String chunking() {
+    KnowledgeBaseConfig.Chunking chunking = config.getChunking();
+    return "chunks:markdown-tokens:" + chunking.getMaxTokens() + "/" + chunking.getOverlapTokens() + ";metadata:airline\n";
+  }
 
-      chunks.add(text.substring(start, end).trim());
+  private static String contentHash(String content) {
+    return HexFormat.of().formatHex(sha256().digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Hashes the content of a file like {@link #contentHash(String)} hashes its text, reading the
+   * file in a single streaming pass instead of loading it.
+   */
+  private static String hashFile(Path file) throws IOException {
+    MessageDigest digest = sha256();
+    try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+      in.transferTo(OutputStream.nullOutputStream());
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Picks the embedding model for dense retrieval: the in-process hashing embedder,
+   * or the Spring AI model of the active profile.
+   */
+  private static EmbeddingModel resolveEmbeddingModel(KnowledgeBaseConfig config,
+                                                      ObjectProvider<EmbeddingModel> embeddingModels) {
+    KnowledgeBaseConfig.Embedding embedding = config.getEmbedding();
+    if (embedding.getProvider() == KnowledgeBaseConfig.EmbeddingProvider.HASHING) {
+      LOGGER.info("Using {}-dimensional hashing embeddings for dense retrieval", embedding.getDimensions());
+      return new HashingEmbeddingModel(embedding.getDimensions());
+    }
+    EmbeddingModel model = embeddingModels != null ? embeddingModels.getIfAvailable() : null;
+    if (model == null) {
+      throw new IllegalStateException("Dense retrieval with the MODEL embedding provider requires an EmbeddingModel bean");
+    }
+    LOGGER.info("Using {} for dense retrieval", model.getClass().getSimpleName());
+    return model;
+  }
 
-      // Move start position forward, accounting for overlap
-      start = end - CHUNK_OVERLAP;
-      if (start < 0 || start >= textLength) {
-        // Ensure we don't go out of bounds or get stuck
-        break;
+  /**
+   * Wraps the embedding model with batching and caching. Embeddings of a remote model are cached on
+   * disk; hashing embeddings are cheaper to compute than to read back, so they are not.
+   */
+  private CachingEmbedder createEmbedder() {
+    KnowledgeBaseConfig.Embedding embedding = config.getEmbedding();
+    EmbeddingCache cache = null;
+    if (embedding.getProvider() == KnowledgeBaseConfig.EmbeddingProvider.MODEL && embedding.isCacheEnabled()) {
+      try {
+        cache = EmbeddingCache.open(Paths.get(embedding.getCachePath()));
+      } catch (IOException e) {
+        LOGGER.warn("Could not open embedding cache {}, embedding without it", embedding.getCachePath(), e);
       }
     }
+    return new CachingEmbedder(embeddingModel, embeddingModelId(), cache, embedding.getBatchSize(),
+        embedding.getMaxConcurrentRequests(), embedding.getQueryCacheSize());
+  }
+
+  /**
+   * Connects to the peers hosting the other partitions, or returns {@code null} without peers.
+   */
+  private static ScatterGatherRetriever createScatterGatherRetriever(KnowledgeBaseConfig.Distribution distribution) {
+    if (distribution.getPartition() < 0 || distribution.getPartition() >= Math.max(1, distribution.getPartitions())) {
+      throw new IllegalArgumentException("Partition " + distribution.getPartition() + " is not one of the "
+          + distribution.getPartitions() + " partitions");
+    }
+    if (distribution.getPeers() == null || distribution.getPeers().isEmpty()) {
+      return null;
+    }
+    Duration timeout = Duration.ofMillis(distribution.getShardTimeoutMillis());
+    List<ScatterGatherRetriever.Shard> peers = distribution.getPeers().stream()
+        .map(peer -> (ScatterGatherRetriever.Shard) new PeerShard(peer, timeout))
+        .toList();
+    LOGGER.info("Partition {} of {}, fanning queries out to {}", distribution.getPartition(),
+        distribution.getPartitions(), distribution.getPeers());
+    return new ScatterGatherRetriever(peers, distribution.getShardTimeoutMillis());
+  }
+
+  /**
+   * Returns the chunk repository bean and makes sure its tables exist.
+   */
+  private static JdbcChunkRepository resolveChunkRepository(ObjectProvider<JdbcChunkRepository> chunkRepositories) {
+    JdbcChunkRepository repository = chunkRepositories != null ? chunkRepositories.getIfAvailable() : null;
+    if (repository == null) {
+      throw new IllegalStateException("The database chunk store requires a JdbcChunkRepository bean");
+    }
+    repository.createSchema();
+    return repository;
+  }
+
+  /**
+   * Returns the file names of all knowledge base documents in a directory, of every partition.
+   */
+  private static Set<String> sourceNames(Path directory) throws IOException {
+    try (var files = Files.list(directory)) {
+      return files
+          .filter(KnowledgeBaseService::isKnowledgeBaseDocument)
+          .map(file -> file.getFileName().toString())
+          .collect(Collectors.toSet());
+    }
+  }
+
+  /**
+   * Returns whether a source document belongs to the partition of this instance. Documents are
+   * assigned by the hash of their file name, which is the same on every instance. Every instance
+   * ingests its own partition and fans queries out to the instances hosting the others.
+   */
+  boolean ownsDocument(String filename) {
+    KnowledgeBaseConfig.Distribution distribution = config.getDistribution();
+    return distribution.getPartitions() <= 1
+        || Math.floorMod(filename.hashCode(), distribution.getPartitions()) == distribution.getPartition();
+  }
+
+  /**
+   * Lists the markdown files of this partition in the knowledge base directory.
+   */
+  private List<Path> listMarkdownFiles(Path directory) throws IOException {
+    try (var files = Files.list(directory)) {
+      return files
+          .filter(KnowledgeBaseService::isKnowledgeBaseDocument)
+          .filter(file -> ownsDocument(file.getFileName().toString()))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Describes a single markdown file and hashes its content, without keeping the content.
+   */
+  private SourceFile readSource(Path file) throws IOException {
+    String filename = file.getFileName().toString();
+    String contentHash = hashFile(file);
+
+    // Create metadata for the document
+    Map<String, Object> metadata = new HashMap<>();
+    metadata.put("source", filename);
+    metadata.put("filename", filename);
+    metadata.put("type", "markdown");
+    metadata.put("airline", airline(filename));
+
+    LOGGER.info("Loaded document: {}", filename);
+
+    return new SourceFile(file, metadata, contentHash);
+  }
+
+  /**
+   * Derives the airline a document is about from its file name, e.g. {@code delta} for
+   * {@code delta-skymiles.md}, so that retrieval can be scoped to one airline.
+   */
+  static String airline(String filename) {
+    String name = filename.endsWith(".md") ? filename.substring(0, filename.length() - 3) : filename;
+    int dash = name.indexOf('-');
+    return (dash > 0 ? name.substring(0, dash) : name).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Processes a document by chunking it along its markdown structure, embedding the chunks when
+   * dense retrieval is enabled. Each chunk records the headings of its section. Safe to call from
+   * several threads at once.
+   */
+  private ProcessedChunks processDocument(SourceFile source) {
+    List<AirlineDocument> chunks = chunkDocument(source);
+    return new ProcessedChunks(chunks, embedChunks(chunks));
+  }
+
+  /**
+   * Chunks a document along its markdown structure without embedding the chunks. The file is
+   * streamed through the chunker, so only the chunk being assembled is held besides the result.
+   */
+  private List<AirlineDocument> chunkDocument(SourceFile source) {
+    Map<String, Object> metadata = source.metadata();
+    List<AirlineDocument> processedDocuments = new ArrayList<>();
+
+    try (BufferedReader reader = Files.newBufferedReader(source.file())) {
+      chunker.chunk(reader, chunk -> {
+        Map<String, Object> chunkMetadata = new HashMap<>(metadata);
+        chunkMetadata.put("chunk", processedDocuments.size());
+        if (!chunk.headingPath().isEmpty()) {
+          chunkMetadata.put("headingPath", String.join(" > ", chunk.headingPath()));
+        }
+        processedDocuments.add(new AirlineDocument(chunk.text(), chunkMetadata));
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    LOGGER.debug("Processed {} into {} chunks", metadata.get("source"), processedDocuments.size());
+    return processedDocuments;
+  }
 
-    // Log warning if we hit the chunk limit
-    if (chunks.size() >= maxChunks) {
-      LOGGER.warn("Hit maximum chunk limit ({}) for text of length {}. Some content may be truncated.",
-                  maxChunks, textLength);
+  /**
+   * Embeds chunk contents, or returns {@code null} when dense retrieval is disabled. Chunks whose
+   * content was embedded before are not sent to the model again.
+   */
+  private List<float[]> embedChunks(List<AirlineDocument> chunks) {
+    if (embedder == null) {
+      return null;
     }
+    return embedder.embed(chunks.stream().map(AirlineDocument::getContent).collect(Collectors.toList()));
+  }
+
+  /**
+   * Adds chunks that do not come from the markdown sources, embedding them when dense retrieval
+   * is enabled. They are searchable right away but are dropped by the next full ingestion.
+   *
+   * @param chunks The chunks to add
+   */
+  public void addDocuments(List<AirlineDocument> chunks) {
+    vectorStore.addDocuments(chunks, embedChunks(chunks));
+  }
 
-    return chunks;
+  /**
+   * Removes every chunk matching a metadata filter.
+   *
+   * @param filter The filter selecting the chunks to remove
+   * @return The number of chunks that were removed
+   */
+  public int removeDocuments(Filter.Expression filter) {
+    return vectorStore.removeDocuments(filter);
   }
 
   /**
    * Performs a similarity search in the vector store.
    */
   public List<AirlineDocument> similaritySearch(String query, int k) {
-    LOGGER.info("Performing similarity search for query: {}", query);
-    return vectorStore.similaritySearch(query, k);
+    return retrieve(query, k).documents();
+  }
+
+  /**
+   * Retrieves the top k documents for a query with their scores and the time spent per stage,
+   * including embedding the query when dense retrieval is enabled. Repeated queries are served
+   * from the retrieval cache while the vector store is unchanged, with a single {@code cache} stage.
+   *
+   * @param query The query to search for
+   * @param k     The number of results to return
+   * @return The scored documents, best first
+   */
+  public RetrievalResult retrieve(String query, int k) {
+    return cachedRetrieval(query, k, null, null).result();
+  }
+
+  /**
+   * Retrieves the top k documents for a query together with the context built from them, as
+   * {@link #retrieve(String, int)} and {@link #assembleContext(String, RetrievalResult)} would.
+   * The context is assembled the first time it is read and kept in the retrieval cache, so
+   * repeated queries reuse it instead of packing it again.
+   *
+   * @param query The query to search for
+   * @param k     The number of results to return
+   * @return The scored documents, best first, and their context
+   */
+  public Retrieval retrieveWithContext(String query, int k) {
+    return cachedRetrieval(query, k, null, null);
+  }
+
+  /**
+   * Retrieves the top k documents matching a metadata filter, such as {@code airline == 'delta'}.
+   * The filter restricts the candidates before they are scored, so narrow filters are cheaper
+   * than unfiltered retrieval.
+   *
+   * @param query  The query to search for
+   * @param k      The number of results to return
+   * @param filter The filter the results must match, or {@code null} for none
+   * @return The scored documents, best first
+   * @throws IllegalArgumentException If the filter uses an unsupported operator or operand
+   */
+  public RetrievalResult retrieve(String query, int k, Filter.Expression filter) {
+    return cachedRetrieval(query, k, filter, null).result();
+  }
+
+  /**
+   * Retrieves the results of many queries, passing each one to the consumer as soon as it is ready.
+   * Queries with the same terms are retrieved once, the queries are embedded together in batched
+   * model calls when dense retrieval is enabled, and up to the configured number of queries are
+   * retrieved in parallel. The consumer is called by one thread at a time, in completion order;
+   * if it throws, no further results are passed to it and the exception is rethrown.
+   *
+   * @param queries The queries
+   * @param results Receives the outcome of every query
+   */
+  public void retrieveBatch(List<BatchQuery> queries, Consumer<BatchResult> results) {
+    BatchSink sink = new BatchSink(results);
+    Map<String, List<Integer>> groups = new LinkedHashMap<>();
+    for (int i = 0; i < queries.size(); i++) {
+      BatchQuery query = queries.get(i);
+      if (query.query() == null || query.query().isBlank()) {
+        sink.accept(new BatchResult(i, null, null, new IllegalArgumentException("The query is empty")));
+      } else {
+        groups.computeIfAbsent(cacheKey(query.query(), query.k(), null), key -> new ArrayList<>()).add(i);
+      }
+    }
+    List<List<Integer>> distinct = new ArrayList<>(groups.values());
+    List<float[]> embeddings = embedder != null
+        ? embedder.embedQueries(distinct.stream().map(group -> queries.get(group.get(0)).query()).toList())
+        : null;
+
+    int parallelism = config.getBatch().getParallelism() > 0
+        ? config.getBatch().getParallelism()
+        : Runtime.getRuntime().availableProcessors();
+    Semaphore slots = new Semaphore(parallelism);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int g = 0; g < distinct.size() && !sink.failed(); g++) {
+        try {
+          slots.acquire();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while retrieving a batch", e);
+        }
+        List<Integer> group = distinct.get(g);
+        float[] embedding = embeddings != null ? embeddings.get(g) : null;
+        executor.submit(() -> {
+          try {
+            BatchQuery query = queries.get(group.get(0));
+            Retrieval retrieval = null;
+            RuntimeException failure = null;
+            try {
+              retrieval = cachedRetrieval(query.query(), query.k(), null, embedding);
+            } catch (RuntimeException e) {
+              failure = e;
+            }
+            for (int index : group) {
+              sink.accept(new BatchResult(index, retrieval != null ? retrieval.result() : null,
+                  retrieval != null ? retrieval.context() : null, failure));
+            }
+          } finally {
+            slots.release();
+          }
+        });
+      }
+    }
+    sink.rethrow();
+  }
+
+  /**
+   * Returns the hit and miss counters of the retrieval cache, all zero when it is disabled.
+   */
+  public RetrievalCache.Stats retrievalCacheStats() {
+    return retrievalCache != null ? retrievalCache.stats() : new RetrievalCache.Stats(0, 0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Returns the hit and miss counters of the embedding caches, all zero without dense retrieval.
+   */
+  public CachingEmbedder.Stats embeddingCacheStats() {
+    return embedder != null ? embedder.stats() : new CachingEmbedder.Stats(0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Returns the latency percentiles of the retrievals since startup.
+   */
+  public LatencyStats queryLatencyStats() {
+    Histogram histogram = queryLatencies.copy();
+    return new LatencyStats(histogram.getTotalCount(),
+        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(95)),
+        millis(histogram.getValueAtPercentile(99)), millis(histogram.getMaxValue()), histogram.getMean() / 1_000_000.0);
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  /**
+   * Retrieves through the cache, embedding the query unless an embedding is given, and records
+   * the latency of the retrieval. Changes on other instances do not advance the local epoch, so
+   * cached results of a partitioned knowledge base only expire with the cache TTL.
+   */
+  private Retrieval cachedRetrieval(String query, int k, Filter.Expression filter, float[] queryEmbedding) {
+    long start = System.nanoTime();
+    try {
+      return retrieveThroughCache(query, k, filter, queryEmbedding);
+    } finally {
+      queryLatencies.recordValue(System.nanoTime() - start);
+    }
+  }
+
+  private Retrieval retrieveThroughCache(String query, int k, Filter.Expression filter, float[] queryEmbedding) {
+    if (retrievalCache == null) {
+      RetrievalResult result = search(query, k, filter, queryEmbedding);
+      return new Retrieval(result, new AssembledContext(() -> assembleContext(query, result)));
+    }
+    long start = System.nanoTime();
+    String key = cacheKey(query, k, filter);
+    // Read the epoch before searching, so that a result racing with a modification is never served
+    long epoch = vectorStore.epoch();
+    RetrievalCache.Entry cached = retrievalCache.get(key, epoch);
+    if (cached != null) {
+      LOGGER.debug("Retrieval cache hit for query: {}", query);
+      RetrievalResult result = new RetrievalResult(cached.result().hits(), Map.of("cache", System.nanoTime() - start));
+      return new Retrieval(result, cached.contextSupplier());
+    }
+    RetrievalResult result = search(query, k, filter, queryEmbedding);
+    RetrievalCache.Entry entry = retrievalCache.put(key, epoch, result,
+        new AssembledContext(() -> assembleContext(query, result)));
+    return new Retrieval(result, entry.contextSupplier());
+  }
+
+  private RetrievalResult search(String query, int k, Filter.Expression filter, float[] queryEmbedding) {
+    if (scatterGatherRetriever != null) {
+      return scatterGatherRetriever.retrieve(
+          (partitionQuery, partitionK, partitionFilter) -> searchPartition(partitionQuery, partitionK, partitionFilter, queryEmbedding),
+          query, k, filter);
+    }
+    return searchPartition(query, k, filter, queryEmbedding);
+  }
+
+  /**
+   * Retrieves the top k documents of the partition hosted by this instance only, without the
+   * retrieval cache. This answers the queries that other instances fan out.
+   *
+   * @param query  The query to search for
+   * @param k      The number of results to return
+   * @param filter The filter in the text syntax of {@link FilterExpressionTextParser}, or {@code null} for none
+   * @return The scored documents of this partition, best first
+   */
+  public RetrievalResult retrievePartition(String query, int k, String filter) {
+    Filter.Expression expression = filter != null && !filter.isBlank() ? new FilterExpressionTextParser().parse(filter) : null;
+    return searchPartition(query, k, expression, null);
+  }
+
+  private RetrievalResult searchPartition(String query, int k, Filter.Expression filter, float[] queryEmbedding) {
+    LOGGER.info("Retrieving top {} documents for query: {}", k, query);
+    if (hybridRetriever != null) {
+      return hybridRetriever.retrieve(
+          candidates -> lexicalSearch(query, candidates, filter),
+          candidates -> denseSearch(query, candidates, filter, queryEmbedding),
+          k);
+    }
+    if (embeddingModel != null) {
+      return denseSearch(query, k, filter, queryEmbedding);
+    }
+    return lexicalSearch(query, k, filter);
+  }
+
+  private RetrievalResult lexicalSearch(String query, int k, Filter.Expression filter) {
+    if (lexicalPushdown && filter == null) {
+      long start = System.nanoTime();
+      List<RetrievalResult.ScoredDocument> hits = searchDatabase(query, k);
+      return new RetrievalResult(hits, Map.of("search", System.nanoTime() - start));
+    }
+    return filter != null ? vectorStore.search(query, k, filter) : vectorStore.search(query, k);
+  }
+
+  /**
+   * Searches the chunks stored in the database. The database keeps every chunk as it was ingested,
+   * so near-duplicates collapsed in memory are dropped and canonical chunks get their current
+   * {@code sources}, fetching more rows until there are enough canonical chunks or no more matches.
+   */
+  private List<RetrievalResult.ScoredDocument> searchDatabase(String query, int k) {
+    if (deduplicator == null) {
+      return chunkRepository.search(query, k);
+    }
+    for (int limit = Math.max(1, k); ; limit *= 2) {
+      List<RetrievalResult.ScoredDocument> rows = chunkRepository.search(query, limit);
+      List<RetrievalResult.ScoredDocument> hits = new ArrayList<>(k);
+      synchronized (documentHashes) {
+        for (RetrievalResult.ScoredDocument row : rows) {
+          AirlineDocument canonical = deduplicator.canonical(row.document());
+          if (canonical != null && hits.size() < k) {
+            hits.add(new RetrievalResult.ScoredDocument(canonical, row.score()));
+          }
+        }
+      }
+      if (hits.size() == k || rows.size() < limit) {
+        return hits;
+      }
+    }
+  }
+
+  private RetrievalResult denseSearch(String query, int k, Filter.Expression filter, float[] queryEmbedding) {
+    long start = System.nanoTime();
+    float[] embedding = queryEmbedding != null ? queryEmbedding : embedder.embedQuery(query);
+    RetrievalResult result = filter != null
+        ? vectorStore.search(embedding, k, filter)
+        : vectorStore.search(embedding, k);
+    return queryEmbedding != null ? result : result.withEarlierStage("embed", System.nanoTime() - start);
+  }
+
+  /**
+   * Normalizes a query for the retrieval cache. BM25 and hashing embeddings only see the terms
+   * of the tokenizer, so queries with the same terms are interchangeable and share an entry;
+   * otherwise only case, Unicode compatibility forms and whitespace are normalized.
+   */
+  private String cacheKey(String query, int k, Filter.Expression filter) {
+    KnowledgeBaseConfig.RetrievalMode mode = config.getRetrievalMode();
+    boolean termsOnly = mode == KnowledgeBaseConfig.RetrievalMode.BM25
+        || ((mode == KnowledgeBaseConfig.RetrievalMode.DENSE || mode == KnowledgeBaseConfig.RetrievalMode.HYBRID)
+            && config.getEmbedding().getProvider() == KnowledgeBaseConfig.EmbeddingProvider.HASHING);
+    String normalized = termsOnly
+        ? String.join(" ", TextTokenizer.tokenize(query))
+        : WHITESPACE.matcher(Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).strip())
+            .replaceAll(" ");
+    // Filter expressions are records, so equal filters print the same
+    return k + ":" + (filter != null ? filter + ":" : "") + normalized;
+  }
+
+  /**
+   * Returns the tables of the knowledge base documents, indexed for fact lookups by program and row key.
+   */
+  public FactTableIndex getFactTables() {
+    return factTables;
   }
 
   /**
@@ -210,14 +1158,38 @@ public class KnowledgeBaseService {
   }
 
   /**
-   * Retrieves relevant context for a given query.
+   * Retrieves relevant context for a given query. Unless context packing is disabled, the most
+   * relevant sentences of the retrieved chunks are packed into the configured token budget.
    *
    * @param query The query to retrieve context for
    * @return A string containing the relevant context
    */
   public String getRelevantContext(String query) {
-    List<AirlineDocument> relevantDocuments = similaritySearch(query, 3);
+    int k = contextAssembler != null ? Math.max(1, config.getContext().getCandidates()) : 3;
+    return cachedRetrieval(query, k, null, null).context();
+  }
+
+  /**
+   * Builds the context for the model from an already retrieved result: packed into the token
+   * budget, or the whole chunks when context packing is disabled.
+   *
+   * @param query  The query the result was retrieved for
+   * @param result The retrieval result
+   * @return A string containing the relevant context, or an empty string if there are no documents
+   */
+  public String assembleContext(String query, RetrievalResult result) {
+    return contextAssembler != null
+        ? contextAssembler.assemble(query, result.hits())
+        : formatContext(result.documents());
+  }
 
+  /**
+   * Formats already retrieved documents as context for the model, pasting each one whole.
+   *
+   * @param relevantDocuments The documents, best first
+   * @return A string containing the relevant context, or an empty string if there are no documents
+   */
+  public String formatContext(List<AirlineDocument> relevantDocuments) {
     if (relevantDocuments.isEmpty()) {
       return "";
     }
@@ -233,4 +1205,132 @@ public class KnowledgeBaseService {
 
     return contextBuilder.toString();
   }
+
+  /**
+   * Chunks produced from the loaded documents, with their embeddings when dense retrieval is enabled.
+   */
+  private record ProcessedChunks(List<AirlineDocument> chunks, List<float[]> embeddings) {}
+
+  /**
+   * A markdown file between the read and chunk stages of ingestion: the metadata its chunks get and
+   * the hash of its content. The content itself is read again, streaming, when it is chunked.
+   */
+  private record SourceFile(Path file, Map<String, Object> metadata, String contentHash) {
+
+    String name() {
+      return (String) metadata.get("source");
+    }
+  }
+
+  /**
+   * A retrieval result with the context formatted from it. The context is only assembled once it
+   * is read, so callers that need just the documents never pay for packing it.
+   */
+  public static final class Retrieval {
+
+    private final RetrievalResult result;
+    private final Supplier<String> context;
+
+    Retrieval(RetrievalResult result, Supplier<String> context) {
+      this.result = result;
+      this.context = context;
+    }
+
+    /**
+     * Returns the scored documents, best first.
+     */
+    public RetrievalResult result() {
+      return result;
+    }
+
+    /**
+     * Returns the context for the model, assembling it on first use.
+     */
+    public String context() {
+      return context.get();
+    }
+  }
+
+  /**
+   * Assembles a context on first use and keeps it, also for concurrent readers of a cache entry.
+   */
+  private static final class AssembledContext implements Supplier<String> {
+
+    private Supplier<String> assembler;
+    private String context;
+
+    AssembledContext(Supplier<String> assembler) {
+      this.assembler = assembler;
+    }
+
+    @Override
+    public synchronized String get() {
+      if (assembler != null) {
+        context = assembler.get();
+        assembler = null; // Lets the query and result be collected with the entry
+      }
+      return context;
+    }
+  }
+
+  /**
+   * A query of a batch.
+   *
+   * @param query The query to search for
+   * @param k     The number of results to return
+   */
+  public record BatchQuery(String query, int k) {}
+
+  /**
+   * The outcome of one query of a batch.
+   *
+   * @param index   The position of the query in the batch
+   * @param result  The scored documents, or {@code null} if the query failed
+   * @param context The context formatted from the documents, or {@code null} if the query failed
+   * @param failure Why the query failed, or {@code null}
+   */
+  public record BatchResult(int index, RetrievalResult result, String context, RuntimeException failure) {}
+
+  /**
+   * Retrieval latencies since startup, cache hits included, in milliseconds. Percentiles come from
+   * an HDR histogram with three significant digits.
+   *
+   * @param count The number of retrievals
+   */
+  public record LatencyStats(long count, double p50Millis, double p95Millis, double p99Millis,
+                             double maxMillis, double meanMillis) {}
+
+  /**
+   * Passes batch results to a consumer one at a time, and stops at its first failure.
+   */
+  private static final class BatchSink {
+
+    private final Consumer<BatchResult> results;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    BatchSink(Consumer<BatchResult> results) {
+      this.results = results;
+    }
+
+    synchronized void accept(BatchResult result) {
+      if (failure.get() != null) {
+        return;
+      }
+      try {
+        results.accept(result);
+      } catch (RuntimeException e) {
+        failure.set(e);
+      }
+    }
+
+    boolean failed() {
+      return failure.get() != null;
+    }
+
+    void rethrow() {
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+  }
 }
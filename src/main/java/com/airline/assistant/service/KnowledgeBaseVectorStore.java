@@ -0,0 +1,106 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Exposes the knowledge base as a Spring AI {@link VectorStore}, so that it can back a
+ * {@code QuestionAnswerAdvisor} and be searched with metadata filters such as
+ * {@code airline == 'united' && type == 'markdown'}.
+ *
+ * <p>Searches go through {@link KnowledgeBaseService#retrieve(String, int, Filter.Expression)}
+ * and therefore use the configured retrieval mode and the retrieval cache. Filters are compiled
+ * into bitsets of admissible chunks that are applied before scoring. Document ids are kept in
+ * the {@code id} metadata of stored chunks; chunks ingested from the markdown sources are
+ * identified by their source and chunk number.
+ */
+@Component
+public class KnowledgeBaseVectorStore implements VectorStore {
+
+  static final String ID = "id";
+
+  private final KnowledgeBaseService knowledgeBaseService;
+
+  public KnowledgeBaseVectorStore(KnowledgeBaseService knowledgeBaseService) {
+    this.knowledgeBaseService = knowledgeBaseService;
+  }
+
+  @Override
+  public void add(List<Document> documents) {
+    knowledgeBaseService.addDocuments(documents.stream()
+        .map(KnowledgeBaseVectorStore::toAirlineDocument)
+        .collect(Collectors.toList()));
+  }
+
+  @Override
+  public void delete(List<String> idList) {
+    if (!idList.isEmpty()) {
+      delete(new Filter.Expression(Filter.ExpressionType.IN, new Filter.Key(ID), new Filter.Value(List.copyOf(idList))));
+    }
+  }
+
+  @Override
+  public void delete(Filter.Expression filterExpression) {
+    knowledgeBaseService.removeDocuments(filterExpression);
+  }
+
+  /**
+   * Returns the top k chunks matching the request filter. The similarity threshold is compared
+   * with the score of the retrieval mode, which is a cosine similarity only for dense retrieval.
+   */
+  @Override
+  public List<Document> similaritySearch(SearchRequest request) {
+    RetrievalResult result = knowledgeBaseService.retrieve(request.getQuery(), request.getTopK(),
+        request.getFilterExpression());
+    boolean acceptAll = request.getSimilarityThreshold() <= SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL;
+    return result.hits().stream()
+        .filter(hit -> acceptAll || hit.score() >= request.getSimilarityThreshold())
+        .map(KnowledgeBaseVectorStore::toDocument)
+        .collect(Collectors.toList());
+  }
+
+  private static AirlineDocument toAirlineDocument(Document document) {
+    if (document.getText() == null) {
+      throw new IllegalArgumentException("Only text documents can be added to the knowledge base: " + document.getId());
+    }
+    Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+    metadata.put(ID, document.getId());
+    return new AirlineDocument(document.getText(), metadata);
+  }
+
+  private static Document toDocument(RetrievalResult.ScoredDocument hit) {
+    AirlineDocument document = hit.document();
+    return Document.builder()
+        .id(documentId(document))
+        .text(document.getContent())
+        .metadata(document.getMetadata())
+        .score(hit.score())
+        .build();
+  }
+
+  private static String documentId(AirlineDocument document) {
+    Object id = document.getMetadataValue(ID);
+    if (id != null) {
+      return id.toString();
+    }
+    Object source = document.getMetadataValue("source");
+    Object chunk = document.getMetadataValue("chunk");
+    if (source != null && chunk != null) {
+      return source + "#" + chunk;
+    }
+    return UUID.nameUUIDFromBytes(document.getContent().getBytes(StandardCharsets.UTF_8)).toString();
+  }
+}
@@ -0,0 +1,134 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the knowledge base directory and re-indexes documents as they are added, changed or deleted.
+ * Events are collected until the directory has been quiet for the configured debounce period, then
+ * each affected file is handed to {@link KnowledgeBaseService} once, which replaces only its chunks.
+ */
+@Component
+public class KnowledgeBaseWatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KnowledgeBaseWatcher.class);
+
+  private final KnowledgeBaseService knowledgeBaseService;
+  private final KnowledgeBaseConfig config;
+  private WatchService watchService;
+
+  public KnowledgeBaseWatcher(KnowledgeBaseService knowledgeBaseService, KnowledgeBaseConfig config) {
+    this.knowledgeBaseService = knowledgeBaseService;
+    this.config = config;
+  }
+
+  /**
+   * Starts watching when enabled. The classpath knowledge base can only be watched while it is
+   * unpacked on the file system; packaged applications should point {@code directory} at the sources.
+   */
+  @PostConstruct
+  public void start() throws IOException {
+    if (!config.getWatch().isEnabled()) {
+      return;
+    }
+    Path directory;
+    try {
+      directory = knowledgeBaseService.getKnowledgeBaseDirectory();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Knowledge base directory cannot be watched: {}", e.getMessage());
+      return;
+    }
+    watchService = FileSystems.getDefault().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+    Thread thread = new Thread(() -> watch(directory), "knowledge-base-watcher");
+    thread.setDaemon(true);
+    thread.start();
+    LOGGER.info("Watching knowledge base directory {} for changes", directory);
+  }
+
+  @PreDestroy
+  public void stop() throws IOException {
+    if (watchService != null) {
+      // Closing the service wakes the watcher thread, which then exits
+      watchService.close();
+    }
+  }
+
+  private void watch(Path directory) {
+    long debounceMillis = Math.max(0, config.getWatch().getDebounceMillis());
+    Set<Path> changed = new LinkedHashSet<>();
+    boolean overflow = false;
+    try {
+      while (true) {
+        WatchKey key = changed.isEmpty() && !overflow
+            ? watchService.take()
+            : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        if (key == null) {
+          // The directory has been quiet for the debounce period
+          apply(directory, changed, overflow);
+          changed.clear();
+          overflow = false;
+          continue;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            overflow = true;
+          } else if (event.context() instanceof Path name && KnowledgeBaseService.isKnowledgeBaseDocument(name)) {
+            changed.add(directory.resolve(name));
+          }
+        }
+        if (!key.reset()) {
+          LOGGER.warn("Knowledge base directory {} is no longer accessible, stopped watching", directory);
+          return;
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      LOGGER.debug("Stopped watching knowledge base directory {}", directory);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void apply(Path directory, Set<Path> changed, boolean overflow) {
+    if (overflow) {
+      LOGGER.info("Missed file events in {}, re-scanning the whole directory", directory);
+      try {
+        knowledgeBaseService.synchronizeDirectory();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Failed to re-scan knowledge base directory {}", directory, e);
+      }
+      return;
+    }
+    for (Path file : changed) {
+      try {
+        if (Files.isRegularFile(file)) {
+          knowledgeBaseService.reindexDocument(file);
+        } else {
+          knowledgeBaseService.removeDocument(file.getFileName().toString());
+        }
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Failed to re-index knowledge base document {}", file, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A partition of the knowledge base hosted by another instance, searched through its
+ * {@code /api/v1/knowledge/shard/query} endpoint. Filters are sent in the text syntax of Spring
+ * AI's {@code FilterExpressionTextParser}, which the peer parses back into an expression.
+ */
+class PeerShard implements ScatterGatherRetriever.Shard {
+
+  static final String QUERY_PATH = "/api/v1/knowledge/shard/query";
+
+  private final String baseUrl;
+  private final RestClient client;
+
+  /**
+   * @param baseUrl The base URL of the peer, such as {@code http://localhost:9081}
+   * @param timeout The connect and read timeout, so that abandoned requests do not linger
+   */
+  PeerShard(String baseUrl, Duration timeout) {
+    this.baseUrl = baseUrl;
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(timeout);
+    requestFactory.setReadTimeout(timeout);
+    this.client = RestClient.builder().baseUrl(baseUrl).requestFactory(requestFactory).build();
+  }
+
+  @Override
+  public RetrievalResult search(String query, int k, Filter.Expression filter) {
+    long start = System.nanoTime();
+    Response response = client.post()
+        .uri(QUERY_PATH)
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(new Request(query, k, filter != null ? format(filter) : null))
+        .retrieve()
+        .body(Response.class);
+    List<RetrievalResult.ScoredDocument> hits = response == null || response.documents() == null
+        ? List.of()
+        : response.documents().stream()
+            .map(hit -> new RetrievalResult.ScoredDocument(new AirlineDocument(hit.content(), hit.metadata()), hit.score()))
+            .toList();
+    return new RetrievalResult(hits, Map.of("search", System.nanoTime() - start));
+  }
+
+  @Override
+  public String name() {
+    return baseUrl;
+  }
+
+  /**
+   * Prints a filter in the syntax of {@code FilterExpressionTextParser}, parenthesizing every
+   * boolean operation so that no precedence rules are involved.
+   */
+  static String format(Filter.Operand operand) {
+    if (operand instanceof Filter.Group group) {
+      return "(" + format(group.content()) + ")";
+    }
+    if (operand instanceof Filter.Key key) {
+      return key.key();
+    }
+    if (operand instanceof Filter.Value value) {
+      return literal(value.value());
+    }
+    if (!(operand instanceof Filter.Expression expression)) {
+      throw new IllegalArgumentException("Unsupported filter operand: " + operand);
+    }
+    return switch (expression.type()) {
+      case AND -> "(" + format(expression.left()) + " && " + format(expression.right()) + ")";
+      case OR -> "(" + format(expression.left()) + " || " + format(expression.right()) + ")";
+      case NOT -> "NOT (" + format(expression.left()) + ")";
+      case EQ -> comparison(expression, "==");
+      case NE -> comparison(expression, "!=");
+      case GT -> comparison(expression, ">");
+      case GTE -> comparison(expression, ">=");
+      case LT -> comparison(expression, "<");
+      case LTE -> comparison(expression, "<=");
+      case IN -> comparison(expression, "IN");
+      case NIN -> comparison(expression, "NIN");
+      default -> throw new IllegalArgumentException("Unsupported filter operator: " + expression.type());
+    };
+  }
+
+  private static String comparison(Filter.Expression expression, String operator) {
+    return format(expression.left()) + " " + operator + " " + format(expression.right());
+  }
+
+  private static String literal(Object value) {
+    if (value instanceof List<?> values) {
+      return values.stream().map(PeerShard::literal).collect(Collectors.joining(", ", "[", "]"));
+    }
+    if (value instanceof Number || value instanceof Boolean) {
+      return value.toString();
+    }
+    return "'" + String.valueOf(value).replace("\\", "\\\\").replace("'", "\\'") + "'";
+  }
+
+  /**
+   * The body of a shard query.
+   *
+   * @param filter The filter in text syntax, or {@code null} for none
+   */
+  record Request(String query, int limit, String filter) {}
+
+  record Response(List<Hit> documents) {}
+
+  record Hit(String content, Map<String, Object> metadata, double score) {}
+}
@@ -0,0 +1,157 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.RetrievalResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of retrieval results and their formatted context, keyed by normalized query
+ * and result depth.
+ *
+ * <p>Every entry records the corpus epoch of the vector store it was computed against, read
+ * before the search ran. An entry is only served while the epoch is unchanged, so any
+ * modification of the store invalidates all earlier entries without having to find them.
+ * Entries also expire a fixed time after they were written. Concurrent misses for the same key
+ * each compute the result; the search is cheap enough that this beats holding a lock around it.
+ */
+public class RetrievalCache {
+
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+  private final LinkedHashMap<String, Entry> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private long newestEpoch = Long.MIN_VALUE; // Guarded by entries
+
+  /**
+   * A cached retrieval.
+   *
+   * @param result          The retrieval result
+   * @param contextSupplier Formats the context from the result, once it is needed
+   */
+  record Entry(RetrievalResult result, Supplier<String> contextSupplier, long epoch, long writtenNanos) {
+
+    String context() {
+      return contextSupplier.get();
+    }
+  }
+
+  /**
+   * Hit and miss counters since the cache was created.
+   *
+   * @param hits          Lookups served from the cache
+   * @param misses        Lookups that had to search, including invalidated and expired entries
+   * @param evictions     Entries dropped to stay within the size limit
+   * @param invalidations Entries dropped because the corpus changed since they were computed
+   * @param expirations   Entries dropped because they outlived the time to live
+   * @param size          The number of entries currently held
+   */
+  public record Stats(long hits, long misses, long evictions, long invalidations, long expirations, int size) {
+
+    public double hitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+  }
+
+  /**
+   * @param maxEntries The maximum number of entries
+   * @param ttlMillis  How long an entry is served after it was written
+   */
+  RetrievalCache(int maxEntries, long ttlMillis) {
+    this(maxEntries, ttlMillis, System::nanoTime);
+  }
+
+  RetrievalCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.ttlNanos = Math.max(0, ttlMillis) * 1_000_000;
+    this.clock = clock;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Looks up an entry that is still valid for the given corpus epoch.
+   *
+   * @return The entry, or {@code null} on a miss
+   */
+  Entry get(String key, long epoch) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.epoch() != epoch) {
+        entries.remove(key);
+        invalidations.increment();
+        entry = null;
+      } else if (entry != null && clock.getAsLong() - entry.writtenNanos() > ttlNanos) {
+        entries.remove(key);
+        expirations.increment();
+        entry = null;
+      }
+      (entry != null ? hits : misses).increment();
+      return entry;
+    }
+  }
+
+  /**
+   * Stores a result computed against the given corpus epoch. The context supplier is shared by
+   * every hit of the entry, so it should assemble the context at most once.
+   */
+  Entry put(String key, long epoch, RetrievalResult result, Supplier<String> context) {
+    Entry entry = new Entry(result, context, epoch, clock.getAsLong());
+    synchronized (entries) {
+      if (epoch < newestEpoch) {
+        // The corpus changed while this result was computed, so it could never be served
+        return entry;
+      }
+      entries.put(key, entry);
+      dropStaleEntries(epoch);
+      while (entries.size() > maxEntries) {
+        Iterator<String> eldest = entries.keySet().iterator();
+        eldest.next();
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Drops every entry.
+   */
+  void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  Stats stats() {
+    synchronized (entries) {
+      return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), expirations.sum(), entries.size());
+    }
+  }
+
+  /**
+   * Once an entry for a newer epoch arrives, entries of older epochs can never be served again,
+   * so they are dropped eagerly instead of occupying the cache until evicted.
+   */
+  private void dropStaleEntries(long epoch) {
+    if (epoch <= newestEpoch) {
+      return;
+    }
+    newestEpoch = epoch;
+    entries.values().removeIf(entry -> {
+      boolean stale = entry.epoch() < epoch;
+      if (stale) {
+        invalidations.increment();
+      }
+      return stale;
+    });
+  }
+}
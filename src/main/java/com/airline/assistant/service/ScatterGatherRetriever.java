@@ -0,0 +1,139 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.RetrievalResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Retrieves from a knowledge base that is partitioned across application instances: the query
+ * is sent to the local partition and to every peer at once, and the top k of all partitions are
+ * merged by score.
+ *
+ * <p>Each partition is searched on its own virtual thread and has to answer within the shard
+ * deadline. A partition that fails or misses the deadline is left out, so the results degrade to
+ * the partitions that answered instead of failing the query; only when no partition answers is
+ * the failure rethrown. Partitions score with their own statistics, which are close to those of
+ * the whole knowledge base as long as the sources are spread evenly over the partitions.
+ */
+class ScatterGatherRetriever {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ScatterGatherRetriever.class);
+
+  private final List<Shard> peers;
+  private final long timeoutNanos;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Searches one partition of the knowledge base.
+   */
+  @FunctionalInterface
+  interface Shard {
+
+    /**
+     * Returns the top k chunks of the partition, best first.
+     */
+    RetrievalResult search(String query, int k, Filter.Expression filter);
+
+    /**
+     * Names the partition in log messages.
+     */
+    default String name() {
+      return "local";
+    }
+  }
+
+  /**
+   * @param peers         The partitions hosted by other instances
+   * @param timeoutMillis The time every partition has to answer
+   */
+  ScatterGatherRetriever(List<Shard> peers, long timeoutMillis) {
+    this.peers = List.copyOf(peers);
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
+  /**
+   * Searches the local partition and all peers and merges their results.
+   *
+   * @param local  The local partition
+   * @param query  The query to search for
+   * @param k      The number of results to return
+   * @param filter The filter the results must match, or {@code null} for none
+   * @return The best k documents of all partitions that answered, and the time spent searching and merging
+   */
+  RetrievalResult retrieve(Shard local, String query, int k, Filter.Expression filter) {
+    long start = System.nanoTime();
+    long deadline = start + timeoutNanos;
+    Map<Shard, Future<RetrievalResult>> searches = new LinkedHashMap<>();
+    searches.put(local, executor.submit(() -> local.search(query, k, filter)));
+    for (Shard peer : peers) {
+      searches.put(peer, executor.submit(() -> peer.search(query, k, filter)));
+    }
+
+    List<RetrievalResult> results = new ArrayList<>(searches.size());
+    RuntimeException failure = null;
+    for (Map.Entry<Shard, Future<RetrievalResult>> search : searches.entrySet()) {
+      try {
+        results.add(await(search.getKey(), search.getValue(), deadline));
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (results.isEmpty()) {
+      throw failure;
+    }
+
+    long mergeStart = System.nanoTime();
+    List<RetrievalResult.ScoredDocument> merged = merge(results, k);
+    Map<String, Long> stages = new LinkedHashMap<>();
+    stages.put("search", mergeStart - start);
+    stages.put("merge", System.nanoTime() - mergeStart);
+    return new RetrievalResult(merged, stages);
+  }
+
+  /**
+   * Merges the rankings of the partitions by score. Ties keep the order of the partitions, local first.
+   */
+  static List<RetrievalResult.ScoredDocument> merge(List<RetrievalResult> results, int k) {
+    List<RetrievalResult.ScoredDocument> hits = new ArrayList<>();
+    for (RetrievalResult result : results) {
+      hits.addAll(result.hits());
+    }
+    hits.sort(Comparator.comparingDouble(RetrievalResult.ScoredDocument::score).reversed());
+    return List.copyOf(hits.subList(0, Math.min(Math.max(0, k), hits.size())));
+  }
+
+  private static RetrievalResult await(Shard shard, Future<RetrievalResult> search, long deadlineNanos) {
+    try {
+      return search.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      search.cancel(true);
+      LOGGER.warn("Scatter-gather retrieval: partition {} missed its deadline, merging without it", shard.name());
+      throw new IllegalStateException("Partition " + shard.name() + " timed out", e);
+    } catch (ExecutionException e) {
+      LOGGER.warn("Scatter-gather retrieval: partition {} failed, merging without it", shard.name(), e.getCause());
+      throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      search.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for partition " + shard.name(), e);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.airline.assistant.tools;
+
+import com.airline.assistant.service.FactTableIndex;
+import com.airline.assistant.service.KnowledgeBaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Tools that answer questions from the structured content of the knowledge base, such as the
+ * tables of tier qualification thresholds, with exact figures instead of retrieved passages.
+ */
+@Component
+public class KnowledgeBaseTools {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KnowledgeBaseTools.class);
+    private final KnowledgeBaseService knowledgeBaseService;
+
+    public KnowledgeBaseTools(KnowledgeBaseService knowledgeBaseService) {
+        this.knowledgeBaseService = knowledgeBaseService;
+    }
+
+    /**
+     * Look up the tabulated facts of a loyalty program tier
+     */
+    @Tool(description = "Look up the exact qualification thresholds, deposits and other tabulated figures of a loyalty "
+        + "program tier from the knowledge base, e.g. program 'United MileagePlus' and tier 'Premier Gold'. "
+        + "Leave the tier empty to list the figures of every tier of the program")
+    public String lookupTierFacts(String program,
+                                  @ToolParam(required = false, description = "The tier to look up; leave empty for every tier")
+                                  String tier) {
+        boolean allTiers = tier == null || tier.isBlank();
+        LOGGER.info("Looking up facts of {} in {} program", allTiers ? "all tiers" : "tier " + tier, program);
+        List<FactTableIndex.Fact> facts = knowledgeBaseService.getFactTables().lookup(program, allTiers ? null : tier);
+        if (facts.isEmpty()) {
+            return allTiers
+                ? String.format("No tabulated facts found for any tier of the %s program.", program)
+                : String.format("No tabulated facts found for tier '%s' of the %s program.", tier, program);
+        }
+
+        StringBuilder answer = new StringBuilder();
+        String row = null;
+        for (FactTableIndex.Fact fact : facts) {
+            if (!fact.key().equals(row)) {
+                row = fact.key();
+                answer.append(row).append(" (").append(fact.source()).append("):\n");
+            }
+            answer.append("• ").append(fact.table()).append(" - ").append(fact.column()).append(": ")
+                .append(fact.value()).append('\n');
+        }
+        return answer.toString();
+    }
+}
@@ -119,10 +119,11 @@ class RagTester {
                 
                 const source = doc.metadata.source || 'Unknown source';
                 const chunk = doc.metadata.chunk !== undefined ? ` (Chunk ${doc.metadata.chunk})` : '';
+                const score = typeof doc.score === 'number' ? ` &middot; score ${doc.score.toFixed(3)}` : '';
                 
                 documentCard.innerHTML = `
                     <div class="document-header">
-                        <div class="document-source">${source}${chunk}</div>
+                        <div class="document-source">${source}${chunk}${score}</div>
                         <div class="document-metadata">${this.formatMetadata(doc.metadata)}</div>
                     </div>
                     <div class="document-content">${doc.content}</div>
@@ -0,0 +1,124 @@
+package com.airline.assistant.rag;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written with the incubating Vector API, using the widest vectors of the CPU: 8 floats
+ * per instruction with AVX2 and 16 with AVX-512. Float dot products keep four independent
+ * accumulators so that consecutive fused multiply-adds do not wait on each other; int8 codes are
+ * widened to floats a vector at a time. Sums are accumulated in a different order than by the
+ * scalar loops, so results may differ from theirs in the last bits.
+ *
+ * <p>Lives in the {@code simd} source set, the only one compiled against the incubator module,
+ * and is instantiated by name from {@link VectorKernels}.
+ */
+final class SimdVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final int MIN_VECTOR_BITS = 256;
+    // As many byte lanes as float lanes on supported CPUs, so that one load of codes widens into one float vector
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+        VectorShape.forBitSize(Math.max(MIN_VECTOR_BITS / Float.SIZE, FLOATS.length()) * Byte.SIZE));
+
+    /**
+     * Returns whether the CPU has vectors of at least 256 bits, as with AVX2. Narrower float vectors
+     * would need byte vectors narrower than the Vector API offers to widen int8 codes from.
+     */
+    static boolean isSupported() {
+        return FLOATS.vectorBitSize() >= MIN_VECTOR_BITS;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int lanes = FLOATS.length();
+        int i = 0;
+        float sum = 0;
+        if (length >= lanes) {
+            FloatVector acc1 = FloatVector.zero(FLOATS);
+            FloatVector acc2 = FloatVector.zero(FLOATS);
+            FloatVector acc3 = FloatVector.zero(FLOATS);
+            FloatVector acc4 = FloatVector.zero(FLOATS);
+            int unrolledBound = length - 4 * lanes;
+            for (; i <= unrolledBound; i += 4 * lanes) {
+                acc1 = FloatVector.fromArray(FLOATS, a, aOffset + i)
+                    .fma(FloatVector.fromArray(FLOATS, b, bOffset + i), acc1);
+                acc2 = FloatVector.fromArray(FLOATS, a, aOffset + i + lanes)
+                    .fma(FloatVector.fromArray(FLOATS, b, bOffset + i + lanes), acc2);
+                acc3 = FloatVector.fromArray(FLOATS, a, aOffset + i + 2 * lanes)
+                    .fma(FloatVector.fromArray(FLOATS, b, bOffset + i + 2 * lanes), acc3);
+                acc4 = FloatVector.fromArray(FLOATS, a, aOffset + i + 3 * lanes)
+                    .fma(FloatVector.fromArray(FLOATS, b, bOffset + i + 3 * lanes), acc4);
+            }
+            int bound = FLOATS.loopBound(length);
+            for (; i < bound; i += lanes) {
+                acc1 = FloatVector.fromArray(FLOATS, a, aOffset + i)
+                    .fma(FloatVector.fromArray(FLOATS, b, bOffset + i), acc1);
+            }
+            sum = acc1.add(acc2).add(acc3.add(acc4)).reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(byte[] codes, int offset, float[] query, int length) {
+        int lanes = FLOATS.length();
+        int i = 0;
+        float sum = 0;
+        if (length >= lanes) {
+            FloatVector acc1 = FloatVector.zero(FLOATS);
+            FloatVector acc2 = FloatVector.zero(FLOATS);
+            int unrolledBound = length - 2 * lanes;
+            for (; i <= unrolledBound; i += 2 * lanes) {
+                acc1 = widen(codes, offset + i).fma(FloatVector.fromArray(FLOATS, query, i), acc1);
+                acc2 = widen(codes, offset + i + lanes).fma(FloatVector.fromArray(FLOATS, query, i + lanes), acc2);
+            }
+            int bound = FLOATS.loopBound(length);
+            for (; i < bound; i += lanes) {
+                acc1 = widen(codes, offset + i).fma(FloatVector.fromArray(FLOATS, query, i), acc1);
+            }
+            sum = acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int lanes = FLOATS.length();
+        int i = 0;
+        float sum = 0;
+        if (length >= lanes) {
+            FloatVector acc = FloatVector.zero(FLOATS);
+            int bound = FLOATS.loopBound(length);
+            for (; i < bound; i += lanes) {
+                FloatVector diff = FloatVector.fromArray(FLOATS, a, aOffset + i)
+                    .sub(FloatVector.fromArray(FLOATS, b, bOffset + i));
+                acc = diff.fma(diff, acc);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public String description() {
+        return "SIMD (" + FLOATS.vectorBitSize() + "-bit)";
+    }
+
+    private static FloatVector widen(byte[] codes, int offset) {
+        return (FloatVector) ByteVector.fromArray(BYTES, codes, offset).convertShape(VectorOperators.B2F, FLOATS, 0);
+    }
+}
@@ -0,0 +1,88 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTest {
+
+    @Test
+    void testSearch_RanksRareTermsHigher() {
+        Bm25Index index = new Bm25Index(1.2, 0.75);
+        index.add(0, "Delta SkyMiles members earn miles on every Delta flight.");
+        index.add(1, "United MileagePlus members earn PQP toward Premier status.");
+        index.add(2, "Miles can be redeemed for flights with partner airlines.");
+
+        List<SearchHit> hits = index.search("How do I earn PQP?", 3);
+
+        // Only documents containing a query term are returned, and the rare term wins
+        assertEquals(1, hits.get(0).documentId());
+        assertEquals(2, hits.size());
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+    }
+
+    @Test
+    void testSearch_UnknownTermsReturnNothing() {
+        Bm25Index index = new Bm25Index(1.2, 0.75);
+        index.add(0, "Delta SkyMiles do not expire.");
+
+        assertTrue(index.search("lounge", 3).isEmpty());
+        assertTrue(index.search("", 3).isEmpty());
+    }
+
+    @Test
+    void testSearch_ExpandsMisspelledAndSplitTerms() {
+        Bm25Index index = new Bm25Index(1.2, 0.75, new TrigramIndex(4, 3, 0.4, 1000));
+        index.add(0, "Delta SkyMiles never expire.");
+        index.add(1, "United MileagePlus members earn PQP toward Premier status.");
+
+        assertEquals(1, index.search("milagePlus", 3).get(0).documentId());
+        assertEquals(1, index.search("Mileage Plus", 3).get(0).documentId());
+        assertEquals(0, index.search("Sky miles", 3).get(0).documentId());
+        // Without the trigram index, none of these match
+        Bm25Index exact = new Bm25Index(1.2, 0.75);
+        exact.add(0, "Delta SkyMiles never expire.");
+        assertTrue(exact.search("Sky miles", 3).isEmpty());
+    }
+
+    @Test
+    void testSearch_EarlyTerminationMatchesExhaustiveRanking() {
+        // Prepare a random corpus with a skewed vocabulary so that some terms are much rarer than others
+        Random random = new Random(42);
+        Bm25Index index = new Bm25Index(1.2, 0.75);
+        int documentCount = 2000;
+        for (int d = 0; d < documentCount; d++) {
+            StringBuilder text = new StringBuilder();
+            int length = 5 + random.nextInt(60);
+            for (int t = 0; t < length; t++) {
+                text.append("term").append((int) Math.abs(random.nextGaussian() * 40)).append(' ');
+            }
+            index.add(d, text.toString());
+        }
+
+        for (int q = 0; q < 50; q++) {
+            String query = "term" + random.nextInt(20) + " term" + random.nextInt(80) + " term" + random.nextInt(150);
+            int k = 1 + random.nextInt(10);
+
+            List<SearchHit> expected = new ArrayList<>();
+            for (int d = 0; d < documentCount; d++) {
+                double score = index.score(query, d);
+                if (score > 0) {
+                    expected.add(new SearchHit(d, score));
+                }
+            }
+            expected.sort(SearchHit.BEST_FIRST);
+
+            List<SearchHit> actual = index.search(query, k);
+
+            assertEquals(Math.min(k, expected.size()), actual.size(), "result size for " + query);
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(expected.get(i).score(), actual.get(i).score(), 1e-9, "score at rank " + i + " for " + query);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+
+    @Test
+    void testAdd_StoresOverlappingChunksOnce() {
+        MarkdownChunker chunker = new MarkdownChunker(30, 15);
+        List<MarkdownChunker.Chunk> chunks = chunker.chunk("""
+            SkyMiles never expire, so there is no need to fly or spend to keep them.
+
+            Medallion status is earned with Medallion Qualifying Dollars (MQD) from flights and purchases.
+
+            Diamond Medallion requires 28,000 MQD in a calendar year. It is the highest Medallion tier.
+            """);
+        assertEquals(2, chunks.size());
+        ChunkStore store = new ChunkStore();
+        for (int i = 0; i < chunks.size(); i++) {
+            store.add(new AirlineDocument(chunks.get(i).text(), metadata(i)));
+        }
+
+        ChunkStore.View view = store.view();
+        assertEquals(chunks.size(), view.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(chunks.get(i).text(), view.content(i));
+            assertEquals(chunks.get(i).text(), view.get(i).getContent());
+            assertEquals(metadata(i), view.get(i).getMetadata());
+        }
+        // The paragraph repeated by the overlap is stored once
+        String overlap = "Medallion status is earned with Medallion Qualifying Dollars (MQD) from flights and purchases.";
+        assertTrue(view.content(1).startsWith(overlap));
+        assertEquals(chunks.get(0).text().length() + chunks.get(1).text().length() - overlap.length(), store.textLength());
+    }
+
+    @Test
+    void testView_IsUnaffectedByLaterAppends() {
+        ChunkStore store = new ChunkStore();
+        store.add(new AirlineDocument("Premier Gold requires 12,000 PQP.", metadata(0)));
+        ChunkStore.View before = store.view();
+
+        // Enough chunks to grow every array, with a key the first chunk does not have
+        for (int i = 1; i < 100; i++) {
+            Map<String, Object> metadata = metadata(i);
+            metadata.put("airline", "united");
+            store.add(new AirlineDocument("Rule " + i + " with naïve UTF-8 text", metadata));
+        }
+
+        assertEquals(1, before.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> before.content(1));
+        assertNull(before.metadataValue(0, "airline"));
+        ChunkStore.View after = store.view();
+        assertEquals(100, after.size());
+        assertEquals("Rule 99 with naïve UTF-8 text", after.content(99));
+        assertEquals("united", after.metadataValue(99, "airline"));
+        assertEquals(99, after.metadataValue(99, "chunk"));
+        assertEquals("united-mileageplus.md", after.metadataValue(42, "source"));
+        assertNull(after.metadataValue(0, "airline"));
+    }
+
+    private static Map<String, Object> metadata(int chunk) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", "united-mileageplus.md");
+        metadata.put("filename", "united-mileageplus.md");
+        metadata.put("type", "markdown");
+        metadata.put("headingPath", "United MileagePlus > Premier status");
+        metadata.put("chunk", chunk);
+        return metadata;
+    }
+}
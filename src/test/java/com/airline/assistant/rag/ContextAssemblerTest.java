@@ -0,0 +1,100 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextAssemblerTest {
+
+    @Test
+    void testAssemble_MergesOverlappingChunksOfTheSameSource() {
+        MarkdownChunker chunker = new MarkdownChunker(30, 15);
+        List<MarkdownChunker.Chunk> chunks = chunker.chunk("""
+            # Delta SkyMiles
+
+            SkyMiles never expire, so there is no need to fly or spend to keep them.
+
+            Medallion status is earned with Medallion Qualifying Dollars (MQD) from flights and purchases.
+
+            Diamond Medallion requires 28,000 MQD in a calendar year.
+            """);
+        assertEquals(3, chunks.size());
+        List<RetrievalResult.ScoredDocument> hits = new ArrayList<>();
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            hits.add(hit(chunks.get(i).text(), "delta-skymiles.md", i, chunks.size() - i));
+        }
+
+        String context = new ContextAssembler(200, 0.7).assemble("Diamond Medallion MQD", hits);
+
+        assertTrue(context.startsWith(ContextAssembler.INTRODUCTION));
+        // Text repeated by the chunk overlap appears once, under a single source line
+        assertEquals(1, occurrences(context, "From delta-skymiles.md"));
+        assertEquals(1, occurrences(context, "Medallion status is earned"));
+        assertFalse(context.contains("# Delta SkyMiles"));
+        assertTrue(context.indexOf("SkyMiles never expire") < context.indexOf("Diamond Medallion requires"));
+    }
+
+    @Test
+    void testAssemble_PacksTheMostRelevantSentencesIntoTheBudget() {
+        List<RetrievalResult.ScoredDocument> hits = List.of(
+            hit("Miles are earned on every flight. Premier Gold requires 12,000 PQP. Upgrades are complimentary.",
+                "united-mileageplus.md", 4, 2.0),
+            hit("Lounge access is included with Premier status.", "united-mileageplus.md", 9, 1.0));
+
+        String context = new ContextAssembler(6, 0.7).assemble("Premier Gold PQP", hits);
+
+        assertTrue(context.contains("Premier Gold requires 12,000 PQP."));
+        assertFalse(context.contains("Miles are earned"));
+        assertFalse(context.contains("Upgrades"));
+        assertTrue(countWords(context.substring(ContextAssembler.INTRODUCTION.length())) <= 6 + 2);
+        assertEquals("", new ContextAssembler(8, 0.7).assemble("Premier Gold PQP", List.of()));
+    }
+
+    @Test
+    void testAssemble_SkipsRepeatedSentencesAndKeepsTableHeaders() {
+        List<RetrievalResult.ScoredDocument> hits = List.of(
+            hit("Premier status\tPQP and PQF\tPQP only\nPremier Silver\t5,000 PQP + 15 PQF\t6,000 PQP\n"
+                + "Premier Gold\t10,000 PQP + 30 PQF\t12,000 PQP", "united-mileageplus.md", 3, 2.0),
+            hit("Premier Gold\t10,000 PQP + 30 PQF\t12,000 PQP", "united-faq.md", 0, 1.0));
+
+        String context = new ContextAssembler(16, 0.7).assemble("Premier Gold PQF", hits);
+
+        // The row of the same text from another source is a repetition, and the header comes along with the row
+        assertTrue(context.contains("Premier status\tPQP and PQF\tPQP only\n" + ContextAssembler.OMISSION + "\nPremier Gold"));
+        assertEquals(1, occurrences(context, "Premier Gold\t10,000 PQP + 30 PQF"));
+        assertFalse(context.contains("Premier Silver"));
+        assertFalse(context.contains("From united-faq.md"));
+    }
+
+    @Test
+    void testAssemble_SplitsProseWithATabIntoSentences() {
+        List<RetrievalResult.ScoredDocument> hits = List.of(
+            hit("Miles never expire.\tStatus is earned every calendar year. Lounge access is included.",
+                "delta-skymiles.md", 0, 1.0));
+
+        String context = new ContextAssembler(4, 0.7).assemble("Lounge access", hits);
+
+        assertTrue(context.contains("Lounge access is included."));
+        assertFalse(context.contains("Miles never expire"));
+    }
+
+    private static RetrievalResult.ScoredDocument hit(String content, String source, int chunk, double score) {
+        return new RetrievalResult.ScoredDocument(new AirlineDocument(content, Map.of("source", source, "chunk", chunk)), score);
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int countWords(String text) {
+        return MarkdownChunker.countTokens(text);
+    }
+}
@@ -0,0 +1,55 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FactTableParserTest {
+
+    @Test
+    void testParse_ExtractsTabSeparatedTablesWithTheirLabels() {
+        String markdown = String.join("\n",
+            "## Premier status",
+            "Qualification thresholds: The amount of PQP and PQF needed is changing.",
+            "",
+            "Premier status\tPQP and PQF\tPQP only",
+            "Premier Silver\t5,000 PQP + 15 PQF\t6,000 PQP",
+            "Premier 1K\t22,000 PQP + 60 PQF\t28,000 PQP",
+            "Note: Above qualification requirements are in addition to 4 flight segments.");
+
+        List<FactTable> tables = FactTableParser.parse("united-mileageplus.md", markdown);
+
+        assertEquals(1, tables.size());
+        FactTable table = tables.get(0);
+        assertEquals("Qualification thresholds", table.title());
+        assertEquals(List.of("Premier status", "PQP and PQF", "PQP only"), table.columns());
+        assertEquals(List.of("Premier Silver", "Premier 1K"), table.rows().stream().map(FactTable.Row::key).toList());
+        FactTable.Cell both = table.rows().get(1).cells().get(0);
+        assertEquals("22,000 PQP + 60 PQF", both.text());
+        assertEquals(Map.of("PQP", 22_000L, "PQF", 60L), both.amounts());
+        assertEquals(Map.of("PQP", 28_000L), table.rows().get(1).cells().get(1).amounts());
+    }
+
+    @Test
+    void testParse_ExtractsPipeTablesTitledByTheirHeading() {
+        String markdown = String.join("\n",
+            "# Medallion tiers",
+            "",
+            "| Tier | MQDs |",
+            "|------|-----:|",
+            "| Silver | $5,000 |",
+            "| Gold | $10,000 |",
+            "",
+            "| Not a table |");
+
+        List<FactTable> tables = FactTableParser.parse("delta-skymiles.md", markdown);
+
+        assertEquals(1, tables.size());
+        assertEquals("Medallion tiers", tables.get(0).title());
+        assertEquals(2, tables.get(0).rows().size());
+        assertEquals(Map.of("", 10_000L), tables.get(0).rows().get(1).cells().get(0).amounts());
+    }
+}
@@ -0,0 +1,98 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.Filter.ExpressionType;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterCompilerTest {
+
+    private static final List<AirlineDocument> DOCUMENTS = List.of(
+        new AirlineDocument("a", Map.of("airline", "delta", "type", "markdown", "chunk", 0)),
+        new AirlineDocument("b", Map.of("airline", "delta", "type", "markdown", "chunk", 1)),
+        new AirlineDocument("c", Map.of("airline", "united", "type", "markdown", "chunk", 0)),
+        new AirlineDocument("d", Map.of("airline", "united", "type", "faq", "chunk", 1)),
+        new AirlineDocument("e", Map.of("type", "faq"))
+    );
+
+    private final FilterCompiler compiler = new FilterCompiler(index(), DOCUMENTS);
+
+    @Test
+    void testCompile_CombinesIndexedBitsets() {
+        assertEquals(Set.of(2, 3), ids(eq("airline", "united")));
+        assertEquals(Set.of(0, 1, 4), ids(new Filter.Expression(ExpressionType.NE, key("airline"), value("united"))));
+        assertEquals(Set.of(3), ids(and(eq("airline", "united"), eq("type", "faq"))));
+        assertEquals(Set.of(0, 1, 3, 4), ids(new Filter.Expression(ExpressionType.OR,
+            eq("airline", "delta"), new Filter.Group(eq("type", "faq")))));
+        assertEquals(Set.of(0, 1, 2, 3), ids(new Filter.Expression(ExpressionType.IN,
+            key("airline"), value(List.of("delta", "united")))));
+        assertEquals(Set.of(4), ids(new Filter.Expression(ExpressionType.NOT,
+            new Filter.Expression(ExpressionType.IN, key("airline"), value(List.of("delta", "united"))), null)));
+        assertTrue(ids(eq("airline", "alaska")).isEmpty());
+    }
+
+    @Test
+    void testCompile_ScansKeysThatAreNotIndexed() {
+        // Numbers compare by value whatever their boxed type
+        assertEquals(Set.of(1, 3), ids(eq("chunk", 1L)));
+        assertEquals(Set.of(1, 3), ids(new Filter.Expression(ExpressionType.GTE, key("chunk"), value(0.5))));
+        assertEquals(Set.of(0, 2), ids(new Filter.Expression(ExpressionType.LT, key("chunk"), value(1))));
+        // String ranges on an indexed key
+        assertEquals(Set.of(2, 3), ids(new Filter.Expression(ExpressionType.GT, key("airline"), value("delta"))));
+        assertThrows(IllegalArgumentException.class, () -> compiler.compile(
+            new Filter.Expression(ExpressionType.EQ, value("delta"), key("airline"))));
+    }
+
+    @Test
+    void testCompile_MatchesChunksStandingForSeveralSources() {
+        List<AirlineDocument> documents = List.of(
+            new AirlineDocument("terms", Map.of("source", "delta-skymiles.md", "airline", "delta",
+                "sources", "delta-skymiles.md,united-mileageplus.md", "airlines", "delta,united")),
+            new AirlineDocument("status", Map.of("source", "united-mileageplus.md", "airline", "united")));
+        MetadataIndex index = new MetadataIndex(List.of("airline"));
+        for (int id = 0; id < documents.size(); id++) {
+            index.add(id, documents.get(id).getMetadata());
+        }
+        FilterCompiler shared = new FilterCompiler(index.freeze(), documents);
+
+        // Indexed and scanned keys both see every member
+        assertEquals(Set.of(0, 1), Set.copyOf(shared.compile(eq("airline", "united")).stream().boxed().toList()));
+        assertEquals(Set.of(0, 1), Set.copyOf(shared.compile(eq("source", "united-mileageplus.md")).stream().boxed().toList()));
+        assertEquals(Set.of(0), Set.copyOf(shared.compile(eq("source", "delta-skymiles.md")).stream().boxed().toList()));
+    }
+
+    private Set<Integer> ids(Filter.Expression expression) {
+        BitSet ids = compiler.compile(expression);
+        return Set.copyOf(ids.stream().boxed().toList());
+    }
+
+    private static MetadataIndex index() {
+        MetadataIndex index = new MetadataIndex(List.of("airline", "type"));
+        for (int id = 0; id < DOCUMENTS.size(); id++) {
+            index.add(id, DOCUMENTS.get(id).getMetadata());
+        }
+        return index.freeze();
+    }
+
+    private static Filter.Expression eq(String key, Object value) {
+        return new Filter.Expression(ExpressionType.EQ, key(key), value(value));
+    }
+
+    private static Filter.Expression and(Filter.Expression left, Filter.Expression right) {
+        return new Filter.Expression(ExpressionType.AND, left, right);
+    }
+
+    private static Filter.Key key(String key) {
+        return new Filter.Key(key);
+    }
+
+    private static Filter.Value value(Object value) {
+        return new Filter.Value(value);
+    }
+}
@@ -0,0 +1,88 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int VECTOR_COUNT = 3000;
+
+    @Test
+    void testSearch_HighRecallAgainstExactScan() {
+        DenseVectors vectors = clusteredVectors(new Random(7));
+        HnswIndex index = new HnswIndex(vectors, 16, 200, 64);
+        for (int id = 0; id < vectors.size(); id++) {
+            index.insert(id);
+        }
+
+        assertEquals(VECTOR_COUNT, index.size());
+        assertTrue(recall(vectors, index, new Random(11)) >= 0.9);
+    }
+
+    @Test
+    void testInsert_ConcurrentInsertsBuildAUsableGraph() {
+        DenseVectors vectors = clusteredVectors(new Random(7));
+        HnswIndex index = new HnswIndex(vectors, 16, 200, 64);
+
+        IntStream.range(0, vectors.size()).parallel().forEach(index::insert);
+
+        assertEquals(VECTOR_COUNT, index.size());
+        assertTrue(recall(vectors, index, new Random(11)) >= 0.9);
+    }
+
+    @Test
+    void testSearch_EmptyGraphReturnsNothing() {
+        HnswIndex index = new HnswIndex(new DenseVectors(DIMENSIONS), 16, 200, 64);
+
+        assertTrue(index.search(new float[DIMENSIONS], 5).isEmpty());
+    }
+
+    private static DenseVectors clusteredVectors(Random random) {
+        float[][] centroids = new float[20][DIMENSIONS];
+        for (float[] centroid : centroids) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                centroid[d] = (float) random.nextGaussian();
+            }
+        }
+        DenseVectors vectors = new DenseVectors(DIMENSIONS);
+        for (int i = 0; i < VECTOR_COUNT; i++) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            float[] vector = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = centroid[d] + 0.5f * (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    private static double recall(DenseVectors vectors, HnswIndex index, Random random) {
+        int k = 10;
+        int found = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            float[] query = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                query[d] = (float) random.nextGaussian();
+            }
+            query = DenseVectors.normalizedCopy(query);
+            Set<Integer> exact = new HashSet<>();
+            vectors.search(query, k).forEach(hit -> exact.add(hit.documentId()));
+            List<SearchHit> approximate = index.search(query, k);
+            for (SearchHit hit : approximate) {
+                if (exact.contains(hit.documentId())) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (queries * k);
+    }
+}
@@ -0,0 +1,120 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeBaseIndexFileTest {
+
+    private static final String FINGERPRINT = "sources-v1";
+    private static final String MODEL_ID = "hashing-64";
+    private static final String[] WORDS = {
+        "delta", "united", "skymiles", "mileageplus", "medallion", "premier", "upgrade", "lounge",
+        "miles", "expire", "status", "silver", "gold", "platinum", "partner", "award", "seat", "café"
+    };
+
+    @TempDir
+    Path tempDir;
+
+    private HashingEmbeddingModel embeddingModel;
+    private SimpleVectorStore liveStore;
+    private Path indexFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        embeddingModel = new HashingEmbeddingModel(64);
+        Random random = new Random(11);
+        List<AirlineDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 5 + random.nextInt(30); w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("source", i % 2 == 0 ? "delta-skymiles.md" : "united-mileageplus.md");
+            metadata.put("chunk", i);
+            documents.add(new AirlineDocument(text.toString().trim(), metadata));
+        }
+        liveStore = new SimpleVectorStore();
+        liveStore.addDocuments(documents, embeddingModel.embed(documents.stream().map(AirlineDocument::getContent).toList()));
+        indexFile = tempDir.resolve("knowledge-base.idx");
+        liveStore.writeIndex(indexFile, FINGERPRINT, MODEL_ID);
+    }
+
+    @Test
+    void testLoadIndex_SearchesLikeTheLiveStore() {
+        SimpleVectorStore mappedStore = new SimpleVectorStore();
+
+        assertTrue(mappedStore.loadIndex(indexFile, FINGERPRINT, MODEL_ID));
+        assertEquals(liveStore.size(), mappedStore.size());
+        for (String query : List.of("premier gold status", "delta lounge café", "miles expire", "unknown words")) {
+            assertEquals(contents(liveStore.similaritySearch(query, 5)), contents(mappedStore.similaritySearch(query, 5)));
+            float[] embedding = embeddingModel.embed(query);
+            assertEquals(contents(liveStore.similaritySearch(embedding, 5)), contents(mappedStore.similaritySearch(embedding, 5)));
+        }
+    }
+
+    @Test
+    void testLoadIndex_DecodesMetadata() {
+        SimpleVectorStore mappedStore = new SimpleVectorStore();
+        mappedStore.loadIndex(indexFile, FINGERPRINT, null);
+
+        AirlineDocument document = mappedStore.getAllDocuments().get(7);
+
+        assertEquals(liveStore.getAllDocuments().get(7).getContent(), document.getContent());
+        assertEquals("united-mileageplus.md", document.getMetadataValue("source"));
+        assertEquals(7, document.getMetadataValue("chunk"));
+
+        // Single values are looked up without decoding the rest, and back the metadata filters
+        ChunkList chunks = ChunkList.of(mappedStore.getAllDocuments());
+        assertEquals("united-mileageplus.md", chunks.metadataValue(7, "source"));
+        assertEquals(7, chunks.metadataValue(7, "chunk"));
+        assertNull(chunks.metadataValue(7, "airline"));
+        Filter.Expression delta = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("source"), new Filter.Value("delta-skymiles.md"));
+        List<AirlineDocument> found = mappedStore.search("miles", 20, delta).documents();
+        assertFalse(found.isEmpty());
+        assertTrue(found.stream().allMatch(chunk -> "delta-skymiles.md".equals(chunk.getMetadataValue("source"))));
+    }
+
+    @Test
+    void testLoadIndex_RejectsStaleMissingOrForeignFiles() throws IOException {
+        SimpleVectorStore mappedStore = new SimpleVectorStore();
+        Path garbage = Files.writeString(tempDir.resolve("garbage.idx"), "not an index");
+
+        assertFalse(mappedStore.loadIndex(indexFile, "sources-v2", MODEL_ID));
+        assertFalse(mappedStore.loadIndex(indexFile, FINGERPRINT, "hashing-512"));
+        assertFalse(mappedStore.loadIndex(tempDir.resolve("missing.idx"), FINGERPRINT, MODEL_ID));
+        assertFalse(mappedStore.loadIndex(garbage, FINGERPRINT, MODEL_ID));
+        assertEquals(0, mappedStore.size());
+    }
+
+    @Test
+    void testLoadIndex_ModificationsCopyTheIndexOntoTheHeap() {
+        SimpleVectorStore mappedStore = new SimpleVectorStore();
+        mappedStore.loadIndex(indexFile, FINGERPRINT, MODEL_ID);
+
+        mappedStore.removeDocuments("delta-skymiles.md");
+        mappedStore.addDocuments(List.of(new AirlineDocument("new chunk about lounge access")), List.of(embeddingModel.embed("new chunk")));
+
+        assertEquals(251, mappedStore.size());
+        assertEquals("new chunk about lounge access", mappedStore.similaritySearch("new chunk", 1).get(0).getContent());
+        assertEquals(0L, (long) mappedStore.vectorMemoryUsage().get("vectorsOffHeap"));
+    }
+
+    private static List<String> contents(List<AirlineDocument> documents) {
+        return documents.stream().map(AirlineDocument::getContent).toList();
+    }
+}
@@ -0,0 +1,161 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarkdownChunkerTest {
+
+    @Test
+    void testChunk_TracksHeadingPath() {
+        String markdown = """
+                # MileagePlus
+                Earn miles on United flights.
+
+                ## Premier status
+                Qualify with PQP and PQF.
+
+                ### Premier 1K
+                The top tier.
+
+                ## Award travel
+                Redeem miles for flights.
+                """;
+
+        List<MarkdownChunker.Chunk> chunks = new MarkdownChunker(50, 10).chunk(markdown);
+
+        // Every heading starts a new chunk, and sibling sections do not inherit each other's headings
+        assertEquals(4, chunks.size());
+        assertEquals(List.of("MileagePlus"), chunks.get(0).headingPath());
+        assertEquals(List.of("MileagePlus", "Premier status"), chunks.get(1).headingPath());
+        assertEquals(List.of("MileagePlus", "Premier status", "Premier 1K"), chunks.get(2).headingPath());
+        assertEquals(List.of("MileagePlus", "Award travel"), chunks.get(3).headingPath());
+        assertTrue(chunks.get(2).text().startsWith("### Premier 1K"));
+        assertTrue(chunks.get(3).text().contains("Redeem miles"));
+    }
+
+    @Test
+    void testChunk_SplitTablesRepeatTheirHeader() {
+        StringBuilder markdown = new StringBuilder("Qualification thresholds:\n\n");
+        markdown.append("Premier status\tPQP and PQF\tPQP only\n");
+        for (int i = 1; i <= 12; i++) {
+            markdown.append("Tier ").append(i).append('\t').append(i * 1000).append(" PQP + ")
+                    .append(i * 5).append(" PQF\t").append(i * 1200).append(" PQP\n");
+        }
+
+        List<MarkdownChunker.Chunk> chunks = new MarkdownChunker(30, 0).chunk(markdown.toString());
+
+        assertTrue(chunks.size() > 2);
+        int rows = 0;
+        for (MarkdownChunker.Chunk chunk : chunks) {
+            assertTrue(MarkdownChunker.countTokens(chunk.text()) <= 30);
+            for (String line : chunk.text().split("\n")) {
+                // Rows are never cut in half
+                if (line.startsWith("Tier ")) {
+                    assertEquals(3, line.split("\t").length);
+                    rows++;
+                }
+            }
+            if (chunk.text().contains("Tier ")) {
+                assertTrue(chunk.text().contains("Premier status\tPQP and PQF\tPQP only"));
+            }
+        }
+        assertEquals(12, rows);
+    }
+
+    @Test
+    void testChunk_TabsInProseDoNotMakeTableRows() {
+        String markdown = """
+                Miles expire after 24 months.\tAny activity resets the clock.
+                Purchases with partners count as activity.
+                - Lounge access\tincluded with Premier status
+                - Free checked bag
+                """;
+
+        List<MarkdownChunker.Chunk> chunks = new MarkdownChunker(100, 0).chunk(markdown);
+
+        // A lone line with a tab stays part of its paragraph or list item
+        assertEquals(1, chunks.size());
+        assertEquals(markdown.strip(), chunks.get(0).text());
+    }
+
+    @Test
+    void testChunk_KeepsListItemsWholeAndBoundsTokens() {
+        StringBuilder markdown = new StringBuilder("## Benefits\n");
+        for (int i = 1; i <= 40; i++) {
+            markdown.append(i).append(". Benefit number ").append(i).append(" includes priority boarding\n")
+                    .append("   and a free checked bag\n");
+        }
+        // A single paragraph longer than a chunk is split at sentence boundaries
+        markdown.append('\n');
+        for (int i = 0; i < 30; i++) {
+            markdown.append("Miles never expire while the account is open. ");
+        }
+
+        List<MarkdownChunker.Chunk> chunks = new MarkdownChunker(40, 8).chunk(markdown.toString());
+
+        for (MarkdownChunker.Chunk chunk : chunks) {
+            assertTrue(MarkdownChunker.countTokens(chunk.text()) <= 40);
+            assertEquals(List.of("Benefits"), chunk.headingPath());
+            for (String line : chunk.text().split("\n")) {
+                if (line.matches("\\d+\\. .*")) {
+                    // Continuation lines stay with their item
+                    assertTrue(chunk.text().contains(line + "\n   and a free checked bag"));
+                }
+            }
+        }
+        String all = String.join("\n", chunks.stream().map(MarkdownChunker.Chunk::text).toList());
+        assertTrue(all.contains("40. Benefit number 40"));
+        assertTrue(chunks.get(chunks.size() - 1).text().endsWith("while the account is open."));
+    }
+
+    @Test
+    void testChunk_StreamsLargeDocumentsWithoutTruncation() throws IOException {
+        // Roughly 12 MB of paragraphs generated on the fly, far more than the old 100-chunk limit covered
+        int paragraphs = 200_000;
+        Reader reader = new Reader() {
+            private int paragraph;
+            private String current = "";
+            private int position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (position == current.length()) {
+                    if (paragraph == paragraphs) {
+                        return -1;
+                    }
+                    current = "Paragraph " + paragraph++ + " describes how members earn and redeem their miles.\n\n";
+                    position = 0;
+                }
+                int count = Math.min(length, current.length() - position);
+                current.getChars(position, position + count, buffer, offset);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        AtomicInteger chunks = new AtomicInteger();
+        AtomicLong longest = new AtomicLong();
+        String[] last = new String[1];
+        new MarkdownChunker(200, 0).chunk(reader, chunk -> {
+            chunks.incrementAndGet();
+            longest.accumulateAndGet(MarkdownChunker.countTokens(chunk.text()), Math::max);
+            last[0] = chunk.text();
+        });
+
+        // Ten tokens per paragraph, twenty paragraphs per chunk
+        assertEquals(paragraphs / 20, chunks.get());
+        assertTrue(longest.get() <= 200);
+        assertTrue(last[0].endsWith("Paragraph " + (paragraphs - 1) + " describes how members earn and redeem their miles."));
+    }
+}
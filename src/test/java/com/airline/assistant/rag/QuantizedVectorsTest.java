@@ -0,0 +1,92 @@
+package com.airline.assistant.rag;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantizedVectorsTest {
+
+    private static final int DIMENSIONS = 128;
+    private static final int VECTOR_COUNT = 2000;
+
+    @Test
+    void testInt8_QuarterMemoryWithHighRecall() {
+        SimpleVectorStore vectorStore = storeWith(KnowledgeBaseConfig.QuantizationMode.INT8);
+
+        Map<String, Long> memory = vectorStore.vectorMemoryUsage();
+        // Full-precision vectors are kept off the heap for re-ranking only
+        assertEquals(0L, (long) memory.get("vectors"));
+        assertEquals((long) VECTOR_COUNT * DIMENSIONS * Float.BYTES, (long) memory.get("vectorsOffHeap"));
+        assertTrue(memory.get("vectorsOffHeap") / memory.get("quantizedCodes") >= 3);
+        assertTrue(vectorStore.measureVectorRecall(100, 10) >= 0.98);
+    }
+
+    @Test
+    void testProductQuantization_SixteenfoldSmallerWithBoundedRecallLoss() {
+        SimpleVectorStore vectorStore = storeWith(KnowledgeBaseConfig.QuantizationMode.PQ);
+
+        Map<String, Long> memory = vectorStore.vectorMemoryUsage();
+        long codesWithoutCodebooks = (long) VECTOR_COUNT * 32;
+        assertTrue(memory.get("quantizedCodes") >= codesWithoutCodebooks);
+        assertEquals(16, (long) VECTOR_COUNT * DIMENSIONS * Float.BYTES / codesWithoutCodebooks);
+        // Re-ranking the candidate pool with exact scores keeps the recall loss small
+        assertTrue(vectorStore.measureVectorRecall(100, 10) >= 0.9);
+    }
+
+    @Test
+    void testScalarQuantizer_ApproximatesDotProduct() {
+        Random random = new Random(3);
+        ScalarQuantizedVectors quantized = new ScalarQuantizedVectors(DIMENSIONS);
+        float[] vector = DenseVectors.normalizedCopy(randomVector(random));
+        float[] query = DenseVectors.normalizedCopy(randomVector(random));
+        quantized.add(vector);
+
+        float exact = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            exact += vector[i] * query[i];
+        }
+
+        assertEquals(exact, quantized.scorer(query).score(0), 0.01);
+    }
+
+    private static SimpleVectorStore storeWith(KnowledgeBaseConfig.QuantizationMode mode) {
+        KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+        config.getQuantization().setMode(mode);
+        config.getQuantization().setPqSubspaces(32);
+        config.getQuantization().setPqMinTrainingVectors(1000);
+        SimpleVectorStore vectorStore = new SimpleVectorStore(config);
+
+        Random random = new Random(5);
+        float[][] centroids = new float[30][];
+        for (int c = 0; c < centroids.length; c++) {
+            centroids[c] = randomVector(random);
+        }
+        List<AirlineDocument> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < VECTOR_COUNT; i++) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            float[] vector = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = centroid[d] + 0.6f * (float) random.nextGaussian();
+            }
+            documents.add(new AirlineDocument("chunk " + i));
+            embeddings.add(vector);
+        }
+        vectorStore.addDocuments(documents, embeddings);
+        return vectorStore;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,62 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedSearchTest {
+
+    @Test
+    void testSearch_SmallScansStayOnTheCallingThread() {
+        ShardedSearch search = new ShardedSearch(8, 100);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<SearchHit> hits = search.search(150, 3, (from, to, k) -> {
+            threads.add(Thread.currentThread().getName());
+            return scan(from, to, k);
+        });
+
+        assertEquals(1, search.shardCount(150));
+        assertEquals(Set.of(Thread.currentThread().getName()), threads);
+        assertEquals(scan(0, 150, 3), hits);
+    }
+
+    @Test
+    void testSearch_MergesTheTopKOfEveryShard() {
+        ShardedSearch search = new ShardedSearch(4, 100);
+        Set<String> ranges = ConcurrentHashMap.newKeySet();
+
+        List<SearchHit> hits = search.search(1000, 5, (from, to, k) -> {
+            ranges.add(from + "-" + to);
+            return scan(from, to, k);
+        });
+
+        assertEquals(Set.of("0-250", "250-500", "500-750", "750-1000"), ranges);
+        assertEquals(scan(0, 1000, 5), hits);
+    }
+
+    @Test
+    void testMerge_BreaksTiesTowardsTheLowerId() {
+        List<SearchHit> merged = ShardedSearch.merge(List.of(
+            List.of(new SearchHit(7, 2.0), new SearchHit(8, 1.0)),
+            List.of(),
+            List.of(new SearchHit(3, 2.0), new SearchHit(4, 0.5))), 3);
+
+        assertEquals(List.of(new SearchHit(3, 2.0), new SearchHit(7, 2.0), new SearchHit(8, 1.0)), merged);
+    }
+
+    /**
+     * Scores ids by a hash so that the best hits are spread over the range.
+     */
+    private static List<SearchHit> scan(int from, int to, int k) {
+        TopK topK = new TopK(k);
+        for (int id = from; id < to; id++) {
+            topK.offer(id, (id * 2654435761L) % 1000 + id / 1000.0);
+        }
+        return topK.toList();
+    }
+}
@@ -0,0 +1,313 @@
+package com.airline.assistant.rag;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimpleVectorStoreTest {
+
+    private static final List<AirlineDocument> DOCUMENTS = List.of(
+        new AirlineDocument("Delta SkyMiles miles never expire, so your balance stays in your account.",
+            Map.of("source", "delta-skymiles.md")),
+        new AirlineDocument("Premier Gold requires 10,000 PQP and 30 PQF in a calendar year.",
+            Map.of("source", "united-mileageplus.md")),
+        new AirlineDocument("Medallion members enjoy complimentary upgrades to Delta First.",
+            Map.of("source", "delta-skymiles.md"))
+    );
+
+    private HashingEmbeddingModel embeddingModel;
+    private SimpleVectorStore vectorStore;
+
+    @BeforeEach
+    void setUp() {
+        embeddingModel = new HashingEmbeddingModel(256);
+        vectorStore = new SimpleVectorStore();
+        vectorStore.addDocuments(DOCUMENTS, embeddingModel.embed(DOCUMENTS.stream().map(AirlineDocument::getContent).toList()));
+    }
+
+    @Test
+    void testSimilaritySearch_Bm25() {
+        List<AirlineDocument> results = vectorStore.similaritySearch("How much PQP for Premier Gold?", 2);
+
+        assertEquals(1, results.size());
+        assertSameChunk(DOCUMENTS.get(1), results.get(0));
+    }
+
+    @Test
+    void testSearch_KeepsScoresAndStageTimings() {
+        RetrievalResult lexical = vectorStore.search("Delta miles", 3);
+
+        assertEquals(2, lexical.hits().size());
+        assertSameChunk(DOCUMENTS.get(0), lexical.hits().get(0).document());
+        assertTrue(lexical.hits().get(0).score() > lexical.hits().get(1).score());
+        assertTrue(lexical.hits().get(1).score() > 0);
+        assertEquals(List.of("search", "materialize"), List.copyOf(lexical.stageNanos().keySet()));
+
+        RetrievalResult dense = vectorStore.search(embeddingModel.embed(DOCUMENTS.get(1).getContent()), 1);
+
+        // Vectors are normalized, so a document scores a cosine similarity of one against itself
+        assertSameChunk(DOCUMENTS.get(1), dense.hits().get(0).document());
+        assertEquals(1.0, dense.hits().get(0).score(), 1e-5);
+    }
+
+    @Test
+    void testSimilaritySearch_KeywordModeStillAvailable() {
+        KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+        config.setRetrievalMode(KnowledgeBaseConfig.RetrievalMode.KEYWORD);
+        SimpleVectorStore keywordStore = new SimpleVectorStore(config);
+        keywordStore.addDocuments(DOCUMENTS);
+
+        List<AirlineDocument> results = keywordStore.similaritySearch("complimentary upgrades", 1);
+
+        assertSameChunk(DOCUMENTS.get(2), results.get(0));
+    }
+
+    @Test
+    void testSimilaritySearch_Dense() {
+        // Morphological variants share character trigrams, so "upgrade" still finds "upgrades"
+        List<AirlineDocument> results = vectorStore.similaritySearch(embeddingModel.embed("Delta upgrade for Medallion"), 1);
+
+        assertSameChunk(DOCUMENTS.get(2), results.get(0));
+    }
+
+    @Test
+    void testSimilaritySearch_DenseWithoutEmbeddingsReturnsNothing() {
+        SimpleVectorStore lexicalOnly = new SimpleVectorStore();
+        lexicalOnly.addDocuments(DOCUMENTS);
+
+        assertTrue(lexicalOnly.similaritySearch(embeddingModel.embed("upgrades"), 3).isEmpty());
+    }
+
+    @Test
+    void testReplaceDocuments_OnlyReplacesChunksOfThatSource() {
+        AirlineDocument updated = new AirlineDocument("Delta SkyMiles now expire after 24 months without activity.",
+            Map.of("source", "delta-skymiles.md"));
+
+        int replaced = vectorStore.replaceDocuments("delta-skymiles.md", List.of(updated), List.of(embeddingModel.embed(updated.getContent())));
+
+        assertEquals(2, replaced);
+        assertEquals(2, vectorStore.size());
+        assertTrue(vectorStore.similaritySearch("complimentary upgrades Medallion", 3).isEmpty());
+        assertSameChunk(updated, vectorStore.similaritySearch("SkyMiles expire", 3).get(0));
+        assertSameChunk(updated, vectorStore.similaritySearch(embeddingModel.embed("SkyMiles expire"), 1).get(0));
+        assertSameChunk(DOCUMENTS.get(1), vectorStore.similaritySearch("Premier Gold PQP", 3).get(0));
+    }
+
+    @Test
+    void testSearch_ClampsHugeLimitsToTheStoredChunks() {
+        vectorStore.removeDocuments("united-mileageplus.md");
+
+        // Neither the heap of a huge limit nor its over-fetch by the removed chunks is allocated
+        assertEquals(2, vectorStore.search("Delta miles Medallion", Integer.MAX_VALUE).hits().size());
+        assertEquals(2, vectorStore.search(embeddingModel.embed("Delta miles"), Integer.MAX_VALUE).hits().size());
+        assertTrue(vectorStore.search("Delta miles", -1).hits().isEmpty());
+    }
+
+    @Test
+    void testRemoveDocuments_FiltersAndEventuallyCompacts() {
+        KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+        config.setVectorIndex(KnowledgeBaseConfig.VectorIndex.HNSW);
+        SimpleVectorStore store = new SimpleVectorStore(config);
+        for (int i = 0; i < 40; i++) {
+            String text = "Fare rule " + i + " for lounge access and seat upgrades";
+            store.addDocuments(List.of(new AirlineDocument(text, Map.of("source", "rules-" + i + ".md"))),
+                List.of(embeddingModel.embed(text)));
+        }
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals(1, store.removeDocuments("rules-" + i + ".md"));
+        }
+
+        assertEquals(0, store.removeDocuments("rules-0.md"));
+        assertEquals(10, store.size());
+        assertEquals(10, store.similaritySearch("lounge access", 20).size());
+        assertEquals(10, store.similaritySearch(embeddingModel.embed("lounge access"), 20).size());
+        assertTrue(store.getAllDocuments().stream().allMatch(document ->
+            Integer.parseInt(document.getContent().split(" ")[2]) >= 30));
+    }
+
+    @Test
+    void testSearch_FilterIsAppliedBeforeScoring() {
+        KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+        config.setVectorIndex(KnowledgeBaseConfig.VectorIndex.HNSW);
+        SimpleVectorStore store = new SimpleVectorStore(config);
+        List<AirlineDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String airline = i % 20 == 0 ? "united" : "delta";
+            documents.add(new AirlineDocument("Lounge access rule " + i + " for " + airline + " elite members",
+                Map.of("source", airline + ".md", "airline", airline)));
+        }
+        store.addDocuments(documents, embed(documents));
+        Filter.Expression united = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("airline"), new Filter.Value("united"));
+
+        // Only three chunks are united, fewer than the ten requested, and the best ones overall are all delta
+        assertEquals(3, store.search("lounge access delta elite", 10, united).hits().size());
+        assertEquals(3, store.search(embeddingModel.embed("Lounge access rule 1 for delta elite members"), 10, united).hits().size());
+        assertTrue(store.search("lounge", 10, united).documents().stream()
+            .allMatch(document -> "united".equals(document.getMetadataValue("airline"))));
+
+        assertEquals(3, store.removeDocuments(united));
+        assertTrue(store.search("lounge", 10, united).hits().isEmpty());
+        assertEquals(57, store.size());
+    }
+
+    @Test
+    void testSearch_ShardedScansMatchTheSingleThreadedScan() {
+        KnowledgeBaseConfig sharded = new KnowledgeBaseConfig();
+        sharded.getSharding().setShards(4);
+        sharded.getSharding().setMinShardSize(50);
+        KnowledgeBaseConfig single = new KnowledgeBaseConfig();
+        single.getSharding().setShards(1);
+        List<AirlineDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String airline = i % 3 == 0 ? "united" : "delta";
+            documents.add(new AirlineDocument("Rule " + i + ": " + airline + " elite members earn " + (i % 17)
+                + " bonus miles on " + (i % 2 == 0 ? "lounge access" : "upgrades"), Map.of("source", "rules-" + (i % 10) + ".md", "airline", airline)));
+        }
+        SimpleVectorStore shardedStore = new SimpleVectorStore(sharded);
+        SimpleVectorStore singleStore = new SimpleVectorStore(single);
+        for (SimpleVectorStore store : List.of(shardedStore, singleStore)) {
+            store.addDocuments(documents, embed(documents));
+            store.removeDocuments("rules-3.md");
+        }
+        Filter.Expression united = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("airline"), new Filter.Value("united"));
+        float[] query = embeddingModel.embed("united elite bonus miles on upgrades");
+
+        assertEquals(ranking(singleStore.search("elite bonus upgrades", 20)), ranking(shardedStore.search("elite bonus upgrades", 20)));
+        assertEquals(ranking(singleStore.search("lounge access", 20, united)), ranking(shardedStore.search("lounge access", 20, united)));
+        assertEquals(ranking(singleStore.search(query, 20)), ranking(shardedStore.search(query, 20)));
+        assertEquals(ranking(singleStore.search(query, 20, united)), ranking(shardedStore.search(query, 20, united)));
+        assertEquals(20, shardedStore.search(query, 20).hits().size());
+
+        sharded.setRetrievalMode(KnowledgeBaseConfig.RetrievalMode.KEYWORD);
+        single.setRetrievalMode(KnowledgeBaseConfig.RetrievalMode.KEYWORD);
+        assertEquals(ranking(singleStore.search("elite bonus upgrades", 20)), ranking(shardedStore.search("elite bonus upgrades", 20)));
+    }
+
+    @Test
+    void testSearch_ConcurrentReadersNeverSeeAPartialReplacement() throws Exception {
+        SimpleVectorStore store = new SimpleVectorStore();
+        store.replaceDocuments("rules.md", version(0), embed(version(0)));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> searches = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            searches.add(readers.submit(() -> {
+                int checked = 0;
+                while (writing.get() || checked == 0) {
+                    assertSingleVersion(store.similaritySearch("lounge access", 10));
+                    assertSingleVersion(store.similaritySearch(embeddingModel.embed("lounge access"), 10));
+                    checked++;
+                }
+                return checked;
+            }));
+        }
+
+        for (int v = 1; v <= 200; v++) {
+            store.replaceDocuments("rules.md", version(v), embed(version(v)));
+        }
+        writing.set(false);
+        readers.shutdown();
+
+        for (Future<Integer> search : searches) {
+            assertTrue(search.get(30, TimeUnit.SECONDS) > 0);
+        }
+        assertTrue(readers.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(4, store.size());
+        assertSingleVersion(store.getAllDocuments());
+    }
+
+    @Test
+    void testMemoryUsage_ReportsTheFootprintAndShapeOfTheIndex() {
+        SimpleVectorStore.MemoryUsage memory = vectorStore.memoryUsage();
+
+        assertTrue(memory.heapBytes().get("text") > 0);
+        assertTrue(memory.heapBytes().get("metadata") > 0);
+        assertTrue(memory.heapBytes().get("postings") > 0);
+        assertEquals(3L * 256 * Float.BYTES, (long) memory.heapBytes().get("vectors"));
+        assertEquals(0L, memory.totalOffHeapBytes());
+        assertEquals(memory.heapBytes().values().stream().mapToLong(Long::longValue).sum(), memory.totalHeapBytes());
+        assertTrue(vectorStore.vocabularySize() > 10);
+
+        SimpleVectorStore.ChunkLengths lengths = vectorStore.chunkLengths();
+        assertEquals(3, lengths.count());
+        assertTrue(lengths.min() <= lengths.p50() && lengths.p50() <= lengths.p99() && lengths.p99() == lengths.max());
+        vectorStore.removeDocuments("delta-skymiles.md");
+        assertEquals(1, vectorStore.chunkLengths().count());
+        assertEquals(vectorStore.chunkLengths().min(), vectorStore.chunkLengths().max());
+    }
+
+    @Test
+    void testAddDocuments_RejectsMismatchedEmbeddingsWithoutIndexingAnything() {
+        List<AirlineDocument> rules = version(1);
+        List<float[]> embeddings = new ArrayList<>(embed(rules));
+        embeddings.set(3, new float[128]);
+
+        assertThrows(IllegalArgumentException.class, () -> vectorStore.addDocuments(rules, embeddings));
+        assertThrows(IllegalArgumentException.class, () -> vectorStore.replaceDocuments("delta-skymiles.md", rules, embeddings));
+
+        assertEquals(3, vectorStore.size());
+        assertTrue(vectorStore.search("lounge access", 3).hits().isEmpty());
+        assertEquals(2, vectorStore.search("Delta miles", 3).hits().size());
+        vectorStore.addDocuments(rules, embed(rules));
+        assertEquals(7, vectorStore.size());
+    }
+
+    private static List<AirlineDocument> version(int version) {
+        List<AirlineDocument> chunks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            chunks.add(new AirlineDocument("Version " + version + " rule " + i + " for lounge access",
+                Map.of("source", "rules.md")));
+        }
+        return chunks;
+    }
+
+    private List<float[]> embed(List<AirlineDocument> documents) {
+        return documents.stream().map(document -> embeddingModel.embed(document.getContent())).toList();
+    }
+
+    private static void assertSingleVersion(List<AirlineDocument> documents) {
+        assertEquals(4, documents.size());
+        assertEquals(1, documents.stream().map(document -> document.getContent().split(" ")[1]).distinct().count());
+    }
+
+    /**
+     * Chunks are stored compactly and materialized per search, so they compare by value.
+     */
+    private static void assertSameChunk(AirlineDocument expected, AirlineDocument actual) {
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getMetadata(), actual.getMetadata());
+    }
+
+    private static List<String> ranking(RetrievalResult result) {
+        return result.hits().stream().map(hit -> hit.document().getContent() + " " + hit.score()).toList();
+    }
+
+    @Test
+    void testHashingEmbeddings_AreDeterministicAndNormalized() {
+        float[] first = embeddingModel.embed("Do Delta miles expire?");
+        float[] second = new HashingEmbeddingModel(256).embed("Do Delta miles expire?");
+
+        assertEquals(256, first.length);
+        double norm = 0;
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i], 0.0);
+            norm += first[i] * first[i];
+        }
+        assertEquals(1.0, norm, 1e-5);
+    }
+}
@@ -0,0 +1,47 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKTest {
+
+    @Test
+    void testToList_MatchesFullSort() {
+        Random random = new Random(7);
+        for (int k : new int[] {1, 5, 64, 1000}) {
+            TopK topK = new TopK(k);
+            List<SearchHit> all = new ArrayList<>();
+            for (int id = 0; id < 500; id++) {
+                // Few distinct scores, so ties have to be broken by id the same way as the full sort
+                double score = random.nextInt(20);
+                all.add(new SearchHit(id, score));
+                topK.offer(id, score);
+            }
+            all.sort(SearchHit.BEST_FIRST);
+
+            assertEquals(all.subList(0, Math.min(k, all.size())), topK.toList());
+        }
+    }
+
+    @Test
+    void testThreshold_IsTheWorstKeptScoreOnceFull() {
+        TopK topK = new TopK(2);
+        assertEquals(Double.NEGATIVE_INFINITY, topK.threshold());
+
+        assertTrue(topK.offer(0, 1.0));
+        assertFalse(topK.isFull());
+        assertTrue(topK.offer(1, 3.0));
+        assertEquals(1.0, topK.threshold());
+        assertFalse(topK.offer(2, 0.5));
+        assertFalse(topK.offer(3, 1.0)); // Ties lose against lower ids
+        assertTrue(topK.offer(4, 2.0));
+        assertEquals(2.0, topK.threshold());
+
+        assertFalse(new TopK(0).offer(0, 1.0));
+    }
+}
@@ -0,0 +1,56 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    @Test
+    void testExpand_FindsTheMostSimilarTerms() {
+        TrigramIndex index = new TrigramIndex(4, 2, 0.4, 1000);
+        for (String term : List.of("mileageplus", "mileage", "skymiles", "miles", "premier", "status")) {
+            index.add(term);
+        }
+
+        List<TrigramIndex.Expansion> expansions = index.expand("milageplus");
+
+        assertEquals("mileageplus", expansions.get(0).term());
+        assertEquals(8.0 / 13, expansions.get(0).similarity(), 1e-9);
+        assertTrue(expansions.size() <= 2);
+        assertEquals(List.of(), index.expand("pqp"));
+        assertEquals(List.of(), index.expand("lounge"));
+    }
+
+    @Test
+    void testExpand_VerifiesAtMostTheCandidateLimit() {
+        TrigramIndex index = new TrigramIndex(4, 3, 0.4, 5);
+        for (int i = 0; i < 100; i++) {
+            index.add("status" + i);
+        }
+
+        // Every term shares trigrams with the query, but only five of them are compared
+        List<TrigramIndex.Expansion> expansions = index.expand("statuss");
+        assertTrue(expansions.size() <= 3);
+        assertEquals(100, index.size());
+    }
+
+    @Test
+    void testExpand_KeepsTheCandidatesSharingTheMostTrigramsWhenCapped() {
+        TrigramIndex index = new TrigramIndex(4, 1, 0.4, 3);
+        // Added first, these terms fill every trigram list of the query but share only one trigram with it
+        for (int i = 0; i < 5; i++) {
+            for (String distractor : List.of("abzz" + i, "zzabczz" + i, "zzbcdzz" + i, "zzcdezz" + i, "zzdefzz" + i, "zz" + i + "ef")) {
+                index.add(distractor);
+            }
+        }
+        index.add("abcdefx");
+
+        List<TrigramIndex.Expansion> expansions = index.expand("abcdef");
+
+        assertEquals(1, expansions.size());
+        assertEquals("abcdefx", expansions.get(0).term());
+    }
+}
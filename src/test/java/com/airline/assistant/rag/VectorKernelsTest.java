@@ -0,0 +1,50 @@
+package com.airline.assistant.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorKernelsTest {
+
+    private final VectorKernels scalar = new ScalarVectorKernels();
+
+    @Test
+    void testSimdKernels_MatchTheScalarKernelsAtEveryLengthAndOffset() {
+        VectorKernels simd = VectorKernels.simd();
+        assumeTrue(simd != null, "The Vector API module is missing or the CPU has no 256-bit vectors");
+        Random random = new Random(7);
+        float[] a = new float[200];
+        float[] b = new float[200];
+        byte[] codes = new byte[200];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = (float) random.nextGaussian();
+            codes[i] = (byte) (random.nextInt(255) - 127);
+        }
+
+        // Lengths below, at and between multiples of every vector width, to cover the remainder loops
+        for (int length = 0; length <= 130; length++) {
+            for (int offset : new int[] {0, 3, 64}) {
+                assertEquals(scalar.dot(a, offset, b, 1, length), simd.dot(a, offset, b, 1, length), 1e-3,
+                    "dot of length " + length);
+                assertEquals(scalar.dot(codes, offset, b, length), simd.dot(codes, offset, b, length), 1e-1,
+                    "int8 dot of length " + length);
+                assertEquals(scalar.squaredDistance(a, offset, b, 2, length), simd.squaredDistance(a, offset, b, 2, length),
+                    1e-3, "squared distance of length " + length);
+            }
+        }
+    }
+
+    @Test
+    void testScalarKernels_ComputeDotProductsAndDistances() {
+        float[] a = {1, 2, 3, 4};
+        float[] b = {0, 4, -1, 2, 0.5f};
+
+        assertEquals(10f, scalar.dot(a, 0, b, 1, 4));
+        assertEquals(9f, scalar.dot(new byte[] {9, 2, 3}, 1, new float[] {3, 1}, 2));
+        assertEquals(25f, scalar.squaredDistance(a, 0, b, 0, 4));
+    }
+}
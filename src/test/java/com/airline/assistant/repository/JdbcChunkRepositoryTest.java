@@ -0,0 +1,92 @@
+package com.airline.assistant.repository;
+
+import com.airline.assistant.rag.AirlineDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcChunkRepositoryTest {
+
+    private JdbcChunkRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        repository = new JdbcChunkRepository(new JdbcTemplate(dataSource));
+        repository.createSchema();
+    }
+
+    @Test
+    void testReplaceSource_StreamsChunksBackInBatches() {
+        List<AirlineDocument> delta = List.of(
+            chunk("Delta SkyMiles never expire.", "delta-skymiles.md", 0),
+            chunk("Diamond Medallion requires 28,000 MQD.", "delta-skymiles.md", 1),
+            chunk("Medallion members get complimentary upgrades.", "delta-skymiles.md", 2));
+        List<float[]> embeddings = List.of(new float[] {1, 0}, new float[] {0, 1}, new float[] {0.6f, 0.8f});
+        repository.replaceSource("delta-skymiles.md", "v1", delta, embeddings, 2);
+        repository.replaceSource("united-mileageplus.md", "v7", List.of(
+            chunk("Premier Gold requires 12,000 PQP.", "united-mileageplus.md", 0),
+            chunk("Premier Silver requires 6,000 PQP.", "united-mileageplus.md", 1)), null, 2);
+
+        List<List<AirlineDocument>> batches = new ArrayList<>();
+        List<List<float[]>> embeddingBatches = new ArrayList<>();
+        int read = repository.stream(1, 2, (chunks, vectors) -> {
+            batches.add(chunks);
+            embeddingBatches.add(vectors);
+        });
+
+        assertEquals(5, read);
+        assertEquals(List.of(2, 2, 1), batches.stream().map(List::size).toList());
+        assertEquals(delta.get(1).getContent(), batches.get(0).get(1).getContent());
+        assertEquals(delta.get(1).getMetadata(), batches.get(0).get(1).getMetadata());
+        assertArrayEquals(embeddings.get(2), embeddingBatches.get(1).get(0));
+        assertNull(embeddingBatches.get(1).get(1));
+        assertNull(embeddingBatches.get(2));
+        assertEquals(Map.of("delta-skymiles.md", "v1", "united-mileageplus.md", "v7"), repository.sourceVersions());
+
+        // Replacing a source drops its old chunks
+        repository.replaceSource("delta-skymiles.md", "v2", List.of(delta.get(0)), List.of(embeddings.get(0)), 2);
+        assertEquals(3, repository.stream(10, 10, (chunks, vectors) -> { }));
+        assertEquals("v2", repository.sourceVersions().get("delta-skymiles.md"));
+    }
+
+    @Test
+    void testSearch_IsOnlyOfferedWithAFullTextIndex() {
+        repository.replaceSource("united-mileageplus.md", "v1", List.of(
+            chunk("Premier Gold requires 12,000 PQP.", "united-mileageplus.md", 0)), null, 10);
+
+        // H2 has no indexed full-text search, so lexical queries stay with the in-memory index
+        assertFalse(repository.supportsSearch());
+        assertThrows(UnsupportedOperationException.class, () -> repository.search("Premier Gold", 3));
+    }
+
+    @Test
+    void testDeleteSource_RemovesItsChunksAndVersion() {
+        repository.replaceSource("united-mileageplus.md", "v1", List.of(
+            chunk("Premier Silver requires 6,000 PQP.", "united-mileageplus.md", 0),
+            chunk("Premier Gold requires 12,000 PQP.", "united-mileageplus.md", 1),
+            chunk("Lounge access is included with Premier status.", "united-mileageplus.md", 2)), null, 10);
+        repository.replaceSource("delta-skymiles.md", "v1", List.of(
+            chunk("Gold Medallion requires 8,000 MQD.", "delta-skymiles.md", 0)), null, 10);
+
+        assertEquals(3, repository.deleteSource("united-mileageplus.md"));
+        assertEquals(1, repository.stream(10, 10, (chunks, vectors) -> { }));
+        repository.retainSources(Set.of("united-mileageplus.md"));
+        assertEquals(0, repository.stream(10, 10, (chunks, vectors) -> { }));
+        assertTrue(repository.sourceVersions().isEmpty());
+    }
+
+    private static AirlineDocument chunk(String content, String source, int chunk) {
+        return new AirlineDocument(content, Map.of("source", source, "type", "markdown", "chunk", chunk));
+    }
+}
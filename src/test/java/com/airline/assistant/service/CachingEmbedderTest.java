@@ -0,0 +1,184 @@
+package com.airline.assistant.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingEmbedderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testEmbed_ReusesEmbeddingsAcrossRestarts() throws IOException {
+        Path file = directory.resolve("embeddings.bin");
+        CountingModel model = new CountingModel();
+
+        try (EmbeddingCache cache = EmbeddingCache.open(file)) {
+            CachingEmbedder embedder = new CachingEmbedder(model, "model", cache, 2, 1, 0);
+            List<float[]> embeddings = embedder.embed(List.of("PQP", "MQD", "PQP", "PQF"));
+            // Duplicates are embedded once, the rest in batches of two
+            assertEquals(List.of(List.of("PQP", "MQD"), List.of("PQF")), model.calls);
+            assertArrayEquals(model.embed("PQP"), embeddings.get(2));
+            assertEquals(3, cache.size());
+            // Hits and misses are both counted per text, repeats included
+            assertEquals(new CachingEmbedder.Stats(0, 4, 0, 0, 2), embedder.stats());
+        }
+
+        try (EmbeddingCache cache = EmbeddingCache.open(file)) {
+            CountingModel restarted = new CountingModel();
+            CachingEmbedder embedder = new CachingEmbedder(restarted, "model", cache, 2, 1, 0);
+            List<float[]> embeddings = embedder.embed(List.of("PQF", "MQD", "Miles"));
+            assertEquals(List.of(List.of("Miles")), restarted.calls);
+            assertArrayEquals(model.embed("PQF"), embeddings.get(0));
+            assertArrayEquals(model.embed("MQD"), embeddings.get(1));
+            assertEquals(new CachingEmbedder.Stats(2, 1, 0, 0, 1), embedder.stats());
+
+            // Another model never sees these embeddings
+            CachingEmbedder other = new CachingEmbedder(restarted, "other-model", cache, 2, 1, 0);
+            other.embed(List.of("PQF"));
+            assertEquals(List.of(List.of("Miles"), List.of("PQF")), restarted.calls);
+        }
+    }
+
+    @Test
+    void testOpen_TruncatesAnIncompleteRecord() throws IOException {
+        Path file = directory.resolve("embeddings.bin");
+        try (EmbeddingCache cache = EmbeddingCache.open(file)) {
+            new CachingEmbedder(new CountingModel(), "model", cache, 8, 1, 0).embed(List.of("PQP", "MQD"));
+        }
+        long complete = Files.size(file);
+        // A crash in the middle of a write leaves part of a record behind
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete - 3);
+        }
+
+        try (EmbeddingCache cache = EmbeddingCache.open(file)) {
+            assertEquals(1, cache.size());
+            CountingModel model = new CountingModel();
+            new CachingEmbedder(model, "model", cache, 8, 1, 0).embed(List.of("PQP", "MQD"));
+            assertEquals(1, model.calls.size());
+            assertEquals(1, model.calls.get(0).size());
+            assertEquals(2, cache.size());
+        }
+        assertEquals(complete, Files.size(file));
+
+        Files.writeString(file, "not an embedding cache");
+        try (EmbeddingCache cache = EmbeddingCache.open(file)) {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void testEmbed_BoundsConcurrentModelCalls() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch twoStarted = new CountDownLatch(2);
+        CountingModel model = new CountingModel() {
+            @Override
+            public List<float[]> embed(List<String> texts) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                twoStarted.countDown();
+                try {
+                    twoStarted.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return super.embed(texts);
+            }
+        };
+        CachingEmbedder embedder = new CachingEmbedder(model, "model", null, 1, 2, 0);
+
+        // Two ingestion threads share the bound
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            texts.add("chunk " + i);
+        }
+        Thread other = Thread.ofVirtual().start(() -> embedder.embed(texts.subList(5, 10)));
+        List<float[]> embeddings = embedder.embed(texts.subList(0, 5));
+        other.join();
+
+        assertEquals(2, maxInFlight.get());
+        assertEquals(10, model.calls.size());
+        assertArrayEquals(model.embed("chunk 3"), embeddings.get(3));
+    }
+
+    @Test
+    void testEmbedQuery_KeepsRecentQueries() {
+        CountingModel model = new CountingModel();
+        CachingEmbedder embedder = new CachingEmbedder(model, "model", null, 8, 1, 2);
+
+        embedder.embedQuery("status");
+        embedder.embedQuery("miles");
+        embedder.embedQuery("status");
+        embedder.embedQuery("upgrades");
+        // "miles" was the least recently used query when "upgrades" came in
+        embedder.embedQuery("miles");
+        embedder.embedQuery("upgrades");
+
+        assertEquals(List.of(List.of("status"), List.of("miles"), List.of("upgrades"), List.of("miles")), model.calls);
+        assertEquals(new CachingEmbedder.Stats(0, 0, 2, 4, 4), embedder.stats());
+    }
+
+    @Test
+    void testEmbedQueries_EmbedsTheMissingQueriesTogether() {
+        CountingModel model = new CountingModel();
+        CachingEmbedder embedder = new CachingEmbedder(model, "model", null, 8, 1, 4);
+        embedder.embedQuery("status");
+
+        List<float[]> embeddings = embedder.embedQueries(List.of("miles", "status", "upgrades", "miles"));
+
+        assertEquals(List.of(List.of("status"), List.of("miles", "upgrades")), model.calls);
+        assertArrayEquals(model.embed("status"), embeddings.get(1));
+        assertArrayEquals(model.embed("miles"), embeddings.get(3));
+        assertEquals(new CachingEmbedder.Stats(0, 0, 1, 3, 2), embedder.stats());
+    }
+
+    /**
+     * Embeds every text as its length and first and last characters, recording the calls it receives.
+     */
+    private static class CountingModel implements EmbeddingModel {
+
+        final List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<float[]> embed(List<String> texts) {
+            calls.add(List.copyOf(texts));
+            return texts.stream().map(this::embed).toList();
+        }
+
+        @Override
+        public float[] embed(String text) {
+            return new float[] {text.length(), text.charAt(0), text.charAt(text.length() - 1)};
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkDeduplicatorTest {
+
+    private static final String BOILERPLATE = "Award travel is subject to availability and to the fare rules in force "
+        + "at the time of booking. Taxes, carrier imposed surcharges and booking fees are collected when the award "
+        + "is issued and are not refundable once travel has begun. Miles cannot be transferred, sold or bartered, "
+        + "and accounts that violate these terms may be closed together with any balance of unused miles.";
+
+    @Test
+    void testAdmit_CollapsesNearDuplicatesAcrossSources() {
+        ChunkDeduplicator deduplicator = new ChunkDeduplicator(128, 32, 3, 0.8);
+
+        AirlineDocument delta = deduplicator.admit(chunk("delta-skymiles.md", 0, BOILERPLATE));
+        AirlineDocument distinct = deduplicator.admit(chunk("delta-skymiles.md", 1, "SkyMiles never expire."));
+        // The same passage with one word changed is a near-duplicate
+        AirlineDocument united = deduplicator.admit(chunk("united-mileageplus.md", 0,
+            BOILERPLATE.replace("closed", "suspended")));
+
+        assertNotNull(delta);
+        assertNotNull(distinct);
+        assertNull(united);
+        assertEquals(Set.of("delta-skymiles.md"), deduplicator.drainChangedSources());
+        assertEquals("delta-skymiles.md,united-mileageplus.md",
+            deduplicator.canonical(delta).getMetadataValue(ChunkDeduplicator.SOURCES));
+        assertEquals(new ChunkDeduplicator.Stats(3, 2), deduplicator.stats());
+        assertEquals(1.0 / 3, deduplicator.stats().dedupeRatio(), 1e-9);
+    }
+
+    @Test
+    void testRemoveSource_HandsTheCanonicalChunkToTheNextSource() {
+        ChunkDeduplicator deduplicator = new ChunkDeduplicator(128, 32, 3, 0.8);
+        deduplicator.admit(chunk("delta-skymiles.md", 0, BOILERPLATE));
+        deduplicator.admit(chunk("united-mileageplus.md", 0, "Premier status needs PQP."));
+        deduplicator.admit(chunk("united-mileageplus.md", 1, BOILERPLATE));
+        deduplicator.drainChangedSources();
+
+        deduplicator.removeSource("delta-skymiles.md");
+
+        assertEquals(Set.of("united-mileageplus.md"), deduplicator.heirs());
+        List<AirlineDocument> adopted = deduplicator.adopt("united-mileageplus.md", List.of(
+            chunk("united-mileageplus.md", 0, "Premier status needs PQP."),
+            chunk("united-mileageplus.md", 1, BOILERPLATE)));
+        assertEquals(1, adopted.size());
+        assertEquals(1, adopted.get(0).getMetadataValue("chunk"));
+        assertEquals("united-mileageplus.md", adopted.get(0).getMetadataValue(ChunkDeduplicator.SOURCES));
+        assertEquals(Set.of(), deduplicator.heirs());
+        assertEquals(Set.of("united-mileageplus.md"), deduplicator.drainChangedSources());
+        assertEquals(new ChunkDeduplicator.Stats(2, 2), deduplicator.stats());
+    }
+
+    private static AirlineDocument chunk(String source, int chunk, String content) {
+        return new AirlineDocument(content, Map.of("source", source, "chunk", chunk));
+    }
+}
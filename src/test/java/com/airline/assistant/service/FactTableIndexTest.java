@@ -0,0 +1,54 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.FactTableParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FactTableIndexTest {
+
+    private static final String THRESHOLDS = String.join("\n",
+        "Qualification thresholds: The amount of PQP and PQF needed is changing.",
+        "",
+        "Premier status\tPQP and PQF\tPQP only",
+        "Premier Silver\t5,000 PQP + 15 PQF\t6,000 PQP",
+        "Premier Gold\t10,000 PQP + 30 PQF\t12,000 PQP",
+        "",
+        "Starter PQP: Members receive a PQP deposit.",
+        "",
+        "Premier status\tStarter PQP deposit",
+        "Premier Silver\t300 PQP",
+        "Premier Gold\t600 PQP");
+
+    @Test
+    void testLookup_FindsTheRowsOfATierByProgramAlias() {
+        FactTableIndex index = new FactTableIndex();
+        index.replace("united-mileageplus.md", FactTableParser.parse("united-mileageplus.md", THRESHOLDS));
+
+        List<FactTableIndex.Fact> facts = index.lookup("United MileagePlus", "Premier Gold");
+
+        assertEquals(List.of("PQP and PQF", "PQP only", "Starter PQP deposit"),
+            facts.stream().map(FactTableIndex.Fact::column).toList());
+        assertEquals("Starter PQP", facts.get(2).table());
+        assertEquals(Map.of("PQP", 12_000L), facts.get(1).amounts());
+        assertEquals("united", facts.get(0).program());
+        // Without the word all tier names share, and by another word of the file name
+        assertEquals(facts, index.lookup("mileageplus", "gold"));
+        assertEquals(6, index.lookup("united", null).size());
+        assertEquals(List.of(), index.lookup("delta", "gold"));
+    }
+
+    @Test
+    void testRemove_DropsTheFactsOfTheDocument() {
+        FactTableIndex index = new FactTableIndex();
+        index.load(Map.of("united-mileageplus.md", FactTableParser.parse("united-mileageplus.md", THRESHOLDS)));
+
+        index.remove("united-mileageplus.md");
+
+        assertEquals(List.of(), index.lookup("united", "Premier Gold"));
+        assertEquals(Map.of(), index.tables());
+    }
+}
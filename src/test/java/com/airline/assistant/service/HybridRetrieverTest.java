@@ -0,0 +1,121 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.config.KnowledgeBaseConfig;
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridRetrieverTest {
+
+    private static final AirlineDocument MQD = document("Medallion Qualifying Dollars (MQD) count towards status.");
+    private static final AirlineDocument SPEND = document("Status depends on how much you spend with Delta.");
+    private static final AirlineDocument PQP = document("Premier Qualifying Points (PQP) are earned on United flights.");
+
+    @Test
+    void testRetrieve_FusesRanksOfBothBranches() {
+        HybridRetriever retriever = new HybridRetriever(new KnowledgeBaseConfig.Hybrid());
+
+        RetrievalResult result = retriever.retrieve(
+            candidates -> ranking(MQD, PQP),
+            // A copy of MQD, as decoded again by a memory-mapped store, still counts as the same chunk
+            candidates -> ranking(SPEND, document(MQD.getContent())),
+            3);
+
+        assertEquals(List.of(MQD, SPEND, PQP), result.documents());
+        assertEquals(1.0 / 61 + 1.0 / 62, result.hits().get(0).score(), 1e-12);
+        assertEquals(List.of("search", "fuse"), List.copyOf(result.stageNanos().keySet()));
+    }
+
+    @Test
+    void testRetrieve_RunsBranchesConcurrentlyWithTheirOwnCandidatePools() {
+        KnowledgeBaseConfig.Hybrid config = new KnowledgeBaseConfig.Hybrid();
+        config.setLexicalCandidates(7);
+        config.setDenseCandidates(11);
+        HybridRetriever retriever = new HybridRetriever(config);
+        // Each branch waits for the other one to start, which only succeeds if they run at the same time
+        CountDownLatch started = new CountDownLatch(2);
+
+        RetrievalResult result = retriever.retrieve(
+            candidates -> {
+                assertEquals(7, candidates);
+                return awaitOther(started, MQD);
+            },
+            candidates -> {
+                assertEquals(11, candidates);
+                return awaitOther(started, SPEND);
+            },
+            2);
+
+        assertEquals(List.of(MQD, SPEND), result.documents());
+    }
+
+    @Test
+    void testRetrieve_DropsBranchesThatFailOrMissTheirDeadline() {
+        KnowledgeBaseConfig.Hybrid config = new KnowledgeBaseConfig.Hybrid();
+        config.setDenseTimeoutMillis(50);
+        HybridRetriever retriever = new HybridRetriever(config);
+
+        long start = System.nanoTime();
+        RetrievalResult result = retriever.retrieve(
+            candidates -> ranking(MQD),
+            candidates -> {
+                sleep(5_000);
+                return ranking(SPEND);
+            },
+            3);
+
+        assertEquals(List.of(MQD), result.documents());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(List.of(PQP), retriever.retrieve(
+            candidates -> {
+                throw new IllegalStateException("Index unavailable");
+            },
+            candidates -> ranking(PQP), 3).documents());
+        assertThrows(IllegalStateException.class, () -> retriever.retrieve(
+            candidates -> {
+                throw new IllegalStateException("Index unavailable");
+            },
+            candidates -> {
+                throw new IllegalStateException("Embedding model unavailable");
+            }, 3));
+    }
+
+    private static RetrievalResult awaitOther(CountDownLatch started, AirlineDocument document) {
+        started.countDown();
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return ranking(document);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static RetrievalResult ranking(AirlineDocument... documents) {
+        List<RetrievalResult.ScoredDocument> hits = new ArrayList<>();
+        for (int i = 0; i < documents.length; i++) {
+            hits.add(new RetrievalResult.ScoredDocument(documents[i], documents.length - i));
+        }
+        return new RetrievalResult(hits, Map.of());
+    }
+
+    private static AirlineDocument document(String content) {
+        return new AirlineDocument(content, Map.of("source", "test.md"));
+    }
+}
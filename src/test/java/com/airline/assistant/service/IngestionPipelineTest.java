@@ -0,0 +1,113 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionPipelineTest {
+
+    private static final List<Path> FILES = IntStream.range(0, 200)
+        .mapToObj(i -> Paths.get("doc-" + i + ".md"))
+        .toList();
+
+    @Test
+    void testRun_InsertsChunksInFileOrderWithBoundedDocumentsInFlight() throws IOException {
+        int queueCapacity = 8;
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<String> inserted = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = new ArrayList<>();
+        IngestionPipeline pipeline = new IngestionPipeline(4, 4, queueCapacity, 25);
+
+        List<IngestionPipeline.StageReport> reports = pipeline.run(FILES,
+            file -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                sleepRandomly();
+                String name = file.getFileName().toString();
+                return new AirlineDocument(name + "#0 " + name + "#1 " + name + "#2", Map.of("source", name));
+            },
+            document -> {
+                sleepRandomly();
+                List<AirlineDocument> chunks = Arrays.stream(document.getContent().split(" "))
+                    .map(AirlineDocument::new)
+                    .toList();
+                return new IngestionPipeline.Chunks(chunks, null);
+            },
+            (chunks, embeddings) -> {
+                assertNull(embeddings);
+                batchSizes.add(chunks.size());
+                chunks.forEach(chunk -> inserted.add(chunk.getContent()));
+                inFlight.addAndGet(-(int) chunks.stream().filter(chunk -> chunk.getContent().endsWith("#2")).count());
+            });
+
+        List<String> expected = new ArrayList<>();
+        FILES.forEach(file -> IntStream.range(0, 3).forEach(i -> expected.add(file + "#" + i)));
+        assertEquals(expected, inserted);
+        // Documents leave the pipeline when they join a batch, and a batch of 25 chunks holds at most 9 documents
+        assertTrue(maxInFlight.get() <= queueCapacity + 9, "documents in flight: " + maxInFlight.get());
+        for (int i = 0; i < batchSizes.size() - 1; i++) {
+            assertTrue(batchSizes.get(i) >= 25);
+        }
+        assertEquals(List.of("read", "chunk", "insert"), reports.stream().map(IngestionPipeline.StageReport::name).toList());
+        assertEquals(200, reports.get(0).items());
+        assertEquals(600, reports.get(1).items());
+        assertEquals(600, reports.get(2).items());
+    }
+
+    @Test
+    void testRun_PassesEmbeddingsAlongWithTheirChunks() throws IOException {
+        List<float[]> inserted = new ArrayList<>();
+        IngestionPipeline pipeline = new IngestionPipeline(2, 2, 4, 10);
+
+        pipeline.run(FILES.subList(0, 30),
+            file -> new AirlineDocument(file.getFileName().toString()),
+            document -> new IngestionPipeline.Chunks(List.of(document),
+                List.<float[]>of(new float[] {Integer.parseInt(document.getContent().replaceAll("\\D", ""))})),
+            (chunks, embeddings) -> {
+                assertEquals(chunks.size(), embeddings.size());
+                inserted.addAll(embeddings);
+            });
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, inserted.get(i)[0], 0.0);
+        }
+    }
+
+    @Test
+    void testRun_ReadFailureAbortsIngestion() {
+        IngestionPipeline pipeline = new IngestionPipeline(4, 4, 4, 10);
+
+        IOException failure = assertThrows(IOException.class, () -> pipeline.run(FILES,
+            file -> {
+                if (file.toString().equals("doc-42.md")) {
+                    throw new IOException("unreadable");
+                }
+                return new AirlineDocument(file.toString());
+            },
+            document -> new IngestionPipeline.Chunks(List.of(document), null),
+            (chunks, embeddings) -> { }));
+
+        assertEquals("unreadable", failure.getMessage());
+    }
+
+    private static void sleepRandomly() {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
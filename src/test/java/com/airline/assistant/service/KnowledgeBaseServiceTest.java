@@ -1,17 +1,28 @@
 package com.airline.assistant.service;
 
+import com.airline.assistant.config.KnowledgeBaseConfig;
 import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
 import com.airline.assistant.rag.SimpleVectorStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.core.io.ResourceLoader;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -51,10 +62,11 @@ class KnowledgeBaseServiceTest {
         AirlineDocument doc1 = new AirlineDocument("Delta SkyMiles do not expire.", metadata1);
         AirlineDocument doc2 = new AirlineDocument("United MileagePlus miles expire after 18 months of inactivity.", metadata2);
         
-        List<AirlineDocument> mockResults = Arrays.asList(doc1, doc2);
+        List<RetrievalResult.ScoredDocument> mockResults = Arrays.asList(
+            new RetrievalResult.ScoredDocument(doc1, 2.0), new RetrievalResult.ScoredDocument(doc2, 1.0));
         
         // Configure mock behavior
-        when(mockVectorStore.similaritySearch(anyString(), anyInt())).thenReturn(mockResults);
+        when(mockVectorStore.search(anyString(), anyInt())).thenReturn(new RetrievalResult(mockResults, Map.of()));
         
         // Execute the method under test
         String result = knowledgeBaseService.getRelevantContext("Do Delta miles expire?");
@@ -69,7 +81,7 @@ class KnowledgeBaseServiceTest {
     @Test
     void testGetRelevantContext_WithNoMatchingDocuments() {
         // Configure mock behavior to return empty list
-        when(mockVectorStore.similaritySearch(anyString(), anyInt())).thenReturn(List.of());
+        when(mockVectorStore.search(anyString(), anyInt())).thenReturn(RetrievalResult.empty(Map.of()));
         
         // Execute the method under test
         String result = knowledgeBaseService.getRelevantContext("Some query with no matches");
@@ -77,4 +89,159 @@ class KnowledgeBaseServiceTest {
         // Verify the result is empty
         assertEquals("", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReindexDocument_ReplacesOnlyTheChangedDocument(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles never expire.");
+        Files.writeString(directory.resolve("united-mileageplus.md"), "# United\n\nPremier Gold requires 10,000 PQP.");
+        Files.writeString(directory.resolve("README.md"), "Not part of the knowledge base.");
+        KnowledgeBaseService service = service(directory);
+        SimpleVectorStore vectorStore = service.getVectorStore();
+        assertEquals(2, vectorStore.size());
+
+        // Unchanged content is detected by its hash and not re-indexed
+        assertFalse(service.reindexDocument(directory.resolve("united-mileageplus.md")));
+
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles now expire after 24 months.");
+        assertTrue(service.reindexDocument(directory.resolve("delta-skymiles.md")));
+        assertTrue(service.getRelevantContext("expire months").contains("24 months"));
+        assertFalse(service.getRelevantContext("never expire").contains("never expire"));
+
+        Files.writeString(directory.resolve("alaska-mileageplan.md"), "# Alaska\n\nMileage Plan partners include oneworld.");
+        Files.delete(directory.resolve("united-mileageplus.md"));
+        service.synchronizeDirectory();
+        assertEquals(2, vectorStore.size());
+        assertEquals("", service.getRelevantContext("Premier Gold PQP"));
+        assertTrue(service.getRelevantContext("oneworld partners").contains("From alaska-mileageplan.md"));
+    }
+
+    @Test
+    void testGetRelevantContext_CachesUntilTheCorpusChanges(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles never expire.");
+        KnowledgeBaseService service = service(directory);
+
+        String context = service.getRelevantContext("Do SkyMiles expire?");
+        // Queries with the same terms share an entry, and the cached result skips every search stage
+        assertSame(context, service.getRelevantContext("  do skymiles EXPIRE "));
+        int k = new KnowledgeBaseConfig().getContext().getCandidates();
+        assertEquals(Set.of("cache"), service.retrieve("skymiles expire", k).stageNanos().keySet());
+        assertEquals(2, service.retrievalCacheStats().hits());
+        assertEquals(1, service.retrievalCacheStats().misses());
+        // Cache hits count towards the latency distribution too
+        KnowledgeBaseService.LatencyStats latency = service.queryLatencyStats();
+        assertEquals(3, latency.count());
+        assertTrue(latency.p50Millis() <= latency.p99Millis() && latency.p99Millis() <= latency.maxMillis());
+        // The context packed on the first miss is kept with the entry and shared by every hit
+        KnowledgeBaseService.Retrieval retrieval = service.retrieveWithContext("skymiles expire", k);
+        assertEquals(Set.of("cache"), retrieval.result().stageNanos().keySet());
+        assertSame(context, retrieval.context());
+
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles expire after 24 months.");
+        service.reindexDocument(directory.resolve("delta-skymiles.md"));
+
+        assertTrue(service.getRelevantContext("Do SkyMiles expire?").contains("24 months"));
+        assertEquals(1, service.retrievalCacheStats().invalidations());
+    }
+
+    @Test
+    void testRetrieveBatch_RetrievesQueriesWithTheSameTermsOnce(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles never expire.");
+        Files.writeString(directory.resolve("united-mileageplus.md"), "# United\n\nPremier status needs PQP.");
+        KnowledgeBaseService service = service(directory, config -> config.getBatch().setParallelism(2));
+        Map<Integer, KnowledgeBaseService.BatchResult> results = new ConcurrentHashMap<>();
+
+        service.retrieveBatch(List.of(
+            new KnowledgeBaseService.BatchQuery("Do SkyMiles expire?", 3),
+            new KnowledgeBaseService.BatchQuery(" ", 3),
+            new KnowledgeBaseService.BatchQuery("premier status", 3),
+            new KnowledgeBaseService.BatchQuery("  do skymiles EXPIRE ", 3)), result -> results.put(result.index(), result));
+
+        assertEquals(Set.of(0, 1, 2, 3), results.keySet());
+        assertTrue(results.get(0).context().contains("never expire"));
+        assertSame(results.get(0).context(), results.get(3).context());
+        assertTrue(results.get(2).context().contains("PQP"));
+        assertInstanceOf(IllegalArgumentException.class, results.get(1).failure());
+        assertEquals(2, service.retrievalCacheStats().misses());
+
+        // A failing consumer stops the batch
+        IllegalStateException stop = new IllegalStateException("client went away");
+        assertSame(stop, assertThrows(IllegalStateException.class, () -> service.retrieveBatch(List.of(
+            new KnowledgeBaseService.BatchQuery("miles", 3)), result -> { throw stop; })));
+    }
+
+    @Test
+    void testRemoveDocument_KeepsPassagesSharedWithOtherSources(@TempDir Path directory) throws IOException {
+        String terms = "## Terms\n\nAward travel is subject to availability and to the fare rules in force at the time "
+            + "of booking. Taxes, carrier imposed surcharges and booking fees are collected when the award is issued "
+            + "and are not refundable once travel has begun. Miles cannot be transferred, sold or bartered.";
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\n" + terms + "\n\n## Expiry\n\nSkyMiles never expire.");
+        Files.writeString(directory.resolve("united-mileageplus.md"), "# United\n\n" + terms + "\n\n## Status\n\nPremier status needs PQP.");
+        KnowledgeBaseService service = service(directory);
+
+        // The terms are stored once, for both airlines
+        assertEquals(1, service.deduplicationStats().chunks() - service.deduplicationStats().canonical());
+        assertEquals(service.deduplicationStats().canonical(), service.getVectorStore().size());
+        List<AirlineDocument> shared = service.similaritySearch("miles transferred sold bartered", 5);
+        assertEquals(1, shared.size());
+        assertEquals("delta-skymiles.md,united-mileageplus.md", shared.get(0).getMetadataValue("sources"));
+        // The stored copy is Delta's, but it still counts as United's passage when filtering
+        Filter.Expression united = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("airline"), new Filter.Value("united"));
+        Filter.Expression unitedSource = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("source"), new Filter.Value("united-mileageplus.md"));
+        assertEquals("delta-skymiles.md", shared.get(0).getMetadataValue("source"));
+        assertEquals(List.of(shared.get(0).getContent()), service.retrieve("miles transferred sold bartered", 5, united)
+            .documents().stream().map(AirlineDocument::getContent).toList());
+        assertEquals(List.of(shared.get(0).getContent()), service.retrieve("miles transferred sold bartered", 5, unitedSource)
+            .documents().stream().map(AirlineDocument::getContent).toList());
+
+        service.removeDocument("delta-skymiles.md");
+
+        List<AirlineDocument> adopted = service.similaritySearch("miles transferred sold bartered", 5);
+        assertEquals(1, adopted.size());
+        assertEquals("united-mileageplus.md", adopted.get(0).getMetadataValue("source"));
+        assertEquals("united-mileageplus.md", adopted.get(0).getMetadataValue("sources"));
+        assertEquals(0, service.deduplicationStats().chunks() - service.deduplicationStats().canonical());
+    }
+
+    @Test
+    void testVectorStoreAdapter_ScopesSearchesWithMetadataFilters(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("delta-skymiles.md"), "# Delta\n\nSkyMiles never expire.");
+        Files.writeString(directory.resolve("united-mileageplus.md"), "# United\n\nMileagePlus miles never expire either.");
+        KnowledgeBaseService service = service(directory);
+        KnowledgeBaseVectorStore vectorStore = new KnowledgeBaseVectorStore(service);
+        Filter.Expression united = new Filter.Expression(Filter.ExpressionType.EQ,
+            new Filter.Key("airline"), new Filter.Value("united"));
+
+        List<Document> results = vectorStore.similaritySearch(
+            SearchRequest.builder().query("never expire").topK(5).filterExpression(united).build());
+
+        assertEquals(List.of("united-mileageplus.md#0"), results.stream().map(Document::getId).toList());
+        assertTrue(results.get(0).getScore() > 0);
+
+        vectorStore.add(List.of(Document.builder().id("club-passes").text("United Club passes never expire.")
+            .metadata(Map.of("airline", "united")).build()));
+        assertEquals(2, vectorStore.similaritySearch(
+            SearchRequest.builder().query("never expire").topK(5).filterExpression(united).build()).size());
+
+        vectorStore.delete(List.of("club-passes"));
+        vectorStore.delete(united);
+        assertEquals(List.of("delta-skymiles.md#0"), vectorStore.similaritySearch(
+            SearchRequest.builder().query("never expire").topK(5).build()).stream().map(Document::getId).toList());
+    }
+
+    private KnowledgeBaseService service(Path directory) {
+        return service(directory, config -> { });
+    }
+
+    /**
+     * Creates a service that loads the knowledge base from a directory, without an index file.
+     */
+    private KnowledgeBaseService service(Path directory, Consumer<KnowledgeBaseConfig> configure) {
+        KnowledgeBaseConfig config = new KnowledgeBaseConfig();
+        config.setDirectory(directory.toString());
+        config.getIndex().setEnabled(false);
+        configure.accept(config);
+        return new KnowledgeBaseService(mockResourceLoader, new SimpleVectorStore(config), config, null);
+    }
+}
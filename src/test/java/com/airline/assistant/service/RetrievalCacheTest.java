@@ -0,0 +1,63 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.RetrievalResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrievalCacheTest {
+
+    private static final RetrievalResult RESULT = RetrievalResult.empty(Map.of());
+
+    @Test
+    void testGet_EvictsLeastRecentlyUsed() {
+        RetrievalCache cache = new RetrievalCache(2, 60_000);
+        cache.put("a", 0, RESULT, () -> "A");
+        cache.put("b", 0, RESULT, () -> "B");
+        assertNotNull(cache.get("a", 0));
+        cache.put("c", 0, RESULT, () -> "C");
+
+        // "b" was used least recently
+        assertNull(cache.get("b", 0));
+        assertEquals("A", cache.get("a", 0).context());
+        assertEquals("C", cache.get("c", 0).context());
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(3, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    void testGet_InvalidatesEntriesOfEarlierEpochs() {
+        RetrievalCache cache = new RetrievalCache(10, 60_000);
+        cache.put("a", 1, RESULT, () -> "A");
+        cache.put("b", 1, RESULT, () -> "B");
+
+        assertNull(cache.get("a", 2));
+        // An entry for the new epoch drops the remaining stale ones right away
+        cache.put("a", 2, RESULT, () -> "A2");
+        assertEquals(1, cache.stats().size());
+        assertEquals(2, cache.stats().invalidations());
+
+        // A result computed against an older corpus is not stored
+        cache.put("b", 1, RESULT, () -> "B");
+        assertNull(cache.get("b", 2));
+        assertEquals("A2", cache.get("a", 2).context());
+    }
+
+    @Test
+    void testGet_ExpiresEntriesAfterTheirTimeToLive() {
+        AtomicLong now = new AtomicLong();
+        RetrievalCache cache = new RetrievalCache(10, 1_000, now::get);
+        cache.put("a", 0, RESULT, () -> "A");
+
+        now.set(999_000_000L);
+        assertNotNull(cache.get("a", 0));
+        now.set(1_001_000_000L);
+        assertNull(cache.get("a", 0));
+        assertEquals(1, cache.stats().expirations());
+        assertEquals(0.5, cache.stats().hitRate());
+    }
+}
@@ -0,0 +1,117 @@
+package com.airline.assistant.service;
+
+import com.airline.assistant.rag.AirlineDocument;
+import com.airline.assistant.rag.RetrievalResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScatterGatherRetrieverTest {
+
+    private static final AirlineDocument MQD = document("Medallion Qualifying Dollars (MQD) count towards status.");
+    private static final AirlineDocument PQP = document("Premier Qualifying Points (PQP) are earned on United flights.");
+    private static final AirlineDocument AVIOS = document("Avios can be spent on Reward Flight Saver bookings.");
+    private static final AirlineDocument FLYING_BLUE = document("Flying Blue miles expire after 24 months without activity.");
+
+    @Test
+    void testRetrieve_MergesTheTopKOfAllPartitionsByScore() {
+        Filter.Expression filter = new Filter.Expression(Filter.ExpressionType.EQ, new Filter.Key("airline"), new Filter.Value("delta"));
+        ScatterGatherRetriever retriever = new ScatterGatherRetriever(List.of(
+            peer("peer-1", (query, k, f) -> {
+                assertEquals(3, k);
+                assertSame(filter, f);
+                return ranking(Map.of(PQP, 0.9, AVIOS, 0.2));
+            }),
+            peer("peer-2", (query, k, f) -> ranking(Map.of(FLYING_BLUE, 0.5)))), 1000);
+
+        RetrievalResult result = retriever.retrieve((query, k, f) -> ranking(Map.of(MQD, 0.7)), "miles", 3, filter);
+
+        assertEquals(List.of(PQP, MQD, FLYING_BLUE), result.documents());
+        assertEquals(List.of("search", "merge"), List.copyOf(result.stageNanos().keySet()));
+    }
+
+    @Test
+    void testRetrieve_LeavesOutPartitionsThatMissTheDeadlineOrFail() {
+        ScatterGatherRetriever retriever = new ScatterGatherRetriever(List.of(
+            peer("slow", (query, k, f) -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return ranking(Map.of(AVIOS, 1.0));
+            }),
+            peer("broken", (query, k, f) -> {
+                throw new IllegalStateException("Connection refused");
+            }),
+            peer("fast", (query, k, f) -> ranking(Map.of(PQP, 0.4)))), 200);
+
+        long start = System.nanoTime();
+        RetrievalResult result = retriever.retrieve((query, k, f) -> ranking(Map.of(MQD, 0.7)), "miles", 3, null);
+
+        assertEquals(List.of(MQD, PQP), result.documents());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    @Test
+    void testRetrieve_FailsOnlyWhenNoPartitionAnswers() {
+        ScatterGatherRetriever retriever = new ScatterGatherRetriever(List.of(
+            peer("broken", (query, k, f) -> {
+                throw new IllegalStateException("Connection refused");
+            })), 1000);
+
+        // The local partition failing is survivable as long as a peer answers
+        RetrievalResult fromPeer = new ScatterGatherRetriever(List.of(peer("peer", (query, k, f) -> ranking(Map.of(PQP, 0.4)))), 1000)
+            .retrieve((query, k, f) -> {
+                throw new IllegalStateException("Index unavailable");
+            }, "miles", 3, null);
+        assertEquals(List.of(PQP), fromPeer.documents());
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> retriever.retrieve((query, k, f) -> {
+            throw new IllegalStateException("Index unavailable");
+        }, "miles", 3, null));
+        assertEquals("Index unavailable", failure.getMessage());
+        assertEquals(1, failure.getSuppressed().length);
+    }
+
+    @Test
+    void testFormat_PrintsFiltersInTheTextSyntax() {
+        Filter.Expression filter = new Filter.Expression(Filter.ExpressionType.AND,
+            new Filter.Expression(Filter.ExpressionType.IN, new Filter.Key("airline"), new Filter.Value(List.of("delta", "united"))),
+            new Filter.Expression(Filter.ExpressionType.NOT,
+                new Filter.Group(new Filter.Expression(Filter.ExpressionType.GTE, new Filter.Key("chunk"), new Filter.Value(3)))));
+
+        assertEquals("(airline IN ['delta', 'united'] && NOT ((chunk >= 3)))", PeerShard.format(filter));
+        assertEquals("source == 'o\\'hare.md'", PeerShard.format(
+            new Filter.Expression(Filter.ExpressionType.EQ, new Filter.Key("source"), new Filter.Value("o'hare.md"))));
+    }
+
+    private static ScatterGatherRetriever.Shard peer(String name, ScatterGatherRetriever.Shard search) {
+        return new ScatterGatherRetriever.Shard() {
+            @Override
+            public RetrievalResult search(String query, int k, Filter.Expression filter) {
+                return search.search(query, k, filter);
+            }
+
+            @Override
+            public String name() {
+                return name;
+            }
+        };
+    }
+
+    private static RetrievalResult ranking(Map<AirlineDocument, Double> scores) {
+        return new RetrievalResult(scores.entrySet().stream()
+            .sorted(Map.Entry.<AirlineDocument, Double>comparingByValue().reversed())
+            .map(entry -> new RetrievalResult.ScoredDocument(entry.getKey(), entry.getValue()))
+            .toList(), Map.of());
+    }
+
+    private static AirlineDocument document(String content) {
+        return new AirlineDocument(content, Map.of("source", "test.md"));
+    }
+}